@@ -0,0 +1,116 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.connect.data.Struct;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@code aggregate}, {@code merge} and {@code map} of the reservoir based UDAFs on
+ * reservoirs that have seen {@link #size} values. The list backend is the original reservoir with
+ * its fixed maximum size, the packed backend uses a {@link PackedSamplingReservoirUdaf} with
+ * {@link #size} samples.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public class ReservoirUdafBenchmark {
+
+    private static final int INPUT_LENGTH = 1 << 16;
+
+    @Param({"std_dev", "median", "mode", "skew", "iqr"})
+    public String udafName;
+
+    @Param({"list", "packed"})
+    public String backend;
+
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    @Param({"uniform", "normal", "discrete"})
+    public String distribution;
+
+    private Udaf<Double, Struct, Double> udaf;
+    private Double[] input;
+    private int inputIndex;
+    private Struct aggregate;
+    private Struct other;
+
+    @Setup
+    public void setUp() {
+        udaf = createUdaf();
+        Random random = new Random(42L);
+        input = new Double[INPUT_LENGTH];
+        for (int i = 0; i < INPUT_LENGTH; i++) {
+            input[i] = nextValue(random);
+        }
+        aggregate = fill(random);
+        other = fill(random);
+    }
+
+    private Udaf<Double, Struct, Double> createUdaf() {
+        boolean packed = backend.equals("packed");
+        switch (udafName) {
+            case "std_dev":
+                return packed ? StdDevUdaf.createPackedUdaf(size) : StdDevUdaf.createUdaf();
+            case "median":
+                return packed ? MedianUdaf.createPackedUdaf(size) : MedianUdaf.createUdaf();
+            case "mode":
+                return packed ? ModeUdaf.createPackedUdaf(size) : ModeUdaf.createUdaf();
+            case "skew":
+                return packed ? SkewnessUdaf.createPackedUdaf(size) : SkewnessUdaf.createUdaf();
+            case "iqr":
+                return packed ? InterQuartileRangeUdaf.createPackedUdaf(size)
+                        : InterQuartileRangeUdaf.createUdaf();
+            default:
+                throw new IllegalArgumentException("Unknown UDAF " + udafName);
+        }
+    }
+
+    private double nextValue(Random random) {
+        switch (distribution) {
+            case "uniform":
+                return random.nextDouble() * 100.0;
+            case "normal":
+                return 60.0 + 10.0 * random.nextGaussian();
+            case "discrete":
+                return random.nextInt(10);
+            default:
+                throw new IllegalArgumentException("Unknown distribution " + distribution);
+        }
+    }
+
+    private Struct fill(Random random) {
+        Struct result = udaf.initialize();
+        for (int i = 0; i < size; i++) {
+            result = udaf.aggregate(nextValue(random), result);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Struct aggregate() {
+        aggregate = udaf.aggregate(input[inputIndex], aggregate);
+        inputIndex = (inputIndex + 1) & (INPUT_LENGTH - 1);
+        return aggregate;
+    }
+
+    @Benchmark
+    public Struct merge() {
+        return udaf.merge(aggregate, other);
+    }
+
+    @Benchmark
+    public Double map() {
+        return udaf.map(aggregate);
+    }
+}
@@ -0,0 +1,83 @@
+package org.radarbase.ksql.udf;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Measures the throughput of {@code api_inference} against a local mock server that answers
+ * every request after a fixed delay.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RestInferenceUdfBenchmark {
+
+    private static final String RESULT = "{\"prediction\": 1.0}";
+
+    @Param({"0", "60000"})
+    public long cacheTtlMs;
+
+    @Param({"100"})
+    public int users;
+
+    @Param({"5"})
+    public long serverDelayMs;
+
+    private MockWebServer server;
+    private RestInferenceUdf udf;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                        .setBody(RESULT)
+                        .setHeadersDelay(serverDelayMs, TimeUnit.MILLISECONDS);
+            }
+        });
+        server.start();
+
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(RestInferenceUdf.BASE_URL_CONFIG, server.url("/").toString());
+        configs.put(RestInferenceUdf.CACHE_TTL_MS_CONFIG, cacheTtlMs);
+        configs.put(RestInferenceUdf.HTTP_CONFIG_PREFIX + "max.requests.per.host", 64);
+        udf = new RestInferenceUdf();
+        udf.configure(configs);
+        // the UDF configures log4j at debug level, which would dominate the measurement
+        LogManager.getRootLogger().setLevel(Level.WARN);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String runMetadataInference() {
+        String userId = "user" + ThreadLocalRandom.current().nextInt(users);
+        return udf.runMetadataInference("module", "Loader", "db", "project", userId,
+                "model", "best", "source", 0.0, 1.0, null);
+    }
+}
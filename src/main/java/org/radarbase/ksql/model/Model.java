@@ -0,0 +1,22 @@
+package org.radarbase.ksql.model;
+
+/**
+ * Model that was loaded into memory by a {@link ModelLoader}. A model is immutable and can be
+ * shared between threads. Predictions are made with a {@link ModelSession}, of which each thread
+ * creates its own.
+ */
+public interface Model {
+
+    /** Number of features that the model expects. */
+    int getNumFeatures();
+
+    /** Number of outputs of a prediction. */
+    int getNumOutputs();
+
+    /**
+     * Creates a session to make predictions with. Sessions may keep buffers between predictions,
+     * so they should be reused by the thread that created them. Sessions are cached with the
+     * model as weak key, so a session must not reference the model itself.
+     */
+    ModelSession createSession();
+}
@@ -0,0 +1,26 @@
+package org.radarbase.ksql.model;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Loads model artifacts of a specific format. Loaders besides the built-in ones are found with
+ * {@link java.util.ServiceLoader}, so support for another format, for example ONNX, can be added
+ * by placing a jar with a {@code META-INF/services/org.radarbase.ksql.model.ModelLoader} entry
+ * next to this library.
+ */
+public interface ModelLoader {
+
+    /** File extension of the artifacts that this loader reads, without dot, e.g. "pmml". */
+    String getExtension();
+
+    /**
+     * Loads a model artifact.
+     *
+     * @param path path to the artifact
+     * @return loaded model
+     * @throws IOException if the artifact cannot be read
+     * @throws IllegalArgumentException if the artifact is not a supported model.
+     */
+    Model load(Path path) throws IOException;
+}
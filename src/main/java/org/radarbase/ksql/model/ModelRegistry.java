@@ -0,0 +1,134 @@
+package org.radarbase.ksql.model;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+import org.radarbase.ksql.util.ExpiringLruCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Models loaded from local model directories, shared by all function instances. A model
+ * directory contains a directory per model name, with an artifact per version named
+ * {@code <version>.<extension>}, e.g. {@code models/stress/1.0.pmml}. The artifact is read by the
+ * {@link ModelLoader} for its extension: PMML is supported out of the box and other loaders are
+ * found with {@link ServiceLoader}.
+ *
+ * <p>Models are loaded once and kept until the directory is loaded again. Artifacts that are
+ * missing or fail to load are remembered for a minute, so they are not looked up again for
+ * every row, but are picked up when they are added later. Since model names come from the rows,
+ * only a limited number of misses is remembered.
+ */
+public final class ModelRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelRegistry.class);
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9_.-]*");
+    private static final Map<String, ModelLoader> LOADERS = loaders();
+    private static final int MAX_MISSES = 1000;
+    private static final long MISS_TTL_MILLIS = 60_000L;
+    private static final ConcurrentMap<Path, Model> MODELS = new ConcurrentHashMap<>();
+    private static final ExpiringLruCache<Path, Boolean> MISSES =
+            new ExpiringLruCache<>(MAX_MISSES, MISS_TTL_MILLIS);
+
+    private ModelRegistry() {
+
+    }
+
+    private static Map<String, ModelLoader> loaders() {
+        Map<String, ModelLoader> loaders = new HashMap<>();
+        ModelLoader pmml = new PmmlModelLoader();
+        loaders.put(pmml.getExtension(), pmml);
+        for (ModelLoader loader : ServiceLoader.load(ModelLoader.class)) {
+            loaders.put(loader.getExtension(), loader);
+        }
+        return loaders;
+    }
+
+    /**
+     * Loads all model artifacts in a model directory, replacing previously loaded versions.
+     *
+     * @param modelDir model directory
+     * @return number of models loaded
+     */
+    public static int loadAll(Path modelDir) {
+        int count = 0;
+        try (DirectoryStream<Path> names = Files.newDirectoryStream(modelDir, Files::isDirectory)) {
+            for (Path name : names) {
+                try (DirectoryStream<Path> artifacts = Files.newDirectoryStream(name)) {
+                    for (Path artifact : artifacts) {
+                        String fileName = artifact.getFileName().toString();
+                        int dot = fileName.lastIndexOf('.');
+                        if (dot <= 0 || !LOADERS.containsKey(fileName.substring(dot + 1))) {
+                            continue;
+                        }
+                        Path key = name.resolve(fileName.substring(0, dot));
+                        Optional<Model> model = load(artifact);
+                        if (model.isPresent()) {
+                            MODELS.put(key, model.get());
+                            count++;
+                        } else {
+                            MODELS.remove(key);
+                            MISSES.put(key, Boolean.TRUE);
+                        }
+                    }
+                }
+            }
+        } catch (IOException exc) {
+            logger.warn("Failed to list models in {}: {}", modelDir, exc.toString());
+        }
+        logger.info("Loaded {} models from {}", count, modelDir);
+        return count;
+    }
+
+    /**
+     * Model with the given name and version, loading it if needed.
+     *
+     * @param modelDir model directory
+     * @param name model name
+     * @param version model version
+     * @return model, or null if no model artifact exists or it could not be loaded
+     */
+    public static Model getModel(Path modelDir, String name, String version) {
+        if (!NAME_PATTERN.matcher(name).matches() || !NAME_PATTERN.matcher(version).matches()) {
+            logger.warn("Invalid model name {} or version {}", name, version);
+            return null;
+        }
+        Path key = modelDir.resolve(name).resolve(version);
+        Model model = MODELS.get(key);
+        if (model!=null || MISSES.get(key)!=null) return model;
+        // misses are not stored in the map, so that it only grows with the available models
+        model = MODELS.computeIfAbsent(key, k -> {
+            for (String extension : LOADERS.keySet()) {
+                Path artifact = k.resolveSibling(version + "." + extension);
+                if (Files.isRegularFile(artifact)) {
+                    return load(artifact).orElse(null);
+                }
+            }
+            logger.warn("No model artifact for {} version {} in {}", name, version, modelDir);
+            return null;
+        });
+        if (model==null) MISSES.put(key, Boolean.TRUE);
+        return model;
+    }
+
+    private static Optional<Model> load(Path artifact) {
+        String fileName = artifact.getFileName().toString();
+        ModelLoader loader = LOADERS.get(fileName.substring(fileName.lastIndexOf('.') + 1));
+        try {
+            Model model = loader.load(artifact);
+            logger.debug("Loaded model {}", artifact);
+            return Optional.of(model);
+        } catch (IOException | IllegalArgumentException exc) {
+            logger.warn("Failed to load model {}: {}", artifact, exc.getMessage());
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.radarbase.ksql.model;
+
+/**
+ * Makes predictions with a {@link Model}. A session is not thread-safe; each thread should use
+ * its own session.
+ */
+public interface ModelSession {
+
+    /**
+     * Predicts the outputs of the model for the given features.
+     *
+     * @param features features in the order of the model inputs
+     * @return outputs of the model, which may be reused by the next prediction of the session
+     * @throws IllegalArgumentException if the number of features does not match the model.
+     */
+    double[] predict(double[] features);
+}
@@ -0,0 +1,22 @@
+package org.radarbase.ksql.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Loads PMML regression models, see {@link PmmlRegressionModel}. */
+public class PmmlModelLoader implements ModelLoader {
+
+    @Override
+    public String getExtension() {
+        return "pmml";
+    }
+
+    @Override
+    public Model load(Path path) throws IOException {
+        try (InputStream input = Files.newInputStream(path)) {
+            return PmmlRegressionModel.parse(input);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package org.radarbase.ksql.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Linear and logistic regression model read from a PMML {@code RegressionModel}.
+ * <href>https://dmg.org/pmml/v4-4-1/Regression.html</href>
+ *
+ * <p>Features are the active fields of the mining schema, in order. Only numeric predictors are
+ * supported. A regression model has a single output. A classification model outputs the
+ * probability of each target category, in the order of the regression tables, normalized with
+ * the {@code none}, {@code simplemax}, {@code softmax} or {@code logit} method. The output of a
+ * regression model can be transformed with the {@code logit}, {@code softmax} or {@code exp}
+ * method.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public final class PmmlRegressionModel implements Model {
+
+    private final boolean classification;
+    private final Normalization normalization;
+    private final int numFeatures;
+    private final double[] intercepts;
+    private final int[][] featureIndices;
+    private final double[][] exponents;
+    private final double[][] coefficients;
+
+    private PmmlRegressionModel(boolean classification, Normalization normalization,
+            int numFeatures, double[] intercepts, int[][] featureIndices, double[][] exponents,
+            double[][] coefficients) {
+        this.classification = classification;
+        this.normalization = normalization;
+        this.numFeatures = numFeatures;
+        this.intercepts = intercepts;
+        this.featureIndices = featureIndices;
+        this.exponents = exponents;
+        this.coefficients = coefficients;
+    }
+
+    /**
+     * Reads the first regression model in a PMML document.
+     *
+     * @param input PMML document
+     * @return model
+     * @throws IOException if the document cannot be read
+     * @throws IllegalArgumentException if the document has no supported regression model.
+     */
+    public static PmmlRegressionModel parse(InputStream input) throws IOException {
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            // throw on errors instead of printing them
+            builder.setErrorHandler(new DefaultHandler());
+            document = builder.parse(input);
+        } catch (ParserConfigurationException | SAXException exc) {
+            throw new IllegalArgumentException("Invalid PMML document: " + exc.getMessage(), exc);
+        }
+
+        NodeList models = document.getElementsByTagName("RegressionModel");
+        if (models.getLength()==0) {
+            throw new IllegalArgumentException("PMML document has no RegressionModel");
+        }
+        Element model = (Element) models.item(0);
+
+        List<String> features = new ArrayList<>();
+        for (Element field : children(firstChild(model, "MiningSchema"), "MiningField")) {
+            String usage = field.getAttribute("usageType");
+            if (usage.isEmpty() || "active".equals(usage)) {
+                features.add(field.getAttribute("name"));
+            }
+        }
+
+        boolean classification = "classification".equals(model.getAttribute("functionName"));
+        String method = model.getAttribute("normalizationMethod");
+        Normalization normalization;
+        try {
+            normalization = Normalization.valueOf(
+                    method.isEmpty() ? "NONE" : method.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException exc) {
+            throw new IllegalArgumentException("Unsupported normalization method " + method, exc);
+        }
+        if (classification && normalization==Normalization.EXP) {
+            throw new IllegalArgumentException(
+                    "Normalization method exp is only supported for regression");
+        }
+
+        List<Element> tables = children(model, "RegressionTable");
+        if (classification ? tables.size() < 2 : tables.size()!=1) {
+            throw new IllegalArgumentException("Unexpected number of regression tables: "
+                    + tables.size());
+        }
+        int numTables = tables.size();
+        double[] intercepts = new double[numTables];
+        int[][] featureIndices = new int[numTables][];
+        double[][] exponents = new double[numTables][];
+        double[][] coefficients = new double[numTables][];
+        for (int t = 0; t < numTables; t++) {
+            Element table = tables.get(t);
+            for (Node child = table.getFirstChild(); child!=null;
+                    child = child.getNextSibling()) {
+                if (child instanceof Element
+                        && !"NumericPredictor".equals(child.getNodeName())
+                        && !"Extension".equals(child.getNodeName())) {
+                    throw new IllegalArgumentException(
+                            "Unsupported predictor " + child.getNodeName());
+                }
+            }
+            intercepts[t] = parseDouble(table, "intercept", 0.0);
+            List<Element> predictors = children(table, "NumericPredictor");
+            featureIndices[t] = new int[predictors.size()];
+            exponents[t] = new double[predictors.size()];
+            coefficients[t] = new double[predictors.size()];
+            for (int p = 0; p < predictors.size(); p++) {
+                Element predictor = predictors.get(p);
+                String name = predictor.getAttribute("name");
+                featureIndices[t][p] = features.indexOf(name);
+                if (featureIndices[t][p] < 0) {
+                    throw new IllegalArgumentException("Predictor " + name
+                            + " is not an active field of the mining schema");
+                }
+                exponents[t][p] = parseDouble(predictor, "exponent", 1.0);
+                coefficients[t][p] = parseDouble(predictor, "coefficient", Double.NaN);
+            }
+        }
+
+        return new PmmlRegressionModel(classification, normalization, features.size(),
+                intercepts, featureIndices, exponents, coefficients);
+    }
+
+    @Override
+    public int getNumFeatures() {
+        return numFeatures;
+    }
+
+    @Override
+    public int getNumOutputs() {
+        return intercepts.length;
+    }
+
+    public boolean isClassification() {
+        return classification;
+    }
+
+    @Override
+    public ModelSession createSession() {
+        return new Session(this);
+    }
+
+    private static Element firstChild(Element parent, String name) {
+        List<Element> children = children(parent, name);
+        if (children.isEmpty()) {
+            throw new IllegalArgumentException(parent.getNodeName() + " has no " + name);
+        }
+        return children.get(0);
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> children = new ArrayList<>();
+        for (Node child = parent.getFirstChild(); child!=null; child = child.getNextSibling()) {
+            if (child instanceof Element && name.equals(child.getNodeName())) {
+                children.add((Element) child);
+            }
+        }
+        return children;
+    }
+
+    private static double parseDouble(Element element, String attribute, double defaultValue) {
+        String value = element.getAttribute(attribute);
+        if (value.isEmpty()) {
+            if (Double.isNaN(defaultValue)) {
+                throw new IllegalArgumentException(element.getNodeName() + " has no "
+                        + attribute);
+            }
+            return defaultValue;
+        }
+        return Double.parseDouble(value);
+    }
+
+    private enum Normalization {
+        NONE, SIMPLEMAX, SOFTMAX, LOGIT, EXP
+    }
+
+    /**
+     * Session with a reused output buffer. It is static and only references the parameters of
+     * the model, so that a session cached per model does not keep the model itself reachable.
+     */
+    private static class Session implements ModelSession {
+        private final boolean classification;
+        private final Normalization normalization;
+        private final int numFeatures;
+        private final double[] intercepts;
+        private final int[][] featureIndices;
+        private final double[][] exponents;
+        private final double[][] coefficients;
+        private final double[] outputs;
+
+        Session(PmmlRegressionModel model) {
+            classification = model.classification;
+            normalization = model.normalization;
+            numFeatures = model.numFeatures;
+            intercepts = model.intercepts;
+            featureIndices = model.featureIndices;
+            exponents = model.exponents;
+            coefficients = model.coefficients;
+            outputs = new double[intercepts.length];
+        }
+
+        @Override
+        public double[] predict(double[] features) {
+            if (features.length!=numFeatures) {
+                throw new IllegalArgumentException("Expected " + numFeatures
+                        + " features but got " + features.length);
+            }
+            for (int t = 0; t < outputs.length; t++) {
+                double y = intercepts[t];
+                for (int p = 0; p < coefficients[t].length; p++) {
+                    double x = features[featureIndices[t][p]];
+                    y += coefficients[t][p]
+                            * (exponents[t][p]==1.0 ? x : Math.pow(x, exponents[t][p]));
+                }
+                outputs[t] = y;
+            }
+            if (classification) {
+                normalizeClasses();
+            } else if (normalization==Normalization.SOFTMAX
+                    || normalization==Normalization.LOGIT) {
+                outputs[0] = 1.0 / (1.0 + Math.exp(-outputs[0]));
+            } else if (normalization==Normalization.EXP) {
+                outputs[0] = Math.exp(outputs[0]);
+            }
+            return outputs;
+        }
+
+        private void normalizeClasses() {
+            int last = outputs.length - 1;
+            double sum = 0.0;
+            switch (normalization) {
+                case SOFTMAX:
+                    double max = Double.NEGATIVE_INFINITY;
+                    for (double y : outputs) {
+                        max = Math.max(max, y);
+                    }
+                    for (int t = 0; t <= last; t++) {
+                        outputs[t] = Math.exp(outputs[t] - max);
+                        sum += outputs[t];
+                    }
+                    for (int t = 0; t <= last; t++) {
+                        outputs[t] /= sum;
+                    }
+                    break;
+                case SIMPLEMAX:
+                    for (double y : outputs) {
+                        sum += y;
+                    }
+                    for (int t = 0; t <= last; t++) {
+                        outputs[t] /= sum;
+                    }
+                    break;
+                case LOGIT:
+                    // the last category gets the remaining probability
+                    for (int t = 0; t < last; t++) {
+                        outputs[t] = 1.0 / (1.0 + Math.exp(-outputs[t]));
+                        sum += outputs[t];
+                    }
+                    outputs[last] = 1.0 - sum;
+                    break;
+                default:
+                    for (int t = 0; t < last; t++) {
+                        sum += outputs[t];
+                    }
+                    outputs[last] = 1.0 - sum;
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.radarbase.ksql.signal;
+
+/**
+ * Plan of an in-place radix-2 fast Fourier transform of a fixed power-of-two size. The twiddle
+ * factors and bit-reversal permutation are computed once per plan, so that transforms do not
+ * allocate or evaluate trigonometric functions. Plans are immutable and can be shared between
+ * threads.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public final class Fft {
+
+    private final int size;
+    private final int[] reversed;
+    private final double[] cos;
+    private final double[] sin;
+
+    /**
+     * Creates a plan.
+     *
+     * @param size number of points, a power of two
+     */
+    public Fft(int size) {
+        if (size <= 0 || (size & (size - 1))!=0) {
+            throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+        }
+        this.size = size;
+        this.reversed = new int[size];
+        int bits = Integer.numberOfTrailingZeros(size);
+        for (int i = 0; i < size; i++) {
+            reversed[i] = bits==0 ? 0 : Integer.reverse(i) >>> (Integer.SIZE - bits);
+        }
+        this.cos = new double[size / 2];
+        this.sin = new double[size / 2];
+        for (int i = 0; i < size / 2; i++) {
+            double angle = -2.0 * Math.PI * i / size;
+            cos[i] = Math.cos(angle);
+            sin[i] = Math.sin(angle);
+        }
+    }
+
+    /** Smallest power of two that is at least {@code n}. */
+    public static int nextPowerOfTwo(int n) {
+        if (n <= 1) return 1;
+        int power = Integer.highestOneBit(n - 1) << 1;
+        if (power <= 0) throw new IllegalArgumentException("FFT size too large: " + n);
+        return power;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Computes the discrete Fourier transform in place.
+     *
+     * @param re real parts, at least {@link #getSize()} long
+     * @param im imaginary parts, at least {@link #getSize()} long
+     */
+    public void transform(double[] re, double[] im) {
+        for (int i = 0; i < size; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                double tmp = re[i];
+                re[i] = re[j];
+                re[j] = tmp;
+                tmp = im[i];
+                im[i] = im[j];
+                im[j] = tmp;
+            }
+        }
+        for (int half = 1; half < size; half <<= 1) {
+            int step = size / (half << 1);
+            for (int start = 0; start < size; start += half << 1) {
+                for (int k = 0; k < half; k++) {
+                    double wr = cos[k * step];
+                    double wi = sin[k * step];
+                    int even = start + k;
+                    int odd = even + half;
+                    double tr = wr * re[odd] - wi * im[odd];
+                    double ti = wr * im[odd] + wi * re[odd];
+                    re[odd] = re[even] - tr;
+                    im[odd] = im[even] - ti;
+                    re[even] += tr;
+                    im[even] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.radarbase.ksql.signal;
+
+import java.util.List;
+
+/**
+ * Computes the power spectral density of a window of samples and features derived from it.
+ * An analyzer keeps FFT plans per size, the window function of the last window length and
+ * scratch buffers, so that repeated analyses of windows of similar size do not allocate. It is
+ * not thread-safe; use one analyzer per thread.
+ *
+ * <p>The mean of the window is removed and a Hann window is applied before the window is
+ * zero-padded to the next power of two. The one-sided spectrum is scaled so that the power of
+ * a band is the variance of the signal in that band, e.g. {@code A^2 / 2} for a sine wave of
+ * amplitude {@code A}.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public final class SpectralAnalyzer {
+
+    private final Fft[] plans = new Fft[Integer.SIZE];
+    private double[] re = new double[0];
+    private double[] im = new double[0];
+    private double[] power = new double[0];
+    private double[] window = new double[0];
+    private double windowPower;
+    private int numBins;
+    private double binWidth;
+
+    /**
+     * Computes the spectrum of a window, replacing the previous spectrum. Null samples are
+     * replaced by the mean of the window.
+     *
+     * @param samples samples of the window, at least two
+     * @param sampleRate sampling rate in Hz
+     * @return whether the spectrum could be computed
+     */
+    public boolean analyze(List<Double> samples, double sampleRate) {
+        int length = samples.size();
+        if (length < 2 || !(sampleRate > 0.0) || Double.isInfinite(sampleRate)) return false;
+
+        int size = Fft.nextPowerOfTwo(length);
+        ensureCapacity(size);
+        updateWindow(length);
+
+        double sum = 0.0;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            Double sample = samples.get(i);
+            if (sample!=null) {
+                sum += sample;
+                count++;
+            }
+        }
+        if (count==0) return false;
+        double mean = sum / count;
+        for (int i = 0; i < length; i++) {
+            Double sample = samples.get(i);
+            re[i] = sample==null ? 0.0 : (sample - mean) * window[i];
+        }
+        for (int i = length; i < size; i++) {
+            re[i] = 0.0;
+        }
+        for (int i = 0; i < size; i++) {
+            im[i] = 0.0;
+        }
+
+        plan(size).transform(re, im);
+
+        numBins = size / 2 + 1;
+        binWidth = sampleRate / size;
+        double scale = 1.0 / (sampleRate * windowPower);
+        for (int k = 0; k < numBins; k++) {
+            double value = (re[k] * re[k] + im[k] * im[k]) * scale;
+            // fold the negative frequencies onto the positive ones
+            power[k] = k==0 || 2 * k==size ? value : 2.0 * value;
+        }
+        return true;
+    }
+
+    private void ensureCapacity(int size) {
+        if (re.length < size) {
+            re = new double[size];
+            im = new double[size];
+            power = new double[size / 2 + 1];
+        }
+    }
+
+    private void updateWindow(int length) {
+        if (window.length==length) return;
+        window = new double[length];
+        windowPower = 0.0;
+        for (int i = 0; i < length; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / (length - 1));
+            windowPower += window[i] * window[i];
+        }
+    }
+
+    private Fft plan(int size) {
+        int log = Integer.numberOfTrailingZeros(size);
+        Fft plan = plans[log];
+        if (plan==null) {
+            plan = new Fft(size);
+            plans[log] = plan;
+        }
+        return plan;
+    }
+
+    /** Number of frequency bins of the spectrum, from 0 Hz to the Nyquist frequency. */
+    public int getNumBins() {
+        return numBins;
+    }
+
+    /** Frequency in Hz of a bin. */
+    public double frequency(int bin) {
+        return bin * binWidth;
+    }
+
+    /** Power spectral density of a bin. */
+    public double density(int bin) {
+        return power[bin];
+    }
+
+    /** Variance of the signal in the frequency band {@code [low, high)} in Hz. */
+    public double bandPower(double low, double high) {
+        int from = Math.max((int) Math.ceil(low / binWidth), 0);
+        double sum = 0.0;
+        for (int k = from; k < numBins && k * binWidth < high; k++) {
+            sum += power[k];
+        }
+        return sum * binWidth;
+    }
+
+    /** Variance of the signal over all frequencies. */
+    public double totalPower() {
+        return bandPower(0.0, Double.POSITIVE_INFINITY);
+    }
+
+    /** Frequency in Hz with the highest power, excluding 0 Hz. */
+    public double dominantFrequency() {
+        int best = 1;
+        for (int k = 2; k < numBins; k++) {
+            if (power[k] > power[best]) best = k;
+        }
+        return frequency(best);
+    }
+
+    /**
+     * Shannon entropy of the normalized spectrum excluding 0 Hz, divided by its maximum, so that
+     * it is 1 for white noise and close to 0 for a pure tone.
+     *
+     * @return normalized entropy between 0 and 1, or NaN if the signal is constant
+     */
+    public double spectralEntropy() {
+        double total = 0.0;
+        for (int k = 1; k < numBins; k++) {
+            total += power[k];
+        }
+        if (!(total > 0.0)) return Double.NaN;
+        double entropy = 0.0;
+        for (int k = 1; k < numBins; k++) {
+            if (power[k] > 0.0) {
+                double p = power[k] / total;
+                entropy -= p * Math.log(p);
+            }
+        }
+        int bins = numBins - 1;
+        return bins > 1 ? entropy / Math.log(bins) : 0.0;
+    }
+}
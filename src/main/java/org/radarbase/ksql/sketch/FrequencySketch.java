@@ -0,0 +1,294 @@
+package org.radarbase.ksql.sketch;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Mergeable frequency table of double values with a bounded number of counters, using the
+ * Misra-Gries algorithm.
+ * <href>https://doi.org/10.1016/0167-6423(82)90012-0</href>
+ *
+ * <p>As long as at most {@code capacity} distinct values were added, the table holds the exact
+ * frequency of every value. When a new value arrives while all counters are taken, all counters
+ * are decremented instead and counters that reach zero are removed. Each decrement lowers the
+ * frequency estimate of a value by at most one, so an estimate is at most
+ * {@link #getMaxError()} below the true frequency, which is bounded by
+ * {@code count / (capacity + 1)}. Any value that occurs more often than that is guaranteed to be
+ * in the table. Two tables are merged by adding their counters and subtracting the
+ * {@code (capacity + 1)}-th largest counter from all counters, which keeps the same bound.
+ * <href>https://arxiv.org/abs/1202.5813</href>
+ *
+ * <p>Instances are views on the serialized table, laid out as
+ * <pre>
+ *   version (1 byte) | capacity (4 bytes) | count (8 bytes) | max error (8 bytes)
+ *       | (value (8 bytes) | frequency (8 bytes))*
+ * </pre>
+ * with entries in ascending order of value. Incrementing the frequency of a value that is already
+ * in the table takes a binary search and is done in place.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public final class FrequencySketch {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    private static final byte SERIAL_VERSION = 1;
+    private static final int HEADER_LENGTH = 1 + 4 + 8 + 8;
+    private static final int COUNT_OFFSET = 5;
+    private static final int ERROR_OFFSET = 13;
+    private static final int ENTRY_LENGTH = 16;
+
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+
+    private FrequencySketch(byte[] bytes) {
+        this.bytes = bytes;
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Reads a serialized table.
+     *
+     * @param bytes serialized table
+     * @return view on the table
+     * @throws IllegalArgumentException if the bytes are not a supported table.
+     */
+    public static FrequencySketch wrap(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH || bytes[0]!=SERIAL_VERSION
+                || (bytes.length - HEADER_LENGTH) % ENTRY_LENGTH!=0) {
+            throw new IllegalArgumentException("Unsupported frequency sketch format");
+        }
+        return new FrequencySketch(bytes);
+    }
+
+    /**
+     * Serializes an empty table.
+     *
+     * @param capacity maximum number of counters
+     * @return serialized table
+     */
+    public static byte[] empty(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        return encode(capacity, 0L, 0L, new double[0], new long[0], 0);
+    }
+
+    private static byte[] encode(int capacity, long count, long maxError, double[] values,
+            long[] frequencies, int size) {
+        ByteBuffer result = ByteBuffer.allocate(HEADER_LENGTH + size * ENTRY_LENGTH);
+        result.put(SERIAL_VERSION)
+                .putInt(capacity)
+                .putLong(count)
+                .putLong(maxError);
+        for (int i = 0; i < size; i++) {
+            result.putDouble(values[i]).putLong(frequencies[i]);
+        }
+        return result.array();
+    }
+
+    public int getCapacity() {
+        return buffer.getInt(1);
+    }
+
+    /** Number of values added to the table. */
+    public long getCount() {
+        return buffer.getLong(COUNT_OFFSET);
+    }
+
+    /** Maximum amount by which frequency estimates may be too low, zero if exact. */
+    public long getMaxError() {
+        return buffer.getLong(ERROR_OFFSET);
+    }
+
+    /** Whether the table holds the exact frequency of every value added. */
+    public boolean isExact() {
+        return getMaxError()==0L;
+    }
+
+    /** Number of values in the table. */
+    public int size() {
+        return (bytes.length - HEADER_LENGTH) / ENTRY_LENGTH;
+    }
+
+    public boolean isEmpty() {
+        return size()==0;
+    }
+
+    private double valueAt(int index) {
+        return buffer.getDouble(HEADER_LENGTH + index * ENTRY_LENGTH);
+    }
+
+    private long frequencyAt(int index) {
+        return buffer.getLong(HEADER_LENGTH + index * ENTRY_LENGTH + 8);
+    }
+
+    /** Index of the value, or {@code -(insertion point) - 1} if not in the table. */
+    private int indexOf(double value) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = Double.compare(valueAt(mid), value);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Estimated frequency of a value.
+     *
+     * @param value value to look up
+     * @return frequency, which is exact if {@link #isExact()}
+     */
+    public long estimate(double value) {
+        int index = indexOf(normalize(value));
+        return index >= 0 ? frequencyAt(index) : 0L;
+    }
+
+    /**
+     * The value with the highest frequency in the table. If multiple values share the highest
+     * frequency, the smallest one is returned, like
+     * {@link org.apache.commons.math3.stat.StatUtils#mode(double[])}.
+     *
+     * @return most frequent value, or NaN if the table is empty
+     */
+    public double mode() {
+        int size = size();
+        double mode = Double.NaN;
+        long modeFrequency = 0L;
+        for (int i = 0; i < size; i++) {
+            long frequency = frequencyAt(i);
+            if (frequency > modeFrequency) {
+                mode = valueAt(i);
+                modeFrequency = frequency;
+            }
+        }
+        return mode;
+    }
+
+    /**
+     * Adds a value to the table.
+     *
+     * @param value value to add
+     * @return serialized table, which is the same array if the value was already in the table
+     */
+    public byte[] update(double value) {
+        double normalized = normalize(value);
+        long count = getCount() + 1;
+        int index = indexOf(normalized);
+        if (index >= 0) {
+            int offset = HEADER_LENGTH + index * ENTRY_LENGTH + 8;
+            buffer.putLong(offset, buffer.getLong(offset) + 1);
+            buffer.putLong(COUNT_OFFSET, count);
+            return bytes;
+        }
+
+        int size = size();
+        int capacity = getCapacity();
+        if (size < capacity) {
+            int insertAt = -index - 1;
+            byte[] result = new byte[bytes.length + ENTRY_LENGTH];
+            int insertOffset = HEADER_LENGTH + insertAt * ENTRY_LENGTH;
+            System.arraycopy(bytes, 0, result, 0, insertOffset);
+            System.arraycopy(bytes, insertOffset, result, insertOffset + ENTRY_LENGTH,
+                    bytes.length - insertOffset);
+            ByteBuffer.wrap(result)
+                    .putLong(COUNT_OFFSET, count)
+                    .putDouble(insertOffset, normalized)
+                    .putLong(insertOffset + 8, 1L);
+            return result;
+        }
+
+        // all counters are taken: the new value and every counter are decremented by one
+        double[] values = new double[size];
+        long[] frequencies = new long[size];
+        int retained = 0;
+        for (int i = 0; i < size; i++) {
+            long frequency = frequencyAt(i) - 1;
+            if (frequency > 0) {
+                values[retained] = valueAt(i);
+                frequencies[retained] = frequency;
+                retained++;
+            }
+        }
+        return encode(capacity, count, getMaxError() + 1, values, frequencies, retained);
+    }
+
+    /**
+     * Merges two tables without modifying them.
+     *
+     * @param one first table
+     * @param other second table
+     * @param capacity maximum number of counters of the merged table
+     * @return serialized merged table
+     */
+    public static byte[] merge(FrequencySketch one, FrequencySketch other, int capacity) {
+        int size1 = one.size();
+        int size2 = other.size();
+        double[] values = new double[size1 + size2];
+        long[] frequencies = new long[size1 + size2];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size1 || j < size2) {
+            int cmp;
+            if (i==size1) {
+                cmp = 1;
+            } else if (j==size2) {
+                cmp = -1;
+            } else {
+                cmp = Double.compare(one.valueAt(i), other.valueAt(j));
+            }
+            if (cmp <= 0) {
+                values[size] = one.valueAt(i);
+                frequencies[size] = one.frequencyAt(i);
+                i++;
+                if (cmp==0) {
+                    frequencies[size] += other.frequencyAt(j);
+                    j++;
+                }
+            } else {
+                values[size] = other.valueAt(j);
+                frequencies[size] = other.frequencyAt(j);
+                j++;
+            }
+            size++;
+        }
+
+        long maxError = one.getMaxError() + other.getMaxError();
+        if (size > capacity) {
+            long[] sorted = Arrays.copyOf(frequencies, size);
+            Arrays.sort(sorted);
+            long threshold = sorted[size - capacity - 1];
+            int retained = 0;
+            for (int k = 0; k < size; k++) {
+                long frequency = frequencies[k] - threshold;
+                if (frequency > 0) {
+                    values[retained] = values[k];
+                    frequencies[retained] = frequency;
+                    retained++;
+                }
+            }
+            size = retained;
+            maxError += threshold;
+        }
+        return encode(capacity, one.getCount() + other.getCount(), maxError,
+                values, frequencies, size);
+    }
+
+    /** Maps negative zero to zero, so that they are counted as the same value. */
+    private static double normalize(double value) {
+        return value + 0.0;
+    }
+
+    @Override
+    public String toString() {
+        return "FrequencySketch{capacity=" + getCapacity() + ", count=" + getCount()
+                + ", maxError=" + getMaxError() + ", size=" + size() + '}';
+    }
+}
@@ -0,0 +1,441 @@
+package org.radarbase.ksql.sketch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Mergeable distinct count sketch using HyperLogLog++ by Heule, Nunkesser and Hall.
+ * <href>https://research.google/pubs/pub40671/</href>
+ *
+ * <p>Each value is hashed to 64 bits. The first {@code p} bits select one of {@code m = 2^p}
+ * registers, which keeps the maximum position of the first one bit in the remaining bits. Two
+ * sketches with the same precision are merged by taking the maximum of each register. The
+ * relative standard error of the estimate is {@link #relativeError(int)}, about 0.8% for the
+ * default precision of 14.
+ *
+ * <p>At low cardinality, the sketch is sparse: it stores a sorted list of the registers that
+ * are set, with a precision of {@value #SPARSE_PRECISION} bits, and estimates the count by
+ * linear counting, which is nearly exact. Once the list would take as much space as the dense
+ * registers, it is converted to {@code m} registers of one byte each, so that the size of the
+ * sketch is bounded by {@code m} bytes. Instead of the empirical bias correction of HLL++, the
+ * dense estimate uses the improved estimator by Ertl, which needs no correction tables and is
+ * unbiased over the whole range of cardinalities.
+ * <href>https://arxiv.org/abs/1702.01284</href>
+ *
+ * <p>Instances are views on the serialized sketch, laid out as
+ * <pre>
+ *   version (1 byte) | precision (1 byte) | flags (1 byte) | registers
+ * </pre>
+ * where the registers are either {@code m} bytes if the dense flag is set, or sparse entries of
+ * 4 bytes holding the 25-bit register index and the 6-bit register value, in ascending order of
+ * index. Updates of dense registers and of existing sparse entries are done in place.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public final class HyperLogLog {
+
+    public static final int DEFAULT_PRECISION = 14;
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    /** Precision of the register indices of a sparse sketch. */
+    public static final int SPARSE_PRECISION = 25;
+    private static final byte SERIAL_VERSION = 1;
+    private static final int HEADER_LENGTH = 3;
+    private static final byte FLAG_DENSE = 0x01;
+    private static final int ENTRY_LENGTH = 4;
+    private static final int RANK_BITS = 6;
+    private static final int RANK_MASK = (1 << RANK_BITS) - 1;
+    private static final double ALPHA_INF = 0.5 / Math.log(2.0);
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private final int precision;
+    private final boolean dense;
+
+    private HyperLogLog(byte[] bytes, int precision, boolean dense) {
+        this.bytes = bytes;
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.precision = precision;
+        this.dense = dense;
+    }
+
+    /**
+     * Reads a serialized sketch.
+     *
+     * @param bytes serialized sketch
+     * @return view on the sketch
+     * @throws IllegalArgumentException if the bytes are not a supported sketch.
+     */
+    public static HyperLogLog wrap(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH || bytes[0]!=SERIAL_VERSION
+                || bytes[1] < MIN_PRECISION || bytes[1] > MAX_PRECISION) {
+            throw new IllegalArgumentException("Unsupported HyperLogLog format");
+        }
+        int precision = bytes[1];
+        boolean dense = (bytes[2] & FLAG_DENSE)!=0;
+        int length = bytes.length - HEADER_LENGTH;
+        if (dense ? length!=1 << precision : length % ENTRY_LENGTH!=0) {
+            throw new IllegalArgumentException("Truncated HyperLogLog sketch");
+        }
+        return new HyperLogLog(bytes, precision, dense);
+    }
+
+    /**
+     * Serializes an empty sketch.
+     *
+     * @param precision number of bits of the register index
+     * @return serialized sketch
+     */
+    public static byte[] empty(int precision) {
+        checkPrecision(precision);
+        return new byte[] {SERIAL_VERSION, (byte) precision, 0};
+    }
+
+    private static void checkPrecision(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between "
+                    + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        }
+    }
+
+    /**
+     * Relative standard error of the estimate for given precision.
+     *
+     * @param precision number of bits of the register index
+     * @return standard error as a fraction of the number of distinct values
+     */
+    public static double relativeError(int precision) {
+        return 1.04 / Math.sqrt(1 << precision);
+    }
+
+    /**
+     * Smallest precision that achieves the given relative standard error.
+     *
+     * @param relativeError standard error as a fraction of the number of distinct values, e.g.
+     *                      0.01 for 1%
+     * @return precision to create the sketch with
+     */
+    public static int precisionForError(double relativeError) {
+        if (!(relativeError > 0.0 && relativeError < 1.0)) {
+            throw new IllegalArgumentException(
+                    "Relative error must be between 0 and 1: " + relativeError);
+        }
+        int precision = (int) Math.ceil(2.0 * Math.log(1.04 / relativeError) / Math.log(2.0));
+        int result = Math.max(precision, MIN_PRECISION);
+        checkPrecision(result);
+        return result;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public boolean isSparse() {
+        return !dense;
+    }
+
+    /** Number of bytes of the serialized sketch. */
+    public int sizeInBytes() {
+        return bytes.length;
+    }
+
+    private int numEntries() {
+        return (bytes.length - HEADER_LENGTH) / ENTRY_LENGTH;
+    }
+
+    private int entryAt(int index) {
+        return buffer.getInt(HEADER_LENGTH + index * ENTRY_LENGTH);
+    }
+
+    /**
+     * Adds a hashed value to the sketch.
+     *
+     * @param hash 64-bit hash of the value, see {@link #hash(long)} and
+     *             {@link #hash(CharSequence)}
+     * @return serialized sketch, which is the same array unless a sparse entry was added
+     */
+    public byte[] add(long hash) {
+        if (dense) {
+            int index = (int) (hash >>> (Long.SIZE - precision));
+            byte rank = rank(hash, precision);
+            if (rank > bytes[HEADER_LENGTH + index]) bytes[HEADER_LENGTH + index] = rank;
+            return bytes;
+        }
+
+        int entry = ((int) (hash >>> (Long.SIZE - SPARSE_PRECISION)) << RANK_BITS)
+                | rank(hash, SPARSE_PRECISION);
+        int position = indexOf(entry >>> RANK_BITS);
+        if (position >= 0) {
+            int offset = HEADER_LENGTH + position * ENTRY_LENGTH;
+            if (entry > buffer.getInt(offset)) buffer.putInt(offset, entry);
+            return bytes;
+        }
+
+        if ((numEntries() + 1) * ENTRY_LENGTH >= 1 << precision) {
+            byte[] result = toDense();
+            addSparseEntry(result, precision, entry);
+            return result;
+        }
+        int insertOffset = HEADER_LENGTH + (-position - 1) * ENTRY_LENGTH;
+        byte[] result = new byte[bytes.length + ENTRY_LENGTH];
+        System.arraycopy(bytes, 0, result, 0, insertOffset);
+        System.arraycopy(bytes, insertOffset, result, insertOffset + ENTRY_LENGTH,
+                bytes.length - insertOffset);
+        ByteBuffer.wrap(result).putInt(insertOffset, entry);
+        return result;
+    }
+
+    /** Position of the first one bit after the index bits, at most {@code 65 - p}. */
+    private static byte rank(long hash, int indexBits) {
+        return (byte) (Math.min(Long.numberOfLeadingZeros(hash << indexBits),
+                Long.SIZE - indexBits) + 1);
+    }
+
+    /** Position of the sparse entry with the index, or {@code -(insertion point) - 1}. */
+    private int indexOf(int sparseIndex) {
+        int low = 0;
+        int high = numEntries() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midIndex = entryAt(mid) >>> RANK_BITS;
+            if (midIndex < sparseIndex) {
+                low = mid + 1;
+            } else if (midIndex > sparseIndex) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /** Serialized dense copy of the sketch. */
+    private byte[] toDense() {
+        byte[] result = new byte[HEADER_LENGTH + (1 << precision)];
+        result[0] = SERIAL_VERSION;
+        result[1] = (byte) precision;
+        result[2] = FLAG_DENSE;
+        if (dense) {
+            System.arraycopy(bytes, HEADER_LENGTH, result, HEADER_LENGTH,
+                    bytes.length - HEADER_LENGTH);
+        } else {
+            int size = numEntries();
+            for (int i = 0; i < size; i++) {
+                addSparseEntry(result, precision, entryAt(i));
+            }
+        }
+        return result;
+    }
+
+    /** Adds a sparse entry to dense registers of lower precision. */
+    private static void addSparseEntry(byte[] registers, int precision, int entry) {
+        int sparseIndex = entry >>> RANK_BITS;
+        int extraBits = SPARSE_PRECISION - precision;
+        int index = sparseIndex >>> extraBits;
+        int extra = sparseIndex & ((1 << extraBits) - 1);
+        int rank;
+        if (extra==0) {
+            rank = extraBits + (entry & RANK_MASK);
+        } else {
+            rank = Integer.numberOfLeadingZeros(extra) - (Integer.SIZE - extraBits) + 1;
+        }
+        if (rank > registers[HEADER_LENGTH + index]) {
+            registers[HEADER_LENGTH + index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Merges two sketches with the same precision into a new sketch. Neither input is modified.
+     *
+     * @param one first sketch
+     * @param two second sketch
+     * @return serialized merged sketch
+     */
+    public static byte[] merge(HyperLogLog one, HyperLogLog two) {
+        if (one.precision!=two.precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog sketches of precision "
+                    + one.precision + " and " + two.precision);
+        }
+        if (!one.dense && !two.dense) {
+            byte[] merged = mergeSparse(one, two);
+            if (merged.length - HEADER_LENGTH < 1 << one.precision) return merged;
+            return wrap(merged).toDense();
+        }
+
+        HyperLogLog denseOne = one.dense ? one : two;
+        HyperLogLog other = one.dense ? two : one;
+        byte[] result = denseOne.toDense();
+        if (other.dense) {
+            for (int i = HEADER_LENGTH; i < result.length; i++) {
+                if (other.bytes[i] > result[i]) result[i] = other.bytes[i];
+            }
+        } else {
+            int size = other.numEntries();
+            for (int i = 0; i < size; i++) {
+                addSparseEntry(result, other.precision, other.entryAt(i));
+            }
+        }
+        return result;
+    }
+
+    private static byte[] mergeSparse(HyperLogLog one, HyperLogLog two) {
+        int size1 = one.numEntries();
+        int size2 = two.numEntries();
+        ByteBuffer result = ByteBuffer.allocate(HEADER_LENGTH + (size1 + size2) * ENTRY_LENGTH);
+        result.put(one.bytes, 0, HEADER_LENGTH);
+        int i = 0;
+        int j = 0;
+        while (i < size1 && j < size2) {
+            int entry1 = one.entryAt(i);
+            int entry2 = two.entryAt(j);
+            int index1 = entry1 >>> RANK_BITS;
+            int index2 = entry2 >>> RANK_BITS;
+            if (index1 < index2) {
+                result.putInt(entry1);
+                i++;
+            } else if (index2 < index1) {
+                result.putInt(entry2);
+                j++;
+            } else {
+                result.putInt(Math.max(entry1, entry2));
+                i++;
+                j++;
+            }
+        }
+        result.put(one.bytes, HEADER_LENGTH + i * ENTRY_LENGTH, (size1 - i) * ENTRY_LENGTH);
+        result.put(two.bytes, HEADER_LENGTH + j * ENTRY_LENGTH, (size2 - j) * ENTRY_LENGTH);
+        byte[] merged = new byte[result.position()];
+        System.arraycopy(result.array(), 0, merged, 0, merged.length);
+        return merged;
+    }
+
+    /**
+     * Estimated number of distinct values added to the sketch.
+     *
+     * @return estimate, or zero if the sketch is empty
+     */
+    public long estimate() {
+        if (!dense) {
+            double m = 1 << SPARSE_PRECISION;
+            return Math.round(m * Math.log(m / (m - numEntries())));
+        }
+
+        int q = Long.SIZE - precision;
+        int[] histogram = new int[q + 2];
+        for (int i = HEADER_LENGTH; i < bytes.length; i++) {
+            histogram[bytes[i]]++;
+        }
+        double m = 1 << precision;
+        double z = m * tau(1.0 - histogram[q + 1] / m);
+        for (int k = q; k >= 1; k--) {
+            z += histogram[k];
+            z *= 0.5;
+        }
+        z += m * sigma(histogram[0] / m);
+        return Math.round(ALPHA_INF * m * m / z);
+    }
+
+    private static double sigma(double x) {
+        if (x==1.0) return Double.POSITIVE_INFINITY;
+        double value = x;
+        double y = 1.0;
+        double z = x;
+        double previous;
+        do {
+            value *= value;
+            previous = z;
+            z += value * y;
+            y += y;
+        } while (z!=previous);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x==0.0 || x==1.0) return 0.0;
+        double value = x;
+        double y = 1.0;
+        double z = 1.0 - x;
+        double previous;
+        do {
+            value = Math.sqrt(value);
+            previous = z;
+            y *= 0.5;
+            z -= (1.0 - value) * (1.0 - value) * y;
+        } while (z!=previous);
+        return z / 3.0;
+    }
+
+    /** 64-bit hash of an integer value. */
+    public static long hash(long value) {
+        return fmix64(value + 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * 64-bit hash of a string: the first half of MurmurHash3 x64 128 of its UTF-16 code units,
+     * read without copying the string to bytes.
+     *
+     * @param value string to hash
+     * @return hash
+     */
+    public static long hash(CharSequence value) {
+        int length = value.length();
+        long h1 = 0L;
+        long h2 = 0L;
+        int blockEnd = length - length % 8;
+        for (int i = 0; i < blockEnd; i += 8) {
+            long k1 = chars(value, i, 4);
+            long k2 = chars(value, i + 4, 4);
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        int remaining = length - blockEnd;
+        if (remaining > 4) h2 ^= mixK2(chars(value, blockEnd + 4, remaining - 4));
+        if (remaining > 0) h1 ^= mixK1(chars(value, blockEnd, Math.min(remaining, 4)));
+
+        long byteLength = 2L * length;
+        h1 ^= byteLength;
+        h2 ^= byteLength;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        return h1 + h2;
+    }
+
+    /** Little-endian block of up to four chars. */
+    private static long chars(CharSequence value, int offset, int count) {
+        long block = 0L;
+        for (int i = 0; i < count; i++) {
+            block |= (long) value.charAt(offset + i) << (16 * i);
+        }
+        return block;
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix64(long value) {
+        long k = value;
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    @Override
+    public String toString() {
+        return "HyperLogLog{precision=" + precision + ", sparse=" + !dense
+                + ", estimate=" + estimate() + '}';
+    }
+}
@@ -0,0 +1,414 @@
+package org.radarbase.ksql.sketch;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Mergeable quantile sketch using the KLL algorithm by Karnin, Lang and Liberty.
+ * <href>https://arxiv.org/abs/1603.05346</href>
+ *
+ * <p>Values are kept in a hierarchy of compactors where an item at level {@code h} represents
+ * {@code 2^h} values of the stream. When a level is full, it is sorted and every other item is
+ * promoted to the next level. The top level holds {@code k} items and the capacity of lower levels
+ * decreases geometrically, so the sketch retains about {@code 3k} values regardless of the number
+ * of values added.
+ *
+ * <p>The normalized rank error of a quantile returned by the sketch is at most
+ * {@link #normalizedRankError(int)} with 99% confidence, which is about 1.3% for the default
+ * {@code k} of 200. As long as no compaction happened the quantiles are computed exactly.
+ *
+ * <p>The serialized sketch is laid out as
+ * <pre>
+ *   version (1 byte) | k (4 bytes) | count (8 bytes) | min (8 bytes) | max (8 bytes)
+ *       | levels (4 bytes) | level 0 slots (4 bytes) | level size (4 bytes)*
+ *       | level 0 slots (8 bytes each) | items of higher levels (8 bytes each)
+ * </pre>
+ * Level 0 has room for all values that can be added before the next compaction, so
+ * {@link #update(byte[], double)} writes a value in place and only decodes and re-encodes the
+ * sketch when it compacts.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public class KllSketch {
+
+    public static final int DEFAULT_K = 200;
+    public static final int MIN_K = 8;
+    public static final int MAX_K = 65_535;
+    private static final byte SERIAL_VERSION = 1;
+    private static final int COUNT_OFFSET = 5;
+    private static final int MIN_OFFSET = 13;
+    private static final int MAX_OFFSET = 21;
+    private static final int LEVELS_OFFSET = 29;
+    private static final int SLOTS_OFFSET = 33;
+    private static final int HEADER_LENGTH = 37;
+    private static final int MIN_LEVEL_CAPACITY = 8;
+    private static final double CAPACITY_DECAY = 2.0 / 3.0;
+
+    private final int k;
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    private double[][] levels;
+    private int[] levelSizes;
+    private int numLevels;
+
+    public KllSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param k accuracy parameter, the larger the more accurate and the larger the sketch
+     */
+    public KllSketch(int k) {
+        if (k < MIN_K || k > MAX_K) {
+            throw new IllegalArgumentException(
+                    "KLL parameter k must be between " + MIN_K + " and " + MAX_K + ": " + k);
+        }
+        this.k = k;
+        this.numLevels = 1;
+        this.levels = new double[][]{new double[MIN_LEVEL_CAPACITY]};
+        this.levelSizes = new int[1];
+    }
+
+    /**
+     * Normalized rank error of the quantiles with 99% confidence for given {@code k}. This is the
+     * empirical bound reported for KLL sketches by the Apache DataSketches project.
+     *
+     * @param k accuracy parameter
+     * @return rank error as a fraction of the number of values
+     */
+    public static double normalizedRankError(int k) {
+        return 2.296 / Math.pow(k, 0.9723);
+    }
+
+    /**
+     * Smallest {@code k} that achieves the given normalized rank error.
+     *
+     * @param rankError rank error as a fraction of the number of values, e.g. 0.01 for 1%
+     * @return accuracy parameter to create the sketch with
+     */
+    public static int kForRankError(double rankError) {
+        if (!(rankError > 0.0 && rankError < 1.0)) {
+            throw new IllegalArgumentException("Rank error must be between 0 and 1: " + rankError);
+        }
+        double k = Math.ceil(Math.pow(2.296 / rankError, 1.0 / 0.9723));
+        return (int) Math.max(MIN_K, Math.min(MAX_K, k));
+    }
+
+    public void update(double value) {
+        if (Double.isNaN(value)) return;
+
+        if (count==0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        count++;
+        append(0, value);
+        compress();
+    }
+
+    /**
+     * Adds a value to a serialized sketch. If the value fits in the free slots of level 0, it is
+     * written in place without decoding the sketch. Otherwise, the sketch is decoded, compacted
+     * and serialized again.
+     *
+     * @param bytes serialized sketch
+     * @param value value to add
+     * @return serialized updated sketch, the same array if it was updated in place
+     * @throws IllegalArgumentException if the bytes are not a serialized sketch.
+     */
+    public static byte[] update(byte[] bytes, double value) {
+        if (Double.isNaN(value)) return bytes;
+        checkVersion(bytes);
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int size = buffer.getInt(HEADER_LENGTH);
+        if (size >= buffer.getInt(SLOTS_OFFSET)) {
+            KllSketch sketch = fromBytes(bytes);
+            sketch.update(value);
+            return sketch.toBytes();
+        }
+
+        long count = buffer.getLong(COUNT_OFFSET);
+        if (count==0 || value < buffer.getDouble(MIN_OFFSET)) {
+            buffer.putDouble(MIN_OFFSET, value);
+        }
+        if (count==0 || value > buffer.getDouble(MAX_OFFSET)) {
+            buffer.putDouble(MAX_OFFSET, value);
+        }
+        int levelsLength = 4 * buffer.getInt(LEVELS_OFFSET);
+        buffer.putLong(COUNT_OFFSET, count + 1)
+                .putInt(HEADER_LENGTH, size + 1)
+                .putDouble(HEADER_LENGTH + levelsLength + 8 * size, value);
+        return bytes;
+    }
+
+    /**
+     * Adds all values represented by the other sketch to this sketch. The other sketch is not
+     * modified.
+     *
+     * @param other sketch to merge into this one
+     */
+    public void merge(KllSketch other) {
+        if (other.count==0) return;
+
+        if (count==0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+
+        for (int h = 0; h < other.numLevels; h++) {
+            for (int i = 0; i < other.levelSizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        compress();
+    }
+
+    /**
+     * Estimates the p-th percentile of the values added to the sketch. While the sketch is exact,
+     * this uses the same estimation as the commons-math {@code Percentile}, so the result is
+     * identical to the reservoir based aggregates for small windows.
+     *
+     * @param p percentile in the range [0, 100]
+     * @return estimated percentile, or NaN if the sketch is empty
+     */
+    public double percentile(double p) {
+        if (p < 0.0 || p > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + p);
+        }
+        if (count==0) return Double.NaN;
+
+        double[] values = new double[retainedItems()];
+        long[] weights = new long[values.length];
+        sortedItems(values, weights);
+
+        // position in the sorted stream, counted from 1, as in commons-math Percentile
+        double pos = p * (count + 1) / 100.0;
+        if (pos < 1.0) return min;
+        if (pos >= count) return max;
+
+        long lower = (long) Math.floor(pos);
+        double fraction = pos - lower;
+        double lowerValue = valueAtRank(values, weights, lower);
+        if (fraction==0.0) return lowerValue;
+        double upperValue = valueAtRank(values, weights, lower + 1);
+        return lowerValue + fraction * (upperValue - lowerValue);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public boolean isEmpty() {
+        return count==0;
+    }
+
+    /** Number of values currently stored in the sketch. */
+    public int retainedItems() {
+        int total = 0;
+        for (int h = 0; h < numLevels; h++) {
+            total += levelSizes[h];
+        }
+        return total;
+    }
+
+    /**
+     * Serializes the sketch, with free slots in level 0 for the values that can be added before
+     * the next compaction.
+     */
+    public byte[] toBytes() {
+        int retained = retainedItems();
+        int free = Math.max(0, totalCapacity() - retained);
+        ByteBuffer buffer = ByteBuffer.allocate(
+                HEADER_LENGTH + 4 * numLevels + 8 * (retained + free));
+        buffer.put(SERIAL_VERSION)
+                .putInt(k)
+                .putLong(count)
+                .putDouble(min)
+                .putDouble(max)
+                .putInt(numLevels)
+                .putInt(levelSizes[0] + free);
+        for (int h = 0; h < numLevels; h++) {
+            buffer.putInt(levelSizes[h]);
+        }
+        for (int h = 0; h < numLevels; h++) {
+            for (int i = 0; i < levelSizes[h]; i++) {
+                buffer.putDouble(levels[h][i]);
+            }
+            if (h==0) buffer.position(buffer.position() + 8 * free);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Deserializes a sketch written by {@link #toBytes()}.
+     *
+     * @param bytes serialized sketch
+     * @return sketch
+     * @throws IllegalArgumentException if the bytes are not a serialized sketch.
+     */
+    public static KllSketch fromBytes(byte[] bytes) {
+        checkVersion(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(1);
+        KllSketch sketch = new KllSketch(buffer.getInt());
+        sketch.count = buffer.getLong();
+        sketch.min = buffer.getDouble();
+        sketch.max = buffer.getDouble();
+        int numLevels = buffer.getInt();
+        sketch.numLevels = numLevels;
+        sketch.levelSizes = new int[numLevels];
+        sketch.levels = new double[numLevels][];
+        int slots = buffer.getInt();
+        for (int h = 0; h < numLevels; h++) {
+            sketch.levelSizes[h] = buffer.getInt();
+        }
+        for (int h = 0; h < numLevels; h++) {
+            int size = sketch.levelSizes[h];
+            double[] level = new double[Math.max(size, MIN_LEVEL_CAPACITY)];
+            buffer.asDoubleBuffer().get(level, 0, size);
+            buffer.position(buffer.position() + 8 * (h==0 ? slots : size));
+            sketch.levels[h] = level;
+        }
+        return sketch;
+    }
+
+    private static void checkVersion(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH + 4 || bytes[0]!=SERIAL_VERSION) {
+            throw new IllegalArgumentException("Unsupported KLL sketch format");
+        }
+    }
+
+    private int capacity(int level) {
+        int depth = numLevels - level - 1;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    private int totalCapacity() {
+        int total = 0;
+        for (int h = 0; h < numLevels; h++) {
+            total += capacity(h);
+        }
+        return total;
+    }
+
+    private void append(int level, double value) {
+        while (level >= numLevels) {
+            addLevel();
+        }
+        if (levelSizes[level]==levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], levels[level].length * 2);
+        }
+        levels[level][levelSizes[level]++] = value;
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, numLevels + 1);
+        levelSizes = Arrays.copyOf(levelSizes, numLevels + 1);
+        levels[numLevels] = new double[MIN_LEVEL_CAPACITY];
+        numLevels++;
+    }
+
+    /** Compacts the lowest full level until the sketch is within its capacity. */
+    private void compress() {
+        while (retainedItems() > totalCapacity()) {
+            for (int h = 0; h < numLevels; h++) {
+                if (levelSizes[h] >= capacity(h)) {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sorts the level and promotes every other item to the next level, starting at a random
+     * offset. With an odd number of items, the first item stays at this level.
+     */
+    private void compact(int level) {
+        if (level + 1 >= numLevels) {
+            addLevel();
+        }
+        double[] items = levels[level];
+        int size = levelSizes[level];
+        int start = size % 2;
+        Arrays.sort(items, start, size);
+
+        int offset = ThreadLocalRandom.current().nextBoolean() ? 1 : 0;
+        for (int i = start + offset; i < size; i += 2) {
+            append(level + 1, items[i]);
+        }
+        levelSizes[level] = start;
+    }
+
+    /** Fills the arrays with all retained values in ascending order and their weights. */
+    private void sortedItems(double[] values, long[] weights) {
+        int pos = 0;
+        for (int h = 0; h < numLevels; h++) {
+            int size = levelSizes[h];
+            System.arraycopy(levels[h], 0, values, pos, size);
+            Arrays.sort(values, pos, pos + size);
+            Arrays.fill(weights, pos, pos + size, 1L << h);
+            if (pos > 0 && size > 0) {
+                mergeSortedRuns(values, weights, pos, pos + size);
+            }
+            pos += size;
+        }
+    }
+
+    /** In-place merge of two adjacent sorted runs [0, mid) and [mid, end). */
+    private static void mergeSortedRuns(double[] values, long[] weights, int mid, int end) {
+        double[] left = Arrays.copyOf(values, mid);
+        long[] leftWeights = Arrays.copyOf(weights, mid);
+        int i = 0;
+        int j = mid;
+        int out = 0;
+        while (i < mid && j < end) {
+            if (left[i] <= values[j]) {
+                weights[out] = leftWeights[i];
+                values[out++] = left[i++];
+            } else {
+                weights[out] = weights[j];
+                values[out++] = values[j++];
+            }
+        }
+        while (i < mid) {
+            weights[out] = leftWeights[i];
+            values[out++] = left[i++];
+        }
+    }
+
+    /** Value with given rank (counted from 1) in the sorted weighted items. */
+    private static double valueAtRank(double[] values, long[] weights, long rank) {
+        long cumulative = 0;
+        for (int i = 0; i < values.length; i++) {
+            cumulative += weights[i];
+            if (cumulative >= rank) {
+                return values[i];
+            }
+        }
+        return values[values.length - 1];
+    }
+}
@@ -4,7 +4,47 @@ import io.confluent.ksql.function.udaf.Udaf;
 import java.util.ArrayList;
 import java.util.List;
 
-public abstract class AbstractListUdaf<T> implements Udaf<T, List<T>, T> {
+/**
+ * Collects values into a list of at most a given size. Once the list is full, the
+ * {@link CollectPolicy#FIRST} policy ignores further values and the {@link CollectPolicy#LAST}
+ * policy drops the oldest values. To avoid shifting the whole list for every new value, the
+ * last policy lets the list grow a quarter beyond its maximum size and then drops the oldest
+ * values at once, so subclasses should map the aggregate through {@link #values(List)}.
+ * Sampling needs the number of values seen, which a plain list does not store, so it is only
+ * offered by the packed collect of numeric values, see {@link PackedListUdaf}.
+ *
+ * @param <T> value type
+ * @param <O> output type
+ */
+public abstract class AbstractListUdaf<T, O> implements Udaf<T, List<T>, O> {
+
+    private final int maxSize;
+    private final CollectPolicy policy;
+    private final int trimSize;
+
+    /** Collects all values without bound. */
+    public AbstractListUdaf() {
+        this(Integer.MAX_VALUE, CollectPolicy.FIRST);
+    }
+
+    /**
+     * Creates a bounded list UDAF.
+     *
+     * @param maxSize maximum number of values in the list
+     * @param policy values to keep once the list is full, either first or last
+     */
+    public AbstractListUdaf(int maxSize, CollectPolicy policy) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("List size must be positive: " + maxSize);
+        }
+        if (policy==CollectPolicy.SAMPLE) {
+            throw new IllegalArgumentException("Lists of this type cannot be sampled");
+        }
+        this.maxSize = maxSize;
+        this.policy = policy;
+        this.trimSize = (int) Math.min((long) maxSize + Math.max(maxSize / 4, 1),
+                Integer.MAX_VALUE);
+    }
 
     @Override
     public List<T> initialize() {
@@ -13,13 +53,50 @@ public abstract class AbstractListUdaf<T> implements Udaf<T, List<T>, T> {
 
     @Override
     public List<T> aggregate(T current, List<T> aggregate) {
-        if (current!=null) aggregate.add(current);
+        if (current==null) return aggregate;
+        if (policy==CollectPolicy.FIRST) {
+            if (aggregate.size() >= maxSize) return aggregate;
+        } else if (aggregate.size() >= trimSize) {
+            aggregate.subList(0, aggregate.size() - maxSize + 1).clear();
+        }
+        aggregate.add(current);
         return aggregate;
     }
 
     @Override
     public List<T> merge(List<T> aggOne, List<T> aggTwo) {
-        aggOne.addAll(aggTwo);
-        return aggOne;
+        int size = aggOne.size() + aggTwo.size();
+        if (size <= maxSize) {
+            aggOne.addAll(aggTwo);
+            return aggOne;
+        }
+        List<T> result = new ArrayList<>(maxSize);
+        if (policy==CollectPolicy.FIRST) {
+            result.addAll(aggOne.subList(0, Math.min(aggOne.size(), maxSize)));
+            result.addAll(aggTwo.subList(0, maxSize - result.size()));
+        } else {
+            int skip = size - maxSize;
+            if (skip < aggOne.size()) result.addAll(aggOne.subList(skip, aggOne.size()));
+            result.addAll(aggTwo.subList(Math.max(skip - aggOne.size(), 0), aggTwo.size()));
+        }
+        return result;
+    }
+
+    /**
+     * Values in the aggregate that are kept by the policy, i.e., at most the last
+     * {@code maxSize} values.
+     */
+    protected List<T> values(List<T> aggregate) {
+        int size = aggregate.size();
+        if (size <= maxSize) return aggregate;
+        return new ArrayList<>(aggregate.subList(size - maxSize, size));
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public CollectPolicy getPolicy() {
+        return policy;
     }
-}
\ No newline at end of file
+}
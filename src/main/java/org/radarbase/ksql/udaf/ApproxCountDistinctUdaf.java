@@ -0,0 +1,109 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.sketch.HyperLogLog;
+
+@UdafDescription(name = "approx_count_distinct",
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "Estimates the number of distinct values in a stream using HyperLogLog++.")
+public class ApproxCountDistinctUdaf {
+
+    private ApproxCountDistinctUdaf() {
+
+    }
+
+    @UdafFactory(
+            description = "Estimates the number of distinct STRING values in a stream with a "
+                    + "relative standard error of about 0.8%.",
+            aggregateSchema = DistinctCountSketchUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<String, Struct, Long> createUdaf() {
+        return new StringDistinctCountUdafImpl(HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    @UdafFactory(
+            description = "Estimates the number of distinct STRING values in a stream with "
+                    + "2^precision registers, for a relative standard error of "
+                    + "1.04 / sqrt(2^precision). The precision is between 4 and 18.",
+            aggregateSchema = DistinctCountSketchUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<String, Struct, Long> createUdaf(int precision) {
+        return new StringDistinctCountUdafImpl(precision);
+    }
+
+    @UdafFactory(
+            description = "Estimates the number of distinct BIGINT values in a stream with a "
+                    + "relative standard error of about 0.8%.",
+            aggregateSchema = DistinctCountSketchUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Long> createLongUdaf() {
+        return new LongDistinctCountUdafImpl(HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    @UdafFactory(
+            description = "Estimates the number of distinct BIGINT values in a stream with "
+                    + "2^precision registers, for a relative standard error of "
+                    + "1.04 / sqrt(2^precision). The precision is between 4 and 18.",
+            aggregateSchema = DistinctCountSketchUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Long> createLongUdaf(int precision) {
+        return new LongDistinctCountUdafImpl(precision);
+    }
+
+    @UdafFactory(
+            description = "Estimates the number of distinct INT values in a stream with a "
+                    + "relative standard error of about 0.8%.",
+            aggregateSchema = DistinctCountSketchUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Long> createIntUdaf() {
+        return new IntDistinctCountUdafImpl(HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    @UdafFactory(
+            description = "Estimates the number of distinct INT values in a stream with "
+                    + "2^precision registers, for a relative standard error of "
+                    + "1.04 / sqrt(2^precision). The precision is between 4 and 18.",
+            aggregateSchema = DistinctCountSketchUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Long> createIntUdaf(int precision) {
+        return new IntDistinctCountUdafImpl(precision);
+    }
+
+    private static class StringDistinctCountUdafImpl extends DistinctCountSketchUdaf<String> {
+        StringDistinctCountUdafImpl(int precision) {
+            super(precision);
+        }
+
+        @Override
+        protected long hash(String value) {
+            return HyperLogLog.hash(value);
+        }
+    }
+
+    private static class LongDistinctCountUdafImpl extends DistinctCountSketchUdaf<Long> {
+        LongDistinctCountUdafImpl(int precision) {
+            super(precision);
+        }
+
+        @Override
+        protected long hash(Long value) {
+            return HyperLogLog.hash(value.longValue());
+        }
+    }
+
+    private static class IntDistinctCountUdafImpl extends DistinctCountSketchUdaf<Integer> {
+        IntDistinctCountUdafImpl(int precision) {
+            super(precision);
+        }
+
+        @Override
+        protected long hash(Integer value) {
+            // same hash as the equal BIGINT value
+            return HyperLogLog.hash(value.longValue());
+        }
+    }
+}
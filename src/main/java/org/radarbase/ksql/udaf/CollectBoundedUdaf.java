@@ -0,0 +1,86 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+import java.util.List;
+import org.apache.kafka.connect.data.Struct;
+
+@UdafDescription(name = CollectBoundedUdaf.NAME,
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "Collects values in a stream into an array of at most a given size.")
+public class CollectBoundedUdaf {
+
+    public static final String NAME = "collect_bounded";
+
+    private CollectBoundedUdaf() {
+
+    }
+
+    @UdafFactory(
+            description = "Collects DOUBLE values into an array of at most the given size. Once "
+                    + "full, the policy 'first' keeps the first values, 'last' the last values "
+                    + "and 'sample' a uniform sample of all values.",
+            aggregateSchema = PackedListUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, List<Double>> createUdaf(int maxSize, String policy) {
+        return PackedListUdaf.ofDouble(NAME, maxSize, CollectPolicy.parse(policy));
+    }
+
+    @UdafFactory(
+            description = "Collects BIGINT values into an array of at most the given size. Once "
+                    + "full, the policy 'first' keeps the first values, 'last' the last values "
+                    + "and 'sample' a uniform sample of all values.",
+            aggregateSchema = PackedListUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, List<Long>> createLongUdaf(int maxSize, String policy) {
+        return PackedListUdaf.ofLong(NAME, maxSize, CollectPolicy.parse(policy));
+    }
+
+    @UdafFactory(
+            description = "Collects INT values into an array of at most the given size. Once "
+                    + "full, the policy 'first' keeps the first values, 'last' the last values "
+                    + "and 'sample' a uniform sample of all values.",
+            aggregateSchema = PackedListUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, List<Integer>> createIntUdaf(int maxSize,
+            String policy) {
+        return PackedListUdaf.ofInt(NAME, maxSize, CollectPolicy.parse(policy));
+    }
+
+    @UdafFactory(
+            description = "Collects DOUBLE values into an array of at most the given size, "
+                    + "ordered by their timestamp. The input is a struct of the value and its "
+                    + "timestamp, e.g. STRUCT(VAL := x, TS := ROWTIME). Once full, the policy "
+                    + "'first' keeps the earliest values, 'last' the latest values and 'sample' "
+                    + "a uniform sample of all values.",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = PackedListUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, List<Double>> createTimedUdaf(int maxSize,
+            String policy) {
+        return PackedListUdaf.ofTimedDouble(NAME, maxSize, CollectPolicy.parse(policy));
+    }
+
+    @UdafFactory(
+            description = "Collects STRING values into an array of at most the given size. Once "
+                    + "full, the policy 'first' keeps the first values and 'last' the last "
+                    + "values."
+    )
+    public static Udaf<String, List<String>, List<String>> createStringUdaf(int maxSize,
+            String policy) {
+        return new StringListUdafImpl(maxSize, CollectPolicy.parse(policy));
+    }
+
+    private static class StringListUdafImpl extends AbstractListUdaf<String, List<String>> {
+        StringListUdafImpl(int maxSize, CollectPolicy policy) {
+            super(maxSize, policy);
+        }
+
+        @Override
+        public List<String> map(List<String> agg) {
+            return values(agg);
+        }
+    }
+}
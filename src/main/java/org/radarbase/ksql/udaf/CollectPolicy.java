@@ -0,0 +1,30 @@
+package org.radarbase.ksql.udaf;
+
+import java.util.Locale;
+
+/** Values that a bounded collect keeps once it holds its maximum number of values. */
+public enum CollectPolicy {
+    /** Keep the first values, ignoring later ones. */
+    FIRST,
+    /** Keep the last values, dropping the oldest. */
+    LAST,
+    /** Keep a uniform sample of all values. */
+    SAMPLE;
+
+    /**
+     * Parses a policy name, ignoring case.
+     *
+     * @param name {@code first}, {@code last} or {@code sample}
+     * @return policy
+     * @throws IllegalArgumentException if the name is not a known policy
+     */
+    public static CollectPolicy parse(String name) {
+        if (name==null) throw new IllegalArgumentException("Collect policy must not be null");
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException exc) {
+            throw new IllegalArgumentException(
+                    "Collect policy must be first, last or sample: " + name, exc);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+
+/**
+ * Computes the covariance, Pearson correlation and regression slope of pairs of values in a
+ * stream, e.g. heart rate and step count. Like the {@link StreamingMomentsUdaf}, the aggregate is
+ * a fixed size struct of the count, the means and the sums of (co-)products of differences from
+ * the means, updated with Welford's online algorithm and combined with the pairwise formulas.
+ * The results are exact regardless of the number of values in the window.
+ *
+ * <p>The input is a struct of both values, e.g. {@code STRUCT(X := heart_rate, Y := steps)}.
+ * Pairs in which either value is null are ignored.
+ */
+@UdafDescription(name = "correlation",
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "Calculates the covariance, Pearson correlation and regression slope of "
+                + "pairs of numbers in a stream.")
+public class CorrelationUdaf {
+
+    public static final String X = "X";
+    public static final String Y = "Y";
+    public static final String PARAM_SCHEMA = "STRUCT<X double, Y double>";
+    public static final String COUNT = "COUNT";
+    public static final String MEAN_X = "MEAN_X";
+    public static final String MEAN_Y = "MEAN_Y";
+    public static final String C = "C";
+    public static final String M2_X = "M2_X";
+    public static final String M2_Y = "M2_Y";
+    public static final String COVARIANCE = "COVARIANCE";
+    public static final String CORRELATION = "CORRELATION";
+    public static final String SLOPE = "SLOPE";
+    public static final String AGGREGATE_SCHEMA = "STRUCT<COUNT bigint, MEAN_X double, "
+            + "MEAN_Y double, C double, M2_X double, M2_Y double>";
+    public static final String RETURN_SCHEMA = "STRUCT<COUNT bigint, COVARIANCE double, "
+            + "CORRELATION double, SLOPE double>";
+
+    private CorrelationUdaf() {
+    }
+
+    @UdafFactory(
+            description = "Calculates the sample covariance, Pearson correlation coefficient and "
+                    + "least-squares slope of Y on X of pairs of double values in a stream. The "
+                    + "input is a struct of both values, e.g. STRUCT(X := x, Y := y).",
+            paramSchema = PARAM_SCHEMA,
+            aggregateSchema = AGGREGATE_SCHEMA,
+            returnSchema = RETURN_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Struct> createUdaf() {
+        return new CorrelationUdafImpl();
+    }
+
+    private static class CorrelationUdafImpl implements Udaf<Struct, Struct, Struct> {
+        private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+                .field(COUNT, Schema.OPTIONAL_INT64_SCHEMA)
+                .field(MEAN_X, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(MEAN_Y, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(C, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(M2_X, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(M2_Y, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .build();
+        private static final Schema RETURN_STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+                .field(COUNT, Schema.OPTIONAL_INT64_SCHEMA)
+                .field(COVARIANCE, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(CORRELATION, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(SLOPE, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .build();
+
+        @Override
+        public Struct initialize() {
+            return new Struct(STRUCT_SCHEMA)
+                    .put(COUNT, 0L)
+                    .put(MEAN_X, 0.0)
+                    .put(MEAN_Y, 0.0)
+                    .put(C, 0.0)
+                    .put(M2_X, 0.0)
+                    .put(M2_Y, 0.0);
+        }
+
+        @Override
+        public Struct aggregate(Struct current, Struct aggregate) {
+            if (current==null) return aggregate;
+            Double x = current.getFloat64(X);
+            Double y = current.getFloat64(Y);
+            if (x==null || y==null) return aggregate;
+
+            long n = aggregate.getInt64(COUNT) + 1;
+            double meanX = aggregate.getFloat64(MEAN_X);
+            double meanY = aggregate.getFloat64(MEAN_Y);
+
+            double deltaX = x - meanX;
+            double deltaY = y - meanY;
+            double newMeanX = meanX + deltaX / n;
+            double newMeanY = meanY + deltaY / n;
+
+            return aggregate
+                    .put(COUNT, n)
+                    .put(MEAN_X, newMeanX)
+                    .put(MEAN_Y, newMeanY)
+                    .put(C, aggregate.getFloat64(C) + deltaX * (y - newMeanY))
+                    .put(M2_X, aggregate.getFloat64(M2_X) + deltaX * (x - newMeanX))
+                    .put(M2_Y, aggregate.getFloat64(M2_Y) + deltaY * (y - newMeanY));
+        }
+
+        /**
+         * Combines the co-moments of the two aggregates as if all pairs had been added to a
+         * single aggregate. Neither input is modified.
+         *
+         * @param aggOne aggregate one
+         * @param aggTwo aggregate two
+         * @return merged result of the two aggregates
+         */
+        @Override
+        public Struct merge(Struct aggOne, Struct aggTwo) {
+            long countOne = aggOne.getInt64(COUNT);
+            long countTwo = aggTwo.getInt64(COUNT);
+
+            if (countOne==0) return aggTwo;
+            if (countTwo==0) return aggOne;
+
+            double meanXOne = aggOne.getFloat64(MEAN_X);
+            double meanYOne = aggOne.getFloat64(MEAN_Y);
+
+            double n1 = countOne;
+            double n2 = countTwo;
+            double n = n1 + n2;
+            double deltaX = aggTwo.getFloat64(MEAN_X) - meanXOne;
+            double deltaY = aggTwo.getFloat64(MEAN_Y) - meanYOne;
+            double weight = n1 * n2 / n;
+
+            return new Struct(STRUCT_SCHEMA)
+                    .put(COUNT, countOne + countTwo)
+                    .put(MEAN_X, meanXOne + deltaX * n2 / n)
+                    .put(MEAN_Y, meanYOne + deltaY * n2 / n)
+                    .put(C, aggOne.getFloat64(C) + aggTwo.getFloat64(C)
+                            + deltaX * deltaY * weight)
+                    .put(M2_X, aggOne.getFloat64(M2_X) + aggTwo.getFloat64(M2_X)
+                            + deltaX * deltaX * weight)
+                    .put(M2_Y, aggOne.getFloat64(M2_Y) + aggTwo.getFloat64(M2_Y)
+                            + deltaY * deltaY * weight);
+        }
+
+        /**
+         * Computes the measures of the pairs in the aggregate. The correlation is null if either
+         * value is constant and the slope is null if X is constant.
+         *
+         * @param agg aggregate of co-moments
+         * @return the measures, or null if no pairs were added
+         */
+        @Override
+        public Struct map(Struct agg) {
+            long count = agg.getInt64(COUNT);
+            if (count==0) return null;
+
+            double c = agg.getFloat64(C);
+            double m2X = agg.getFloat64(M2_X);
+            double m2Y = agg.getFloat64(M2_Y);
+
+            Double correlation = null;
+            if (m2X > 0.0 && m2Y > 0.0) {
+                // rounding may put the value just outside [-1, 1]
+                correlation = Math.max(-1.0, Math.min(1.0, c / Math.sqrt(m2X * m2Y)));
+            }
+
+            return new Struct(RETURN_STRUCT_SCHEMA)
+                    .put(COUNT, count)
+                    .put(COVARIANCE, count==1 ? 0.0 : c / (count - 1))
+                    .put(CORRELATION, correlation)
+                    .put(SLOPE, m2X > 0.0 ? c / m2X : null);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package org.radarbase.ksql.udaf;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Binary encoding of a forward-decay priority sample, used as the aggregate of the
+ * {@link DecayingSamplingReservoirUdaf}. The layout is
+ * <pre>
+ *   version (1 byte) | count (8 bytes) | landmark (8 bytes) | (key (8 bytes) | sample (8 bytes))*
+ * </pre>
+ * where count is the number of values added, landmark is the timestamp that the decay is
+ * measured from, and the entries form a binary min-heap on the priority key.
+ *
+ * <p>A value at time {@code t} has the forward-decay weight {@code exp(alpha (t - landmark))}
+ * and is kept if it is among the values with the largest keys {@code u^(1 / weight)} for a
+ * uniform random {@code u}, following Efraimidis and Spirakis. The logarithm of the key is
+ * ranked equally by {@code alpha (t - landmark) - ln(-ln u)}, which is stored instead. It grows
+ * linearly with time so it never overflows, and keys relative to another landmark differ by a
+ * constant, so reservoirs can be merged.
+ * <href>https://dimacs.rutgers.edu/~graham/pubs/papers/fwddecay.pdf</href>
+ *
+ * <p>Instances are views on the encoded bytes. Updates of a full reservoir replace the root of
+ * the heap in place.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public final class DecayingReservoir {
+
+    public static final byte VERSION = 1;
+    private static final int COUNT_OFFSET = 1;
+    private static final int LANDMARK_OFFSET = 9;
+    private static final int HEADER_LENGTH = 17;
+    private static final int ENTRY_LENGTH = 16;
+
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+
+    private DecayingReservoir(byte[] bytes) {
+        this.bytes = bytes;
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Reads an encoded reservoir.
+     *
+     * @param bytes encoded reservoir
+     * @return view on the reservoir
+     * @throws IllegalArgumentException if the bytes are not a supported reservoir encoding.
+     */
+    public static DecayingReservoir wrap(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH || bytes[0]!=VERSION
+                || (bytes.length - HEADER_LENGTH) % ENTRY_LENGTH!=0) {
+            throw new IllegalArgumentException("Unsupported decaying reservoir format");
+        }
+        return new DecayingReservoir(bytes);
+    }
+
+    /** Encodes an empty reservoir. */
+    public static byte[] empty() {
+        byte[] result = new byte[HEADER_LENGTH];
+        result[0] = VERSION;
+        return result;
+    }
+
+    /** Number of values added to the reservoir. */
+    public long getCount() {
+        return buffer.getLong(COUNT_OFFSET);
+    }
+
+    /** Timestamp in milliseconds from which the decay is measured. */
+    public long getLandmark() {
+        return buffer.getLong(LANDMARK_OFFSET);
+    }
+
+    /** Number of samples in the reservoir. */
+    public int size() {
+        return (bytes.length - HEADER_LENGTH) / ENTRY_LENGTH;
+    }
+
+    public double get(int index) {
+        return buffer.getDouble(HEADER_LENGTH + index * ENTRY_LENGTH + 8);
+    }
+
+    double getKey(int index) {
+        return buffer.getDouble(HEADER_LENGTH + index * ENTRY_LENGTH);
+    }
+
+    /**
+     * Copies all samples to the start of given array.
+     *
+     * @param dst array of at least {@link #size()} elements
+     */
+    public void copyTo(double[] dst) {
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            dst[i] = get(i);
+        }
+    }
+
+    public double[] toArray() {
+        double[] result = new double[size()];
+        copyTo(result);
+        return result;
+    }
+
+    /**
+     * Adds a value to the reservoir.
+     *
+     * @param value value to add
+     * @param time timestamp of the value in milliseconds
+     * @param decayRate decay rate per millisecond
+     * @param maxSize maximum number of samples
+     * @param random random number generator
+     * @return encoded reservoir, which is the same array unless the reservoir grew
+     */
+    public byte[] add(double value, long time, double decayRate, int maxSize, Random random) {
+        long count = getCount();
+        long landmark = count==0 ? time : getLandmark();
+        double key = key(decayRate * (time - landmark), random);
+        int size = size();
+
+        if (size < maxSize) {
+            byte[] result = new byte[bytes.length + ENTRY_LENGTH];
+            System.arraycopy(bytes, 0, result, 0, bytes.length);
+            ByteBuffer resultBuffer = ByteBuffer.wrap(result)
+                    .putLong(COUNT_OFFSET, count + 1)
+                    .putLong(LANDMARK_OFFSET, landmark);
+            putEntry(resultBuffer, size, key, value);
+            siftUp(resultBuffer, size);
+            return result;
+        }
+
+        buffer.putLong(COUNT_OFFSET, count + 1);
+        if (key > getKey(0)) {
+            putEntry(buffer, 0, key, value);
+            siftDown(buffer, 0, size);
+        }
+        return bytes;
+    }
+
+    /**
+     * Merges two reservoirs with the same decay rate into a new reservoir, without modifying
+     * them.
+     *
+     * @param one first reservoir
+     * @param other second reservoir
+     * @param decayRate decay rate per millisecond
+     * @param maxSize maximum number of samples of the merged reservoir
+     * @return encoded merged reservoir
+     */
+    public static byte[] merge(DecayingReservoir one, DecayingReservoir other, double decayRate,
+            int maxSize) {
+        long landmark = Math.min(one.getLandmark(), other.getLandmark());
+        int size1 = one.size();
+        int size2 = other.size();
+        int total = size1 + size2;
+        ByteBuffer merged = ByteBuffer.allocate(HEADER_LENGTH + total * ENTRY_LENGTH);
+        merged.put(VERSION)
+                .putLong(one.getCount() + other.getCount())
+                .putLong(landmark);
+        // keys relative to a later landmark are larger by the decay between the landmarks
+        double shift1 = decayRate * (one.getLandmark() - landmark);
+        double shift2 = decayRate * (other.getLandmark() - landmark);
+        for (int i = 0; i < size1; i++) {
+            putEntry(merged, i, one.getKey(i) + shift1, one.get(i));
+        }
+        for (int i = 0; i < size2; i++) {
+            putEntry(merged, size1 + i, other.getKey(i) + shift2, other.get(i));
+        }
+
+        for (int i = total / 2 - 1; i >= 0; i--) {
+            siftDown(merged, i, total);
+        }
+        int size = total;
+        while (size > maxSize) {
+            // remove the smallest key
+            size--;
+            swap(merged, 0, size);
+            siftDown(merged, 0, size);
+        }
+        if (size==total) return merged.array();
+
+        byte[] result = new byte[HEADER_LENGTH + size * ENTRY_LENGTH];
+        System.arraycopy(merged.array(), 0, result, 0, result.length);
+        return result;
+    }
+
+    /** Logarithm of the Efraimidis-Spirakis key of a value with given log weight. */
+    private static double key(double logWeight, Random random) {
+        double u;
+        do {
+            u = random.nextDouble();
+        } while (u==0.0);
+        return logWeight - Math.log(-Math.log(u));
+    }
+
+    private static void putEntry(ByteBuffer buffer, int index, double key, double value) {
+        int offset = HEADER_LENGTH + index * ENTRY_LENGTH;
+        buffer.putDouble(offset, key).putDouble(offset + 8, value);
+    }
+
+    private static double keyAt(ByteBuffer buffer, int index) {
+        return buffer.getDouble(HEADER_LENGTH + index * ENTRY_LENGTH);
+    }
+
+    private static void swap(ByteBuffer buffer, int i, int j) {
+        int offsetI = HEADER_LENGTH + i * ENTRY_LENGTH;
+        int offsetJ = HEADER_LENGTH + j * ENTRY_LENGTH;
+        double key = buffer.getDouble(offsetI);
+        double value = buffer.getDouble(offsetI + 8);
+        buffer.putDouble(offsetI, buffer.getDouble(offsetJ))
+                .putDouble(offsetI + 8, buffer.getDouble(offsetJ + 8))
+                .putDouble(offsetJ, key)
+                .putDouble(offsetJ + 8, value);
+    }
+
+    private static void siftUp(ByteBuffer buffer, int index) {
+        int child = index;
+        while (child > 0) {
+            int parent = (child - 1) / 2;
+            if (keyAt(buffer, parent) <= keyAt(buffer, child)) return;
+            swap(buffer, parent, child);
+            child = parent;
+        }
+    }
+
+    private static void siftDown(ByteBuffer buffer, int index, int size) {
+        int parent = index;
+        while (true) {
+            int smallest = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < size && keyAt(buffer, left) < keyAt(buffer, smallest)) {
+                smallest = left;
+            }
+            if (right < size && keyAt(buffer, right) < keyAt(buffer, smallest)) {
+                smallest = right;
+            }
+            if (smallest==parent) return;
+            swap(buffer, parent, smallest);
+            parent = smallest;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DecayingReservoir{count=" + getCount() + ", landmark=" + getLandmark()
+                + ", size=" + size() + '}';
+    }
+}
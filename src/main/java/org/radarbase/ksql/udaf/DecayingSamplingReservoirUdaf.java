@@ -0,0 +1,155 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.util.FunctionMetrics;
+import org.radarbase.ksql.util.UdafMetrics;
+
+/**
+ * Sampling reservoir that favours recent values, using forward decay with priority sampling,
+ * see {@link DecayingReservoir}. A value loses half its weight relative to new values every
+ * half-life, so a single long-lived aggregate follows changes in the stream like a window of a
+ * few half-lives would, without keeping the state of overlapping hopping windows.
+ *
+ * <p>The input is a struct of the value and its timestamp in milliseconds, typically
+ * {@code STRUCT(VAL := x, TS := ROWTIME)}. Subclasses compute their measure on a primitive
+ * {@code double[]} of the samples that is reused between calls on the same thread.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public abstract class DecayingSamplingReservoirUdaf
+        implements Udaf<Struct, Struct, Double>, Configurable {
+
+    public static final String VAL = "VAL";
+    public static final String TS = "TS";
+    public static final String PARAM_SCHEMA = "STRUCT<VAL double, TS bigint>";
+    public static final String RESERVOIR = "DECAYING_RESERVOIR";
+    public static final String AGGREGATE_SCHEMA = "STRUCT<DECAYING_RESERVOIR bytes>";
+    private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+            .field(RESERVOIR, Schema.OPTIONAL_BYTES_SCHEMA)
+            .build();
+    private static final ThreadLocal<double[]> SCRATCH =
+            ThreadLocal.withInitial(() -> new double[0]);
+    private final String name;
+    private final int maxSize;
+    private final double decayRate;
+    private UdafMetrics metrics = UdafMetrics.DISABLED;
+
+    /**
+     * Creates a decaying reservoir UDAF.
+     *
+     * @param name name of the function, used as metrics tag
+     * @param halfLifeSeconds time after which a value has half the weight of a new value
+     * @param maxSize maximum number of samples
+     */
+    public DecayingSamplingReservoirUdaf(String name, int halfLifeSeconds, int maxSize) {
+        if (halfLifeSeconds <= 0) {
+            throw new IllegalArgumentException("Half-life must be positive: " + halfLifeSeconds);
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Reservoir size must be positive: " + maxSize);
+        }
+        this.name = name;
+        this.decayRate = Math.log(2.0) / (halfLifeSeconds * 1000.0);
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        metrics = FunctionMetrics.udafMetrics(configs, name, getClass());
+    }
+
+    @Override
+    public Struct initialize() {
+        return new Struct(STRUCT_SCHEMA)
+                .put(RESERVOIR, DecayingReservoir.empty());
+    }
+
+    @Override
+    public Struct aggregate(Struct current, Struct aggregate) {
+        if (current==null) return aggregate;
+        Double value = current.getFloat64(VAL);
+        Long time = current.getInt64(TS);
+        if (value==null || time==null) return aggregate;
+
+        long start = metrics.start();
+        Struct result = aggregate.put(RESERVOIR, getReservoir(aggregate)
+                .add(value, time, decayRate, maxSize, ThreadLocalRandom.current()));
+        metrics.recordAggregate(start, metrics.isSampled(start) ? getReservoir(result).size() : 0);
+        return result;
+    }
+
+    /**
+     * Merges the aggregates into a priority sample of the values of both aggregates. Neither
+     * input is modified.
+     *
+     * @param aggOne aggregate one
+     * @param aggTwo aggregate two
+     * @return merged result of the two aggregates
+     */
+    @Override
+    public Struct merge(Struct aggOne, Struct aggTwo) {
+        DecayingReservoir reservoir1 = getReservoir(aggOne);
+        DecayingReservoir reservoir2 = getReservoir(aggTwo);
+
+        if (reservoir1.getCount()==0) return aggTwo;
+        if (reservoir2.getCount()==0) return aggOne;
+
+        long start = metrics.start();
+        Struct result = new Struct(STRUCT_SCHEMA)
+                .put(RESERVOIR, DecayingReservoir.merge(
+                        reservoir1, reservoir2, decayRate, maxSize));
+        metrics.recordMerge(start, metrics.isSampled(start) ? getReservoir(result).size() : 0);
+        return result;
+    }
+
+    @Override
+    public Double map(Struct agg) {
+        DecayingReservoir reservoir = getReservoir(agg);
+        int size = reservoir.size();
+        if (size==0) return null;
+
+        double[] scratch = SCRATCH.get();
+        if (scratch.length < size) {
+            scratch = new double[Math.max(size, maxSize)];
+            SCRATCH.set(scratch);
+        }
+        long start = metrics.start();
+        reservoir.copyTo(scratch);
+        Double result = map(scratch, size);
+        metrics.recordMap(start);
+        return result;
+    }
+
+    /**
+     * Computes the measure on the samples in the reservoir. The array is shared with other
+     * invocations on the same thread, so it must not be kept after returning.
+     *
+     * @param samples array with the samples in the first {@code size} positions
+     * @param size number of samples, at least one
+     * @return computed measure
+     */
+    protected abstract Double map(double[] samples, int size);
+
+    /**
+     * View of the reservoir in the aggregate, without copying the samples.
+     *
+     * @param agg aggregate
+     * @return reservoir
+     */
+    public static DecayingReservoir getReservoir(Struct agg) {
+        return DecayingReservoir.wrap(agg.getBytes(RESERVOIR));
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public Schema getStructSchema() {
+        return STRUCT_SCHEMA;
+    }
+}
@@ -0,0 +1,261 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+import java.util.Map;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.util.FunctionMetrics;
+import org.radarbase.ksql.util.UdafMetrics;
+
+/**
+ * Computes a summary of the values in a stream from a single aggregate, instead of one aggregate
+ * per measure. The aggregate combines the exact running moments of the
+ * {@link StreamingMomentsUdaf}, extended with the fourth moment, the minimum and the maximum,
+ * with a sorted {@link PackedSamplingReservoirUdaf} for the order statistics and the mode.
+ *
+ * <p>Count, minimum, maximum, mean, standard deviation, skewness and kurtosis are exact and use
+ * the same bias-corrected estimators as commons-math. Median, quartiles and mode are computed
+ * from the reservoir, so they are exact as long as the number of values does not exceed the
+ * reservoir size.
+ */
+@UdafDescription(name = DescribeUdaf.NAME,
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "Calculates summary statistics of numbers in a stream in a single "
+                + "aggregate.")
+public class DescribeUdaf {
+
+    public static final String NAME = "describe_stats";
+    public static final String COUNT = "COUNT";
+    public static final String MIN = "MIN";
+    public static final String MAX = "MAX";
+    public static final String MEAN = "MEAN";
+    public static final String M2 = "M2";
+    public static final String M3 = "M3";
+    public static final String M4 = "M4";
+    public static final String STDDEV = "STDDEV";
+    public static final String SKEWNESS = "SKEWNESS";
+    public static final String KURTOSIS = "KURTOSIS";
+    public static final String MEDIAN = "MEDIAN";
+    public static final String Q1 = "Q1";
+    public static final String Q3 = "Q3";
+    public static final String MODE = "MODE";
+    public static final String AGGREGATE_SCHEMA = "STRUCT<COUNT bigint, MIN double, "
+            + "MAX double, MEAN double, M2 double, M3 double, M4 double, RESERVOIR bytes>";
+    public static final String RETURN_SCHEMA = "STRUCT<COUNT bigint, MIN double, MAX double, "
+            + "MEAN double, STDDEV double, SKEWNESS double, KURTOSIS double, MEDIAN double, "
+            + "Q1 double, Q3 double, MODE double>";
+    private static final int RESERVOIR_SIZE = 1000;
+
+    private DescribeUdaf() {
+    }
+
+    @UdafFactory(
+            description = "Calculates summary statistics of double values in a stream.",
+            aggregateSchema = AGGREGATE_SCHEMA,
+            returnSchema = RETURN_SCHEMA
+    )
+    public static Udaf<Double, Struct, Struct> createUdaf() {
+        return new DescribeUdafImpl(RESERVOIR_SIZE);
+    }
+
+    @UdafFactory(
+            description = "Calculates summary statistics of double values in a stream, using a "
+                    + "reservoir of the given size for the median, quartiles and mode.",
+            aggregateSchema = AGGREGATE_SCHEMA,
+            returnSchema = RETURN_SCHEMA
+    )
+    public static Udaf<Double, Struct, Struct> createUdaf(int maxSize) {
+        return new DescribeUdafImpl(maxSize);
+    }
+
+    private static class DescribeUdafImpl implements Udaf<Double, Struct, Struct>, Configurable {
+        private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+                .field(COUNT, Schema.OPTIONAL_INT64_SCHEMA)
+                .field(MIN, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(MAX, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(MEAN, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(M2, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(M3, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(M4, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(PackedSamplingReservoirUdaf.RESERVOIR, Schema.OPTIONAL_BYTES_SCHEMA)
+                .build();
+        private static final Schema RETURN_STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+                .field(COUNT, Schema.OPTIONAL_INT64_SCHEMA)
+                .field(MIN, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(MAX, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(MEAN, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(STDDEV, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(SKEWNESS, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(KURTOSIS, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(MEDIAN, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(Q1, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(Q3, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(MODE, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .build();
+        private final PackedReservoirSampler sampler;
+        private UdafMetrics metrics = UdafMetrics.DISABLED;
+
+        DescribeUdafImpl(int maxSize) {
+            sampler = new PackedReservoirSampler(maxSize, true);
+        }
+
+        @Override
+        public void configure(Map<String, ?> configs) {
+            sampler.configure(configs, NAME);
+            metrics = FunctionMetrics.udafMetrics(configs, NAME, getClass());
+        }
+
+        @Override
+        public Struct initialize() {
+            return new Struct(STRUCT_SCHEMA)
+                    .put(COUNT, 0L)
+                    .put(MIN, Double.NaN)
+                    .put(MAX, Double.NaN)
+                    .put(MEAN, 0.0)
+                    .put(M2, 0.0)
+                    .put(M3, 0.0)
+                    .put(M4, 0.0)
+                    .put(PackedSamplingReservoirUdaf.RESERVOIR, sampler.empty());
+        }
+
+        @Override
+        public Struct aggregate(Double current, Struct aggregate) {
+            if (current==null) return aggregate;
+
+            long start = metrics.start();
+            long n1 = aggregate.getInt64(COUNT);
+            double mean = aggregate.getFloat64(MEAN);
+            double m2 = aggregate.getFloat64(M2);
+            double m3 = aggregate.getFloat64(M3);
+            double m4 = aggregate.getFloat64(M4);
+            double min = aggregate.getFloat64(MIN);
+            double max = aggregate.getFloat64(MAX);
+
+            double n = n1 + 1;
+            double delta = current - mean;
+            double deltaN = delta / n;
+            double deltaN2 = deltaN * deltaN;
+            double term1 = delta * deltaN * n1;
+
+            aggregate
+                    .put(COUNT, n1 + 1)
+                    .put(MIN, n1==0 || current < min ? current : min)
+                    .put(MAX, n1==0 || current > max ? current : max)
+                    .put(MEAN, mean + deltaN)
+                    .put(M2, m2 + term1)
+                    .put(M3, m3 + term1 * deltaN * (n - 2) - 3 * deltaN * m2)
+                    .put(M4, m4 + term1 * deltaN2 * (n * n - 3 * n + 3)
+                            + 6 * deltaN2 * m2 - 4 * deltaN * m3);
+            byte[] reservoir = sampler.add(
+                    PackedSamplingReservoirUdaf.getReservoir(aggregate), current);
+            aggregate.put(PackedSamplingReservoirUdaf.RESERVOIR, reservoir);
+            metrics.recordAggregate(start,
+                    metrics.isSampled(start) ? PackedReservoir.wrap(reservoir).size() : 0);
+            return aggregate;
+        }
+
+        /**
+         * Combines the moments using the pairwise formulas and merges the reservoirs. Neither
+         * input is modified.
+         *
+         * @param aggOne aggregate one
+         * @param aggTwo aggregate two
+         * @return merged result of the two aggregates
+         */
+        @Override
+        public Struct merge(Struct aggOne, Struct aggTwo) {
+            long countOne = aggOne.getInt64(COUNT);
+            long countTwo = aggTwo.getInt64(COUNT);
+
+            if (countOne==0) return aggTwo;
+            if (countTwo==0) return aggOne;
+
+            long start = metrics.start();
+            double m2One = aggOne.getFloat64(M2);
+            double m2Two = aggTwo.getFloat64(M2);
+            double m3One = aggOne.getFloat64(M3);
+            double m3Two = aggTwo.getFloat64(M3);
+
+            double n1 = countOne;
+            double n2 = countTwo;
+            double n = n1 + n2;
+            double delta = aggTwo.getFloat64(MEAN) - aggOne.getFloat64(MEAN);
+            double delta2 = delta * delta;
+
+            byte[] reservoir = sampler.merge(PackedSamplingReservoirUdaf.getReservoir(aggOne),
+                    PackedSamplingReservoirUdaf.getReservoir(aggTwo));
+
+            Struct result = new Struct(STRUCT_SCHEMA)
+                    .put(COUNT, countOne + countTwo)
+                    .put(MIN, Math.min(aggOne.getFloat64(MIN), aggTwo.getFloat64(MIN)))
+                    .put(MAX, Math.max(aggOne.getFloat64(MAX), aggTwo.getFloat64(MAX)))
+                    .put(MEAN, aggOne.getFloat64(MEAN) + delta * n2 / n)
+                    .put(M2, m2One + m2Two + delta2 * n1 * n2 / n)
+                    .put(M3, m3One + m3Two
+                            + delta2 * delta * n1 * n2 * (n1 - n2) / (n * n)
+                            + 3.0 * delta * (n1 * m2Two - n2 * m2One) / n)
+                    .put(M4, aggOne.getFloat64(M4) + aggTwo.getFloat64(M4)
+                            + delta2 * delta2 * n1 * n2 * (n1 * n1 - n1 * n2 + n2 * n2)
+                            / (n * n * n)
+                            + 6.0 * delta2 * (n1 * n1 * m2Two + n2 * n2 * m2One) / (n * n)
+                            + 4.0 * delta * (n1 * m3Two - n2 * m3One) / n)
+                    .put(PackedSamplingReservoirUdaf.RESERVOIR, reservoir);
+            metrics.recordMerge(start,
+                    metrics.isSampled(start) ? PackedReservoir.wrap(reservoir).size() : 0);
+            return result;
+        }
+
+        @Override
+        @SuppressWarnings("PMD.AvoidLiteralsInIfCondition")
+        public Struct map(Struct agg) {
+            long count = agg.getInt64(COUNT);
+            if (count==0) return null;
+
+            long start = metrics.start();
+            double n = count;
+            double m2 = agg.getFloat64(M2);
+            double variance = count==1 ? 0.0 : m2 / (n - 1);
+
+            // Same bias-corrected estimators and edge cases as commons-math
+            double skewness = Double.NaN;
+            if (count >= 3) {
+                skewness = variance < 10E-20 ? 0.0
+                        : n / ((n - 1) * (n - 2)) * agg.getFloat64(M3)
+                        / (variance * Math.sqrt(variance));
+            }
+            double kurtosis = Double.NaN;
+            if (count > 3) {
+                kurtosis = variance < 10E-20 ? 0.0
+                        : (n * (n + 1) * agg.getFloat64(M4) - 3 * m2 * m2 * (n - 1))
+                        / ((n - 1) * (n - 2) * (n - 3) * variance * variance);
+            }
+
+            PackedReservoir reservoir = PackedSamplingReservoirUdaf.getReservoir(agg);
+            if (!reservoir.isSorted()) {
+                reservoir = PackedReservoir.wrap(PackedReservoir.encode(reservoir.getEncoding(),
+                        reservoir.getScale(), reservoir.getCount(), reservoir.toArray(),
+                        reservoir.size(), true));
+            }
+
+            Struct result = new Struct(RETURN_STRUCT_SCHEMA)
+                    .put(COUNT, count)
+                    .put(MIN, agg.getFloat64(MIN))
+                    .put(MAX, agg.getFloat64(MAX))
+                    .put(MEAN, agg.getFloat64(MEAN))
+                    .put(STDDEV, Math.sqrt(variance))
+                    .put(SKEWNESS, skewness)
+                    .put(KURTOSIS, kurtosis)
+                    .put(MEDIAN, reservoir.percentile(50))
+                    .put(Q1, reservoir.percentile(25))
+                    .put(Q3, reservoir.percentile(75))
+                    .put(MODE, reservoir.mode());
+            metrics.recordMap(start);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.sketch.HyperLogLog;
+
+/**
+ * Estimates the number of distinct values in a stream using a {@link HyperLogLog} sketch. The
+ * aggregate holds the serialized sketch, which is sparse and small for few distinct values and
+ * at most {@code 2^precision} bytes regardless of the number of values in the window. Sketches
+ * are merged without loss of accuracy.
+ *
+ * @param <I> input type
+ */
+public abstract class DistinctCountSketchUdaf<I> implements Udaf<I, Struct, Long> {
+
+    public static final String SKETCH = "SKETCH";
+    public static final String AGGREGATE_SCHEMA = "STRUCT<SKETCH bytes>";
+    private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+            .field(SKETCH, Schema.OPTIONAL_BYTES_SCHEMA)
+            .build();
+    private final int precision;
+
+    public DistinctCountSketchUdaf() {
+        this(HyperLogLog.DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a distinct count UDAF.
+     *
+     * @param precision number of bits of the register index, between
+     *                  {@value HyperLogLog#MIN_PRECISION} and {@value HyperLogLog#MAX_PRECISION}
+     */
+    public DistinctCountSketchUdaf(int precision) {
+        if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between "
+                    + HyperLogLog.MIN_PRECISION + " and " + HyperLogLog.MAX_PRECISION + ": "
+                    + precision);
+        }
+        this.precision = precision;
+    }
+
+    /** 64-bit hash of a value, see {@link HyperLogLog#hash(long)}. */
+    protected abstract long hash(I value);
+
+    @Override
+    public Struct initialize() {
+        return new Struct(STRUCT_SCHEMA)
+                .put(SKETCH, HyperLogLog.empty(precision));
+    }
+
+    @Override
+    public Struct aggregate(I current, Struct aggregate) {
+        if (current==null) return aggregate;
+
+        return aggregate.put(SKETCH, getSketch(aggregate).add(hash(current)));
+    }
+
+    /**
+     * Merges the sketches of both aggregates. Neither input is modified.
+     *
+     * @param aggOne aggregate one
+     * @param aggTwo aggregate two
+     * @return merged result of the two aggregates
+     */
+    @Override
+    public Struct merge(Struct aggOne, Struct aggTwo) {
+        return new Struct(STRUCT_SCHEMA)
+                .put(SKETCH, HyperLogLog.merge(getSketch(aggOne), getSketch(aggTwo)));
+    }
+
+    @Override
+    public Long map(Struct agg) {
+        return getSketch(agg).estimate();
+    }
+
+    /**
+     * View of the sketch in the aggregate, without copying the registers.
+     *
+     * @param agg aggregate
+     * @return sketch
+     */
+    public static HyperLogLog getSketch(Struct agg) {
+        return HyperLogLog.wrap(agg.getBytes(SKETCH));
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    public Schema getStructSchema() {
+        return STRUCT_SCHEMA;
+    }
+}
@@ -0,0 +1,107 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.sketch.FrequencySketch;
+
+/**
+ * Computes the mode from the frequency of every distinct value instead of from a sample. This
+ * is exact as long as the number of distinct values does not exceed the maximum cardinality, as
+ * is the case for discrete values such as activity classes or battery levels. Above that, the
+ * {@link FrequencySketch} keeps the most frequent values and the result is an estimate.
+ */
+@UdafDescription(name = "mode_exact",
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "Calculates the mode of numbers in a stream using the frequency of each "
+                + "value.")
+public class ExactModeUdaf {
+
+    public static final String FREQUENCIES = "FREQUENCIES";
+    public static final String AGGREGATE_SCHEMA = "STRUCT<FREQUENCIES bytes>";
+
+    private ExactModeUdaf() {
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of double values in a stream, exactly for up to "
+                    + FrequencySketch.DEFAULT_CAPACITY + " distinct values.",
+            aggregateSchema = AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createUdaf() {
+        return new ExactModeUdafImpl(FrequencySketch.DEFAULT_CAPACITY);
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of double values in a stream, exactly for up to "
+                    + "the given number of distinct values.",
+            aggregateSchema = AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createUdaf(int maxCardinality) {
+        return new ExactModeUdafImpl(maxCardinality);
+    }
+
+    /**
+     * Frequency table in the aggregate, without copying.
+     *
+     * @param agg aggregate
+     * @return frequency table
+     */
+    public static FrequencySketch getFrequencies(Struct agg) {
+        return FrequencySketch.wrap(agg.getBytes(FREQUENCIES));
+    }
+
+    private static class ExactModeUdafImpl implements Udaf<Double, Struct, Double> {
+        private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+                .field(FREQUENCIES, Schema.OPTIONAL_BYTES_SCHEMA)
+                .build();
+        private final int maxCardinality;
+
+        ExactModeUdafImpl(int maxCardinality) {
+            if (maxCardinality <= 0) {
+                throw new IllegalArgumentException(
+                        "Maximum cardinality must be positive: " + maxCardinality);
+            }
+            this.maxCardinality = maxCardinality;
+        }
+
+        @Override
+        public Struct initialize() {
+            return new Struct(STRUCT_SCHEMA)
+                    .put(FREQUENCIES, FrequencySketch.empty(maxCardinality));
+        }
+
+        @Override
+        public Struct aggregate(Double current, Struct aggregate) {
+            if (current==null) return aggregate;
+
+            return aggregate.put(FREQUENCIES, getFrequencies(aggregate).update(current));
+        }
+
+        /**
+         * Merges the frequency tables of both aggregates. Neither input is modified.
+         *
+         * @param aggOne aggregate one
+         * @param aggTwo aggregate two
+         * @return merged result of the two aggregates
+         */
+        @Override
+        public Struct merge(Struct aggOne, Struct aggTwo) {
+            return new Struct(STRUCT_SCHEMA)
+                    .put(FREQUENCIES, FrequencySketch.merge(
+                            getFrequencies(aggOne), getFrequencies(aggTwo), maxCardinality));
+        }
+
+        @Override
+        public Double map(Struct agg) {
+            FrequencySketch frequencies = getFrequencies(agg);
+            if (frequencies.isEmpty()) return null;
+
+            return frequencies.mode();
+        }
+    }
+}
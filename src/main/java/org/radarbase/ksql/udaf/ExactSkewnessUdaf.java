@@ -0,0 +1,45 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+import org.apache.kafka.connect.data.Struct;
+
+@UdafDescription(name = "skew_exact",
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "Calculates the exact skewness of the distribution in a stream using "
+                + "running moments.")
+public class ExactSkewnessUdaf {
+
+    private ExactSkewnessUdaf() {
+
+    }
+
+    @UdafFactory(
+            description = "Calculates the skewness of values in a stream.",
+            aggregateSchema = StreamingMomentsUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createUdaf() {
+        return new ExactSkewnessUdafImpl();
+    }
+
+    private static class ExactSkewnessUdafImpl extends StreamingMomentsUdaf {
+
+        @Override
+        @SuppressWarnings("PMD.AvoidLiteralsInIfCondition")
+        public Double map(Struct agg) {
+            long count = agg.getInt64(COUNT);
+            if (count==0) return null;
+            // Same bias-corrected estimator and edge cases as the commons-math Skewness
+            if (count < 3) return Double.NaN;
+
+            double variance = agg.getFloat64(M2) / (count - 1);
+            if (variance < 10E-20) return 0.0;
+
+            double n = count;
+            return n / ((n - 1) * (n - 2)) * agg.getFloat64(M3)
+                    / (variance * Math.sqrt(variance));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+import org.apache.kafka.connect.data.Struct;
+
+@UdafDescription(name = "std_dev_exact",
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "Calculates the exact standard deviation of numbers in a stream using "
+                + "running moments.")
+public class ExactStdDevUdaf {
+
+    private ExactStdDevUdaf() {
+    }
+
+    @UdafFactory(
+            description = "Calculates the standard deviation of double values in a stream.",
+            aggregateSchema = StreamingMomentsUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createUdaf() {
+        return new ExactStdDevUdafImpl();
+    }
+
+    private static class ExactStdDevUdafImpl extends StreamingMomentsUdaf {
+
+        @Override
+        public Double map(Struct agg) {
+            Double variance = variance(agg);
+            if (variance==null) return null;
+
+            return Math.sqrt(variance);
+        }
+    }
+}
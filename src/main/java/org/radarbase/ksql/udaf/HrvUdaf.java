@@ -0,0 +1,335 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+import java.nio.ByteBuffer;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+
+/**
+ * Computes time-domain heart rate variability measures of the inter-beat intervals (IBI) in a
+ * stream without buffering the window. SDNN uses the running moments of all intervals, like the
+ * {@link StreamingMomentsUdaf}. RMSSD and pNN50 use running sums of the successive differences of
+ * the intervals in order of time.
+ *
+ * <p>Records may arrive slightly out of order, so the most recent intervals are kept in a small
+ * reorder buffer sorted by time. When the buffer is full, its oldest interval is committed to the
+ * successive difference sums. Intervals older than the last committed interval only count
+ * towards the mean and SDNN. Each record takes time proportional to the buffer size, independent
+ * of the number of records in the window.
+ *
+ * <p>Aggregates of consecutive session windows are merged exactly, including the difference at
+ * the boundary between them. If the time ranges of two aggregates overlap, the sums of their
+ * committed differences are added and the buffered intervals of the later aggregate are
+ * inserted into the earlier one.
+ */
+@UdafDescription(name = "hrv",
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "Calculates heart rate variability measures of inter-beat intervals in a "
+                + "stream.")
+public class HrvUdaf {
+
+    public static final String COUNT = "COUNT";
+    public static final String MEAN = "MEAN";
+    public static final String M2 = "M2";
+    public static final String DIFF_COUNT = "DIFF_COUNT";
+    public static final String SSD = "SSD";
+    public static final String NN50 = "NN50";
+    public static final String FIRST_TS = "FIRST_TS";
+    public static final String FIRST_IBI = "FIRST_IBI";
+    public static final String LAST_TS = "LAST_TS";
+    public static final String LAST_IBI = "LAST_IBI";
+    public static final String BUFFER = "BUFFER";
+    public static final String MEAN_NN = "MEAN_NN";
+    public static final String SDNN = "SDNN";
+    public static final String RMSSD = "RMSSD";
+    public static final String PNN50 = "PNN50";
+    public static final String AGGREGATE_SCHEMA = "STRUCT<COUNT bigint, MEAN double, "
+            + "M2 double, DIFF_COUNT bigint, SSD double, NN50 bigint, FIRST_TS bigint, "
+            + "FIRST_IBI double, LAST_TS bigint, LAST_IBI double, BUFFER bytes>";
+    public static final String RETURN_SCHEMA = "STRUCT<COUNT bigint, MEAN_NN double, "
+            + "SDNN double, RMSSD double, PNN50 double>";
+    private static final int REORDER_SIZE = 16;
+
+    private HrvUdaf() {
+    }
+
+    @UdafFactory(
+            description = "Calculates the mean, SDNN, RMSSD and pNN50 of inter-beat intervals in "
+                    + "milliseconds. The input is a struct of the interval and its timestamp, "
+                    + "e.g. STRUCT(VAL := ibi, TS := ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = AGGREGATE_SCHEMA,
+            returnSchema = RETURN_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Struct> createUdaf() {
+        return new HrvUdafImpl(REORDER_SIZE);
+    }
+
+    @UdafFactory(
+            description = "Calculates the mean, SDNN, RMSSD and pNN50 of inter-beat intervals in "
+                    + "milliseconds, reordering up to the given number of most recent "
+                    + "intervals by time.",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = AGGREGATE_SCHEMA,
+            returnSchema = RETURN_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Struct> createUdaf(int reorderSize) {
+        return new HrvUdafImpl(reorderSize);
+    }
+
+    @SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+    private static class HrvUdafImpl implements Udaf<Struct, Struct, Struct> {
+        private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+                .field(COUNT, Schema.OPTIONAL_INT64_SCHEMA)
+                .field(MEAN, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(M2, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(DIFF_COUNT, Schema.OPTIONAL_INT64_SCHEMA)
+                .field(SSD, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(NN50, Schema.OPTIONAL_INT64_SCHEMA)
+                .field(FIRST_TS, Schema.OPTIONAL_INT64_SCHEMA)
+                .field(FIRST_IBI, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(LAST_TS, Schema.OPTIONAL_INT64_SCHEMA)
+                .field(LAST_IBI, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(BUFFER, Schema.OPTIONAL_BYTES_SCHEMA)
+                .build();
+        private static final Schema RETURN_STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+                .field(COUNT, Schema.OPTIONAL_INT64_SCHEMA)
+                .field(MEAN_NN, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(SDNN, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(RMSSD, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(PNN50, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .build();
+        /** Bytes per buffered interval: timestamp and interval. */
+        private static final int ENTRY_SIZE = 16;
+        /** Successive differences larger than this many milliseconds count towards NN50. */
+        private static final double NN50_THRESHOLD = 50.0;
+        private static final byte[] EMPTY = new byte[0];
+        private final int reorderSize;
+
+        HrvUdafImpl(int reorderSize) {
+            if (reorderSize < 0) {
+                throw new IllegalArgumentException(
+                        "Reorder buffer size must not be negative: " + reorderSize);
+            }
+            this.reorderSize = reorderSize;
+        }
+
+        @Override
+        public Struct initialize() {
+            return new Struct(STRUCT_SCHEMA)
+                    .put(COUNT, 0L)
+                    .put(MEAN, 0.0)
+                    .put(M2, 0.0)
+                    .put(DIFF_COUNT, 0L)
+                    .put(SSD, 0.0)
+                    .put(NN50, 0L)
+                    .put(BUFFER, EMPTY);
+        }
+
+        @Override
+        public Struct aggregate(Struct current, Struct aggregate) {
+            if (current==null) return aggregate;
+            Double ibi = current.getFloat64(DecayingSamplingReservoirUdaf.VAL);
+            Long time = current.getInt64(DecayingSamplingReservoirUdaf.TS);
+            if (ibi==null || time==null) return aggregate;
+
+            long n = aggregate.getInt64(COUNT) + 1;
+            double mean = aggregate.getFloat64(MEAN);
+            double delta = ibi - mean;
+            double newMean = mean + delta / n;
+            aggregate
+                    .put(COUNT, n)
+                    .put(MEAN, newMean)
+                    .put(M2, aggregate.getFloat64(M2) + delta * (ibi - newMean));
+
+            insert(aggregate, time, ibi);
+            return aggregate;
+        }
+
+        /**
+         * Adds an interval to the reorder buffer, committing the oldest interval if the buffer is
+         * full. Intervals older than the last committed interval are dropped.
+         */
+        private void insert(Struct agg, long time, double ibi) {
+            Long lastTime = agg.getInt64(LAST_TS);
+            if (lastTime!=null && time < lastTime) return;
+
+            byte[] buffer = agg.getBytes(BUFFER);
+            int size = buffer.length / ENTRY_SIZE;
+            ByteBuffer entries = ByteBuffer.wrap(buffer);
+            if (size < reorderSize) {
+                int index = upperBound(entries, size, time);
+                byte[] result = new byte[buffer.length + ENTRY_SIZE];
+                System.arraycopy(buffer, 0, result, 0, index * ENTRY_SIZE);
+                System.arraycopy(buffer, index * ENTRY_SIZE, result, (index + 1) * ENTRY_SIZE,
+                        (size - index) * ENTRY_SIZE);
+                ByteBuffer.wrap(result)
+                        .putLong(index * ENTRY_SIZE, time)
+                        .putDouble(index * ENTRY_SIZE + 8, ibi);
+                agg.put(BUFFER, result);
+            } else if (size==0 || time < entries.getLong(0)) {
+                commit(agg, time, ibi);
+            } else {
+                commit(agg, entries.getLong(0), entries.getDouble(8));
+                // shift the older entries out in place
+                int index = upperBound(entries, size, time);
+                System.arraycopy(buffer, ENTRY_SIZE, buffer, 0, (index - 1) * ENTRY_SIZE);
+                entries.putLong((index - 1) * ENTRY_SIZE, time)
+                        .putDouble((index - 1) * ENTRY_SIZE + 8, ibi);
+            }
+        }
+
+        private static int upperBound(ByteBuffer entries, int size, long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (entries.getLong(mid * ENTRY_SIZE) <= time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /** Adds an interval to the successive differences, in order of time. */
+        private static void commit(Struct agg, long time, double ibi) {
+            Double lastIbi = agg.getFloat64(LAST_IBI);
+            if (lastIbi==null) {
+                agg.put(FIRST_TS, time).put(FIRST_IBI, ibi);
+            } else {
+                double diff = ibi - lastIbi;
+                agg.put(DIFF_COUNT, agg.getInt64(DIFF_COUNT) + 1)
+                        .put(SSD, agg.getFloat64(SSD) + diff * diff)
+                        .put(NN50, agg.getInt64(NN50)
+                                + (Math.abs(diff) > NN50_THRESHOLD ? 1 : 0));
+            }
+            agg.put(LAST_TS, time).put(LAST_IBI, ibi);
+        }
+
+        /** Commits all buffered intervals. */
+        private static void flush(Struct agg) {
+            ByteBuffer entries = ByteBuffer.wrap(agg.getBytes(BUFFER));
+            for (int i = 0; i < entries.capacity(); i += ENTRY_SIZE) {
+                commit(agg, entries.getLong(i), entries.getDouble(i + 8));
+            }
+            agg.put(BUFFER, EMPTY);
+        }
+
+        /** Timestamp of the first interval in order of time, or null if there is none. */
+        private static Long firstTime(Struct agg) {
+            if (agg.getInt64(LAST_TS)!=null) return agg.getInt64(FIRST_TS);
+            byte[] buffer = agg.getBytes(BUFFER);
+            return buffer.length==0 ? null : ByteBuffer.wrap(buffer).getLong(0);
+        }
+
+        /** Timestamp of the last interval in order of time, or null if there is none. */
+        private static Long lastTime(Struct agg) {
+            byte[] buffer = agg.getBytes(BUFFER);
+            if (buffer.length==0) return agg.getInt64(LAST_TS);
+            return ByteBuffer.wrap(buffer).getLong(buffer.length - ENTRY_SIZE);
+        }
+
+        /**
+         * Combines the moments and successive differences of the two aggregates. Neither input
+         * is modified.
+         *
+         * @param aggOne aggregate one
+         * @param aggTwo aggregate two
+         * @return merged result of the two aggregates
+         */
+        @Override
+        public Struct merge(Struct aggOne, Struct aggTwo) {
+            long countOne = aggOne.getInt64(COUNT);
+            long countTwo = aggTwo.getInt64(COUNT);
+
+            if (countOne==0) return aggTwo;
+            if (countTwo==0) return aggOne;
+
+            Long firstOne = firstTime(aggOne);
+            Long firstTwo = firstTime(aggTwo);
+            Struct earlier = aggOne;
+            Struct later = aggTwo;
+            if (firstTwo < firstOne) {
+                earlier = aggTwo;
+                later = aggOne;
+            }
+
+            double n1 = countOne;
+            double n2 = countTwo;
+            double n = n1 + n2;
+            double meanOne = aggOne.getFloat64(MEAN);
+            double delta = aggTwo.getFloat64(MEAN) - meanOne;
+
+            Struct result = new Struct(STRUCT_SCHEMA)
+                    .put(COUNT, countOne + countTwo)
+                    .put(MEAN, meanOne + delta * n2 / n)
+                    .put(M2, aggOne.getFloat64(M2) + aggTwo.getFloat64(M2)
+                            + delta * delta * n1 * n2 / n)
+                    .put(DIFF_COUNT, earlier.getInt64(DIFF_COUNT))
+                    .put(SSD, earlier.getFloat64(SSD))
+                    .put(NN50, earlier.getInt64(NN50))
+                    .put(FIRST_TS, earlier.getInt64(FIRST_TS))
+                    .put(FIRST_IBI, earlier.getFloat64(FIRST_IBI))
+                    .put(LAST_TS, earlier.getInt64(LAST_TS))
+                    .put(LAST_IBI, earlier.getFloat64(LAST_IBI))
+                    .put(BUFFER, earlier.getBytes(BUFFER).clone());
+
+            Long laterFirst = later.getInt64(FIRST_TS);
+            byte[] laterBuffer = later.getBytes(BUFFER);
+            if (later.getInt64(LAST_TS)!=null) {
+                if (lastTime(earlier) <= laterFirst) {
+                    // consecutive windows: connect the last interval to the first of the other
+                    flush(result);
+                    commit(result, laterFirst, later.getFloat64(FIRST_IBI));
+                    result.put(LAST_TS, later.getInt64(LAST_TS))
+                            .put(LAST_IBI, later.getFloat64(LAST_IBI))
+                            .put(BUFFER, laterBuffer.clone());
+                    laterBuffer = EMPTY;
+                }
+                result.put(DIFF_COUNT, result.getInt64(DIFF_COUNT) + later.getInt64(DIFF_COUNT))
+                        .put(SSD, result.getFloat64(SSD) + later.getFloat64(SSD))
+                        .put(NN50, result.getInt64(NN50) + later.getInt64(NN50));
+            }
+            ByteBuffer entries = ByteBuffer.wrap(laterBuffer);
+            for (int i = 0; i < entries.capacity(); i += ENTRY_SIZE) {
+                insert(result, entries.getLong(i), entries.getDouble(i + 8));
+            }
+            return result;
+        }
+
+        @Override
+        public Struct map(Struct agg) {
+            long count = agg.getInt64(COUNT);
+            if (count==0) return null;
+
+            long diffCount = agg.getInt64(DIFF_COUNT);
+            double ssd = agg.getFloat64(SSD);
+            long nn50 = agg.getInt64(NN50);
+            Double previous = agg.getFloat64(LAST_IBI);
+            ByteBuffer entries = ByteBuffer.wrap(agg.getBytes(BUFFER));
+            for (int i = 0; i < entries.capacity(); i += ENTRY_SIZE) {
+                double ibi = entries.getDouble(i + 8);
+                if (previous!=null) {
+                    double diff = ibi - previous;
+                    diffCount++;
+                    ssd += diff * diff;
+                    if (Math.abs(diff) > NN50_THRESHOLD) nn50++;
+                }
+                previous = ibi;
+            }
+
+            return new Struct(RETURN_STRUCT_SCHEMA)
+                    .put(COUNT, count)
+                    .put(MEAN_NN, agg.getFloat64(MEAN))
+                    .put(SDNN, count==1 ? 0.0 : Math.sqrt(agg.getFloat64(M2) / (count - 1)))
+                    .put(RMSSD, diffCount==0 ? null : Math.sqrt(ssd / diffCount))
+                    .put(PNN50, diffCount==0 ? null : 100.0 * nn50 / diffCount);
+        }
+    }
+}
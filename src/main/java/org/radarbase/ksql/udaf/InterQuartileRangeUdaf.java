@@ -3,17 +3,22 @@ package org.radarbase.ksql.udaf;
 import io.confluent.ksql.function.udaf.Udaf;
 import io.confluent.ksql.function.udaf.UdafDescription;
 import io.confluent.ksql.function.udaf.UdafFactory;
+import java.math.BigDecimal;
 import java.util.List;
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.apache.commons.math3.stat.descriptive.rank.Percentile;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.sketch.KllSketch;
 
-@UdafDescription(name = "iqr",
+@UdafDescription(name = InterQuartileRangeUdaf.NAME,
         author = "yatharthranjan",
         version = "1.0.0",
         description = "Calculates the Inter-Quartile Range of the values in a stream.")
 public class InterQuartileRangeUdaf {
 
+    public static final String NAME = "iqr";
+    private static final int RESERVOIR_SIZE = 1000;
+
     private InterQuartileRangeUdaf() {
 
     }
@@ -26,10 +31,123 @@ public class InterQuartileRangeUdaf {
         return new InterQuartileRangeUdafImpl();
     }
 
+    @UdafFactory(
+            description = "Calculates the Inter-Quartile Range of values in a stream using a "
+                    + "packed reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createPackedUdaf(int maxSize) {
+        return new PackedInterQuartileRangeUdafImpl(maxSize);
+    }
+
+    @UdafFactory(
+            description = "Calculates the interquartile range of INT values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Double> createIntUdaf() {
+        return NumericReservoirUdaf.ofInt(new PackedInterQuartileRangeUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the interquartile range of INT values in a stream using a "
+                    + "packed reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Double> createIntUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofInt(new PackedInterQuartileRangeUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the interquartile range of BIGINT values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Double> createLongUdaf() {
+        return NumericReservoirUdaf.ofLong(new PackedInterQuartileRangeUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the interquartile range of BIGINT values in a stream using a "
+                    + "packed reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Double> createLongUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofLong(new PackedInterQuartileRangeUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the interquartile range of DECIMAL values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<BigDecimal, Struct, Double> createDecimalUdaf() {
+        return NumericReservoirUdaf.ofDecimal(new PackedInterQuartileRangeUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the interquartile range of DECIMAL values in a stream using "
+                    + "a packed reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<BigDecimal, Struct, Double> createDecimalUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofDecimal(new PackedInterQuartileRangeUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the interquartile range of recent values in a stream, where "
+                    + "values lose half their weight every half-life in seconds. The input is a "
+                    + "struct of the value and its timestamp, e.g. STRUCT(VAL := x, TS := "
+                    + "ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = DecayingSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createDecayingUdaf(int halfLifeSeconds) {
+        return new DecayingInterQuartileRangeUdafImpl(halfLifeSeconds, RESERVOIR_SIZE);
+    }
+
+    @UdafFactory(
+            description = "Calculates the interquartile range of recent values in a stream, where "
+                    + "values lose half their weight every half-life in seconds, using a reservoir "
+                    + "of the given size.",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = DecayingSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createDecayingUdaf(int halfLifeSeconds,
+            int maxSize) {
+        return new DecayingInterQuartileRangeUdafImpl(halfLifeSeconds, maxSize);
+    }
+
+    @UdafFactory(
+            description = "Calculates the interquartile range of values in a stream from a "
+                    + "reservoir that is stratified by time, with at most the given number of "
+                    + "samples per bucket of the given duration in seconds and at most the given "
+                    + "number of most recent buckets. The input is a struct of the value and its "
+                    + "timestamp, e.g. STRUCT(VAL := x, TS := ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = StratifiedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createStratifiedUdaf(int bucketSeconds,
+            int bucketSize, int maxBuckets) {
+        return new StratifiedInterQuartileRangeUdafImpl(bucketSeconds, bucketSize, maxBuckets);
+    }
+
+    @UdafFactory(
+            description = "Estimates the Inter-Quartile Range of values in a stream using a "
+                    + "quantile sketch with the given normalized rank error, e.g. 0.01 for 1%.",
+            aggregateSchema = QuantileSketchUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createSketchUdaf(double rankError) {
+        return new InterQuartileRangeSketchUdafImpl(rankError);
+    }
+
+    private static Double interQuartileRange(double[] samples, int size) {
+        Percentile percentile = new Percentile();
+        percentile.setData(samples, 0, size);
+        return (percentile.evaluate(75) - percentile.evaluate(25));
+    }
+
     private static class InterQuartileRangeUdafImpl extends UniformSamplingReservoirUdaf<Double> {
 
         public InterQuartileRangeUdafImpl() {
-            super(Schema.OPTIONAL_FLOAT64_SCHEMA);
+            super(NAME, Schema.OPTIONAL_FLOAT64_SCHEMA);
         }
 
         @Override
@@ -37,9 +155,67 @@ public class InterQuartileRangeUdaf {
             List<Double> samples = agg.getArray(UniformSamplingReservoirUdaf.SAMPLES);
             if (samples.isEmpty()) return null;
 
-            DescriptiveStatistics ds =
-                    new DescriptiveStatistics(samples.stream().mapToDouble(v -> v).toArray());
-            return (ds.getPercentile(75) - ds.getPercentile(25));
+            return interQuartileRange(samples.stream().mapToDouble(v -> v).toArray(),
+                    samples.size());
+        }
+    }
+
+    private static class InterQuartileRangeSketchUdafImpl extends QuantileSketchUdaf {
+
+        public InterQuartileRangeSketchUdafImpl(double rankError) {
+            super(rankError);
+        }
+
+        @Override
+        public Double map(Struct agg) {
+            KllSketch sketch = getSketch(agg);
+            if (sketch.isEmpty()) return null;
+
+            return sketch.percentile(75) - sketch.percentile(25);
+        }
+    }
+
+    private static class PackedInterQuartileRangeUdafImpl extends PackedSamplingReservoirUdaf {
+
+        public PackedInterQuartileRangeUdafImpl(int maxSize) {
+            super(NAME, maxSize, true);
+        }
+
+        @Override
+        protected Double map(PackedReservoir reservoir) {
+            if (!reservoir.isSorted()) return super.map(reservoir);
+            return reservoir.percentile(75) - reservoir.percentile(25);
+        }
+
+        @Override
+        protected Double map(double[] samples, int size) {
+            return interQuartileRange(samples, size);
+        }
+    }
+
+    private static class DecayingInterQuartileRangeUdafImpl extends DecayingSamplingReservoirUdaf {
+
+        public DecayingInterQuartileRangeUdafImpl(int halfLifeSeconds, int maxSize) {
+            super(NAME, halfLifeSeconds, maxSize);
+        }
+
+        @Override
+        protected Double map(double[] samples, int size) {
+            return interQuartileRange(samples, size);
+        }
+    }
+
+    private static class StratifiedInterQuartileRangeUdafImpl
+            extends StratifiedSamplingReservoirUdaf {
+
+        public StratifiedInterQuartileRangeUdafImpl(int bucketSeconds, int bucketSize,
+                int maxBuckets) {
+            super(NAME, bucketSeconds, bucketSize, maxBuckets);
+        }
+
+        @Override
+        protected Double map(double[] samples, double[] weights, int size) {
+            return WeightedStatistics.interQuartileRange(samples, weights, size);
         }
     }
 }
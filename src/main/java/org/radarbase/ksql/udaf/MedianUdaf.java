@@ -3,17 +3,22 @@ package org.radarbase.ksql.udaf;
 import io.confluent.ksql.function.udaf.Udaf;
 import io.confluent.ksql.function.udaf.UdafDescription;
 import io.confluent.ksql.function.udaf.UdafFactory;
+import java.math.BigDecimal;
 import java.util.List;
 import org.apache.commons.math3.stat.StatUtils;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.sketch.KllSketch;
 
-@UdafDescription(name = "median",
+@UdafDescription(name = MedianUdaf.NAME,
         author = "yatharthranjan",
         version = "1.0.0",
         description = "Calculates the median of numbers in a stream.")
 public class MedianUdaf {
 
+    public static final String NAME = "median";
+    private static final int RESERVOIR_SIZE = 1000;
+
     private MedianUdaf() {
 
     }
@@ -26,10 +31,120 @@ public class MedianUdaf {
         return new MedianUdafImpl();
     }
 
+    @UdafFactory(
+            description = "Calculates the median of values in a stream using a packed reservoir "
+                    + "of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createPackedUdaf(int maxSize) {
+        return new PackedMedianUdafImpl(maxSize);
+    }
+
+    @UdafFactory(
+            description = "Calculates the median of INT values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Double> createIntUdaf() {
+        return NumericReservoirUdaf.ofInt(new PackedMedianUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the median of INT values in a stream using a packed "
+                    + "reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Double> createIntUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofInt(new PackedMedianUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the median of BIGINT values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Double> createLongUdaf() {
+        return NumericReservoirUdaf.ofLong(new PackedMedianUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the median of BIGINT values in a stream using a packed "
+                    + "reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Double> createLongUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofLong(new PackedMedianUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the median of DECIMAL values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<BigDecimal, Struct, Double> createDecimalUdaf() {
+        return NumericReservoirUdaf.ofDecimal(new PackedMedianUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the median of DECIMAL values in a stream using a packed "
+                    + "reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<BigDecimal, Struct, Double> createDecimalUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofDecimal(new PackedMedianUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the median of recent values in a stream, where values lose "
+                    + "half their weight every half-life in seconds. The input is a struct of the "
+                    + "value and its timestamp, e.g. STRUCT(VAL := x, TS := ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = DecayingSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createDecayingUdaf(int halfLifeSeconds) {
+        return new DecayingMedianUdafImpl(halfLifeSeconds, RESERVOIR_SIZE);
+    }
+
+    @UdafFactory(
+            description = "Calculates the median of recent values in a stream, where values lose "
+                    + "half their weight every half-life in seconds, using a reservoir of the "
+                    + "given size.",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = DecayingSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createDecayingUdaf(int halfLifeSeconds,
+            int maxSize) {
+        return new DecayingMedianUdafImpl(halfLifeSeconds, maxSize);
+    }
+
+    @UdafFactory(
+            description = "Calculates the median of values in a stream from a reservoir that "
+                    + "is stratified by time, with at most the given number of samples per "
+                    + "bucket of the given duration in seconds and at most the given number of "
+                    + "most recent buckets. The input is a struct of the value and its "
+                    + "timestamp, e.g. STRUCT(VAL := x, TS := ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = StratifiedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createStratifiedUdaf(int bucketSeconds,
+            int bucketSize, int maxBuckets) {
+        return new StratifiedMedianUdafImpl(bucketSeconds, bucketSize, maxBuckets);
+    }
+
+    @UdafFactory(
+            description = "Estimates the median of values in a stream using a quantile sketch "
+                    + "with the given normalized rank error, e.g. 0.01 for 1%.",
+            aggregateSchema = QuantileSketchUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createSketchUdaf(double rankError) {
+        return new MedianSketchUdafImpl(rankError);
+    }
+
+    private static Double median(double[] samples, int size) {
+        return StatUtils.percentile(samples, 0, size, 50);
+    }
+
     private static class MedianUdafImpl extends UniformSamplingReservoirUdaf<Double> {
 
         public MedianUdafImpl() {
-            super(Schema.OPTIONAL_FLOAT64_SCHEMA);
+            super(NAME, Schema.OPTIONAL_FLOAT64_SCHEMA);
         }
 
         @Override
@@ -37,7 +152,64 @@ public class MedianUdaf {
             List<Double> samples = agg.getArray(UniformSamplingReservoirUdaf.SAMPLES);
             if (samples.isEmpty()) return null;
 
-            return StatUtils.percentile(samples.stream().mapToDouble(v -> v).toArray(), 50);
+            return median(samples.stream().mapToDouble(v -> v).toArray(), samples.size());
+        }
+    }
+
+    private static class MedianSketchUdafImpl extends QuantileSketchUdaf {
+
+        public MedianSketchUdafImpl(double rankError) {
+            super(rankError);
+        }
+
+        @Override
+        public Double map(Struct agg) {
+            KllSketch sketch = getSketch(agg);
+            if (sketch.isEmpty()) return null;
+
+            return sketch.percentile(50);
+        }
+    }
+
+    private static class PackedMedianUdafImpl extends PackedSamplingReservoirUdaf {
+
+        public PackedMedianUdafImpl(int maxSize) {
+            super(NAME, maxSize, true);
+        }
+
+        @Override
+        protected Double map(PackedReservoir reservoir) {
+            if (!reservoir.isSorted()) return super.map(reservoir);
+            return reservoir.percentile(50);
+        }
+
+        @Override
+        protected Double map(double[] samples, int size) {
+            return median(samples, size);
+        }
+    }
+
+    private static class DecayingMedianUdafImpl extends DecayingSamplingReservoirUdaf {
+
+        public DecayingMedianUdafImpl(int halfLifeSeconds, int maxSize) {
+            super(NAME, halfLifeSeconds, maxSize);
+        }
+
+        @Override
+        protected Double map(double[] samples, int size) {
+            return median(samples, size);
+        }
+    }
+
+    private static class StratifiedMedianUdafImpl extends StratifiedSamplingReservoirUdaf {
+
+        public StratifiedMedianUdafImpl(int bucketSeconds, int bucketSize, int maxBuckets) {
+            super(NAME, bucketSeconds, bucketSize, maxBuckets);
+        }
+
+        @Override
+        protected Double map(double[] samples, double[] weights, int size) {
+            return WeightedStatistics.percentile(samples, weights, size, 50);
         }
     }
 }
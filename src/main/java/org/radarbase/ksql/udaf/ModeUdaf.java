@@ -3,17 +3,21 @@ package org.radarbase.ksql.udaf;
 import io.confluent.ksql.function.udaf.Udaf;
 import io.confluent.ksql.function.udaf.UdafDescription;
 import io.confluent.ksql.function.udaf.UdafFactory;
+import java.math.BigDecimal;
 import java.util.List;
 import org.apache.commons.math3.stat.StatUtils;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.Struct;
 
-@UdafDescription(name = "mode",
+@UdafDescription(name = ModeUdaf.NAME,
         author = "yatharthranjan",
         version = "1.0.0",
         description = "Calculates the mode of numbers in a stream.")
 public class ModeUdaf {
 
+    public static final String NAME = "mode";
+    private static final int RESERVOIR_SIZE = 1000;
+
     private ModeUdaf() {
 
     }
@@ -26,10 +30,111 @@ public class ModeUdaf {
         return new ModeUdafImpl();
     }
 
+    @UdafFactory(
+            description = "Calculates the mode of values in a stream using a packed reservoir "
+                    + "of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createPackedUdaf(int maxSize) {
+        return new PackedModeUdafImpl(maxSize);
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of INT values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Double> createIntUdaf() {
+        return NumericReservoirUdaf.ofInt(new PackedModeUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of INT values in a stream using a packed reservoir "
+                    + "of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Double> createIntUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofInt(new PackedModeUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of BIGINT values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Double> createLongUdaf() {
+        return NumericReservoirUdaf.ofLong(new PackedModeUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of BIGINT values in a stream using a packed "
+                    + "reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Double> createLongUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofLong(new PackedModeUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of DECIMAL values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<BigDecimal, Struct, Double> createDecimalUdaf() {
+        return NumericReservoirUdaf.ofDecimal(new PackedModeUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of DECIMAL values in a stream using a packed "
+                    + "reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<BigDecimal, Struct, Double> createDecimalUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofDecimal(new PackedModeUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of recent values in a stream, where values lose "
+                    + "half their weight every half-life in seconds. The input is a struct of the "
+                    + "value and its timestamp, e.g. STRUCT(VAL := x, TS := ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = DecayingSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createDecayingUdaf(int halfLifeSeconds) {
+        return new DecayingModeUdafImpl(halfLifeSeconds, RESERVOIR_SIZE);
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of recent values in a stream, where values lose "
+                    + "half their weight every half-life in seconds, using a reservoir of the "
+                    + "given size.",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = DecayingSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createDecayingUdaf(int halfLifeSeconds,
+            int maxSize) {
+        return new DecayingModeUdafImpl(halfLifeSeconds, maxSize);
+    }
+
+    @UdafFactory(
+            description = "Calculates the mode of values in a stream from a reservoir that "
+                    + "is stratified by time, with at most the given number of samples per "
+                    + "bucket of the given duration in seconds and at most the given number of "
+                    + "most recent buckets. The input is a struct of the value and its "
+                    + "timestamp, e.g. STRUCT(VAL := x, TS := ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = StratifiedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createStratifiedUdaf(int bucketSeconds,
+            int bucketSize, int maxBuckets) {
+        return new StratifiedModeUdafImpl(bucketSeconds, bucketSize, maxBuckets);
+    }
+
+    private static Double mode(double[] samples, int size) {
+        return StatUtils.mode(samples, 0, size)[0];
+    }
+
     private static class ModeUdafImpl extends UniformSamplingReservoirUdaf<Double> {
 
         public ModeUdafImpl() {
-            super(Schema.OPTIONAL_FLOAT64_SCHEMA);
+            super(NAME, Schema.OPTIONAL_FLOAT64_SCHEMA);
         }
 
         @Override
@@ -37,7 +142,49 @@ public class ModeUdaf {
             List<Double> samples = agg.getArray(UniformSamplingReservoirUdaf.SAMPLES);
             if (samples.isEmpty()) return null;
 
-            return StatUtils.mode(samples.stream().mapToDouble(v -> v).toArray())[0];
+            return mode(samples.stream().mapToDouble(v -> v).toArray(), samples.size());
+        }
+    }
+
+    private static class PackedModeUdafImpl extends PackedSamplingReservoirUdaf {
+
+        public PackedModeUdafImpl(int maxSize) {
+            super(NAME, maxSize, true);
+        }
+
+        @Override
+        protected Double map(PackedReservoir reservoir) {
+            if (!reservoir.isSorted()) return super.map(reservoir);
+            return reservoir.mode();
+        }
+
+        @Override
+        protected Double map(double[] samples, int size) {
+            return mode(samples, size);
+        }
+    }
+
+    private static class DecayingModeUdafImpl extends DecayingSamplingReservoirUdaf {
+
+        public DecayingModeUdafImpl(int halfLifeSeconds, int maxSize) {
+            super(NAME, halfLifeSeconds, maxSize);
+        }
+
+        @Override
+        protected Double map(double[] samples, int size) {
+            return mode(samples, size);
+        }
+    }
+
+    private static class StratifiedModeUdafImpl extends StratifiedSamplingReservoirUdaf {
+
+        public StratifiedModeUdafImpl(int bucketSeconds, int bucketSize, int maxBuckets) {
+            super(NAME, bucketSeconds, bucketSize, maxBuckets);
+        }
+
+        @Override
+        protected Double map(double[] samples, double[] weights, int size) {
+            return WeightedStatistics.mode(samples, weights, size);
         }
     }
 }
@@ -0,0 +1,106 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.math.BigDecimal;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.udaf.PackedReservoir.Encoding;
+
+/**
+ * Adapts a {@link PackedSamplingReservoirUdaf} to integer and decimal input, so that these
+ * columns need not be cast to DOUBLE. Samples are stored in the reservoir with an integer
+ * encoding: INT values as 32-bit ints, BIGINT values as 64-bit longs and DECIMAL values as longs
+ * scaled by the scale of the first value in the aggregate. The measure is computed on doubles as
+ * before.
+ *
+ * @param <I> input type
+ */
+public abstract class NumericReservoirUdaf<I> implements Udaf<I, Struct, Double> {
+
+    private final PackedSamplingReservoirUdaf delegate;
+
+    NumericReservoirUdaf(PackedSamplingReservoirUdaf delegate, Encoding encoding) {
+        this.delegate = delegate;
+        delegate.setEncoding(encoding);
+    }
+
+    /** Reservoir UDAF for INT values. */
+    public static Udaf<Integer, Struct, Double> ofInt(PackedSamplingReservoirUdaf delegate) {
+        return new NumericReservoirUdaf<Integer>(delegate, Encoding.INT32) {
+            @Override
+            protected double toDouble(Integer value) {
+                return value;
+            }
+        };
+    }
+
+    /** Reservoir UDAF for BIGINT values. */
+    public static Udaf<Long, Struct, Double> ofLong(PackedSamplingReservoirUdaf delegate) {
+        return new NumericReservoirUdaf<Long>(delegate, Encoding.INT64) {
+            @Override
+            protected double toDouble(Long value) {
+                return value;
+            }
+        };
+    }
+
+    /** Reservoir UDAF for DECIMAL values. */
+    public static Udaf<BigDecimal, Struct, Double> ofDecimal(
+            PackedSamplingReservoirUdaf delegate) {
+        return new DecimalReservoirUdaf(delegate);
+    }
+
+    protected abstract double toDouble(I value);
+
+    @Override
+    public Struct initialize() {
+        return delegate.initialize();
+    }
+
+    @Override
+    public Struct aggregate(I current, Struct aggregate) {
+        if (current==null) return aggregate;
+
+        return delegate.aggregate(toDouble(current), aggregate);
+    }
+
+    @Override
+    public Struct merge(Struct aggOne, Struct aggTwo) {
+        return delegate.merge(aggOne, aggTwo);
+    }
+
+    @Override
+    public Double map(Struct agg) {
+        return delegate.map(agg);
+    }
+
+    PackedSamplingReservoirUdaf getDelegate() {
+        return delegate;
+    }
+
+    private static class DecimalReservoirUdaf extends NumericReservoirUdaf<BigDecimal> {
+        private static final int MAX_SCALE = 18;
+
+        DecimalReservoirUdaf(PackedSamplingReservoirUdaf delegate) {
+            super(delegate, Encoding.DECIMAL64);
+        }
+
+        @Override
+        protected double toDouble(BigDecimal value) {
+            return value.doubleValue();
+        }
+
+        @Override
+        public Struct aggregate(BigDecimal current, Struct aggregate) {
+            if (current==null) return aggregate;
+
+            PackedReservoir reservoir = PackedSamplingReservoirUdaf.getReservoir(aggregate);
+            int scale = Math.min(Math.max(current.scale(), 0), MAX_SCALE);
+            if (reservoir.getCount()==0L && reservoir.getScale()!=scale) {
+                // the scale of the column is only known from its values
+                aggregate.put(PackedSamplingReservoirUdaf.RESERVOIR, PackedReservoir.empty(
+                        Encoding.DECIMAL64, scale, getDelegate().isSorted()));
+            }
+            return super.aggregate(current, aggregate);
+        }
+    }
+}
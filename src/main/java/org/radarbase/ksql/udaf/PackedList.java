@@ -0,0 +1,311 @@
+package org.radarbase.ksql.udaf;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.radarbase.ksql.udaf.PackedReservoir.Encoding;
+
+/**
+ * Compact binary encoding of a bounded list of numbers, used as the aggregate of the
+ * {@link PackedListUdaf}. The layout is
+ * <pre>
+ *   version (1 byte) | encoding (1 byte) | flags (1 byte) | count (8 bytes) | entries
+ * </pre>
+ * where count is the number of values added to the list, including values that were dropped
+ * or not sampled. Each entry is a big-endian value with the width of the encoding, preceded by
+ * an 8-byte timestamp if the timed flag is set. The entries of a timed list are kept in
+ * ascending order of time, so that first and last refer to the time of the values rather than
+ * their arrival. The number of entries follows from the length of the array.
+ *
+ * <p>Values are passed as raw longs: the bits of a double for {@link Encoding#FLOAT64}, and the
+ * value itself for the integer encodings. Instances are lightweight views on the encoded bytes.
+ * Once the list is full, updates are done in place by shifting entries within the same array.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public final class PackedList {
+
+    public static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 11;
+    private static final int COUNT_OFFSET = 3;
+    private static final byte FLAG_TIMED = 0x01;
+
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private final Encoding encoding;
+    private final boolean timed;
+    private final int entryWidth;
+
+    private PackedList(byte[] bytes, Encoding encoding, boolean timed) {
+        this.bytes = bytes;
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.encoding = encoding;
+        this.timed = timed;
+        this.entryWidth = entryWidth(encoding, timed);
+    }
+
+    /**
+     * Parses the header of an encoded list.
+     *
+     * @param bytes encoded list
+     * @return view on the list
+     * @throws IllegalArgumentException if the bytes are not a supported list encoding.
+     */
+    public static PackedList wrap(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH || bytes[0]!=VERSION) {
+            throw new IllegalArgumentException("Unsupported list format");
+        }
+        Encoding encoding = checkEncoding(Encoding.forId(bytes[1]));
+        boolean timed = (bytes[2] & FLAG_TIMED)!=0;
+        if ((bytes.length - HEADER_LENGTH) % entryWidth(encoding, timed)!=0) {
+            throw new IllegalArgumentException("Truncated list");
+        }
+        return new PackedList(bytes, encoding, timed);
+    }
+
+    /**
+     * Encodes an empty list.
+     *
+     * @param encoding encoding of the values: float64, int64 or int32
+     * @param timed whether values have a timestamp and are ordered by it
+     * @return encoded list
+     */
+    public static byte[] empty(Encoding encoding, boolean timed) {
+        byte[] bytes = new byte[HEADER_LENGTH];
+        bytes[0] = VERSION;
+        bytes[1] = checkEncoding(encoding).getId();
+        bytes[2] = timed ? FLAG_TIMED : 0;
+        return bytes;
+    }
+
+    private static Encoding checkEncoding(Encoding encoding) {
+        if (encoding!=Encoding.FLOAT64 && encoding!=Encoding.INT64
+                && encoding!=Encoding.INT32) {
+            throw new IllegalArgumentException("Unsupported list encoding " + encoding);
+        }
+        return encoding;
+    }
+
+    private static int entryWidth(Encoding encoding, boolean timed) {
+        return encoding.getWidth() + (timed ? Long.BYTES : 0);
+    }
+
+    /** Number of values added to the list. */
+    public long getCount() {
+        return buffer.getLong(COUNT_OFFSET);
+    }
+
+    /** Number of values in the list. */
+    public int size() {
+        return (bytes.length - HEADER_LENGTH) / entryWidth;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    public boolean isTimed() {
+        return timed;
+    }
+
+    /** Raw value at an index: the bits of a double or an integer value. */
+    public long getRaw(int index) {
+        int offset = valueOffset(index);
+        return encoding==Encoding.INT32 ? buffer.getInt(offset) : buffer.getLong(offset);
+    }
+
+    /** Value at an index as double. */
+    public double getDouble(int index) {
+        long raw = getRaw(index);
+        return encoding==Encoding.FLOAT64 ? Double.longBitsToDouble(raw) : raw;
+    }
+
+    /** Timestamp at an index of a timed list. */
+    public long getTime(int index) {
+        if (!timed) throw new IllegalStateException("List values have no time");
+        return buffer.getLong(HEADER_LENGTH + index * entryWidth);
+    }
+
+    /**
+     * Adds a value. Until the list is full, the value is inserted into a larger copy. After that,
+     * the policy determines which value is dropped, and the remaining entries are shifted in
+     * place to make room for the new value at its position.
+     *
+     * @param raw raw value, see {@link #getRaw(int)}
+     * @param time timestamp of the value, ignored if the list is not timed
+     * @param maxSize maximum number of values in the list
+     * @param policy values to keep once the list is full
+     * @param random source of randomness for sampling
+     * @return encoded list, which may be the same array as the original
+     */
+    public byte[] add(long raw, long time, int maxSize, CollectPolicy policy, Random random) {
+        long newCount = getCount() + 1;
+        int size = size();
+        byte[] result;
+        int index;
+        if (size < maxSize) {
+            index = timed ? upperBound(time, size) : size;
+            result = new byte[bytes.length + entryWidth];
+            int offset = HEADER_LENGTH + index * entryWidth;
+            System.arraycopy(bytes, 0, result, 0, offset);
+            System.arraycopy(bytes, offset, result, offset + entryWidth, bytes.length - offset);
+        } else {
+            int remove = removalIndex(time, newCount, size, policy, random);
+            if (remove < 0) {
+                buffer.putLong(COUNT_OFFSET, newCount);
+                return bytes;
+            }
+            result = bytes;
+            // a sampled untimed value takes the place of the one it replaces
+            int insert = !timed && policy==CollectPolicy.SAMPLE ? remove : upperBound(time, size);
+            if (insert > remove) {
+                moveEntries(remove + 1, remove, insert - remove - 1);
+                index = insert - 1;
+            } else {
+                moveEntries(insert, insert + 1, remove - insert);
+                index = insert;
+            }
+        }
+        ByteBuffer target = ByteBuffer.wrap(result);
+        target.putLong(COUNT_OFFSET, newCount);
+        writeEntry(target, index, raw, time);
+        return result;
+    }
+
+    /** Index of the entry to drop for a new value in a full list, or -1 to drop the value. */
+    private int removalIndex(long time, long newCount, int size, CollectPolicy policy,
+            Random random) {
+        switch (policy) {
+            case FIRST:
+                return timed && time < getTime(size - 1) ? size - 1 : -1;
+            case LAST:
+                return !timed || time >= getTime(0) ? 0 : -1;
+            default:
+                // Algorithm R: the new value is kept with probability size / count
+                long draw = (long) (random.nextDouble() * newCount);
+                return draw < size ? (int) draw : -1;
+        }
+    }
+
+    /** Index of the first entry with a later time, or the size if the list is untimed. */
+    private int upperBound(long time, int size) {
+        if (!timed) return size;
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTime(mid) <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void moveEntries(int from, int to, int length) {
+        if (length > 0) {
+            System.arraycopy(bytes, HEADER_LENGTH + from * entryWidth,
+                    bytes, HEADER_LENGTH + to * entryWidth, length * entryWidth);
+        }
+    }
+
+    private void writeEntry(ByteBuffer target, int index, long raw, long time) {
+        int offset = HEADER_LENGTH + index * entryWidth;
+        if (timed) {
+            target.putLong(offset, time);
+            offset += Long.BYTES;
+        }
+        if (encoding==Encoding.INT32) {
+            target.putInt(offset, (int) raw);
+        } else {
+            target.putLong(offset, raw);
+        }
+    }
+
+    private int valueOffset(int index) {
+        return HEADER_LENGTH + index * entryWidth + (timed ? Long.BYTES : 0);
+    }
+
+    /**
+     * Merges two lists with the same encoding into a new list. First and last keep the values
+     * of the first list before those of the second, or of the earliest or latest time if the
+     * lists are timed. A sample draws the number of values from each list so that the result
+     * is a uniform sample of the values of both. Neither input is modified.
+     *
+     * @param one first list
+     * @param two second list
+     * @param maxSize maximum number of values in the merged list
+     * @param policy values to keep if the lists do not fit together
+     * @param random source of randomness for sampling
+     * @return encoded merged list
+     */
+    public static byte[] merge(PackedList one, PackedList two, int maxSize,
+            CollectPolicy policy, Random random) {
+        if (one.encoding!=two.encoding || one.timed!=two.timed) {
+            throw new IllegalArgumentException("Cannot merge lists with different encodings");
+        }
+        int size1 = one.size();
+        int size2 = two.size();
+        int newSize = Math.min(maxSize, size1 + size2);
+        int[] selected1;
+        int[] selected2;
+        if (policy==CollectPolicy.SAMPLE && size1 + size2 > maxSize) {
+            int newSize1 = ReservoirSampling.drawFirstSize(one.getCount(), two.getCount(),
+                    size1, size2, newSize, random);
+            selected1 = selectIndices(size1, newSize1, random);
+            selected2 = selectIndices(size2, newSize - newSize1, random);
+        } else {
+            selected1 = selectIndices(size1, size1, random);
+            selected2 = selectIndices(size2, size2, random);
+        }
+
+        // order of all selected entries: positive for the first list, negative for the second
+        int total = selected1.length + selected2.length;
+        int[] order = new int[total];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < total; k++) {
+            boolean takeOne = j==selected2.length || i < selected1.length && (!one.timed
+                    || one.getTime(selected1[i]) <= two.getTime(selected2[j]));
+            order[k] = takeOne ? selected1[i++] + 1 : -(selected2[j++] + 1);
+        }
+
+        int start = policy==CollectPolicy.LAST ? total - newSize : 0;
+        int width = one.entryWidth;
+        byte[] result = new byte[HEADER_LENGTH + newSize * width];
+        System.arraycopy(one.bytes, 0, result, 0, COUNT_OFFSET);
+        ByteBuffer.wrap(result).putLong(COUNT_OFFSET, one.getCount() + two.getCount());
+        for (int k = 0; k < newSize; k++) {
+            int entry = order[start + k];
+            PackedList source = entry > 0 ? one : two;
+            int index = Math.abs(entry) - 1;
+            System.arraycopy(source.bytes, HEADER_LENGTH + index * width,
+                    result, HEADER_LENGTH + k * width, width);
+        }
+        return result;
+    }
+
+    /** Ascending indices of a uniform sample of k out of size entries. */
+    private static int[] selectIndices(int size, int k, Random random) {
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+        if (k==size) return indices;
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(size - i);
+            int tmp = indices[i];
+            indices[i] = indices[j];
+            indices[j] = tmp;
+        }
+        int[] selected = Arrays.copyOf(indices, k);
+        Arrays.sort(selected);
+        return selected;
+    }
+
+    @Override
+    public String toString() {
+        return "PackedList{encoding=" + encoding + ", timed=" + timed + ", count=" + getCount()
+                + ", size=" + size() + '}';
+    }
+}
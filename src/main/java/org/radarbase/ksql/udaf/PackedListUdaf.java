@@ -0,0 +1,253 @@
+package org.radarbase.ksql.udaf;
+
+import static org.radarbase.ksql.udaf.DecayingSamplingReservoirUdaf.TS;
+import static org.radarbase.ksql.udaf.DecayingSamplingReservoirUdaf.VAL;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.udaf.PackedReservoir.Encoding;
+import org.radarbase.ksql.util.FunctionMetrics;
+import org.radarbase.ksql.util.UdafMetrics;
+
+/**
+ * Collects numbers into a bounded list that is stored in a single BYTES field using the compact
+ * {@link PackedList} encoding instead of an array of boxed values. DOUBLE values are stored as
+ * 64-bit doubles, BIGINT values as longs and INT values as ints.
+ *
+ * <p>Once the list is full, the {@link CollectPolicy} determines which values are kept. Timed
+ * lists take a struct of the value and its timestamp, e.g.
+ * {@code STRUCT(VAL := x, TS := ROWTIME)}, and keep their values ordered by time, so that
+ * out-of-order records are inserted at their position and first and last refer to event time.
+ *
+ * <p>When metrics are enabled, see {@link FunctionMetrics}, calls are counted and sampled calls
+ * are timed.
+ *
+ * @param <I> input type
+ * @param <T> value type
+ */
+public abstract class PackedListUdaf<I, T> implements Udaf<I, Struct, List<T>>, Configurable {
+
+    public static final String LIST = "LIST";
+    public static final String AGGREGATE_SCHEMA = "STRUCT<LIST bytes>";
+    private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+            .field(LIST, Schema.OPTIONAL_BYTES_SCHEMA)
+            .build();
+    private final String name;
+    private final int maxSize;
+    private final CollectPolicy policy;
+    private final Encoding encoding;
+    private final boolean timed;
+    private UdafMetrics metrics = UdafMetrics.DISABLED;
+
+    PackedListUdaf(String name, int maxSize, CollectPolicy policy, Encoding encoding,
+            boolean timed) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("List size must be positive: " + maxSize);
+        }
+        this.name = name;
+        this.maxSize = maxSize;
+        this.policy = policy;
+        this.encoding = encoding;
+        this.timed = timed;
+    }
+
+    /** Bounded list of DOUBLE values. */
+    public static Udaf<Double, Struct, List<Double>> ofDouble(String name, int maxSize,
+            CollectPolicy policy) {
+        return new DoubleListUdafImpl(name, maxSize, policy);
+    }
+
+    /** Bounded list of DOUBLE values ordered by time, from a struct of value and timestamp. */
+    public static Udaf<Struct, Struct, List<Double>> ofTimedDouble(String name, int maxSize,
+            CollectPolicy policy) {
+        return new TimedDoubleListUdafImpl(name, maxSize, policy);
+    }
+
+    /** Bounded list of BIGINT values. */
+    public static Udaf<Long, Struct, List<Long>> ofLong(String name, int maxSize,
+            CollectPolicy policy) {
+        return new LongListUdafImpl(name, maxSize, policy);
+    }
+
+    /** Bounded list of INT values. */
+    public static Udaf<Integer, Struct, List<Integer>> ofInt(String name, int maxSize,
+            CollectPolicy policy) {
+        return new IntListUdafImpl(name, maxSize, policy);
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        metrics = FunctionMetrics.udafMetrics(configs, name, getClass());
+    }
+
+    /**
+     * Raw value to store, see {@link PackedList#getRaw(int)}.
+     *
+     * @param current input
+     * @return raw value, or null if the input has no value
+     */
+    protected abstract Long toRaw(I current);
+
+    /** Value from its raw representation. */
+    protected abstract T fromRaw(long raw);
+
+    /** Timestamp of an input of a timed list that has a value. */
+    protected long getTime(I current) {
+        return 0L;
+    }
+
+    @Override
+    public Struct initialize() {
+        return new Struct(STRUCT_SCHEMA).put(LIST, PackedList.empty(encoding, timed));
+    }
+
+    @Override
+    public Struct aggregate(I current, Struct aggregate) {
+        if (current==null) return aggregate;
+        Long raw = toRaw(current);
+        if (raw==null) return aggregate;
+
+        long start = metrics.start();
+        PackedList list = getList(aggregate);
+        aggregate.put(LIST, list.add(raw, getTime(current), maxSize, policy,
+                ThreadLocalRandom.current()));
+        metrics.recordAggregate(start, metrics.isSampled(start) ? list.size() : 0);
+        return aggregate;
+    }
+
+    /**
+     * Merges the aggregates into a new list, see {@link PackedList#merge}. Neither input is
+     * modified.
+     *
+     * @param aggOne aggregate one
+     * @param aggTwo aggregate two
+     * @return merged result of the two aggregates
+     */
+    @Override
+    public Struct merge(Struct aggOne, Struct aggTwo) {
+        long start = metrics.start();
+        byte[] merged = PackedList.merge(getList(aggOne), getList(aggTwo), maxSize, policy,
+                ThreadLocalRandom.current());
+        Struct result = new Struct(STRUCT_SCHEMA).put(LIST, merged);
+        metrics.recordMerge(start,
+                metrics.isSampled(start) ? PackedList.wrap(merged).size() : 0);
+        return result;
+    }
+
+    @Override
+    public List<T> map(Struct agg) {
+        long start = metrics.start();
+        PackedList list = getList(agg);
+        int size = list.size();
+        List<T> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(fromRaw(list.getRaw(i)));
+        }
+        metrics.recordMap(start);
+        return result;
+    }
+
+    /**
+     * View of the list in the aggregate, without copying the values.
+     *
+     * @param agg aggregate
+     * @return list
+     */
+    public static PackedList getList(Struct agg) {
+        return PackedList.wrap(agg.getBytes(LIST));
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public CollectPolicy getPolicy() {
+        return policy;
+    }
+
+    public boolean isTimed() {
+        return timed;
+    }
+
+    public Schema getStructSchema() {
+        return STRUCT_SCHEMA;
+    }
+
+    private static class DoubleListUdafImpl extends PackedListUdaf<Double, Double> {
+        DoubleListUdafImpl(String name, int maxSize, CollectPolicy policy) {
+            super(name, maxSize, policy, Encoding.FLOAT64, false);
+        }
+
+        @Override
+        protected Long toRaw(Double current) {
+            return Double.doubleToLongBits(current);
+        }
+
+        @Override
+        protected Double fromRaw(long raw) {
+            return Double.longBitsToDouble(raw);
+        }
+    }
+
+    private static class TimedDoubleListUdafImpl extends PackedListUdaf<Struct, Double> {
+        TimedDoubleListUdafImpl(String name, int maxSize, CollectPolicy policy) {
+            super(name, maxSize, policy, Encoding.FLOAT64, true);
+        }
+
+        @Override
+        protected Long toRaw(Struct current) {
+            Double value = current.getFloat64(VAL);
+            if (value==null || current.getInt64(TS)==null) return null;
+            return Double.doubleToLongBits(value);
+        }
+
+        @Override
+        protected long getTime(Struct current) {
+            return current.getInt64(TS);
+        }
+
+        @Override
+        protected Double fromRaw(long raw) {
+            return Double.longBitsToDouble(raw);
+        }
+    }
+
+    private static class LongListUdafImpl extends PackedListUdaf<Long, Long> {
+        LongListUdafImpl(String name, int maxSize, CollectPolicy policy) {
+            super(name, maxSize, policy, Encoding.INT64, false);
+        }
+
+        @Override
+        protected Long toRaw(Long current) {
+            return current;
+        }
+
+        @Override
+        protected Long fromRaw(long raw) {
+            return raw;
+        }
+    }
+
+    private static class IntListUdafImpl extends PackedListUdaf<Integer, Integer> {
+        IntListUdafImpl(String name, int maxSize, CollectPolicy policy) {
+            super(name, maxSize, policy, Encoding.INT32, false);
+        }
+
+        @Override
+        protected Long toRaw(Integer current) {
+            return current.longValue();
+        }
+
+        @Override
+        protected Integer fromRaw(long raw) {
+            return (int) raw;
+        }
+    }
+}
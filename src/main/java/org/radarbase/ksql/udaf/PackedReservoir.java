@@ -0,0 +1,596 @@
+package org.radarbase.ksql.udaf;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of a sampling reservoir, used as the aggregate of the
+ * {@link PackedSamplingReservoirUdaf}. The layout is
+ * <pre>
+ *   version (1 byte) | encoding (1 byte) | flags (1 byte) [| scale (1 byte)] | count (varint)
+ *       [| size (4 bytes)] [| next index (varint) | skip weight (8 bytes)] | samples
+ * </pre>
+ * where count is the number of values added to the reservoir and the samples are packed
+ * big-endian values with the width of the encoding. Integer samples are stored as longs or ints,
+ * and decimal samples as longs that are scaled by {@code 10^scale}, where the scale is only
+ * present in the header of the decimal encoding. The number of samples follows from the
+ * length of the array, unless the size flag is set. Then the header holds the number of samples
+ * and the remainder of the array is free for samples that are appended later. While the
+ * reservoir is filled, its capacity doubles whenever it is used up, so that most values are
+ * appended in place and a reservoir is copied a logarithmic number of times before it is full.
+ * Full reservoirs are stored without size. If the skip flag is set, the header also stores the
+ * Algorithm-L state of a full reservoir: the number of the next value that will be added to the
+ * reservoir and the current weight from which the following skip is drawn. If the sorted flag is
+ * set, the samples are kept in ascending order, so that order statistics can be read directly and
+ * mutations keep the order by binary insertion.
+ *
+ * <p>Instances are lightweight views on the encoded bytes; samples are read through
+ * {@link ByteBuffer} views without copying. Mutations write to the same array when possible and
+ * return the array that holds the result.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public final class PackedReservoir {
+
+    public static final byte VERSION = 1;
+    private static final int FIXED_HEADER_LENGTH = 3;
+    private static final byte FLAG_SKIP = 0x01;
+    private static final byte FLAG_SORTED = 0x02;
+    private static final byte FLAG_SIZE = 0x04;
+    private static final int MIN_CAPACITY = 8;
+    private static final int MAX_SCALE = 18;
+    private static final double[] POWERS_OF_TEN = new double[MAX_SCALE + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    private final byte[] bytes;
+    private final Encoding encoding;
+    private final int scale;
+    private final long count;
+    private final boolean hasSkipState;
+    private final boolean sorted;
+    private final boolean hasSize;
+    private final int size;
+    private final long nextIndex;
+    private final double skipWeight;
+    private final int headerLength;
+
+    /** Width and representation of the samples in a reservoir. */
+    public enum Encoding {
+        /** Samples are stored as 64-bit doubles. */
+        FLOAT64(0, Double.BYTES),
+        /** Samples are stored as 32-bit floats, halving the size at reduced precision. */
+        FLOAT32(1, Float.BYTES),
+        /** Samples are integers stored as 64-bit longs. */
+        INT64(2, Long.BYTES),
+        /** Samples are integers stored as 32-bit ints. */
+        INT32(3, Integer.BYTES),
+        /** Samples are decimals stored as 64-bit longs with a fixed scale. */
+        DECIMAL64(4, Long.BYTES);
+
+        private final byte id;
+        private final int width;
+
+        Encoding(int id, int width) {
+            this.id = (byte) id;
+            this.width = width;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        byte getId() {
+            return id;
+        }
+
+        public boolean isFloatingPoint() {
+            return this==FLOAT64 || this==FLOAT32;
+        }
+
+        static Encoding forId(byte id) {
+            for (Encoding encoding : values()) {
+                if (encoding.id==id) return encoding;
+            }
+            throw new IllegalArgumentException("Unknown reservoir encoding " + id);
+        }
+    }
+
+    private PackedReservoir(byte[] bytes, Encoding encoding, ByteBuffer header) {
+        this.bytes = bytes;
+        this.encoding = encoding;
+        this.scale = encoding==Encoding.DECIMAL64 ? checkScale(header.get()) : 0;
+        this.count = readVarLong(header);
+        this.hasSkipState = (bytes[2] & FLAG_SKIP)!=0;
+        this.sorted = (bytes[2] & FLAG_SORTED)!=0;
+        this.hasSize = (bytes[2] & FLAG_SIZE)!=0;
+        int headerSize = hasSize ? header.getInt() : -1;
+        if (hasSkipState) {
+            this.nextIndex = readVarLong(header);
+            this.skipWeight = header.getDouble();
+        } else {
+            this.nextIndex = -1L;
+            this.skipWeight = Double.NaN;
+        }
+        this.headerLength = header.position();
+        int capacity = (bytes.length - headerLength) / encoding.width;
+        if (headerSize > capacity) {
+            throw new IllegalArgumentException("Truncated reservoir");
+        }
+        this.size = hasSize ? headerSize : capacity;
+    }
+
+    /**
+     * Parses the header of an encoded reservoir.
+     *
+     * @param bytes encoded reservoir
+     * @return view on the reservoir
+     * @throws IllegalArgumentException if the bytes are not a supported reservoir encoding.
+     */
+    public static PackedReservoir wrap(byte[] bytes) {
+        if (bytes.length < FIXED_HEADER_LENGTH + 1 || bytes[0]!=VERSION) {
+            throw new IllegalArgumentException("Unsupported reservoir format");
+        }
+        Encoding encoding = Encoding.forId(bytes[1]);
+        ByteBuffer header = ByteBuffer.wrap(bytes, FIXED_HEADER_LENGTH,
+                bytes.length - FIXED_HEADER_LENGTH);
+        return new PackedReservoir(bytes, encoding, header);
+    }
+
+    /** Encodes an empty reservoir. */
+    public static byte[] empty(Encoding encoding) {
+        return empty(encoding, false);
+    }
+
+    /**
+     * Encodes an empty reservoir.
+     *
+     * @param encoding encoding of the samples
+     * @param sorted whether samples should be kept in ascending order
+     * @return encoded reservoir
+     */
+    public static byte[] empty(Encoding encoding, boolean sorted) {
+        return empty(encoding, 0, sorted);
+    }
+
+    /**
+     * Encodes an empty reservoir.
+     *
+     * @param encoding encoding of the samples
+     * @param scale number of decimal digits of the {@link Encoding#DECIMAL64} encoding, from 0 to
+     *              18. It is ignored by other encodings.
+     * @param sorted whether samples should be kept in ascending order
+     * @return encoded reservoir
+     */
+    public static byte[] empty(Encoding encoding, int scale, boolean sorted) {
+        return encode(encoding, scale, 0L, new double[0], 0, sorted);
+    }
+
+    /**
+     * Encodes samples into a new reservoir.
+     *
+     * @param encoding encoding of the samples
+     * @param count number of values the samples were taken from
+     * @param samples array with the samples in the first {@code size} positions
+     * @param size number of samples
+     * @return encoded reservoir
+     */
+    public static byte[] encode(Encoding encoding, long count, double[] samples, int size) {
+        return encode(encoding, count, samples, size, false);
+    }
+
+    /**
+     * Encodes samples into a new reservoir.
+     *
+     * @param encoding encoding of the samples
+     * @param count number of values the samples were taken from
+     * @param samples array with the samples in the first {@code size} positions. If sorted,
+     *                these positions are sorted in place.
+     * @param size number of samples
+     * @param sorted whether samples should be kept in ascending order
+     * @return encoded reservoir
+     */
+    public static byte[] encode(Encoding encoding, long count, double[] samples, int size,
+            boolean sorted) {
+        return encode(encoding, 0, count, samples, size, sorted);
+    }
+
+    /**
+     * Encodes samples into a new reservoir.
+     *
+     * @param encoding encoding of the samples
+     * @param scale number of decimal digits of the {@link Encoding#DECIMAL64} encoding, from 0 to
+     *              18. It is ignored by other encodings.
+     * @param count number of values the samples were taken from
+     * @param samples array with the samples in the first {@code size} positions. If sorted,
+     *                these positions are sorted in place.
+     * @param size number of samples
+     * @param sorted whether samples should be kept in ascending order
+     * @return encoded reservoir
+     */
+    public static byte[] encode(Encoding encoding, int scale, long count, double[] samples,
+            int size, boolean sorted) {
+        int sampleScale = encoding==Encoding.DECIMAL64 ? checkScale(scale) : 0;
+        if (sorted) {
+            Arrays.sort(samples, 0, size);
+        }
+        int headerLength = headerLength(encoding, count, false, -1L);
+        ByteBuffer buffer = ByteBuffer.allocate(headerLength + size * encoding.width);
+        writeHeader(buffer, encoding, sampleScale, sorted, count, -1, -1L, Double.NaN);
+        if (encoding==Encoding.FLOAT64) {
+            buffer.asDoubleBuffer().put(samples, 0, size);
+        } else {
+            for (int i = 0; i < size; i++) {
+                putSample(buffer, encoding, sampleScale,
+                        headerLength + i * encoding.width, samples[i]);
+            }
+        }
+        return buffer.array();
+    }
+
+    /** Number of values added to the reservoir. */
+    public long getCount() {
+        return count;
+    }
+
+    /** Number of samples in the reservoir. */
+    public int size() {
+        return size;
+    }
+
+    /** Number of samples the array has room for. */
+    private int capacity() {
+        return (bytes.length - headerLength) / encoding.width;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /** Number of decimal digits of decimal samples, zero for other encodings. */
+    public int getScale() {
+        return scale;
+    }
+
+    /** Whether the header contains the Algorithm-L skip state. */
+    public boolean hasSkipState() {
+        return hasSkipState;
+    }
+
+    /** Whether the samples are kept in ascending order. */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /** Number of the next value to add to the reservoir, counted from 1, or -1 if not set. */
+    public long getNextIndex() {
+        return nextIndex;
+    }
+
+    /** Algorithm-L weight to draw the next skip from, or NaN if not set. */
+    public double getSkipWeight() {
+        return skipWeight;
+    }
+
+    public double get(int index) {
+        return getSample(ByteBuffer.wrap(bytes), headerLength, index);
+    }
+
+    /**
+     * Computes a percentile of a sorted reservoir in constant time, using the same estimate as
+     * the default {@link org.apache.commons.math3.stat.descriptive.rank.Percentile}.
+     *
+     * @param p percentile in the range (0, 100]
+     * @return estimated percentile, or NaN if the reservoir is empty
+     * @throws IllegalStateException if the samples are not sorted
+     */
+    public double percentile(double p) {
+        if (!sorted) {
+            throw new IllegalStateException("Percentiles require a sorted reservoir");
+        }
+        if (size==0) return Double.NaN;
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        double pos = p * (size + 1) / 100;
+        if (pos < 1) return getSample(buffer, headerLength, 0);
+        if (pos >= size) return getSample(buffer, headerLength, size - 1);
+
+        int lower = (int) Math.floor(pos);
+        double lowerValue = getSample(buffer, headerLength, lower - 1);
+        double upperValue = getSample(buffer, headerLength, lower);
+        return lowerValue + (pos - lower) * (upperValue - lowerValue);
+    }
+
+    /**
+     * Computes the smallest most frequent sample of a sorted reservoir, like
+     * {@link org.apache.commons.math3.stat.StatUtils#mode(double[])}, with a single pass over
+     * the runs of equal samples.
+     *
+     * @return mode, or NaN if the reservoir is empty
+     * @throws IllegalStateException if the samples are not sorted
+     */
+    public double mode() {
+        if (!sorted) {
+            throw new IllegalStateException("Mode requires a sorted reservoir");
+        }
+        if (size==0) return Double.NaN;
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        double mode = getSample(buffer, headerLength, 0);
+        int modeLength = 1;
+        double runValue = mode;
+        int runLength = 1;
+        for (int i = 1; i < size; i++) {
+            double value = getSample(buffer, headerLength, i);
+            if (Double.compare(value, runValue)==0) {
+                runLength++;
+            } else {
+                runValue = value;
+                runLength = 1;
+            }
+            if (runLength > modeLength) {
+                mode = runValue;
+                modeLength = runLength;
+            }
+        }
+        return mode;
+    }
+
+    /**
+     * Copies all samples to the start of given array.
+     *
+     * @param dst array of at least {@link #size()} elements
+     */
+    public void copyTo(double[] dst) {
+        ByteBuffer samples = ByteBuffer.wrap(bytes, headerLength, bytes.length - headerLength)
+                .slice();
+        if (encoding==Encoding.FLOAT64) {
+            samples.asDoubleBuffer().get(dst, 0, size);
+        } else {
+            for (int i = 0; i < size; i++) {
+                dst[i] = getSample(samples, 0, i);
+            }
+        }
+    }
+
+    public double[] toArray() {
+        double[] result = new double[size()];
+        copyTo(result);
+        return result;
+    }
+
+    /**
+     * Appends a sample and updates the count. This is done in place if the array has room for
+     * the sample and the header does not change size. Otherwise, the samples are copied to an
+     * array with double the capacity, up to the maximum size.
+     *
+     * @param value sample to add
+     * @param newCount number of values added to the reservoir, including this one
+     * @param maxSize maximum number of samples in the reservoir
+     * @return encoded reservoir with the sample, which may be the same array as the original
+     */
+    public byte[] append(double value, long newCount, int maxSize) {
+        int newSize = size + 1;
+        int capacity = capacity();
+        int newCapacity = capacity;
+        if (newSize > capacity) {
+            newCapacity = Math.min(maxSize, Math.max(MIN_CAPACITY, 2 * capacity));
+            newCapacity = Math.max(newSize, newCapacity);
+        }
+        boolean newHasSize = newSize < newCapacity || newSize < maxSize;
+        int newHeaderLength = headerLength(encoding, newCount, newHasSize, -1L);
+        byte[] result;
+        if (newHeaderLength==headerLength && newCapacity==capacity && newHasSize==hasSize) {
+            result = bytes;
+        } else {
+            result = new byte[newHeaderLength + newCapacity * encoding.width];
+            System.arraycopy(bytes, headerLength, result, newHeaderLength,
+                    size * encoding.width);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(result);
+        writeHeader(buffer, encoding, scale, sorted, newCount, newHasSize ? newSize : -1,
+                -1L, Double.NaN);
+        int index = sorted ? upperBound(buffer, newHeaderLength, size, value) : size;
+        moveSamples(result, newHeaderLength, index, index + 1, size - index);
+        putSample(buffer, newHeaderLength + index * encoding.width, value);
+        return result;
+    }
+
+    /**
+     * Updates the count and skip state and optionally replaces a sample. This is done in place
+     * unless the header changes size. In a sorted reservoir, the sample is removed and the new
+     * value is inserted at its position in the order, shifting the samples in between.
+     *
+     * @param index index of the sample to replace, or -1 to only update the header
+     * @param value new sample value
+     * @param newCount number of values added to the reservoir
+     * @param newNextIndex number of the next value to add to the reservoir
+     * @param newSkipWeight weight to draw the next skip from
+     * @return encoded reservoir, which may be the same array as the original
+     */
+    public byte[] replace(int index, double value, long newCount, long newNextIndex,
+            double newSkipWeight) {
+        int newHeaderLength = headerLength(encoding, newCount, hasSize, newNextIndex);
+        byte[] result;
+        if (newHeaderLength==headerLength) {
+            result = bytes;
+        } else {
+            result = new byte[bytes.length - headerLength + newHeaderLength];
+            System.arraycopy(bytes, headerLength, result, newHeaderLength,
+                    bytes.length - headerLength);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(result);
+        writeHeader(buffer, encoding, scale, sorted, newCount, hasSize ? size : -1,
+                newNextIndex, newSkipWeight);
+        if (index >= 0) {
+            int target = index;
+            if (sorted) {
+                int position = upperBound(buffer, newHeaderLength, size, value);
+                if (position <= index) {
+                    target = position;
+                    moveSamples(result, newHeaderLength, position, position + 1, index - position);
+                } else {
+                    target = position - 1;
+                    moveSamples(result, newHeaderLength, index + 1, index, target - index);
+                }
+            }
+            putSample(buffer, newHeaderLength + target * encoding.width, value);
+        }
+        return result;
+    }
+
+    /** Number of samples that are smaller than or equal to value, using binary search. */
+    private int upperBound(ByteBuffer buffer, int offset, int size, double value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getSample(buffer, offset, mid) <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void moveSamples(byte[] array, int offset, int from, int to, int length) {
+        if (length > 0) {
+            System.arraycopy(array, offset + from * encoding.width,
+                    array, offset + to * encoding.width, length * encoding.width);
+        }
+    }
+
+    private double getSample(ByteBuffer buffer, int offset, int index) {
+        int position = offset + index * encoding.width;
+        switch (encoding) {
+            case FLOAT64:
+                return buffer.getDouble(position);
+            case FLOAT32:
+                return buffer.getFloat(position);
+            case INT64:
+                return buffer.getLong(position);
+            case INT32:
+                return buffer.getInt(position);
+            case DECIMAL64:
+                return buffer.getLong(position) / POWERS_OF_TEN[scale];
+            default:
+                throw new IllegalStateException("Unknown reservoir encoding " + encoding);
+        }
+    }
+
+    private static int checkScale(int scale) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            throw new IllegalArgumentException("Unsupported decimal scale " + scale);
+        }
+        return scale;
+    }
+
+    private void putSample(ByteBuffer buffer, int offset, double value) {
+        putSample(buffer, encoding, scale, offset, value);
+    }
+
+    private static void putSample(ByteBuffer buffer, Encoding encoding, int scale, int offset,
+            double value) {
+        switch (encoding) {
+            case FLOAT64:
+                buffer.putDouble(offset, value);
+                break;
+            case FLOAT32:
+                buffer.putFloat(offset, (float) value);
+                break;
+            case INT64:
+                buffer.putLong(offset, Math.round(value));
+                break;
+            case INT32:
+                buffer.putInt(offset, (int) Math.round(value));
+                break;
+            case DECIMAL64:
+                buffer.putLong(offset, Math.round(value * POWERS_OF_TEN[scale]));
+                break;
+            default:
+                throw new IllegalStateException("Unknown reservoir encoding " + encoding);
+        }
+    }
+
+    private static int headerLength(Encoding encoding, long count, boolean hasSize,
+            long nextIndex) {
+        int length = FIXED_HEADER_LENGTH + varLongSize(count);
+        if (encoding==Encoding.DECIMAL64) {
+            length++;
+        }
+        if (hasSize) {
+            length += Integer.BYTES;
+        }
+        if (nextIndex >= 0) {
+            length += varLongSize(nextIndex) + Double.BYTES;
+        }
+        return length;
+    }
+
+    /** Writes the header, with the size if it is not negative. */
+    private static void writeHeader(ByteBuffer buffer, Encoding encoding, int scale,
+            boolean sorted, long count, int size, long nextIndex, double skipWeight) {
+        int flags = (nextIndex >= 0 ? FLAG_SKIP : 0) | (sorted ? FLAG_SORTED : 0)
+                | (size >= 0 ? FLAG_SIZE : 0);
+        buffer.put(0, VERSION)
+                .put(1, encoding.id)
+                .put(2, (byte) flags);
+        buffer.position(FIXED_HEADER_LENGTH);
+        if (encoding==Encoding.DECIMAL64) {
+            buffer.put((byte) scale);
+        }
+        writeVarLong(buffer, count);
+        if (size >= 0) {
+            buffer.putInt(size);
+        }
+        if (nextIndex >= 0) {
+            writeVarLong(buffer, nextIndex);
+            buffer.putDouble(skipWeight);
+        }
+    }
+
+    static int varLongSize(long value) {
+        int size = 1;
+        long remaining = value >>> 7;
+        while (remaining!=0) {
+            size++;
+            remaining >>>= 7;
+        }
+        return size;
+    }
+
+    static void writeVarLong(ByteBuffer buffer, long value) {
+        long remaining = value;
+        while ((remaining & ~0x7FL)!=0) {
+            buffer.put((byte) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        buffer.put((byte) remaining);
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("Malformed varint in reservoir");
+            }
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80)!=0);
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "PackedReservoir{encoding=" + encoding + ", sorted=" + sorted + ", count=" + count
+                + ", samples=" + Arrays.toString(toArray()) + '}';
+    }
+}
@@ -0,0 +1,156 @@
+package org.radarbase.ksql.udaf;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import org.radarbase.ksql.udaf.PackedReservoir.Encoding;
+import org.radarbase.ksql.util.Configs;
+
+/**
+ * Updates and merges uniform sampling reservoirs in the {@link PackedReservoir} encoding. This
+ * holds the sampling logic of the {@link PackedSamplingReservoirUdaf}, so that aggregates that
+ * keep a reservoir next to other state can use it without being a reservoir UDAF themselves.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+final class PackedReservoirSampler {
+
+    private final int maxSize;
+    private final boolean sorted;
+    private Encoding encoding = Encoding.FLOAT64;
+
+    /**
+     * Creates a sampler.
+     *
+     * @param maxSize maximum number of samples
+     * @param sorted whether to keep the samples in ascending order
+     */
+    PackedReservoirSampler(int maxSize, boolean sorted) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Reservoir size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.sorted = sorted;
+    }
+
+    /**
+     * Sets the encoding from the {@code reservoir.encoding} property of the function, if
+     * configured.
+     *
+     * @param configs function configuration
+     * @param name function name
+     * @throws IllegalArgumentException if the encoding is not a floating point encoding.
+     */
+    void configure(Map<String, ?> configs, String name) {
+        Object value = Configs.getFunctionConfig(configs, name,
+                PackedSamplingReservoirUdaf.ENCODING_CONFIG_SUFFIX);
+        if (value!=null) {
+            Encoding configured = Encoding.valueOf(
+                    value.toString().trim().toUpperCase(Locale.ROOT));
+            if (!configured.isFloatingPoint()) {
+                throw new IllegalArgumentException(
+                        "Reservoir encoding must be float64 or float32: " + value);
+            }
+            encoding = configured;
+        }
+    }
+
+    /** Serialized empty reservoir. */
+    byte[] empty() {
+        return PackedReservoir.empty(encoding, sorted);
+    }
+
+    /**
+     * Adds a value to the reservoir. Until the reservoir is full, the value is appended.
+     * Afterwards it replaces a random sample with Algorithm-L, see {@link ReservoirSampling}.
+     * The number of the next value to add is kept in the reservoir, so values before it only
+     * increment the count.
+     *
+     * @param reservoir reservoir to add to
+     * @param value value to add
+     * @return serialized updated reservoir, possibly the same array as the input
+     */
+    byte[] add(PackedReservoir reservoir, double value) {
+        PackedReservoir current = reservoir;
+        if (sorted && !current.isSorted()) {
+            current = PackedReservoir.wrap(PackedReservoir.encode(current.getEncoding(),
+                    current.getScale(), current.getCount(), current.toArray(),
+                    current.size(), true));
+        }
+        long count = current.getCount() + 1;
+        int size = current.size();
+
+        if (size < maxSize) {
+            return current.append(value, count, maxSize);
+        }
+
+        Random random = ThreadLocalRandom.current();
+        long nextIndex;
+        double skipWeight;
+        if (current.hasSkipState()) {
+            nextIndex = current.getNextIndex();
+            skipWeight = current.getSkipWeight();
+        } else {
+            // Just filled or merged: start skipping from the current number of values
+            skipWeight = ReservoirSampling.initialSkipWeight(size, count - 1, random);
+            nextIndex = ReservoirSampling.nextIndex(count - 1, skipWeight, random);
+        }
+
+        int replaceIndex = -1;
+        if (count >= nextIndex) {
+            replaceIndex = random.nextInt(size);
+            skipWeight = ReservoirSampling.nextSkipWeight(skipWeight, size, random);
+            nextIndex = ReservoirSampling.nextIndex(count, skipWeight, random);
+        }
+
+        return current.replace(replaceIndex, value, count, nextIndex, skipWeight);
+    }
+
+    /**
+     * Merges two non-empty reservoirs into a uniform sample of the values of both, see
+     * {@link ReservoirSampling}. Neither input is modified.
+     *
+     * @param reservoir1 reservoir one, with at least one sample
+     * @param reservoir2 reservoir two, with at least one sample
+     * @return serialized merged reservoir
+     */
+    byte[] merge(PackedReservoir reservoir1, PackedReservoir reservoir2) {
+        int size1 = reservoir1.size();
+        int size2 = reservoir2.size();
+
+        Random random = ThreadLocalRandom.current();
+        long count1 = reservoir1.getCount();
+        long count2 = reservoir2.getCount();
+        int newSize = Math.min(maxSize, size1 + size2);
+        int newSize1 = ReservoirSampling.drawFirstSize(
+                count1, count2, size1, size2, newSize, random);
+
+        double[] samples1 = reservoir1.toArray();
+        double[] samples2 = reservoir2.toArray();
+        ReservoirSampling.selectPrefix(samples1, size1, newSize1, random);
+        ReservoirSampling.selectPrefix(samples2, size2, newSize - newSize1, random);
+        double[] samples = Arrays.copyOf(samples1, newSize);
+        System.arraycopy(samples2, 0, samples, newSize1, newSize - newSize1);
+
+        int scale = Math.max(reservoir1.getScale(), reservoir2.getScale());
+        return PackedReservoir.encode(
+                encoding, scale, count1 + count2, samples, newSize, sorted);
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    Encoding getEncoding() {
+        return encoding;
+    }
+
+    void setEncoding(Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    boolean isSorted() {
+        return sorted;
+    }
+}
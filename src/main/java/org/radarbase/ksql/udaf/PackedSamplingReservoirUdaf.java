@@ -0,0 +1,191 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.util.Map;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.udaf.PackedReservoir.Encoding;
+import org.radarbase.ksql.util.FunctionMetrics;
+import org.radarbase.ksql.util.UdafMetrics;
+
+/**
+ * Uniform sampling reservoir, like the {@link UniformSamplingReservoirUdaf}, that stores the
+ * count and samples in a single BYTES field using the compact {@link PackedReservoir} encoding
+ * instead of an array of boxed values.
+ *
+ * <p>Until the reservoir is full, values are appended to a byte array whose capacity doubles
+ * when it is used up, so the samples are copied a logarithmic number of times per window. Once
+ * the reservoir is full, it is updated using Algorithm-L, see {@link ReservoirSampling}. The
+ * number of the next value to add is kept in the aggregate, so values before it only increment
+ * the count, and new samples replace existing ones in place. Per record, only a view on the
+ * byte array is created, and the samples are not copied unless the array grows or its header
+ * changes size. Subclasses compute their measure on a primitive {@code double[]} that is reused
+ * between calls on the same thread.
+ *
+ * <p>Subclasses computing order statistics can keep the samples sorted. Each update then costs a
+ * binary search and a shift of the samples in the byte array, and subclasses can read their
+ * measure directly from the {@link PackedReservoir} instead of copying and sorting the samples
+ * on every emitted result. Existing unsorted aggregates are sorted on their next update.
+ *
+ * <p>Samples are stored as 64-bit doubles by default. Setting the
+ * {@code ksql.functions.<name>.reservoir.encoding} property, or the same property under
+ * {@code ksql.functions._global_}, to {@code float32} halves the size of the state store and
+ * changelog records at the cost of precision. Existing aggregates keep their encoding until they
+ * are merged.
+ *
+ * <p>When metrics are enabled, see {@link FunctionMetrics}, calls are counted and sampled calls
+ * are timed.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public abstract class PackedSamplingReservoirUdaf
+        implements Udaf<Double, Struct, Double>, Configurable {
+
+    public static final String RESERVOIR = "RESERVOIR";
+    public static final String AGGREGATE_SCHEMA = "STRUCT<RESERVOIR bytes>";
+    public static final String ENCODING_CONFIG_SUFFIX = ".reservoir.encoding";
+    private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+            .field(RESERVOIR, Schema.OPTIONAL_BYTES_SCHEMA)
+            .build();
+    private static final ThreadLocal<double[]> SCRATCH =
+            ThreadLocal.withInitial(() -> new double[0]);
+    private final String name;
+    private final PackedReservoirSampler sampler;
+    private UdafMetrics metrics = UdafMetrics.DISABLED;
+
+    public PackedSamplingReservoirUdaf(String name, int maxSize) {
+        this(name, maxSize, false);
+    }
+
+    /**
+     * Creates a reservoir UDAF.
+     *
+     * @param name name of the function, used as metrics tag
+     * @param maxSize maximum number of samples
+     * @param sorted whether to keep the samples in ascending order
+     */
+    public PackedSamplingReservoirUdaf(String name, int maxSize, boolean sorted) {
+        this.name = name;
+        this.sampler = new PackedReservoirSampler(maxSize, sorted);
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        sampler.configure(configs, name);
+        metrics = FunctionMetrics.udafMetrics(configs, name, getClass());
+    }
+
+    @Override
+    public Struct initialize() {
+        return new Struct(STRUCT_SCHEMA)
+                .put(RESERVOIR, sampler.empty());
+    }
+
+    @Override
+    public Struct aggregate(Double current, Struct aggregate) {
+        if (current==null) return aggregate;
+
+        long start = metrics.start();
+        Struct result = aggregate.put(RESERVOIR, sampler.add(getReservoir(aggregate), current));
+        metrics.recordAggregate(start, metrics.isSampled(start) ? getReservoir(result).size() : 0);
+        return result;
+    }
+
+    /**
+     * Merges the aggregates into a uniform sample of the values of both aggregates, see
+     * {@link ReservoirSampling}. Neither input is modified.
+     *
+     * @param aggOne aggregate one
+     * @param aggTwo aggregate two
+     * @return merged result of the two aggregates
+     */
+    @Override
+    public Struct merge(Struct aggOne, Struct aggTwo) {
+        long start = metrics.start();
+        Struct result = mergeReservoirs(aggOne, aggTwo);
+        metrics.recordMerge(start, metrics.isSampled(start) ? getReservoir(result).size() : 0);
+        return result;
+    }
+
+    private Struct mergeReservoirs(Struct aggOne, Struct aggTwo) {
+        PackedReservoir reservoir1 = getReservoir(aggOne);
+        PackedReservoir reservoir2 = getReservoir(aggTwo);
+
+        if (reservoir1.size()==0) return aggTwo;
+        if (reservoir2.size()==0) return aggOne;
+
+        return new Struct(STRUCT_SCHEMA)
+                .put(RESERVOIR, sampler.merge(reservoir1, reservoir2));
+    }
+
+    @Override
+    public Double map(Struct agg) {
+        PackedReservoir reservoir = getReservoir(agg);
+        if (reservoir.size()==0) return null;
+        long start = metrics.start();
+        Double result = map(reservoir);
+        metrics.recordMap(start);
+        return result;
+    }
+
+    /**
+     * Computes the measure on a non-empty reservoir. By default, this copies the samples to a
+     * reused array and calls {@link #map(double[], int)}. Subclasses that keep the samples
+     * sorted can override this to read the measure from the reservoir directly.
+     *
+     * @param reservoir reservoir with at least one sample
+     * @return computed measure
+     */
+    protected Double map(PackedReservoir reservoir) {
+        int size = reservoir.size();
+        double[] scratch = SCRATCH.get();
+        if (scratch.length < size) {
+            scratch = new double[Math.max(size, sampler.getMaxSize())];
+            SCRATCH.set(scratch);
+        }
+        reservoir.copyTo(scratch);
+        return map(scratch, size);
+    }
+
+    /**
+     * Computes the measure on the samples in the reservoir. The array is shared with other
+     * invocations on the same thread, so it must not be kept after returning.
+     *
+     * @param samples array with the samples in the first {@code size} positions
+     * @param size number of samples, at least one
+     * @return computed measure
+     */
+    protected abstract Double map(double[] samples, int size);
+
+    /**
+     * View of the reservoir in the aggregate, without copying the samples.
+     *
+     * @param agg aggregate
+     * @return reservoir
+     */
+    public static PackedReservoir getReservoir(Struct agg) {
+        return PackedReservoir.wrap(agg.getBytes(RESERVOIR));
+    }
+
+    public int getMaxSize() {
+        return sampler.getMaxSize();
+    }
+
+    public Encoding getEncoding() {
+        return sampler.getEncoding();
+    }
+
+    /** Fixes the encoding of new and merged aggregates, for typed input. */
+    void setEncoding(Encoding encoding) {
+        sampler.setEncoding(encoding);
+    }
+
+    public boolean isSorted() {
+        return sampler.isSorted();
+    }
+
+    public Schema getStructSchema() {
+        return STRUCT_SCHEMA;
+    }
+}
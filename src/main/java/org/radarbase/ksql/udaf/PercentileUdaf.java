@@ -0,0 +1,58 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import io.confluent.ksql.function.udaf.UdafDescription;
+import io.confluent.ksql.function.udaf.UdafFactory;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.sketch.KllSketch;
+
+@UdafDescription(name = "percentile",
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "Estimates a percentile of numbers in a stream using a quantile sketch.")
+public class PercentileUdaf {
+
+    private PercentileUdaf() {
+
+    }
+
+    @UdafFactory(
+            description = "Estimates the given percentile (0-100) of values in a stream with a "
+                    + "normalized rank error of about 1.3%.",
+            aggregateSchema = QuantileSketchUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createUdaf(double percentile) {
+        return new PercentileUdafImpl(percentile, KllSketch.DEFAULT_K);
+    }
+
+    @UdafFactory(
+            description = "Estimates the given percentile (0-100) of values in a stream with the "
+                    + "given normalized rank error, e.g. 0.01 for 1%.",
+            aggregateSchema = QuantileSketchUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createUdaf(double percentile, double rankError) {
+        return new PercentileUdafImpl(percentile, KllSketch.kForRankError(rankError));
+    }
+
+    private static class PercentileUdafImpl extends QuantileSketchUdaf {
+
+        private final double percentile;
+
+        public PercentileUdafImpl(double percentile, int k) {
+            super(k);
+            if (percentile < 0.0 || percentile > 100.0) {
+                throw new IllegalArgumentException(
+                        "Percentile must be between 0 and 100: " + percentile);
+            }
+            this.percentile = percentile;
+        }
+
+        @Override
+        public Double map(Struct agg) {
+            KllSketch sketch = getSketch(agg);
+            if (sketch.isEmpty()) return null;
+
+            return sketch.percentile(percentile);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.sketch.KllSketch;
+
+/**
+ * Estimates quantiles of the values in a stream using a {@link KllSketch}. The aggregate holds
+ * the serialized sketch, which has a bounded size of roughly {@code 3k} values regardless of the
+ * number of values in the window and can be merged without loss of accuracy guarantees. Values
+ * are added to the serialized sketch in place, so it is only decoded when it compacts.
+ *
+ * <p>Compared to the {@link UniformSamplingReservoirUdaf}, the sketch has a guaranteed rank error
+ * over the whole distribution, including the tails, for a fraction of the state size.
+ */
+public abstract class QuantileSketchUdaf implements Udaf<Double, Struct, Double> {
+
+    public static final String SKETCH = "SKETCH";
+    public static final String AGGREGATE_SCHEMA = "STRUCT<SKETCH bytes>";
+    private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+            .field(SKETCH, Schema.OPTIONAL_BYTES_SCHEMA)
+            .build();
+    private final int k;
+
+    public QuantileSketchUdaf() {
+        this(KllSketch.DEFAULT_K);
+    }
+
+    public QuantileSketchUdaf(int k) {
+        this.k = k;
+    }
+
+    /**
+     * Creates a UDAF that estimates quantiles with given normalized rank error.
+     *
+     * @param rankError rank error as a fraction of the number of values, e.g. 0.01 for 1%
+     */
+    public QuantileSketchUdaf(double rankError) {
+        this(KllSketch.kForRankError(rankError));
+    }
+
+    @Override
+    public Struct initialize() {
+        return new Struct(STRUCT_SCHEMA)
+                .put(SKETCH, new KllSketch(k).toBytes());
+    }
+
+    @Override
+    public Struct aggregate(Double current, Struct aggregate) {
+        if (current==null) return aggregate;
+
+        return aggregate.put(SKETCH, KllSketch.update(aggregate.getBytes(SKETCH), current));
+    }
+
+    /**
+     * Merges the sketches of both aggregates. Neither input is modified.
+     *
+     * @param aggOne aggregate one
+     * @param aggTwo aggregate two
+     * @return merged result of the two aggregates
+     */
+    @Override
+    public Struct merge(Struct aggOne, Struct aggTwo) {
+        KllSketch sketch = getSketch(aggOne);
+        sketch.merge(getSketch(aggTwo));
+        return new Struct(STRUCT_SCHEMA)
+                .put(SKETCH, sketch.toBytes());
+    }
+
+    protected KllSketch getSketch(Struct agg) {
+        return KllSketch.fromBytes(agg.getBytes(SKETCH));
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public Schema getStructSchema() {
+        return STRUCT_SCHEMA;
+    }
+}
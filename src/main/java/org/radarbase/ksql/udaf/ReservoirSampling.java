@@ -0,0 +1,181 @@
+package org.radarbase.ksql.udaf;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Helpers for uniform sampling reservoirs.
+ *
+ * <p>Two reservoirs that are uniform samples of {@code count1} and {@code count2} values are
+ * merged into a uniform sample of the combined values by first drawing how many samples come
+ * from each reservoir, which follows a hypergeometric distribution, and then selecting that many
+ * samples from each reservoir without replacement using a partial Fisher-Yates shuffle. Both steps
+ * are linear in the size of the merged reservoir.
+ *
+ * <p>Full reservoirs are updated with Algorithm-L by Li, which draws the number of values to skip
+ * before the next replacement from a geometric distribution, instead of drawing a random number
+ * for every value.
+ * <href>https://dl.acm.org/doi/10.1145/198429.198435</href>
+ */
+public final class ReservoirSampling {
+
+    private ReservoirSampling() {
+    }
+
+    /**
+     * Draws the number of samples that the merged reservoir takes from the first reservoir. This
+     * simulates drawing {@code mergedSize} values without replacement from the combined values.
+     *
+     * @param count1 number of values represented by the first reservoir
+     * @param count2 number of values represented by the second reservoir
+     * @param size1 number of samples in the first reservoir
+     * @param size2 number of samples in the second reservoir
+     * @param mergedSize size of the merged reservoir, at most {@code size1 + size2}
+     * @param random random number generator
+     * @return number of samples to take from the first reservoir
+     */
+    public static int drawFirstSize(long count1, long count2, int size1, int size2,
+            int mergedSize, Random random) {
+        long remaining1 = count1;
+        long remaining = count1 + count2;
+        int taken1 = 0;
+        int taken2 = 0;
+        for (int i = 0; i < mergedSize; i++) {
+            boolean fromFirst;
+            if (taken1==size1) {
+                fromFirst = false;
+            } else if (taken2==size2) {
+                fromFirst = true;
+            } else {
+                fromFirst = random.nextDouble() * remaining < remaining1;
+            }
+            if (fromFirst) {
+                taken1++;
+                remaining1--;
+            } else {
+                taken2++;
+            }
+            remaining--;
+        }
+        return taken1;
+    }
+
+    /**
+     * Moves a uniformly chosen subset of {@code k} elements to the start of the array.
+     *
+     * @param values array to shuffle in place
+     * @param size number of valid elements in the array
+     * @param k number of elements to select
+     * @param random random number generator
+     */
+    public static void selectPrefix(double[] values, int size, int k, Random random) {
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(size - i);
+            double tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+
+    /**
+     * Adds a uniformly chosen subset of {@code k} elements of the source to the target, without
+     * modifying the source.
+     *
+     * @param source list to select elements from
+     * @param k number of elements to select
+     * @param target list to add the selected elements to
+     * @param random random number generator
+     */
+    public static <T> void selectInto(List<T> source, int k, List<T> target, Random random) {
+        int size = source.size();
+        if (k==size) {
+            target.addAll(source);
+            return;
+        }
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++) {
+            indices[i] = i;
+        }
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(size - i);
+            int idx = indices[j];
+            indices[j] = indices[i];
+            target.add(source.get(idx));
+        }
+    }
+
+    /**
+     * Draws the Algorithm-L weight of a full reservoir of size {@code k} that has seen
+     * {@code count} values. This is the largest of the {@code k} smallest of {@code count} uniform
+     * random numbers, which follows a Beta(k, count - k + 1) distribution. For a reservoir that
+     * has just been filled, it equals the weight of the initial step of Algorithm-L.
+     *
+     * @param k size of the reservoir
+     * @param count number of values the reservoir has seen, at least {@code k}
+     * @param random random number generator
+     * @return weight in the range (0, 1)
+     */
+    public static double initialSkipWeight(int k, long count, Random random) {
+        if (count==k) {
+            return Math.exp(Math.log(uniform(random)) / k);
+        }
+        double x = gamma(k, random);
+        double y = gamma(count - k + 1, random);
+        return x / (x + y);
+    }
+
+    /**
+     * Updates the Algorithm-L weight after a value was added to the reservoir.
+     *
+     * @param weight current weight
+     * @param k size of the reservoir
+     * @param random random number generator
+     * @return new weight
+     */
+    public static double nextSkipWeight(double weight, int k, Random random) {
+        return weight * Math.exp(Math.log(uniform(random)) / k);
+    }
+
+    /**
+     * Draws the number of the next value that will be added to the reservoir.
+     *
+     * @param count number of values the reservoir has seen
+     * @param weight current Algorithm-L weight
+     * @param random random number generator
+     * @return the number of the next value to add, counted from 1
+     */
+    public static long nextIndex(long count, double weight, Random random) {
+        double skip = Math.floor(Math.log(uniform(random)) / Math.log1p(-weight));
+        if (!(skip < Long.MAX_VALUE / 2.0)) {
+            return Long.MAX_VALUE / 2;
+        }
+        return count + (long) skip + 1;
+    }
+
+    /** Uniform random number in (0, 1]. */
+    private static double uniform(Random random) {
+        return 1.0 - random.nextDouble();
+    }
+
+    /**
+     * Draws from a Gamma(shape, 1) distribution with shape at least 1 using the method of
+     * Marsaglia and Tsang.
+     */
+    private static double gamma(double shape, Random random) {
+        double d = shape - 1.0 / 3.0;
+        double c = 1.0 / Math.sqrt(9.0 * d);
+        while (true) {
+            double x = random.nextGaussian();
+            double v = 1.0 + c * x;
+            if (v <= 0) {
+                continue;
+            }
+            v = v * v * v;
+            double u = uniform(random);
+            if (u < 1.0 - 0.0331 * x * x * x * x
+                    || Math.log(u) < 0.5 * x * x + d * (1.0 - v + Math.log(v))) {
+                return d * v;
+            }
+        }
+    }
+}
@@ -4,17 +4,21 @@ package org.radarbase.ksql.udaf;
 import io.confluent.ksql.function.udaf.Udaf;
 import io.confluent.ksql.function.udaf.UdafDescription;
 import io.confluent.ksql.function.udaf.UdafFactory;
+import java.math.BigDecimal;
 import java.util.List;
 import org.apache.commons.math3.stat.descriptive.moment.Skewness;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.Struct;
 
-@UdafDescription(name = "skew",
+@UdafDescription(name = SkewnessUdaf.NAME,
         author = "yatharthranjan",
         version = "1.0.0",
         description = "Calculates the skewness of the distribution in a stream.")
 public class SkewnessUdaf {
 
+    public static final String NAME = "skew";
+    private static final int RESERVOIR_SIZE = 5000;
+
     private SkewnessUdaf() {
 
     }
@@ -27,10 +31,111 @@ public class SkewnessUdaf {
         return new SkewnessUdafImpl();
     }
 
+    @UdafFactory(
+            description = "Calculates the skewness of values in a stream using a packed "
+                    + "reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createPackedUdaf(int maxSize) {
+        return new PackedSkewnessUdafImpl(maxSize);
+    }
+
+    @UdafFactory(
+            description = "Calculates the skewness of INT values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Double> createIntUdaf() {
+        return NumericReservoirUdaf.ofInt(new PackedSkewnessUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the skewness of INT values in a stream using a packed "
+                    + "reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Double> createIntUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofInt(new PackedSkewnessUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the skewness of BIGINT values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Double> createLongUdaf() {
+        return NumericReservoirUdaf.ofLong(new PackedSkewnessUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the skewness of BIGINT values in a stream using a packed "
+                    + "reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Double> createLongUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofLong(new PackedSkewnessUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the skewness of DECIMAL values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<BigDecimal, Struct, Double> createDecimalUdaf() {
+        return NumericReservoirUdaf.ofDecimal(new PackedSkewnessUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the skewness of DECIMAL values in a stream using a packed "
+                    + "reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<BigDecimal, Struct, Double> createDecimalUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofDecimal(new PackedSkewnessUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the skewness of recent values in a stream, where values lose "
+                    + "half their weight every half-life in seconds. The input is a struct of the "
+                    + "value and its timestamp, e.g. STRUCT(VAL := x, TS := ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = DecayingSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createDecayingUdaf(int halfLifeSeconds) {
+        return new DecayingSkewnessUdafImpl(halfLifeSeconds, RESERVOIR_SIZE);
+    }
+
+    @UdafFactory(
+            description = "Calculates the skewness of recent values in a stream, where values lose "
+                    + "half their weight every half-life in seconds, using a reservoir of the "
+                    + "given size.",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = DecayingSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createDecayingUdaf(int halfLifeSeconds,
+            int maxSize) {
+        return new DecayingSkewnessUdafImpl(halfLifeSeconds, maxSize);
+    }
+
+    @UdafFactory(
+            description = "Calculates the skewness of values in a stream from a reservoir that "
+                    + "is stratified by time, with at most the given number of samples per "
+                    + "bucket of the given duration in seconds and at most the given number of "
+                    + "most recent buckets. The input is a struct of the value and its "
+                    + "timestamp, e.g. STRUCT(VAL := x, TS := ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = StratifiedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createStratifiedUdaf(int bucketSeconds,
+            int bucketSize, int maxBuckets) {
+        return new StratifiedSkewnessUdafImpl(bucketSeconds, bucketSize, maxBuckets);
+    }
+
+    private static Double skewness(double[] samples, int size) {
+        return new Skewness().evaluate(samples, 0, size);
+    }
+
     private static class SkewnessUdafImpl extends UniformSamplingReservoirUdaf<Double> {
 
         public SkewnessUdafImpl() {
-            super(5000, Schema.OPTIONAL_FLOAT64_SCHEMA);
+            super(NAME, 5000, Schema.OPTIONAL_FLOAT64_SCHEMA);
         }
 
         @Override
@@ -38,8 +143,43 @@ public class SkewnessUdaf {
             List<Double> samples = agg.getArray(UniformSamplingReservoirUdaf.SAMPLES);
             if (samples.isEmpty()) return null;
 
-            return new Skewness().evaluate(samples.stream().mapToDouble(v -> v).toArray());
+            return skewness(samples.stream().mapToDouble(v -> v).toArray(), samples.size());
         }
     }
 
+    private static class PackedSkewnessUdafImpl extends PackedSamplingReservoirUdaf {
+
+        public PackedSkewnessUdafImpl(int maxSize) {
+            super(NAME, maxSize);
+        }
+
+        @Override
+        protected Double map(double[] samples, int size) {
+            return skewness(samples, size);
+        }
+    }
+
+    private static class DecayingSkewnessUdafImpl extends DecayingSamplingReservoirUdaf {
+
+        public DecayingSkewnessUdafImpl(int halfLifeSeconds, int maxSize) {
+            super(NAME, halfLifeSeconds, maxSize);
+        }
+
+        @Override
+        protected Double map(double[] samples, int size) {
+            return skewness(samples, size);
+        }
+    }
+
+    private static class StratifiedSkewnessUdafImpl extends StratifiedSamplingReservoirUdaf {
+
+        public StratifiedSkewnessUdafImpl(int bucketSeconds, int bucketSize, int maxBuckets) {
+            super(NAME, bucketSeconds, bucketSize, maxBuckets);
+        }
+
+        @Override
+        protected Double map(double[] samples, double[] weights, int size) {
+            return WeightedStatistics.skewness(samples, weights, size);
+        }
+    }
 }
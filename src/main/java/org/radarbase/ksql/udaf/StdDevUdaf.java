@@ -3,17 +3,21 @@ package org.radarbase.ksql.udaf;
 import io.confluent.ksql.function.udaf.Udaf;
 import io.confluent.ksql.function.udaf.UdafDescription;
 import io.confluent.ksql.function.udaf.UdafFactory;
+import java.math.BigDecimal;
 import java.util.List;
 import org.apache.commons.math3.stat.StatUtils;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.Struct;
 
-@UdafDescription(name = "std_dev",
+@UdafDescription(name = StdDevUdaf.NAME,
         author = "yatharthranjan",
         version = "1.0.0",
         description = "Calculates the standard deviation of numbers in a stream.")
 public class StdDevUdaf {
 
+    public static final String NAME = "std_dev";
+    private static final int RESERVOIR_SIZE = 5000;
+
     private StdDevUdaf() {
     }
 
@@ -25,10 +29,112 @@ public class StdDevUdaf {
         return new StdDevUdafImpl();
     }
 
+    @UdafFactory(
+            description = "Calculates the standard deviation of double values in a stream using "
+                    + "a packed reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Double, Struct, Double> createPackedUdaf(int maxSize) {
+        return new PackedStdDevUdafImpl(maxSize);
+    }
+
+    @UdafFactory(
+            description = "Calculates the standard deviation of INT values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Double> createIntUdaf() {
+        return NumericReservoirUdaf.ofInt(new PackedStdDevUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the standard deviation of INT values in a stream using a "
+                    + "packed reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Integer, Struct, Double> createIntUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofInt(new PackedStdDevUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the standard deviation of BIGINT values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Double> createLongUdaf() {
+        return NumericReservoirUdaf.ofLong(new PackedStdDevUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the standard deviation of BIGINT values in a stream using a "
+                    + "packed reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Long, Struct, Double> createLongUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofLong(new PackedStdDevUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the standard deviation of DECIMAL values in a stream.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<BigDecimal, Struct, Double> createDecimalUdaf() {
+        return NumericReservoirUdaf.ofDecimal(new PackedStdDevUdafImpl(RESERVOIR_SIZE));
+    }
+
+    @UdafFactory(
+            description = "Calculates the standard deviation of DECIMAL values in a stream using a "
+                    + "packed reservoir of the given size.",
+            aggregateSchema = PackedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<BigDecimal, Struct, Double> createDecimalUdaf(int maxSize) {
+        return NumericReservoirUdaf.ofDecimal(new PackedStdDevUdafImpl(maxSize));
+    }
+
+    @UdafFactory(
+            description = "Calculates the standard deviation of recent values in a stream, where "
+                    + "values lose half their weight every half-life in seconds. The input is a "
+                    + "struct of the value and its timestamp, e.g. STRUCT(VAL := x, TS := "
+                    + "ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = DecayingSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createDecayingUdaf(int halfLifeSeconds) {
+        return new DecayingStdDevUdafImpl(halfLifeSeconds, RESERVOIR_SIZE);
+    }
+
+    @UdafFactory(
+            description = "Calculates the standard deviation of recent values in a stream, where "
+                    + "values lose half their weight every half-life in seconds, using a reservoir "
+                    + "of the given size.",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = DecayingSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createDecayingUdaf(int halfLifeSeconds,
+            int maxSize) {
+        return new DecayingStdDevUdafImpl(halfLifeSeconds, maxSize);
+    }
+
+    @UdafFactory(
+            description = "Calculates the standard deviation of values in a stream from a "
+                    + "reservoir that is stratified by time, with at most the given number of "
+                    + "samples per bucket of the given duration in seconds and at most the given "
+                    + "number of most recent buckets. The input is a struct of the value and its "
+                    + "timestamp, e.g. STRUCT(VAL := x, TS := ROWTIME).",
+            paramSchema = DecayingSamplingReservoirUdaf.PARAM_SCHEMA,
+            aggregateSchema = StratifiedSamplingReservoirUdaf.AGGREGATE_SCHEMA
+    )
+    public static Udaf<Struct, Struct, Double> createStratifiedUdaf(int bucketSeconds,
+            int bucketSize, int maxBuckets) {
+        return new StratifiedStdDevUdafImpl(bucketSeconds, bucketSize, maxBuckets);
+    }
+
+    private static Double stdDev(double[] samples, int size) {
+        return Math.sqrt(StatUtils.variance(samples, 0, size));
+    }
+
     private static class StdDevUdafImpl extends UniformSamplingReservoirUdaf<Double> {
 
         public StdDevUdafImpl() {
-            super(5000, Schema.OPTIONAL_FLOAT64_SCHEMA);
+            super(NAME, 5000, Schema.OPTIONAL_FLOAT64_SCHEMA);
         }
 
         @Override
@@ -36,7 +142,43 @@ public class StdDevUdaf {
             List<Double> samples = agg.getArray(UniformSamplingReservoirUdaf.SAMPLES);
             if (samples.isEmpty()) return null;
 
-            return Math.sqrt(StatUtils.variance(samples.stream().mapToDouble(v -> v).toArray()));
+            return stdDev(samples.stream().mapToDouble(v -> v).toArray(), samples.size());
+        }
+    }
+
+    private static class PackedStdDevUdafImpl extends PackedSamplingReservoirUdaf {
+
+        public PackedStdDevUdafImpl(int maxSize) {
+            super(NAME, maxSize);
+        }
+
+        @Override
+        protected Double map(double[] samples, int size) {
+            return stdDev(samples, size);
+        }
+    }
+
+    private static class DecayingStdDevUdafImpl extends DecayingSamplingReservoirUdaf {
+
+        public DecayingStdDevUdafImpl(int halfLifeSeconds, int maxSize) {
+            super(NAME, halfLifeSeconds, maxSize);
+        }
+
+        @Override
+        protected Double map(double[] samples, int size) {
+            return stdDev(samples, size);
+        }
+    }
+
+    private static class StratifiedStdDevUdafImpl extends StratifiedSamplingReservoirUdaf {
+
+        public StratifiedStdDevUdafImpl(int bucketSeconds, int bucketSize, int maxBuckets) {
+            super(NAME, bucketSeconds, bucketSize, maxBuckets);
+        }
+
+        @Override
+        protected Double map(double[] samples, double[] weights, int size) {
+            return WeightedStatistics.stdDev(samples, weights, size);
         }
     }
 }
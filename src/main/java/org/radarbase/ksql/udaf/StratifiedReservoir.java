@@ -0,0 +1,310 @@
+package org.radarbase.ksql.udaf;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Binary encoding of a sampling reservoir that is stratified by time, used as the aggregate of
+ * the {@link StratifiedSamplingReservoirUdaf}. Values are assigned to buckets of a fixed
+ * duration by their timestamp and each bucket is a uniform sample of at most a fixed number of
+ * its values, so a burst of values in one bucket cannot crowd out the samples of other buckets.
+ * The layout is
+ * <pre>
+ *   version (1 byte) | number of buckets (4 bytes)
+ *       | (bucket id (8 bytes) | count (8 bytes) | size (4 bytes) | samples (8 bytes each))*
+ * </pre>
+ * with buckets in ascending order of id, which is the start time of the bucket divided by its
+ * duration.
+ *
+ * <p>Instances are views on the encoded bytes. Updates of a full bucket are done in place.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public final class StratifiedReservoir {
+
+    public static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 5;
+    private static final int BUCKET_HEADER_LENGTH = 20;
+
+    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    private final int numBuckets;
+    private final int[] offsets;
+
+    private StratifiedReservoir(byte[] bytes) {
+        this.bytes = bytes;
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.numBuckets = buffer.getInt(1);
+        this.offsets = new int[numBuckets + 1];
+        int offset = HEADER_LENGTH;
+        for (int i = 0; i < numBuckets; i++) {
+            offsets[i] = offset;
+            offset += BUCKET_HEADER_LENGTH + buffer.getInt(offset + 16) * Double.BYTES;
+        }
+        offsets[numBuckets] = offset;
+        if (offset!=bytes.length) {
+            throw new IllegalArgumentException("Malformed stratified reservoir");
+        }
+    }
+
+    /**
+     * Reads an encoded reservoir.
+     *
+     * @param bytes encoded reservoir
+     * @return view on the reservoir
+     * @throws IllegalArgumentException if the bytes are not a supported reservoir encoding.
+     */
+    public static StratifiedReservoir wrap(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH || bytes[0]!=VERSION) {
+            throw new IllegalArgumentException("Unsupported stratified reservoir format");
+        }
+        return new StratifiedReservoir(bytes);
+    }
+
+    /** Encodes an empty reservoir. */
+    public static byte[] empty() {
+        return ByteBuffer.allocate(HEADER_LENGTH).put(VERSION).putInt(0).array();
+    }
+
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    public long getBucketId(int bucket) {
+        return buffer.getLong(offsets[bucket]);
+    }
+
+    /** Number of values added to a bucket. */
+    public long getBucketCount(int bucket) {
+        return buffer.getLong(offsets[bucket] + 8);
+    }
+
+    /** Number of samples in a bucket. */
+    public int getBucketSize(int bucket) {
+        return buffer.getInt(offsets[bucket] + 16);
+    }
+
+    public double get(int bucket, int index) {
+        return buffer.getDouble(offsets[bucket] + BUCKET_HEADER_LENGTH + index * Double.BYTES);
+    }
+
+    /** Number of values added to the reservoir, over all retained buckets. */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < numBuckets; i++) {
+            count += getBucketCount(i);
+        }
+        return count;
+    }
+
+    /** Number of samples in the reservoir. */
+    public int size() {
+        return (bytes.length - HEADER_LENGTH - numBuckets * BUCKET_HEADER_LENGTH)
+                / Double.BYTES;
+    }
+
+    /**
+     * Copies the samples to the start of given arrays, together with the number of values each
+     * sample represents, which is the count of its bucket divided by the number of samples in it.
+     *
+     * @param samples array of at least {@link #size()} elements
+     * @param weights array of at least {@link #size()} elements
+     */
+    public void copyTo(double[] samples, double[] weights) {
+        int index = 0;
+        for (int b = 0; b < numBuckets; b++) {
+            int size = getBucketSize(b);
+            double weight = (double) getBucketCount(b) / size;
+            for (int i = 0; i < size; i++) {
+                samples[index] = get(b, i);
+                weights[index] = weight;
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Adds a value to its bucket, using Algorithm-R within the bucket. If the value belongs to a
+     * new bucket and the maximum number of buckets is reached, the oldest bucket is dropped, or
+     * the value is ignored if its bucket would be the oldest.
+     *
+     * @param value value to add
+     * @param bucketId bucket of the value
+     * @param bucketSize maximum number of samples per bucket
+     * @param maxBuckets maximum number of buckets
+     * @param random random number generator
+     * @return encoded reservoir, which is the same array if the bucket was full
+     */
+    public byte[] add(double value, long bucketId, int bucketSize, int maxBuckets,
+            Random random) {
+        int bucket = 0;
+        while (bucket < numBuckets && getBucketId(bucket) < bucketId) {
+            bucket++;
+        }
+
+        if (bucket < numBuckets && getBucketId(bucket)==bucketId) {
+            int offset = offsets[bucket];
+            long count = getBucketCount(bucket) + 1;
+            int size = getBucketSize(bucket);
+            if (size < bucketSize) {
+                byte[] result = insert(offsets[bucket + 1], Double.BYTES);
+                ByteBuffer.wrap(result)
+                        .putLong(offset + 8, count)
+                        .putInt(offset + 16, size + 1)
+                        .putDouble(offsets[bucket + 1], value);
+                return result;
+            }
+            buffer.putLong(offset + 8, count);
+            long replaceIndex = (long) (random.nextDouble() * count);
+            if (replaceIndex < size) {
+                buffer.putDouble(offset + BUCKET_HEADER_LENGTH
+                        + (int) replaceIndex * Double.BYTES, value);
+            }
+            return bytes;
+        }
+
+        if (numBuckets >= maxBuckets && bucket==0) {
+            // older than all retained buckets
+            return bytes;
+        }
+        byte[] result = insert(offsets[bucket], BUCKET_HEADER_LENGTH + Double.BYTES);
+        ByteBuffer.wrap(result)
+                .putInt(1, numBuckets + 1)
+                .putLong(offsets[bucket], bucketId)
+                .putLong(offsets[bucket] + 8, 1L)
+                .putInt(offsets[bucket] + 16, 1)
+                .putDouble(offsets[bucket] + BUCKET_HEADER_LENGTH, value);
+        if (numBuckets >= maxBuckets) {
+            return dropOldest(result);
+        }
+        return result;
+    }
+
+    private byte[] insert(int offset, int length) {
+        byte[] result = new byte[bytes.length + length];
+        System.arraycopy(bytes, 0, result, 0, offset);
+        System.arraycopy(bytes, offset, result, offset + length, bytes.length - offset);
+        return result;
+    }
+
+    private static byte[] dropOldest(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int numBuckets = buffer.getInt(1);
+        int length = BUCKET_HEADER_LENGTH + buffer.getInt(HEADER_LENGTH + 16) * Double.BYTES;
+        byte[] result = new byte[bytes.length - length];
+        System.arraycopy(bytes, 0, result, 0, HEADER_LENGTH);
+        System.arraycopy(bytes, HEADER_LENGTH + length, result, HEADER_LENGTH,
+                result.length - HEADER_LENGTH);
+        ByteBuffer.wrap(result).putInt(1, numBuckets - 1);
+        return result;
+    }
+
+    /**
+     * Merges two reservoirs by bucket id, without modifying them. Buckets with the same id are
+     * merged into a uniform sample of both, see {@link ReservoirSampling}. Only the most recent
+     * buckets are kept.
+     *
+     * @param one first reservoir
+     * @param other second reservoir
+     * @param bucketSize maximum number of samples per bucket
+     * @param maxBuckets maximum number of buckets
+     * @param random random number generator
+     * @return encoded merged reservoir
+     */
+    public static byte[] merge(StratifiedReservoir one, StratifiedReservoir other,
+            int bucketSize, int maxBuckets, Random random) {
+        // find the buckets to keep, from the most recent
+        int i = one.numBuckets - 1;
+        int j = other.numBuckets - 1;
+        int numBuckets = 0;
+        int length = HEADER_LENGTH;
+        while ((i >= 0 || j >= 0) && numBuckets < maxBuckets) {
+            long id = Math.max(i >= 0 ? one.getBucketId(i) : Long.MIN_VALUE,
+                    j >= 0 ? other.getBucketId(j) : Long.MIN_VALUE);
+            int size = 0;
+            if (i >= 0 && one.getBucketId(i)==id) {
+                size += one.getBucketSize(i);
+                i--;
+            }
+            if (j >= 0 && other.getBucketId(j)==id) {
+                size += other.getBucketSize(j);
+                j--;
+            }
+            length += BUCKET_HEADER_LENGTH + Math.min(size, bucketSize) * Double.BYTES;
+            numBuckets++;
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(length);
+        result.put(VERSION).putInt(numBuckets);
+        i++;
+        j++;
+        while (i < one.numBuckets || j < other.numBuckets) {
+            long id = Math.min(i < one.numBuckets ? one.getBucketId(i) : Long.MAX_VALUE,
+                    j < other.numBuckets ? other.getBucketId(j) : Long.MAX_VALUE);
+            boolean inOne = i < one.numBuckets && one.getBucketId(i)==id;
+            boolean inOther = j < other.numBuckets && other.getBucketId(j)==id;
+            if (inOne && inOther) {
+                mergeBucket(result, one, i, other, j, bucketSize, random);
+            } else if (inOne) {
+                copyBucket(result, one, i, bucketSize, random);
+            } else {
+                copyBucket(result, other, j, bucketSize, random);
+            }
+            if (inOne) i++;
+            if (inOther) j++;
+        }
+        return result.array();
+    }
+
+    private static void copyBucket(ByteBuffer result, StratifiedReservoir reservoir, int bucket,
+            int bucketSize, Random random) {
+        int size = reservoir.getBucketSize(bucket);
+        double[] samples = new double[size];
+        for (int k = 0; k < size; k++) {
+            samples[k] = reservoir.get(bucket, k);
+        }
+        int newSize = Math.min(size, bucketSize);
+        ReservoirSampling.selectPrefix(samples, size, newSize, random);
+        putBucket(result, reservoir.getBucketId(bucket), reservoir.getBucketCount(bucket),
+                samples, newSize);
+    }
+
+    private static void mergeBucket(ByteBuffer result, StratifiedReservoir one, int bucket1,
+            StratifiedReservoir other, int bucket2, int bucketSize, Random random) {
+        int size1 = one.getBucketSize(bucket1);
+        int size2 = other.getBucketSize(bucket2);
+        long count1 = one.getBucketCount(bucket1);
+        long count2 = other.getBucketCount(bucket2);
+        int newSize = Math.min(bucketSize, size1 + size2);
+        int newSize1 = ReservoirSampling.drawFirstSize(
+                count1, count2, size1, size2, newSize, random);
+
+        double[] samples1 = new double[size1];
+        for (int k = 0; k < size1; k++) {
+            samples1[k] = one.get(bucket1, k);
+        }
+        double[] samples2 = new double[size2];
+        for (int k = 0; k < size2; k++) {
+            samples2[k] = other.get(bucket2, k);
+        }
+        ReservoirSampling.selectPrefix(samples1, size1, newSize1, random);
+        ReservoirSampling.selectPrefix(samples2, size2, newSize - newSize1, random);
+        double[] samples = new double[newSize];
+        System.arraycopy(samples1, 0, samples, 0, newSize1);
+        System.arraycopy(samples2, 0, samples, newSize1, newSize - newSize1);
+        putBucket(result, one.getBucketId(bucket1), count1 + count2, samples, newSize);
+    }
+
+    private static void putBucket(ByteBuffer result, long id, long count, double[] samples,
+            int size) {
+        result.putLong(id).putLong(count).putInt(size);
+        for (int k = 0; k < size; k++) {
+            result.putDouble(samples[k]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StratifiedReservoir{buckets=" + numBuckets + ", count=" + getCount()
+                + ", size=" + size() + '}';
+    }
+}
@@ -0,0 +1,170 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.util.FunctionMetrics;
+import org.radarbase.ksql.util.UdafMetrics;
+
+/**
+ * Sampling reservoir that is stratified by time, see {@link StratifiedReservoir}. Values are
+ * assigned to time buckets of a fixed duration, each holding a uniform sample of at most a fixed
+ * number of values, so that every part of the window is represented even if values arrive in
+ * bursts, for example when a device uploads a backlog. At most a fixed number of buckets is
+ * kept, dropping the oldest, so the state stays bounded in long or unwindowed aggregates.
+ *
+ * <p>The input is a struct of the value and its timestamp in milliseconds, typically
+ * {@code STRUCT(VAL := x, TS := ROWTIME)}. Each sample represents the values of its bucket in
+ * equal parts, so subclasses compute their measure on the samples together with these weights
+ * and the result is an unbiased estimate over all values in the retained buckets. The arrays are
+ * reused between calls on the same thread.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public abstract class StratifiedSamplingReservoirUdaf
+        implements Udaf<Struct, Struct, Double>, Configurable {
+
+    public static final String RESERVOIR = "STRATIFIED_RESERVOIR";
+    public static final String AGGREGATE_SCHEMA = "STRUCT<STRATIFIED_RESERVOIR bytes>";
+    private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+            .field(RESERVOIR, Schema.OPTIONAL_BYTES_SCHEMA)
+            .build();
+    private static final ThreadLocal<double[][]> SCRATCH =
+            ThreadLocal.withInitial(() -> new double[][] {new double[0], new double[0]});
+    private final String name;
+    private final long bucketMillis;
+    private final int bucketSize;
+    private final int maxBuckets;
+    private UdafMetrics metrics = UdafMetrics.DISABLED;
+
+    /**
+     * Creates a stratified reservoir UDAF.
+     *
+     * @param name name of the function, used as metrics tag
+     * @param bucketSeconds duration of a time bucket
+     * @param bucketSize maximum number of samples per bucket
+     * @param maxBuckets maximum number of buckets
+     */
+    public StratifiedSamplingReservoirUdaf(String name, int bucketSeconds, int bucketSize,
+            int maxBuckets) {
+        if (bucketSeconds <= 0) {
+            throw new IllegalArgumentException(
+                    "Bucket duration must be positive: " + bucketSeconds);
+        }
+        if (bucketSize <= 0) {
+            throw new IllegalArgumentException("Bucket size must be positive: " + bucketSize);
+        }
+        if (maxBuckets <= 0) {
+            throw new IllegalArgumentException(
+                    "Number of buckets must be positive: " + maxBuckets);
+        }
+        this.name = name;
+        this.bucketMillis = bucketSeconds * 1000L;
+        this.bucketSize = bucketSize;
+        this.maxBuckets = maxBuckets;
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        metrics = FunctionMetrics.udafMetrics(configs, name, getClass());
+    }
+
+    @Override
+    public Struct initialize() {
+        return new Struct(STRUCT_SCHEMA)
+                .put(RESERVOIR, StratifiedReservoir.empty());
+    }
+
+    @Override
+    public Struct aggregate(Struct current, Struct aggregate) {
+        if (current==null) return aggregate;
+        Double value = current.getFloat64(DecayingSamplingReservoirUdaf.VAL);
+        Long time = current.getInt64(DecayingSamplingReservoirUdaf.TS);
+        if (value==null || time==null) return aggregate;
+
+        long start = metrics.start();
+        Struct result = aggregate.put(RESERVOIR, getReservoir(aggregate)
+                .add(value, Math.floorDiv(time, bucketMillis), bucketSize, maxBuckets,
+                        ThreadLocalRandom.current()));
+        metrics.recordAggregate(start, metrics.isSampled(start) ? getReservoir(result).size() : 0);
+        return result;
+    }
+
+    /**
+     * Merges the aggregates bucket by bucket into uniform samples of the values of both
+     * aggregates. Neither input is modified.
+     *
+     * @param aggOne aggregate one
+     * @param aggTwo aggregate two
+     * @return merged result of the two aggregates
+     */
+    @Override
+    public Struct merge(Struct aggOne, Struct aggTwo) {
+        StratifiedReservoir reservoir1 = getReservoir(aggOne);
+        StratifiedReservoir reservoir2 = getReservoir(aggTwo);
+
+        if (reservoir1.getNumBuckets()==0) return aggTwo;
+        if (reservoir2.getNumBuckets()==0) return aggOne;
+
+        long start = metrics.start();
+        Struct result = new Struct(STRUCT_SCHEMA)
+                .put(RESERVOIR, StratifiedReservoir.merge(reservoir1, reservoir2,
+                        bucketSize, maxBuckets, ThreadLocalRandom.current()));
+        metrics.recordMerge(start, metrics.isSampled(start) ? getReservoir(result).size() : 0);
+        return result;
+    }
+
+    @Override
+    public Double map(Struct agg) {
+        StratifiedReservoir reservoir = getReservoir(agg);
+        int size = reservoir.size();
+        if (size==0) return null;
+
+        double[][] scratch = SCRATCH.get();
+        if (scratch[0].length < size) {
+            scratch = new double[][] {new double[size], new double[size]};
+            SCRATCH.set(scratch);
+        }
+        long start = metrics.start();
+        reservoir.copyTo(scratch[0], scratch[1]);
+        Double result = map(scratch[0], scratch[1], size);
+        metrics.recordMap(start);
+        return result;
+    }
+
+    /**
+     * Computes the measure on the samples in the reservoir. The arrays are shared with other
+     * invocations on the same thread, so they must not be kept after returning.
+     *
+     * @param samples array with the samples in the first {@code size} positions
+     * @param weights number of values that each sample represents
+     * @param size number of samples, at least one
+     * @return computed measure
+     */
+    protected abstract Double map(double[] samples, double[] weights, int size);
+
+    /**
+     * View of the reservoir in the aggregate, without copying the samples.
+     *
+     * @param agg aggregate
+     * @return reservoir
+     */
+    public static StratifiedReservoir getReservoir(Struct agg) {
+        return StratifiedReservoir.wrap(agg.getBytes(RESERVOIR));
+    }
+
+    public int getBucketSize() {
+        return bucketSize;
+    }
+
+    public int getMaxBuckets() {
+        return maxBuckets;
+    }
+
+    public Schema getStructSchema() {
+        return STRUCT_SCHEMA;
+    }
+}
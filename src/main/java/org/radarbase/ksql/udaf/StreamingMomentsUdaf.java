@@ -0,0 +1,114 @@
+package org.radarbase.ksql.udaf;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+
+/**
+ * Keeps the running central moments of the values in a stream using Welford's online algorithm
+ * and its extension to higher moments by Pebay.
+ * <href>https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance</href>
+ *
+ * <p>Unlike the {@link UniformSamplingReservoirUdaf}, the aggregate is a fixed size struct of
+ * the count, mean and the sums of powers of differences from the mean (M2 and M3). Each value is
+ * added in constant time and two aggregates are combined using the pairwise formulas, so the
+ * measures are computed exactly regardless of the number of values in the window.
+ */
+public abstract class StreamingMomentsUdaf implements Udaf<Double, Struct, Double> {
+
+    public static final String COUNT = "COUNT";
+    public static final String MEAN = "MEAN";
+    public static final String M2 = "M2";
+    public static final String M3 = "M3";
+    public static final String AGGREGATE_SCHEMA =
+            "STRUCT<COUNT bigint, MEAN double, M2 double, M3 double>";
+    private static final Schema STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+            .field(COUNT, Schema.OPTIONAL_INT64_SCHEMA)
+            .field(MEAN, Schema.OPTIONAL_FLOAT64_SCHEMA)
+            .field(M2, Schema.OPTIONAL_FLOAT64_SCHEMA)
+            .field(M3, Schema.OPTIONAL_FLOAT64_SCHEMA)
+            .build();
+
+    @Override
+    public Struct initialize() {
+        return new Struct(STRUCT_SCHEMA)
+                .put(COUNT, 0L)
+                .put(MEAN, 0.0)
+                .put(M2, 0.0)
+                .put(M3, 0.0);
+    }
+
+    @Override
+    public Struct aggregate(Double current, Struct aggregate) {
+        if (current==null) return aggregate;
+
+        long n1 = aggregate.getInt64(COUNT);
+        double mean = aggregate.getFloat64(MEAN);
+        double m2 = aggregate.getFloat64(M2);
+        double m3 = aggregate.getFloat64(M3);
+
+        long n = n1 + 1;
+        double delta = current - mean;
+        double deltaN = delta / n;
+        double term1 = delta * deltaN * n1;
+
+        return aggregate
+                .put(COUNT, n)
+                .put(MEAN, mean + deltaN)
+                .put(M2, m2 + term1)
+                .put(M3, m3 + term1 * deltaN * (n - 2) - 3 * deltaN * m2);
+    }
+
+    /**
+     * Combines the moments of the two aggregates as if all values had been added to a single
+     * aggregate. Neither input is modified.
+     *
+     * @param aggOne aggregate one
+     * @param aggTwo aggregate two
+     * @return merged result of the two aggregates
+     */
+    @Override
+    public Struct merge(Struct aggOne, Struct aggTwo) {
+        long countOne = aggOne.getInt64(COUNT);
+        long countTwo = aggTwo.getInt64(COUNT);
+
+        if (countOne==0) return aggTwo;
+        if (countTwo==0) return aggOne;
+
+        double meanOne = aggOne.getFloat64(MEAN);
+        double m2One = aggOne.getFloat64(M2);
+        double m2Two = aggTwo.getFloat64(M2);
+
+        double n1 = countOne;
+        double n2 = countTwo;
+        double n = n1 + n2;
+        double delta = aggTwo.getFloat64(MEAN) - meanOne;
+        double delta2 = delta * delta;
+
+        return new Struct(STRUCT_SCHEMA)
+                .put(COUNT, countOne + countTwo)
+                .put(MEAN, meanOne + delta * n2 / n)
+                .put(M2, m2One + m2Two + delta2 * n1 * n2 / n)
+                .put(M3, aggOne.getFloat64(M3) + aggTwo.getFloat64(M3)
+                        + delta2 * delta * n1 * n2 * (n1 - n2) / (n * n)
+                        + 3.0 * delta * (n1 * m2Two - n2 * m2One) / n);
+    }
+
+    /**
+     * Bias-corrected sample variance of the values in the aggregate.
+     *
+     * @param agg aggregate of moments
+     * @return the variance, or null if no values were added
+     */
+    protected static Double variance(Struct agg) {
+        long count = agg.getInt64(COUNT);
+        if (count==0) return null;
+        if (count==1) return 0.0;
+        return agg.getFloat64(M2) / (count - 1);
+    }
+
+    public Schema getStructSchema() {
+        return STRUCT_SCHEMA;
+    }
+}
@@ -3,11 +3,15 @@ package org.radarbase.ksql.udaf;
 import io.confluent.ksql.function.udaf.Udaf;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ThreadLocalRandom;
+import org.apache.kafka.common.Configurable;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.SchemaBuilder;
 import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.util.FunctionMetrics;
+import org.radarbase.ksql.util.UdafMetrics;
 
 /**
  * Uses uniform sampling reservoir to add new data point to the aggregate using Algorithm-R.
@@ -18,15 +22,34 @@ import org.apache.kafka.connect.data.Struct;
  * are computed exactly.
  */
 @SuppressWarnings("PMD.DataflowAnomalyAnalysis")
-public abstract class UniformSamplingReservoirUdaf<T> implements Udaf<T, Struct, T> {
+public abstract class UniformSamplingReservoirUdaf<T>
+        implements Udaf<T, Struct, T>, Configurable {
 
     public static final String SAMPLES = "SAMPLES";
     public static final String COUNT = "COUNT";
     private static final int MAX_SIZE_DEFAULT = 1000;
+    private final String name;
     private final Schema structSchema;
     private final int maxSize;
+    private UdafMetrics metrics = UdafMetrics.DISABLED;
 
+    /**
+     * Creates a reservoir of the default size. Its metrics are tagged with a function name
+     * derived from the class.
+     */
     public UniformSamplingReservoirUdaf(Schema arrayValues) {
+        this(null, arrayValues);
+    }
+
+    /**
+     * Creates a reservoir. Its metrics are tagged with a function name derived from the class.
+     */
+    public UniformSamplingReservoirUdaf(int maxSize, Schema arrayValues) {
+        this(null, maxSize, arrayValues);
+    }
+
+    public UniformSamplingReservoirUdaf(String name, Schema arrayValues) {
+        this.name = name;
         this.maxSize = MAX_SIZE_DEFAULT;
         structSchema = SchemaBuilder.struct().optional()
                 .field(SAMPLES, SchemaBuilder.array(arrayValues).optional().build())
@@ -34,7 +57,8 @@ public abstract class UniformSamplingReservoirUdaf<T> implements Udaf<T, Struct,
                 .build();
     }
 
-    public UniformSamplingReservoirUdaf(int maxSize, Schema arrayValues) {
+    public UniformSamplingReservoirUdaf(String name, int maxSize, Schema arrayValues) {
+        this.name = name;
         this.maxSize = maxSize;
         structSchema = SchemaBuilder.struct().optional()
                 .field(SAMPLES, SchemaBuilder.array(arrayValues).optional().build())
@@ -42,6 +66,15 @@ public abstract class UniformSamplingReservoirUdaf<T> implements Udaf<T, Struct,
                 .build();
     }
 
+    /**
+     * Enables metrics of the aggregate and merge calls, see {@link FunctionMetrics}. The measure
+     * itself is computed by subclasses and is not timed.
+     */
+    @Override
+    public void configure(Map<String, ?> configs) {
+        metrics = FunctionMetrics.udafMetrics(configs, name, getClass());
+    }
+
     @Override
     public Struct initialize() {
         return new Struct(structSchema)
@@ -54,17 +87,21 @@ public abstract class UniformSamplingReservoirUdaf<T> implements Udaf<T, Struct,
     public Struct aggregate(T current, Struct aggregate) {
         if (current==null) return aggregate;
 
+        long start = metrics.start();
         List<T> samples = aggregate.getArray(SAMPLES);
         long count = aggregate.getInt64(COUNT);
 
-        return new Struct(structSchema)
+        Struct result = aggregate
                 .put(SAMPLES, add(current, samples, count))
                 .put(COUNT, ++count);
+        metrics.recordAggregate(start, samples.size());
+        return result;
     }
 
     private List<T> add(T current, List<T> samples, long count) {
         if (samples.size()==maxSize) {
-            long replaceIndex = ThreadLocalRandom.current().nextLong(count);
+            // keep the new value with probability maxSize / (count + 1)
+            long replaceIndex = ThreadLocalRandom.current().nextLong(count + 1);
             if (replaceIndex < maxSize) {
                 samples.set((int) replaceIndex, current);
             }
@@ -75,8 +112,9 @@ public abstract class UniformSamplingReservoirUdaf<T> implements Udaf<T, Struct,
     }
 
     /**
-     * Merges the aggregates by randomly selecting data points from the two aggregates based on
-     * probability calculated by size of each aggregate.
+     * Merges the aggregates into a uniform sample of the values of both aggregates. The number
+     * of data points taken from each aggregate is drawn based on the number of values in each
+     * aggregate, see {@link ReservoirSampling}. Neither input is modified.
      *
      * @param aggOne aggregate one
      * @param aggTwo aggregate two
@@ -90,29 +128,23 @@ public abstract class UniformSamplingReservoirUdaf<T> implements Udaf<T, Struct,
         if (samples1.isEmpty()) return aggTwo;
         if (samples2.isEmpty()) return aggOne;
 
-        List<T> newSamples = new ArrayList<>();
+        long start = metrics.start();
         Random random = ThreadLocalRandom.current();
         long aggOneCount = aggOne.getInt64(COUNT);
         long aggTwoCount = aggTwo.getInt64(COUNT);
-        double prob1 = aggOneCount / (double) (aggOneCount + aggTwoCount);
-
-        while (newSamples.size() < maxSize && (!samples1.isEmpty() || !samples2.isEmpty())) {
-            List<T> sampleList;
-            if (samples2.isEmpty()
-                    || (!samples1.isEmpty()
-                    && random.nextDouble() < prob1)
-            ) {
-                sampleList = samples1;
-            } else {
-                sampleList = samples2;
-            }
-            int idx = random.nextInt(sampleList.size());
-            newSamples.add(sampleList.remove(idx));
-        }
+        int newSize = Math.min(maxSize, samples1.size() + samples2.size());
+        int size1 = ReservoirSampling.drawFirstSize(aggOneCount, aggTwoCount,
+                samples1.size(), samples2.size(), newSize, random);
 
-        return new Struct(structSchema)
+        List<T> newSamples = new ArrayList<>(newSize);
+        ReservoirSampling.selectInto(samples1, size1, newSamples, random);
+        ReservoirSampling.selectInto(samples2, newSize - size1, newSamples, random);
+
+        Struct result = new Struct(structSchema)
                 .put(SAMPLES, newSamples)
                 .put(COUNT, aggOneCount + aggTwoCount);
+        metrics.recordMerge(start, newSize);
+        return result;
     }
 
     public int getMaxSize() {
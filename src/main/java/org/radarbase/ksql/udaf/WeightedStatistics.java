@@ -0,0 +1,167 @@
+package org.radarbase.ksql.udaf;
+
+/**
+ * Statistics of samples that each represent a number of values, as produced by the
+ * {@link StratifiedSamplingReservoirUdaf}. Weights are treated as frequencies, so that with all
+ * weights equal to one the results are identical to the commons-math statistics used by the
+ * unweighted reservoirs.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+final class WeightedStatistics {
+
+    private WeightedStatistics() {
+
+    }
+
+    /** Bias-corrected standard deviation, or 0 if the weights sum to at most one. */
+    static double stdDev(double[] samples, double[] weights, int size) {
+        double total = total(weights, size);
+        if (total <= 1.0) return 0.0;
+        double mean = mean(samples, weights, size, total);
+        double m2 = 0.0;
+        for (int i = 0; i < size; i++) {
+            double d = samples[i] - mean;
+            m2 += weights[i] * d * d;
+        }
+        return Math.sqrt(m2 / (total - 1.0));
+    }
+
+    /**
+     * Bias-corrected skewness, as the commons-math {@code Skewness}. This is NaN if the weights
+     * sum to less than three and 0 if the values have no variance.
+     */
+    static double skewness(double[] samples, double[] weights, int size) {
+        double total = total(weights, size);
+        if (total < 3.0) return Double.NaN;
+        double mean = mean(samples, weights, size, total);
+        double m2 = 0.0;
+        double m3 = 0.0;
+        for (int i = 0; i < size; i++) {
+            double d = samples[i] - mean;
+            m2 += weights[i] * d * d;
+            m3 += weights[i] * d * d * d;
+        }
+        double variance = m2 / (total - 1.0);
+        if (variance < 10E-20) return 0.0;
+        return total / ((total - 1.0) * (total - 2.0)) * m3 / (variance * Math.sqrt(variance));
+    }
+
+    /**
+     * Estimates the p-th percentile with the same estimation as the commons-math
+     * {@code Percentile}, counting each sample as many times as its weight. The samples are
+     * sorted in place, together with their weights.
+     *
+     * @param p percentile in the range [0, 100]
+     */
+    static double percentile(double[] samples, double[] weights, int size, double p) {
+        sort(samples, weights, size);
+        return sortedPercentile(samples, weights, size, total(weights, size), p);
+    }
+
+    /** Difference between the 75th and 25th percentile, sorting the samples in place. */
+    static double interQuartileRange(double[] samples, double[] weights, int size) {
+        sort(samples, weights, size);
+        double total = total(weights, size);
+        return sortedPercentile(samples, weights, size, total, 75)
+                - sortedPercentile(samples, weights, size, total, 25);
+    }
+
+    /**
+     * Value with the largest total weight, or the smallest of such values. The samples are
+     * sorted in place, together with their weights.
+     */
+    static double mode(double[] samples, double[] weights, int size) {
+        sort(samples, weights, size);
+        double mode = samples[0];
+        double modeWeight = 0.0;
+        int i = 0;
+        while (i < size) {
+            double value = samples[i];
+            double weight = 0.0;
+            while (i < size && samples[i]==value) {
+                weight += weights[i];
+                i++;
+            }
+            if (weight > modeWeight) {
+                mode = value;
+                modeWeight = weight;
+            }
+        }
+        return mode;
+    }
+
+    private static double sortedPercentile(double[] samples, double[] weights, int size,
+            double total, double p) {
+        // position in the sorted values, counted from 1, as in commons-math Percentile
+        double pos = p * (total + 1) / 100.0;
+        if (pos < 1.0) return samples[0];
+        if (pos >= total) return samples[size - 1];
+
+        double lower = Math.floor(pos);
+        double fraction = pos - lower;
+        double lowerValue = valueAtRank(samples, weights, size, lower);
+        if (fraction==0.0) return lowerValue;
+        double upperValue = valueAtRank(samples, weights, size, lower + 1);
+        return lowerValue + fraction * (upperValue - lowerValue);
+    }
+
+    private static double valueAtRank(double[] samples, double[] weights, int size,
+            double rank) {
+        double cumulative = 0.0;
+        for (int i = 0; i < size; i++) {
+            cumulative += weights[i];
+            if (cumulative >= rank) return samples[i];
+        }
+        return samples[size - 1];
+    }
+
+    private static double total(double[] weights, int size) {
+        double total = 0.0;
+        for (int i = 0; i < size; i++) {
+            total += weights[i];
+        }
+        return total;
+    }
+
+    private static double mean(double[] samples, double[] weights, int size, double total) {
+        double sum = 0.0;
+        for (int i = 0; i < size; i++) {
+            sum += weights[i] * samples[i];
+        }
+        return sum / total;
+    }
+
+    /** Heap sort of the samples in ascending order, moving the weights along. */
+    private static void sort(double[] samples, double[] weights, int size) {
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(samples, weights, i, size);
+        }
+        for (int end = size - 1; end > 0; end--) {
+            swap(samples, weights, 0, end);
+            siftDown(samples, weights, 0, end);
+        }
+    }
+
+    private static void siftDown(double[] samples, double[] weights, int index, int size) {
+        int parent = index;
+        int child = 2 * parent + 1;
+        while (child < size) {
+            if (child + 1 < size && samples[child + 1] > samples[child]) {
+                child++;
+            }
+            if (samples[parent] >= samples[child]) return;
+            swap(samples, weights, parent, child);
+            parent = child;
+            child = 2 * parent + 1;
+        }
+    }
+
+    private static void swap(double[] samples, double[] weights, int i, int j) {
+        double sample = samples[i];
+        samples[i] = samples[j];
+        samples[j] = sample;
+        double weight = weights[i];
+        weights[i] = weights[j];
+        weights[j] = weight;
+    }
+}
@@ -0,0 +1,207 @@
+package org.radarbase.ksql.udf;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.radarbase.ksql.util.Configs;
+
+/**
+ * Circuit breaker that stops calls to a degraded service, so that the stream thread does not wait
+ * for every call to fail or time out. The breaker opens after a number of consecutive failures,
+ * or when the 99th percentile latency of the most recent calls exceeds a threshold. While open,
+ * calls are rejected immediately. After the open time, a single probe call is let through: if it
+ * succeeds the breaker closes, otherwise it opens again. Outcomes of calls that were made before
+ * the breaker opened are ignored until it closes again, so only the probe decides whether it does.
+ *
+ * <p>All methods are thread-safe.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public class CircuitBreaker {
+
+    /** State of a circuit breaker. */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /** Permission to make a call, with which its outcome must be reported. */
+    public enum Permit {
+        /** Call made while the breaker is closed. */
+        CALL,
+        /** Single probe call made while the breaker is half open. */
+        PROBE
+    }
+
+    private final Config config;
+    private final LongSupplier clock;
+    private final boolean[] slowCalls;
+    private final int maxSlowCalls;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+    private int numCalls;
+    private int numSlowCalls;
+
+    /**
+     * Creates a closed circuit breaker.
+     *
+     * @param config settings
+     */
+    public CircuitBreaker(Config config) {
+        this(config, System::nanoTime);
+    }
+
+    CircuitBreaker(Config config, LongSupplier clock) {
+        this.config = config;
+        this.clock = clock;
+        this.slowCalls = new boolean[config.latencyThresholdNanos > 0 ? config.latencyWindow : 0];
+        // the nearest-rank 99th percentile of the window exceeds the threshold if more calls
+        // than this are slow
+        this.maxSlowCalls = slowCalls.length - (int) Math.ceil(0.99 * slowCalls.length);
+    }
+
+    /**
+     * Whether a call may be made now. If a permit is returned, the outcome of the call must be
+     * reported with {@link #onSuccess(Permit, long)} or {@link #onFailure(Permit, long)}.
+     *
+     * @return permit of the call, or null if the call is rejected
+     */
+    public synchronized Permit tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return Permit.CALL;
+            case OPEN:
+                if (clock.getAsLong() - openedAt < config.openNanos) return null;
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return Permit.PROBE;
+            default:
+                if (probeInFlight) return null;
+                probeInFlight = true;
+                return Permit.PROBE;
+        }
+    }
+
+    /**
+     * Reports a successful call.
+     *
+     * @param permit permit that the call was made with
+     * @param latencyNanos duration of the call
+     */
+    public synchronized void onSuccess(Permit permit, long latencyNanos) {
+        if (permit==Permit.PROBE) {
+            if (state==State.HALF_OPEN) close();
+        } else if (state==State.CLOSED) {
+            consecutiveFailures = 0;
+            recordLatency(latencyNanos);
+        }
+    }
+
+    /**
+     * Reports a failed call.
+     *
+     * @param permit permit that the call was made with
+     * @param latencyNanos duration of the call
+     */
+    public synchronized void onFailure(Permit permit, long latencyNanos) {
+        if (permit==Permit.PROBE) {
+            if (state==State.HALF_OPEN) open();
+        } else if (state==State.CLOSED) {
+            consecutiveFailures++;
+            if (config.failureThreshold > 0 && consecutiveFailures >= config.failureThreshold) {
+                open();
+            } else {
+                recordLatency(latencyNanos);
+            }
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void recordLatency(long latencyNanos) {
+        if (slowCalls.length==0) return;
+        int index = numCalls % slowCalls.length;
+        if (slowCalls[index]) numSlowCalls--;
+        slowCalls[index] = latencyNanos > config.latencyThresholdNanos;
+        if (slowCalls[index]) numSlowCalls++;
+        numCalls++;
+        if (numCalls >= slowCalls.length && numSlowCalls > maxSlowCalls) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        probeInFlight = false;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        probeInFlight = false;
+        consecutiveFailures = 0;
+        numCalls = 0;
+        numSlowCalls = 0;
+        Arrays.fill(slowCalls, false);
+    }
+
+    /**
+     * Settings of circuit breakers, read from function properties with a common prefix, e.g.
+     * {@code ksql.functions.api_inference.circuit.}. The following properties are supported:
+     * <ul>
+     *     <li>{@code failure.threshold}: consecutive failures after which the breaker opens,
+     *     default 5. 0 disables this check.</li>
+     *     <li>{@code latency.threshold.ms}: 99th percentile latency of recent calls above which
+     *     the breaker opens, default 0 which disables this check.</li>
+     *     <li>{@code latency.window}: number of recent calls to compute the latency percentile
+     *     over, default 100.</li>
+     *     <li>{@code open.ms}: time the breaker stays open before letting a probe call through,
+     *     default 30000.</li>
+     * </ul>
+     */
+    public static final class Config {
+        private final int failureThreshold;
+        private final long latencyThresholdNanos;
+        private final int latencyWindow;
+        private final long openNanos;
+
+        private Config(Map<String, ?> configs, String prefix) {
+            failureThreshold = Configs.getInt(configs, prefix + "failure.threshold", 5);
+            latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(
+                    Configs.getLong(configs, prefix + "latency.threshold.ms", 0L));
+            latencyWindow = Configs.getInt(configs, prefix + "latency.window", 100);
+            openNanos = TimeUnit.MILLISECONDS.toNanos(
+                    Configs.getLong(configs, prefix + "open.ms", 30_000L));
+            if (failureThreshold < 0 || latencyThresholdNanos < 0 || latencyWindow <= 0
+                    || openNanos < 0) {
+                throw new IllegalArgumentException("Invalid circuit breaker settings");
+            }
+        }
+
+        /**
+         * Reads the settings from the properties with given prefix, using defaults for missing
+         * properties.
+         *
+         * @param configs function properties
+         * @param prefix prefix of the circuit breaker properties, including the trailing dot
+         * @return settings
+         */
+        public static Config fromConfigs(Map<String, ?> configs, String prefix) {
+            return new Config(configs, prefix);
+        }
+
+        /** Default settings. */
+        public static Config defaults() {
+            return new Config(Collections.emptyMap(), "");
+        }
+
+        /** Whether breakers with these settings can open at all. */
+        public boolean isEnabled() {
+            return failureThreshold > 0 || latencyThresholdNanos > 0;
+        }
+    }
+}
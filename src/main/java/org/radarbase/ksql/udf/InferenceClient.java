@@ -0,0 +1,375 @@
+package org.radarbase.ksql.udf;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.radarbase.ksql.util.ExpiringLruCache;
+import org.radarbase.ksql.util.InferenceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes inference requests on behalf of the inference UDFs without blocking the stream thread
+ * for longer than a configured latency budget.
+ *
+ * <ul>
+ *     <li>Requests are executed asynchronously by the HTTP client. If no response arrives within
+ *     the latency budget, the fallback value is returned and the request continues in the
+ *     background, so its result can still be cached for later rows. Multiple requests can be
+ *     submitted at once and awaited within a shared latency budget.</li>
+ *     <li>Concurrent identical requests share a single HTTP call.</li>
+ *     <li>Successful responses are optionally cached for a limited time.</li>
+ *     <li>Each group of requests, e.g. per model, has a {@link CircuitBreaker} that rejects
+ *     calls while the service is failing or slow, and optionally a bulkhead that limits the
+ *     number of calls in flight. Rejected calls return immediately.</li>
+ *     <li>Instead of the fallback value, the last successful response to the same request can
+ *     be returned for a limited time.</li>
+ *     <li>Responses are returned as a whole or read by a {@link ResponseReader} while they
+ *     stream in, e.g. to return only a single field.</li>
+ *     <li>Call outcomes and HTTP latencies are optionally recorded in
+ *     {@link InferenceMetrics}.</li>
+ * </ul>
+ */
+public class InferenceClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(InferenceClient.class);
+
+    private final OkHttpClient httpClient;
+    private final ExpiringLruCache<String, String> cache;
+    private final ExpiringLruCache<String, String> staleCache;
+    private final ConcurrentMap<String, CompletableFuture<String>> inFlight;
+    private final long timeoutMillis;
+    private final String fallback;
+    private final InferenceMetrics metrics;
+    private final CircuitBreaker.Config breakerConfig;
+    private final int maxConcurrentCalls;
+    private final ConcurrentMap<String, Guard> guards;
+
+    /**
+     * Creates a client.
+     *
+     * @param httpClient HTTP client to make the requests with
+     * @param cache cache of successful responses, or null to disable caching
+     * @param timeoutMillis latency budget per call in milliseconds, or 0 to wait until the HTTP
+     *                      client times out
+     * @param fallback value to return if the request failed or exceeded the latency budget
+     */
+    public InferenceClient(OkHttpClient httpClient, ExpiringLruCache<String, String> cache,
+            long timeoutMillis, String fallback) {
+        this(httpClient, cache, null, timeoutMillis, fallback, CircuitBreaker.Config.defaults(),
+                0, InferenceMetrics.DISABLED);
+    }
+
+    /**
+     * Creates a client.
+     *
+     * @param httpClient HTTP client to make the requests with
+     * @param cache cache of successful responses, or null to disable caching
+     * @param staleCache cache of the last successful responses, to return instead of the fallback
+     *                   value, or null to always return the fallback value
+     * @param timeoutMillis latency budget per call in milliseconds, or 0 to wait until the HTTP
+     *                      client times out
+     * @param fallback value to return if the request failed or exceeded the latency budget
+     * @param breakerConfig settings of the circuit breaker of each group of requests
+     * @param maxConcurrentCalls maximum number of calls in flight per group of requests, or 0
+     *                           for no limit
+     * @param metrics metrics to record the calls in
+     */
+    public InferenceClient(OkHttpClient httpClient, ExpiringLruCache<String, String> cache,
+            ExpiringLruCache<String, String> staleCache, long timeoutMillis, String fallback,
+            CircuitBreaker.Config breakerConfig, int maxConcurrentCalls,
+            InferenceMetrics metrics) {
+        this.httpClient = httpClient;
+        this.cache = cache;
+        this.staleCache = staleCache;
+        this.timeoutMillis = timeoutMillis;
+        this.fallback = fallback;
+        this.breakerConfig = breakerConfig;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.metrics = metrics;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.guards = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Default maximum number of calls in flight per group of requests. Without a latency budget,
+     * the stream thread waits for each call, so no limit is needed. With a budget, calls that
+     * exceed it continue in the background, so against a slow service further calls would queue
+     * up without bound in the dispatcher of the HTTP client. They are then limited to the number
+     * of calls that the dispatcher runs concurrently per host.
+     *
+     * @param httpClient HTTP client to make the requests with
+     * @param timeoutMillis latency budget per call in milliseconds, or 0 for no budget
+     * @return maximum number of calls in flight, or 0 for no limit
+     */
+    public static int defaultMaxConcurrentCalls(OkHttpClient httpClient, long timeoutMillis) {
+        return timeoutMillis > 0 ? httpClient.dispatcher().getMaxRequestsPerHost() : 0;
+    }
+
+    /**
+     * Returns the body of a successful response to the request. All requests share a single
+     * circuit breaker and bulkhead.
+     *
+     * @param key unique key of the request, determining the response
+     * @param request request to make
+     * @return response body or the fallback value
+     */
+    public String call(String key, Request request) {
+        return call(key, "", request);
+    }
+
+    /**
+     * Returns the body of a successful response to the request.
+     *
+     * @param key unique key of the request, determining the response
+     * @param group group of requests sharing a circuit breaker and bulkhead, e.g. the model
+     * @param request request to make
+     * @return response body or the fallback value
+     */
+    public String call(String key, String group, Request request) {
+        return call(key, group, request, ResponseReader.STRING);
+    }
+
+    /**
+     * Returns the value read from a successful response to the request. The value is cached
+     * instead of the response, so the key must also identify the reader.
+     *
+     * @param key unique key of the request and reader, determining the value
+     * @param group group of requests sharing a circuit breaker and bulkhead, e.g. the model
+     * @param request request to make
+     * @param reader reader of the value from the response body
+     * @return read value or the fallback value
+     */
+    public String call(String key, String group, Request request, ResponseReader reader) {
+        long startNanos = System.nanoTime();
+        return await(key, request, submit(key, group, request, reader), startNanos);
+    }
+
+    /**
+     * Starts a request without waiting for its response. The value is cached instead of the
+     * response, so the key must also identify the reader.
+     *
+     * @param key unique key of the request and reader, determining the value
+     * @param group group of requests sharing a circuit breaker and bulkhead, e.g. the model
+     * @param request request to make
+     * @param reader reader of the value from the response body
+     * @return future of the read value, completed with null if the call was rejected or did not
+     *         return a value
+     */
+    public CompletableFuture<String> submit(String key, String group, Request request,
+            ResponseReader reader) {
+        metrics.recordRequest();
+        if (cache!=null) {
+            String cached = cache.get(key);
+            if (cached!=null) {
+                logger.debug("Using cached response for {}", request.url());
+                metrics.recordCacheHit();
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, future);
+        if (existing==null) {
+            Guard guard = guards.computeIfAbsent(group, g -> new Guard());
+            CircuitBreaker.Permit permit = guard.tryAcquire();
+            if (permit==null) {
+                logger.debug("Rejected call to {}: service unavailable or too many calls",
+                        request.url());
+                metrics.recordRejected();
+                inFlight.remove(key, future);
+                future.complete(null);
+                return future;
+            }
+            logger.debug("Going to make HTTP call");
+            httpClient.newCall(request).enqueue(
+                    new ResponseCallback(key, future, guard, permit, reader, System.nanoTime()));
+            return future;
+        } else {
+            logger.debug("Waiting for identical request in flight to {}", request.url());
+            metrics.recordCoalesced();
+            return existing;
+        }
+    }
+
+    /**
+     * Waits for the value of a submitted request until the latency budget, counted from the
+     * given start time, is used up. Requests that were submitted together can share a budget by
+     * passing the same start time.
+     *
+     * @param key key the request was submitted with
+     * @param request submitted request
+     * @param future future returned by {@link #submit(String, String, Request, ResponseReader)}
+     * @param startNanos {@link System#nanoTime()} from which the latency budget is counted
+     * @return read value or the fallback value
+     */
+    public String await(String key, Request request, CompletableFuture<String> future,
+            long startNanos) {
+        try {
+            String result;
+            if (timeoutMillis > 0) {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis)
+                        - (System.nanoTime() - startNanos);
+                result = future.get(Math.max(remaining, 0L), TimeUnit.NANOSECONDS);
+            } else {
+                result = future.get();
+            }
+            return result==null ? fallback(key) : result;
+        } catch (TimeoutException exc) {
+            logger.warn("Request to {} did not complete within {} ms", request.url(),
+                    timeoutMillis);
+            metrics.recordTimeout();
+            return fallback(key);
+        } catch (ExecutionException exc) {
+            logger.warn("There was an error making request to invocation api: {}",
+                    exc.getCause().getMessage());
+            return fallback(key);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            return fallback(key);
+        }
+    }
+
+    private String fallback(String key) {
+        if (staleCache!=null) {
+            String stale = staleCache.get(key);
+            if (stale!=null) return stale;
+        }
+        return fallback;
+    }
+
+    /** State of the circuit breaker of a group of requests. */
+    public CircuitBreaker.State getCircuitState(String group) {
+        Guard guard = guards.get(group);
+        return guard==null ? CircuitBreaker.State.CLOSED : guard.breaker.getState();
+    }
+
+    static String handleResponse(Response response, ResponseReader reader) throws IOException {
+        ResponseBody body = response.body();
+        if (response.isSuccessful()) {
+            if (body==null) {
+                logger.warn("The result body was null");
+                return null;
+            } else {
+                String resBody = reader.read(body);
+                logger.debug("Response Body is: {}", resBody);
+                return resBody;
+            }
+        } else {
+            logger.warn("The request was not successful: {}.", response);
+            return null;
+        }
+    }
+
+    /** Reads the value to return from a successful response body. */
+    @FunctionalInterface
+    public interface ResponseReader {
+        /** Reads the whole body as a string. */
+        ResponseReader STRING = ResponseBody::string;
+
+        /**
+         * Reads the value from the body, which is closed afterwards.
+         *
+         * @param body response body
+         * @return value, or null if the response has none
+         * @throws IOException if the body cannot be read
+         */
+        String read(ResponseBody body) throws IOException;
+    }
+
+    /** Circuit breaker and bulkhead of a group of requests. */
+    private class Guard {
+        private final CircuitBreaker breaker = new CircuitBreaker(breakerConfig);
+        private final Semaphore bulkhead = maxConcurrentCalls > 0
+                ? new Semaphore(maxConcurrentCalls) : null;
+
+        CircuitBreaker.Permit tryAcquire() {
+            if (bulkhead!=null && !bulkhead.tryAcquire()) return null;
+            CircuitBreaker.Permit permit = breaker.tryAcquire();
+            if (permit==null && bulkhead!=null) bulkhead.release();
+            return permit;
+        }
+
+        void release(CircuitBreaker.Permit permit, boolean success, long latencyNanos) {
+            if (bulkhead!=null) bulkhead.release();
+            if (success) {
+                breaker.onSuccess(permit, latencyNanos);
+            } else {
+                breaker.onFailure(permit, latencyNanos);
+            }
+        }
+    }
+
+    private class ResponseCallback implements Callback {
+        private final String key;
+        private final CompletableFuture<String> future;
+        private final Guard guard;
+        private final CircuitBreaker.Permit permit;
+        private final ResponseReader reader;
+        private final long startNanos;
+
+        ResponseCallback(String key, CompletableFuture<String> future, Guard guard,
+                CircuitBreaker.Permit permit, ResponseReader reader, long startNanos) {
+            this.key = key;
+            this.future = future;
+            this.guard = guard;
+            this.permit = permit;
+            this.reader = reader;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException exc) {
+            complete(null, exc, false);
+        }
+
+        @Override
+        @SuppressWarnings("PMD.AvoidCatchingThrowable")
+        public void onResponse(Call call, Response response) {
+            String result = null;
+            Throwable error = null;
+            boolean healthy = false;
+            try (Response res = response) {
+                // client errors do not indicate that the service is degraded
+                healthy = res.code() < 500;
+                result = handleResponse(res, reader);
+            } catch (Throwable exc) {
+                // a failing reader must not leave identical requests waiting for this call
+                error = exc;
+            }
+            complete(result, error, healthy);
+        }
+
+        /** Releases the guard and completes the future, whatever the outcome of the call. */
+        private void complete(String result, Throwable error, boolean healthy) {
+            try {
+                guard.release(permit, healthy && error==null, System.nanoTime() - startNanos);
+                metrics.recordLatency(startNanos);
+                if (error!=null || result==null) {
+                    metrics.recordError();
+                } else {
+                    if (cache!=null) cache.put(key, result);
+                    if (staleCache!=null) staleCache.put(key, result);
+                }
+            } finally {
+                inFlight.remove(key, future);
+                if (error==null) {
+                    future.complete(result);
+                } else {
+                    future.completeExceptionally(error);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.radarbase.ksql.udf;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+
+/**
+ * Helpers to build the JSON requests of the REST inference UDFs. Request bodies are written with
+ * a streaming generator into a buffer that is reused per thread, and URLs and other values that
+ * are derived from function arguments are cached per function instance.
+ */
+final class InferenceRequests {
+
+    static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final int MAX_CACHED_ENTRIES = 1_000;
+    private static final ThreadLocal<ByteArrayOutputStream> BODY_BUFFER =
+            ThreadLocal.withInitial(() -> new ByteArrayOutputStream(256));
+
+    private InferenceRequests() {
+
+    }
+
+    /** Empty buffer of the current thread to write a request body into. */
+    static ByteArrayOutputStream bodyBuffer() {
+        ByteArrayOutputStream buffer = BODY_BUFFER.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    /** Appends the contents of one buffer to another. */
+    static void writeTo(ByteArrayOutputStream source, ByteArrayOutputStream target) {
+        try {
+            source.writeTo(target);
+        } catch (IOException exc) {
+            // not thrown by an in-memory buffer
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    /** POST request with a JSON body. */
+    static Request post(HttpUrl url, byte[] json) {
+        return new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(json, JSON))
+                .build();
+    }
+
+    /** Cached value, computed if absent. The cache is cleared once it grows too large. */
+    static <V> V getCached(ConcurrentMap<String, V> cache, String key,
+            Function<String, V> compute) {
+        V value = cache.get(key);
+        if (value==null) {
+            value = compute.apply(key);
+            if (value!=null) {
+                if (cache.size() >= MAX_CACHED_ENTRIES) cache.clear();
+                cache.put(key, value);
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,163 @@
+package org.radarbase.ksql.udf;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import okhttp3.ResponseBody;
+
+/**
+ * Reads a single field from a JSON response while it streams in, without reading the whole
+ * response into a string. Fields and array elements before the selected field are skipped
+ * without being materialized, and the rest of the response is not parsed.
+ *
+ * <p>The field is selected with a JSON path like the one of {@code EXTRACTJSONFIELD}, e.g.
+ * {@code $.prediction}, {@code $.probabilities[2]} or {@code $['class label']}. Like
+ * {@code EXTRACTJSONFIELD}, scalar values are returned as text and objects and arrays as JSON.
+ * Missing fields and JSON nulls are returned as null.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public final class JsonFieldExtractor implements InferenceClient.ResponseReader {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private final String path;
+    /** Field names and array indices to descend into. */
+    private final Object[] steps;
+
+    private JsonFieldExtractor(String path, Object[] steps) {
+        this.path = path;
+        this.steps = steps;
+    }
+
+    /**
+     * Compiles a JSON path.
+     *
+     * @param path path of the field, optionally starting with {@code $}
+     * @return extractor of the field
+     * @throws IllegalArgumentException if the path is not valid
+     */
+    @SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+    public static JsonFieldExtractor compile(String path) {
+        String normalized = path;
+        if (!path.startsWith("$")) {
+            // allow omitting the root, e.g. "prediction" or "[0]"
+            normalized = (path.startsWith("[") ? "$" : "$.") + path;
+        }
+        List<Object> steps = new ArrayList<>();
+        int length = normalized.length();
+        int i = 1;
+        while (i < length) {
+            char c = normalized.charAt(i);
+            if (c=='.') {
+                int end = i + 1;
+                while (end < length && ".[".indexOf(normalized.charAt(end)) < 0) end++;
+                if (end==i + 1) throw invalidPath(normalized);
+                steps.add(normalized.substring(i + 1, end));
+                i = end;
+            } else if (c=='[') {
+                int end = normalized.indexOf(']', i);
+                if (end < 0 || end==i + 1) throw invalidPath(normalized);
+                String step = normalized.substring(i + 1, end);
+                char quote = step.charAt(0);
+                if (quote=='\'' || quote=='"') {
+                    if (step.length() < 2 || step.charAt(step.length() - 1)!=quote) {
+                        throw invalidPath(normalized);
+                    }
+                    steps.add(step.substring(1, step.length() - 1));
+                } else {
+                    try {
+                        steps.add(Integer.parseInt(step));
+                    } catch (NumberFormatException exc) {
+                        throw invalidPath(normalized);
+                    }
+                }
+                i = end + 1;
+            } else {
+                throw invalidPath(normalized);
+            }
+        }
+        return new JsonFieldExtractor(normalized, steps.toArray());
+    }
+
+    private static IllegalArgumentException invalidPath(String path) {
+        return new IllegalArgumentException("Invalid JSON path: " + path);
+    }
+
+    @Override
+    public String read(ResponseBody body) throws IOException {
+        try (JsonParser parser = MAPPER.getFactory().createParser(body.byteStream())) {
+            return extract(parser);
+        }
+    }
+
+    /**
+     * Reads the field from a parser positioned before the root value.
+     *
+     * @param parser JSON parser
+     * @return value of the field, or null if it is missing or null
+     * @throws IOException if the JSON cannot be read
+     */
+    String extract(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        for (Object step : steps) {
+            boolean found;
+            if (step instanceof String) {
+                found = token==JsonToken.START_OBJECT && findField(parser, (String) step);
+            } else {
+                found = token==JsonToken.START_ARRAY && findElement(parser, (Integer) step);
+            }
+            if (!found) return null;
+            token = parser.currentToken();
+        }
+        return valueAsText(parser);
+    }
+
+    /**
+     * Reads the current value of a parser like {@code EXTRACTJSONFIELD} returns it: scalars as
+     * text, objects and arrays as JSON.
+     *
+     * @param parser JSON parser positioned at the value
+     * @return value, or null if it is missing or null
+     * @throws IOException if the JSON cannot be read
+     */
+    static String valueAsText(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token==null || token==JsonToken.VALUE_NULL) return null;
+        if (token==JsonToken.START_OBJECT || token==JsonToken.START_ARRAY) {
+            return MAPPER.readTree(parser).toString();
+        }
+        return parser.getText();
+    }
+
+    /** Moves the parser to the value of the field in the current object. */
+    private static boolean findField(JsonParser parser, String field) throws IOException {
+        while (parser.nextToken()==JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if (name.equals(field)) return true;
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    /** Moves the parser to the element of the current array. */
+    private static boolean findElement(JsonParser parser, int index) throws IOException {
+        for (int i = 0; ; i++) {
+            JsonToken token = parser.nextToken();
+            if (token==null || token==JsonToken.END_ARRAY) return false;
+            if (i==index) return true;
+            parser.skipChildren();
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "JsonFieldExtractor{path=" + path + '}';
+    }
+}
@@ -0,0 +1,103 @@
+package org.radarbase.ksql.udf;
+
+import io.confluent.ksql.function.udf.Udf;
+import io.confluent.ksql.function.udf.UdfDescription;
+import io.confluent.ksql.function.udf.UdfParameter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.apache.kafka.common.Configurable;
+import org.radarbase.ksql.model.Model;
+import org.radarbase.ksql.model.ModelRegistry;
+import org.radarbase.ksql.model.ModelSession;
+import org.radarbase.ksql.util.Configs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+@UdfDescription(name = LocalInferenceUdf.NAME,
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "A custom function to run real time inference in-process on models "
+                + "loaded from a local directory.")
+public class LocalInferenceUdf implements Configurable {
+
+    public static final String NAME = "local_inference";
+    public static final String CONFIG_PREFIX = "ksql.functions." + NAME + ".";
+    public static final String MODEL_DIR_CONFIG = CONFIG_PREFIX + "model.dir";
+    private static final Logger logger = LoggerFactory.getLogger(LocalInferenceUdf.class);
+    // Sessions of the models used by each stream thread. Reloaded models replace the old ones,
+    // so their sessions are dropped with them, as long as sessions do not reference the model.
+    private static final ThreadLocal<Map<Model, ModelSession>> SESSIONS =
+            ThreadLocal.withInitial(WeakHashMap::new);
+
+    private transient Path modelDir;
+
+    /**
+     * Configures the UDF with the following properties, all prefixed with
+     * {@value #CONFIG_PREFIX}:
+     * <ul>
+     *     <li>{@code model.dir}: directory with the model artifacts, see
+     *     {@link ModelRegistry}. All models in it are loaded when the function is configured.
+     *     </li>
+     * </ul>
+     */
+    @Override
+    public void configure(Map<String, ?> configs) {
+        String dir = Configs.getString(configs, MODEL_DIR_CONFIG, null);
+        if (dir==null) {
+            logger.warn("No model directory configured in {}", MODEL_DIR_CONFIG);
+            modelDir = null;
+            return;
+        }
+        modelDir = Paths.get(dir);
+        ModelRegistry.loadAll(modelDir);
+    }
+
+    @Udf(
+            description = "Run inference in realtime with a model from the local model "
+                    + "directory. This returns the outputs of the model, e.g. the predicted "
+                    + "value of a regression model or the probability of each class of a "
+                    + "classification model."
+    )
+    public List<Double> runInference(
+            @UdfParameter(description = "The model name to use for inference.")
+                    String modelName,
+            @UdfParameter(description = "The model version to use for inference.")
+                    String modelVersion,
+            @UdfParameter(description = "The features to run inference on, in the order of "
+                    + "the model inputs.")
+                    List<Double> features
+    ) {
+        if (modelDir==null || modelName==null || modelVersion==null || features==null) {
+            return null;
+        }
+
+        Model model = ModelRegistry.getModel(modelDir, modelName, modelVersion);
+        if (model==null) return null;
+        if (features.size()!=model.getNumFeatures()) {
+            logger.warn("Model {} version {} expects {} features but got {}", modelName,
+                    modelVersion, model.getNumFeatures(), features.size());
+            return null;
+        }
+
+        double[] values = new double[features.size()];
+        for (int i = 0; i < values.length; i++) {
+            Double value = features.get(i);
+            if (value==null) return null;
+            values[i] = value;
+        }
+
+        double[] outputs = SESSIONS.get()
+                .computeIfAbsent(model, Model::createSession)
+                .predict(values);
+        List<Double> result = new ArrayList<>(outputs.length);
+        for (double output : outputs) {
+            result.add(output);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,289 @@
+package org.radarbase.ksql.udf;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.confluent.ksql.function.udf.Udf;
+import io.confluent.ksql.function.udf.UdfDescription;
+import io.confluent.ksql.function.udf.UdfParameter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import org.apache.kafka.common.Configurable;
+import org.radarbase.ksql.util.Configs;
+import org.radarbase.ksql.util.FunctionMetrics;
+import org.radarbase.ksql.util.HttpClientConfig;
+import org.radarbase.ksql.util.HttpClientFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs inference on all feature rows of a window in one HTTP call, instead of one call per row
+ * with {@link RestInferenceUdf}. The rows are typically collected per window with
+ * {@code collect_list} or {@code collect_bounded}. They are written as a JSON array of arrays to
+ * {@code <base.url>/models/<name>/<version>/invocation}, which responds with a JSON array of one
+ * prediction per row. Rows are split over multiple calls if the request body would exceed the
+ * configured maximum payload size. These calls are made concurrently and share a single latency
+ * budget.
+ *
+ * <p>Identical concurrent calls are coalesced. They are identified by a SHA-256 digest of the
+ * request body, so that the body is not kept as a key.
+ */
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+@UdfDescription(name = RestBatchInferenceUdf.NAME,
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "A custom function to run inference on a batch of feature rows using a "
+                + "single REST API call.")
+public class RestBatchInferenceUdf implements Configurable {
+
+    public static final String NAME = "api_inference_batch";
+    public static final String CONFIG_PREFIX = "ksql.functions." + NAME + ".";
+    public static final String BASE_URL_CONFIG = CONFIG_PREFIX + "base.url";
+    public static final String TIMEOUT_MS_CONFIG = CONFIG_PREFIX + "timeout.ms";
+    public static final String MAX_PAYLOAD_BYTES_CONFIG = CONFIG_PREFIX + "max.payload.bytes";
+    public static final String HTTP_CONFIG_PREFIX = CONFIG_PREFIX + "http.";
+    public static final String CIRCUIT_CONFIG_PREFIX = CONFIG_PREFIX + "circuit.";
+    public static final String BULKHEAD_MAX_CALLS_CONFIG =
+            CONFIG_PREFIX + "bulkhead.max.concurrent.calls";
+    private static final int MAX_PAYLOAD_BYTES_DEFAULT = 1_048_576;
+    /** Rows are written into a buffer that is reused per thread. */
+    private static final ThreadLocal<ByteArrayOutputStream> ROW_BUFFER =
+            ThreadLocal.withInitial(() -> new ByteArrayOutputStream(256));
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exc) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(exc);
+        }
+    });
+    private static final Logger logger = LoggerFactory.getLogger(RestBatchInferenceUdf.class);
+
+    private transient HttpUrl apiUrl;
+    private transient int maxPayloadBytes = MAX_PAYLOAD_BYTES_DEFAULT;
+    private transient InferenceClient inferenceClient;
+    /** Invocation URLs per model and version. */
+    private final transient ConcurrentMap<String, HttpUrl> urls = new ConcurrentHashMap<>();
+
+    public RestBatchInferenceUdf() {
+        inferenceClient = new InferenceClient(HttpClientFactory.getClient(), null, 0L, null);
+    }
+
+    /**
+     * Configures the UDF with the following properties, all prefixed with
+     * {@value #CONFIG_PREFIX}:
+     * <ul>
+     *     <li>{@code base.url}: base URL of the model-builder API.</li>
+     *     <li>{@code timeout.ms}: latency budget of all calls of a batch. Rows of calls that
+     *     did not respond within this time get null predictions. Defaults to 0, waiting until
+     *     the HTTP client times out.</li>
+     *     <li>{@code max.payload.bytes}: maximum size of a request body. Larger batches are split
+     *     over multiple calls. Defaults to 1 MiB.</li>
+     *     <li>{@code circuit.*}: settings of the circuit breaker of each model, see
+     *     {@link CircuitBreaker.Config}.</li>
+     *     <li>{@code bulkhead.max.concurrent.calls}: maximum number of calls in flight per
+     *     model, further calls are rejected. Without {@code timeout.ms}, defaults to 0, which
+     *     means no limit. With {@code timeout.ms}, calls over budget continue in the background,
+     *     so this defaults to {@code http.max.requests.per.host} to keep further calls from
+     *     queueing up without bound in the HTTP client while the service is slow.</li>
+     *     <li>{@code http.*}: settings of the HTTP client shared by all instances, see
+     *     {@link HttpClientConfig}.</li>
+     *     <li>{@code metrics.enabled}: whether to report metrics of the calls over JMX, see
+     *     {@link FunctionMetrics}. Defaults to false.</li>
+     * </ul>
+     */
+    @Override
+    public void configure(Map<String, ?> configs) {
+        String baseUrl = (String) configs.get(BASE_URL_CONFIG);
+        apiUrl = baseUrl==null ? null : HttpUrl.parse(baseUrl);
+        if (apiUrl==null) logger.warn("The base URL {} is invalid", baseUrl);
+        urls.clear();
+        maxPayloadBytes = Configs.getInt(configs, MAX_PAYLOAD_BYTES_CONFIG,
+                MAX_PAYLOAD_BYTES_DEFAULT);
+        OkHttpClient httpClient = HttpClientFactory.getClient(
+                HttpClientConfig.fromConfigs(configs, HTTP_CONFIG_PREFIX));
+        long timeoutMillis = Configs.getLong(configs, TIMEOUT_MS_CONFIG, 0L);
+        inferenceClient = new InferenceClient(httpClient, null, null, timeoutMillis, null,
+                CircuitBreaker.Config.fromConfigs(configs, CIRCUIT_CONFIG_PREFIX),
+                Configs.getInt(configs, BULKHEAD_MAX_CALLS_CONFIG,
+                        InferenceClient.defaultMaxConcurrentCalls(httpClient, timeoutMillis)),
+                FunctionMetrics.inferenceMetrics(configs, NAME, httpClient));
+    }
+
+    @Udf(
+            description = "Run inference on a batch of feature rows, e.g. all rows of a window, "
+                    + "in a single call. Returns the prediction of each row as a string, in the "
+                    + "same order as the rows. Scalar predictions are returned as text, objects "
+                    + "and arrays as json. Rows that are null or whose call failed get a null "
+                    + "prediction."
+    )
+    public List<String> runBatchInference(
+            @UdfParameter(description = "The model name to use for inference.")
+                    String modelName,
+            @UdfParameter(description = "The model version to use for inference.")
+                    String modelVersion,
+            @UdfParameter(description = "The feature rows to run inference on, each in the "
+                    + "order of the model inputs.")
+                    List<List<Double>> rows
+    ) {
+        if (modelName==null || rows==null) {
+            logger.warn("One of the required parameters was null");
+            return null;
+        }
+
+        String version = modelVersion==null ? "best" : modelVersion;
+        String link = "/models/" + modelName + "/" + version + "/invocation";
+        HttpUrl url = apiUrl==null ? null
+                : InferenceRequests.getCached(urls, link, apiUrl::resolve);
+        if (url==null) {
+            logger.warn("The Request URL was invalid: {}{}", apiUrl, link);
+            return null;
+        }
+
+        long startNanos = System.nanoTime();
+        List<Chunk> chunks = new ArrayList<>();
+        int[] indices = new int[rows.size()];
+        int count = 0;
+        int first = 0;
+        ByteArrayOutputStream body = InferenceRequests.bodyBuffer();
+        ByteArrayOutputStream row = ROW_BUFFER.get();
+        body.write('[');
+        for (int i = 0; i < rows.size(); i++) {
+            List<Double> features = rows.get(i);
+            if (features==null) continue;
+            writeRow(row, features);
+            // keep room for the separator and closing bracket
+            if (count > first && body.size() + row.size() + 2 > maxPayloadBytes) {
+                chunks.add(submit(url, modelName, body, first, count));
+                body.reset();
+                body.write('[');
+                first = count;
+            }
+            if (count > first) body.write(',');
+            InferenceRequests.writeTo(row, body);
+            indices[count++] = i;
+        }
+        if (count > first) chunks.add(submit(url, modelName, body, first, count));
+
+        List<String> predictions = new ArrayList<>(Collections.nCopies(rows.size(), null));
+        for (Chunk chunk : chunks) {
+            String response = inferenceClient.await(chunk.key, chunk.request, chunk.future,
+                    startNanos);
+            if (response!=null) {
+                readPredictions(url, response, indices, chunk.first, chunk.end, predictions);
+            }
+        }
+        return predictions;
+    }
+
+    /**
+     * Starts a single call with the rows in the body.
+     *
+     * @param body unterminated JSON array of rows
+     * @param first index in the non-null rows of the first row in the body
+     * @param end index in the non-null rows after the last row in the body
+     */
+    private Chunk submit(HttpUrl url, String modelName, ByteArrayOutputStream body, int first,
+            int end) {
+        body.write(']');
+        byte[] json = body.toByteArray();
+        MessageDigest digest = DIGEST.get();
+        digest.update(url.toString().getBytes(StandardCharsets.UTF_8));
+        String key = Base64.getEncoder().encodeToString(digest.digest(json));
+        logger.debug("Requesting {} rows from {}", end - first, url);
+
+        Request request = InferenceRequests.post(url, json);
+
+        return new Chunk(key, request, first, end, inferenceClient.submit(
+                key, modelName, request, InferenceClient.ResponseReader.STRING));
+    }
+
+    /**
+     * Reads the predictions of a call and sets them for its rows.
+     *
+     * @param response JSON array of predictions
+     * @param indices indices in the batch of the non-null rows
+     * @param first index in the non-null rows of the first row of the call
+     * @param end index in the non-null rows after the last row of the call
+     */
+    private static void readPredictions(HttpUrl url, String response, int[] indices, int first,
+            int end, List<String> predictions) {
+        int count = end - first;
+        String[] values = new String[count];
+        try (JsonParser parser = InferenceRequests.JSON_FACTORY.createParser(response)) {
+            if (parser.nextToken()!=JsonToken.START_ARRAY) {
+                logger.warn("The response of {} was not a json array", url);
+                return;
+            }
+            int size = 0;
+            while (parser.nextToken()!=JsonToken.END_ARRAY) {
+                if (size < count) values[size] = JsonFieldExtractor.valueAsText(parser);
+                parser.skipChildren();
+                size++;
+            }
+            if (size!=count) {
+                logger.warn("The response of {} had {} predictions for {} rows", url, size,
+                        count);
+                return;
+            }
+        } catch (IOException exc) {
+            logger.warn("The response of {} could not be read: {}", url, exc.getMessage());
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            predictions.set(indices[first + i], values[i]);
+        }
+    }
+
+    /** Writes a row of features as a JSON array with a streaming generator. */
+    private static void writeRow(ByteArrayOutputStream buffer, List<Double> features) {
+        buffer.reset();
+        try (JsonGenerator generator = InferenceRequests.JSON_FACTORY.createGenerator(buffer)) {
+            generator.writeStartArray();
+            for (Double feature : features) {
+                if (feature==null) {
+                    generator.writeNull();
+                } else {
+                    generator.writeNumber(feature);
+                }
+            }
+            generator.writeEndArray();
+        } catch (IOException exc) {
+            // not thrown by an in-memory buffer
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    /** Call in flight with the rows of a batch that it predicts. */
+    private static final class Chunk {
+        private final String key;
+        private final Request request;
+        private final int first;
+        private final int end;
+        private final CompletableFuture<String> future;
+
+        Chunk(String key, Request request, int first, int end,
+                CompletableFuture<String> future) {
+            this.key = key;
+            this.request = request;
+            this.first = first;
+            this.end = end;
+            this.future = future;
+        }
+    }
+}
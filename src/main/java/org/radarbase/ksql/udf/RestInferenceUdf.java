@@ -1,47 +1,134 @@
 package org.radarbase.ksql.udf;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
 import io.confluent.ksql.function.udf.Udf;
 import io.confluent.ksql.function.udf.UdfDescription;
 import io.confluent.ksql.function.udf.UdfParameter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URI;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import okhttp3.MediaType;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
 import org.apache.kafka.common.Configurable;
 import org.apache.log4j.BasicConfigurator;
+import org.radarbase.ksql.util.Configs;
+import org.radarbase.ksql.util.ExpiringLruCache;
+import org.radarbase.ksql.util.FunctionMetrics;
+import org.radarbase.ksql.util.HttpClientConfig;
 import org.radarbase.ksql.util.HttpClientFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @SuppressWarnings("PMD.DataflowAnomalyAnalysis")
-@UdfDescription(name = "api_inference",
+@UdfDescription(name = RestInferenceUdf.NAME,
         author = "yatharthranjan",
         version = "1.0.0",
         description = "A custom function to run real time inference using REST API calls.")
 public class RestInferenceUdf implements Configurable {
 
+    public static final String NAME = "api_inference";
+    public static final String CONFIG_PREFIX = "ksql.functions." + NAME + ".";
+    public static final String BASE_URL_CONFIG = CONFIG_PREFIX + "base.url";
+    public static final String TIMEOUT_MS_CONFIG = CONFIG_PREFIX + "timeout.ms";
+    public static final String FALLBACK_CONFIG = CONFIG_PREFIX + "fallback";
+    public static final String CACHE_TTL_MS_CONFIG = CONFIG_PREFIX + "cache.ttl.ms";
+    public static final String CACHE_MAX_ENTRIES_CONFIG = CONFIG_PREFIX + "cache.max.entries";
+    public static final String HTTP_CONFIG_PREFIX = CONFIG_PREFIX + "http.";
+    public static final String STALE_TTL_MS_CONFIG = CONFIG_PREFIX + "stale.ttl.ms";
+    public static final String CIRCUIT_CONFIG_PREFIX = CONFIG_PREFIX + "circuit.";
+    public static final String BULKHEAD_MAX_CALLS_CONFIG =
+            CONFIG_PREFIX + "bulkhead.max.concurrent.calls";
+    private static final int CACHE_MAX_ENTRIES_DEFAULT = 10_000;
+    private static final SerializableString FILENAME = new SerializedString("filename");
+    private static final SerializableString CLASSNAME = new SerializedString("classname");
+    private static final SerializableString DBNAME = new SerializedString("dbname");
+    private static final SerializableString STARTTIME = new SerializedString("starttime");
+    private static final SerializableString ENDTIME = new SerializedString("endtime");
+    private static final SerializableString PROJECT_ID = new SerializedString("project_id");
+    private static final SerializableString USER_ID = new SerializedString("user_id");
+    private static final SerializableString SOURCE_ID = new SerializedString("source_id");
     private static final Logger logger = LoggerFactory.getLogger(RestInferenceUdf.class);
 
-    private final transient OkHttpClient httpClient;
-    private final transient ObjectMapper objectMapper;
-    private transient String apiUrl;
+    private transient OkHttpClient httpClient;
+    private transient HttpUrl apiUrl;
+    private transient InferenceClient inferenceClient;
+    /** Invocation URLs per model, version and metric. */
+    private final transient ConcurrentMap<String, HttpUrl> urls = new ConcurrentHashMap<>();
+    /** Compiled JSON paths of the fields to read from responses. */
+    private final transient ConcurrentMap<String, JsonFieldExtractor> extractors =
+            new ConcurrentHashMap<>();
 
     public RestInferenceUdf() {
         httpClient = HttpClientFactory.getClient();
-        objectMapper = new ObjectMapper();
+        inferenceClient = new InferenceClient(httpClient, null, 0L, null);
         BasicConfigurator.configure();
     }
 
+    /**
+     * Configures the UDF with the following properties, all prefixed with
+     * {@value #CONFIG_PREFIX}:
+     * <ul>
+     *     <li>{@code base.url}: base URL of the model-builder API.</li>
+     *     <li>{@code timeout.ms}: latency budget of a single call. If no response arrives within
+     *     this time, the fallback value is returned while the request completes in the
+     *     background. Defaults to 0, waiting until the HTTP client times out.</li>
+     *     <li>{@code fallback}: value to return when a call fails or exceeds the latency budget.
+     *     Defaults to null.</li>
+     *     <li>{@code cache.ttl.ms}: time to cache successful responses for. Defaults to 0, which
+     *     disables the cache.</li>
+     *     <li>{@code cache.max.entries}: maximum number of cached responses. Defaults to
+     *     10000.</li>
+     *     <li>{@code stale.ttl.ms}: time to keep the last successful response of each request,
+     *     to return instead of the fallback value. Defaults to 0, always returning the fallback
+     *     value.</li>
+     *     <li>{@code circuit.*}: settings of the circuit breaker of each model, see
+     *     {@link CircuitBreaker.Config}.</li>
+     *     <li>{@code bulkhead.max.concurrent.calls}: maximum number of calls in flight per
+     *     model, further calls are rejected. Without {@code timeout.ms}, defaults to 0, which
+     *     means no limit. With {@code timeout.ms}, calls over budget continue in the background,
+     *     so this defaults to {@code http.max.requests.per.host} to keep further calls from
+     *     queueing up without bound in the HTTP client while the service is slow.</li>
+     *     <li>{@code http.*}: settings of the HTTP client shared by all instances, see
+     *     {@link HttpClientConfig}.</li>
+     *     <li>{@code metrics.enabled}: whether to report metrics of the calls over JMX, see
+     *     {@link FunctionMetrics}. Defaults to false.</li>
+     * </ul>
+     */
     @Override
     public void configure(Map<String, ?> configs) {
-        apiUrl = (String) configs.get("ksql.functions.api_inference.base.url");
+        String baseUrl = (String) configs.get(BASE_URL_CONFIG);
+        apiUrl = baseUrl==null ? null : HttpUrl.parse(baseUrl);
+        if (apiUrl==null) logger.warn("The base URL {} is invalid", baseUrl);
+        urls.clear();
+        httpClient = HttpClientFactory.getClient(
+                HttpClientConfig.fromConfigs(configs, HTTP_CONFIG_PREFIX));
+
+        int cacheMaxEntries = Configs.getInt(configs, CACHE_MAX_ENTRIES_CONFIG,
+                CACHE_MAX_ENTRIES_DEFAULT);
+        long cacheTtl = Configs.getLong(configs, CACHE_TTL_MS_CONFIG, 0L);
+        ExpiringLruCache<String, String> cache = null;
+        if (cacheTtl > 0) {
+            cache = new ExpiringLruCache<>(cacheMaxEntries, cacheTtl);
+        }
+        long staleTtl = Configs.getLong(configs, STALE_TTL_MS_CONFIG, 0L);
+        ExpiringLruCache<String, String> staleCache = null;
+        if (staleTtl > 0) {
+            staleCache = new ExpiringLruCache<>(cacheMaxEntries, staleTtl);
+        }
+        long timeoutMillis = Configs.getLong(configs, TIMEOUT_MS_CONFIG, 0L);
+        inferenceClient = new InferenceClient(httpClient, cache, staleCache, timeoutMillis,
+                Configs.getString(configs, FALLBACK_CONFIG, null),
+                CircuitBreaker.Config.fromConfigs(configs, CIRCUIT_CONFIG_PREFIX),
+                Configs.getInt(configs, BULKHEAD_MAX_CALLS_CONFIG,
+                        InferenceClient.defaultMaxConcurrentCalls(httpClient, timeoutMillis)),
+                FunctionMetrics.inferenceMetrics(configs, NAME, httpClient));
     }
 
     @Udf(
@@ -76,6 +163,68 @@ public class RestInferenceUdf implements Configurable {
                     "used with modelVersion='best'. Otherwise null.")
                     String metric
     ) {
+        return runMetadataInference(dataLoaderModule, dataLoaderClass, dbName, projectId, userId,
+                modelName, modelVersion, sourceId, startTime, endTime, metric,
+                InferenceClient.ResponseReader.STRING, "");
+    }
+
+    @Udf(
+            description = "Run inference in realtime by loading data from the database, like " +
+                    "the function without fieldPath, but only return the value of a single " +
+                    "field of the json response. The field is read while the response streams " +
+                    "in, without keeping the full response. Scalar values are returned as " +
+                    "text, objects and arrays as json, like 'EXTRACTJSONFIELD'."
+    )
+    public String runMetadataInference(
+            @UdfParameter(description = "The python module name in model-builder to use to load " +
+                    "the data")
+                    String dataLoaderModule,
+            @UdfParameter(description = "The python class in the module to use to load the data.")
+                    String dataLoaderClass,
+            @UdfParameter(description = "The database containing the features to use.")
+                    String dbName,
+            @UdfParameter(description = "The RADAR projectId of the subject to run inference for.")
+                    String projectId,
+            @UdfParameter(description = "The RADAR subjectId to run inference for.")
+                    String userId,
+            @UdfParameter(description = "The model name to use for inference.")
+                    String modelName,
+            @UdfParameter(description = "The model version to use for inference.")
+                    String modelVersion,
+            @UdfParameter(description = "The RADAR sourceId.")
+                    String sourceId,
+            @UdfParameter(description = "The start time of the data to run inference on.")
+                    Double startTime,
+            @UdfParameter(description = "The end time of the data to run inference on.")
+                    Double endTime,
+            @UdfParameter(description = "The metric to use to define the best model. Can only be " +
+                    "used with modelVersion='best'. Otherwise null.")
+                    String metric,
+            @UdfParameter(description = "JSON path of the field to return, e.g. '$.prediction' " +
+                    "or '$.probabilities[0]'.")
+                    String fieldPath
+    ) {
+        if (fieldPath==null) {
+            logger.warn("The field path was null");
+            return null;
+        }
+        JsonFieldExtractor extractor;
+        try {
+            extractor = InferenceRequests.getCached(extractors, fieldPath,
+                    JsonFieldExtractor::compile);
+        } catch (IllegalArgumentException exc) {
+            logger.warn(exc.getMessage());
+            return null;
+        }
+        return runMetadataInference(dataLoaderModule, dataLoaderClass, dbName, projectId, userId,
+                modelName, modelVersion, sourceId, startTime, endTime, metric,
+                extractor, "\n" + extractor.getPath());
+    }
+
+    private String runMetadataInference(String dataLoaderModule, String dataLoaderClass,
+            String dbName, String projectId, String userId, String modelName,
+            String modelVersion, String sourceId, Double startTime, Double endTime,
+            String metric, InferenceClient.ResponseReader reader, String keySuffix) {
         if (dataLoaderModule==null
                 || dataLoaderClass==null
                 || dbName==null
@@ -87,68 +236,75 @@ public class RestInferenceUdf implements Configurable {
             return null;
         }
 
-        if (modelVersion==null) {
-            modelVersion = "best";
-        }
-
+        String version = modelVersion==null ? "best" : modelVersion;
         String query = "";
-        if (modelVersion.equals("best") && metric!=null && !metric.isEmpty()) {
+        if (version.equals("best") && metric!=null && !metric.isEmpty()) {
             query = "?metric=" + metric;
         }
 
-        URI uri = URI
-                .create(apiUrl)
-                .resolve("/models/" + modelName + "/" + modelVersion + "/metadata-invocation" + query);
+        String link = "/models/" + modelName + "/" + version + "/metadata-invocation" + query;
+        HttpUrl url = apiUrl==null ? null
+                : InferenceRequests.getCached(urls, link, apiUrl::resolve);
+        if (url==null) {
+            logger.warn("The Request URL was invalid: {}{}", apiUrl, link);
+            return null;
+        }
 
-        JsonNode jsonNode = objectMapper.createObjectNode()
-                .put("filename", dataLoaderModule)
-                .put("classname", dataLoaderClass)
-                .put("dbname", dbName)
-                .put("starttime", startTime)
-                .put("endtime", endTime)
-                .put("project_id", projectId)
-                .put("user_id", userId)
-                .put("source_id", sourceId);
+        byte[] json = writeBody(dataLoaderModule, dataLoaderClass, dbName, startTime, endTime,
+                projectId, userId, sourceId);
+        String key = url + "\n" + new String(json, StandardCharsets.UTF_8);
+        logger.debug("Requesting {}", key);
 
-        String json = jsonNode.toString();
+        Request request = InferenceRequests.post(url, json);
 
-        RequestBody body = RequestBody.create(json, MediaType.parse("application/json"));
-        logger.debug("Requesting {} with body {}", uri, json);
+        // The URL and body determine the response
+        return inferenceClient.call(key + keySuffix, modelName, request, reader);
+    }
 
-        Request request;
-        try {
-            request = new Request.Builder()
-                    .url(uri.toURL())
-                    .post(body)
-                    .build();
-        } catch (MalformedURLException exc) {
-            logger.warn("The Request URL was invalid: {}", exc.getMessage());
-            return null;
+    /**
+     * Writes the request body with a streaming generator into a reused buffer.
+     *
+     * @return JSON body
+     */
+    private static byte[] writeBody(String dataLoaderModule, String dataLoaderClass,
+            String dbName, Double startTime, Double endTime, String projectId, String userId,
+            String sourceId) {
+        ByteArrayOutputStream buffer = InferenceRequests.bodyBuffer();
+        try (JsonGenerator generator = InferenceRequests.JSON_FACTORY.createGenerator(buffer)) {
+            generator.writeStartObject();
+            writeField(generator, FILENAME, dataLoaderModule);
+            writeField(generator, CLASSNAME, dataLoaderClass);
+            writeField(generator, DBNAME, dbName);
+            writeField(generator, STARTTIME, startTime);
+            writeField(generator, ENDTIME, endTime);
+            writeField(generator, PROJECT_ID, projectId);
+            writeField(generator, USER_ID, userId);
+            writeField(generator, SOURCE_ID, sourceId);
+            generator.writeEndObject();
+        } catch (IOException exc) {
+            // not thrown by an in-memory buffer
+            throw new UncheckedIOException(exc);
         }
+        return buffer.toByteArray();
+    }
 
-        logger.debug("Going to make HTTP call");
-        try (Response response = httpClient.newCall(request).execute()) {
-            return handleResponse(response);
-        } catch (IOException exc) {
-            logger.warn("There was an error making request to invocation api: {}",
-                    exc.getMessage());
-            return null;
+    private static void writeField(JsonGenerator generator, SerializableString name,
+            String value) throws IOException {
+        generator.writeFieldName(name);
+        if (value==null) {
+            generator.writeNull();
+        } else {
+            generator.writeString(value);
         }
     }
 
-    private String handleResponse(Response response) throws IOException {
-        if (response.isSuccessful()) {
-            if (response.body()==null) {
-                logger.warn("The result body was null");
-                return null;
-            } else {
-                String resBody = response.body().string();
-                logger.debug("Response Body is: {}", resBody);
-                return resBody;
-            }
+    private static void writeField(JsonGenerator generator, SerializableString name,
+            Double value) throws IOException {
+        generator.writeFieldName(name);
+        if (value==null) {
+            generator.writeNull();
         } else {
-            logger.warn("The request was not successful: {}.", response);
-            return null;
+            generator.writeNumber(value);
         }
     }
 }
@@ -0,0 +1,95 @@
+package org.radarbase.ksql.udf;
+
+import io.confluent.ksql.function.udf.Udf;
+import io.confluent.ksql.function.udf.UdfDescription;
+import io.confluent.ksql.function.udf.UdfParameter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.radarbase.ksql.signal.SpectralAnalyzer;
+
+/**
+ * Computes frequency-domain features of a window of samples in-process, e.g. of accelerometer
+ * or PPG signals collected per window with {@code collect_bounded}. The spectrum is computed
+ * by a {@link SpectralAnalyzer} per stream thread, which reuses its FFT plans and buffers.
+ */
+@UdfDescription(name = SpectralFeaturesUdf.NAME,
+        author = "yatharthranjan",
+        version = "1.0.0",
+        description = "Computes spectral features of a window of evenly sampled values.")
+public class SpectralFeaturesUdf {
+
+    public static final String NAME = "spectral_features";
+    public static final String DOMINANT_FREQUENCY = "DOMINANT_FREQUENCY";
+    public static final String SPECTRAL_ENTROPY = "SPECTRAL_ENTROPY";
+    public static final String TOTAL_POWER = "TOTAL_POWER";
+    public static final String BAND_POWERS = "BAND_POWERS";
+    public static final String RETURN_SCHEMA = "STRUCT<DOMINANT_FREQUENCY double, "
+            + "SPECTRAL_ENTROPY double, TOTAL_POWER double, BAND_POWERS ARRAY<double>>";
+    private static final Schema RETURN_STRUCT_SCHEMA = SchemaBuilder.struct().optional()
+            .field(DOMINANT_FREQUENCY, Schema.OPTIONAL_FLOAT64_SCHEMA)
+            .field(SPECTRAL_ENTROPY, Schema.OPTIONAL_FLOAT64_SCHEMA)
+            .field(TOTAL_POWER, Schema.OPTIONAL_FLOAT64_SCHEMA)
+            .field(BAND_POWERS,
+                    SchemaBuilder.array(Schema.OPTIONAL_FLOAT64_SCHEMA).optional().build())
+            .build();
+    private static final ThreadLocal<SpectralAnalyzer> ANALYZER =
+            ThreadLocal.withInitial(SpectralAnalyzer::new);
+
+    @Udf(
+            description = "Computes the dominant frequency in Hz, the normalized spectral "
+                    + "entropy and the total power of a window of values. The mean of the "
+                    + "window is removed and a Hann window is applied before the FFT.",
+            schema = RETURN_SCHEMA
+    )
+    public Struct spectralFeatures(
+            @UdfParameter(description = "The values of the window, in order of time.")
+                    List<Double> values,
+            @UdfParameter(description = "The sampling rate of the values in Hz.")
+                    Double sampleRate
+    ) {
+        return spectralFeatures(values, sampleRate, Collections.emptyList());
+    }
+
+    @Udf(
+            description = "Computes the dominant frequency in Hz, the normalized spectral "
+                    + "entropy, the total power and the power in each frequency band of a "
+                    + "window of values. The power of a band is the variance of the signal in "
+                    + "that band. The mean of the window is removed and a Hann window is "
+                    + "applied before the FFT.",
+            schema = RETURN_SCHEMA
+    )
+    public Struct spectralFeatures(
+            @UdfParameter(description = "The values of the window, in order of time.")
+                    List<Double> values,
+            @UdfParameter(description = "The sampling rate of the values in Hz.")
+                    Double sampleRate,
+            @UdfParameter(description = "The ascending edges of the frequency bands in Hz, "
+                    + "e.g. [0.5, 3, 8] for the bands 0.5-3 Hz and 3-8 Hz.")
+                    List<Double> bandEdges
+    ) {
+        if (values==null || sampleRate==null || bandEdges==null) return null;
+        for (int i = 0; i < bandEdges.size(); i++) {
+            if (bandEdges.get(i)==null || i > 0 && bandEdges.get(i) < bandEdges.get(i - 1)) {
+                return null;
+            }
+        }
+
+        SpectralAnalyzer analyzer = ANALYZER.get();
+        if (!analyzer.analyze(values, sampleRate)) return null;
+
+        List<Double> bandPowers = new ArrayList<>(Math.max(bandEdges.size() - 1, 0));
+        for (int i = 1; i < bandEdges.size(); i++) {
+            bandPowers.add(analyzer.bandPower(bandEdges.get(i - 1), bandEdges.get(i)));
+        }
+        double entropy = analyzer.spectralEntropy();
+        return new Struct(RETURN_STRUCT_SCHEMA)
+                .put(DOMINANT_FREQUENCY, analyzer.dominantFrequency())
+                .put(SPECTRAL_ENTROPY, Double.isNaN(entropy) ? null : entropy)
+                .put(TOTAL_POWER, analyzer.totalPower())
+                .put(BAND_POWERS, bandPowers);
+    }
+}
@@ -0,0 +1,63 @@
+package org.radarbase.ksql.util;
+
+import java.util.Map;
+
+/**
+ * Helpers to read typed values from the function configuration that ksqlDB passes to
+ * {@link org.apache.kafka.common.Configurable} functions. Values may be given as strings or as
+ * numbers, depending on where they were configured.
+ */
+public final class Configs {
+
+    public static final String FUNCTION_CONFIG_PREFIX = "ksql.functions.";
+    public static final String GLOBAL_CONFIG_PREFIX = FUNCTION_CONFIG_PREFIX + "_global_.";
+
+    private Configs() {
+    }
+
+    /**
+     * Value of a property that can be set for a single function, as
+     * {@code ksql.functions.<name><suffix>}, or for all functions under
+     * {@code ksql.functions._global_}. The function's own property takes precedence.
+     *
+     * @param configs function configuration
+     * @param name function name, or null to only read the global property
+     * @param suffix property name after the function name, starting with a dot
+     * @return configured value, or null if not set
+     */
+    public static Object getFunctionConfig(Map<String, ?> configs, String name, String suffix) {
+        Object value = name==null ? null : configs.get(FUNCTION_CONFIG_PREFIX + name + suffix);
+        if (value==null) {
+            value = configs.get(GLOBAL_CONFIG_PREFIX + suffix.substring(1));
+        }
+        return value;
+    }
+
+    public static String getString(Map<String, ?> configs, String key, String defaultValue) {
+        Object value = configs.get(key);
+        return value==null ? defaultValue : value.toString();
+    }
+
+    public static long getLong(Map<String, ?> configs, String key, long defaultValue) {
+        Object value = configs.get(key);
+        if (value==null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).longValue();
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException exc) {
+            throw new IllegalArgumentException(
+                    "Config " + key + " must be a number: " + value, exc);
+        }
+    }
+
+    public static int getInt(Map<String, ?> configs, String key, int defaultValue) {
+        return (int) getLong(configs, key, defaultValue);
+    }
+
+    public static boolean getBoolean(Map<String, ?> configs, String key, boolean defaultValue) {
+        Object value = configs.get(key);
+        if (value==null) return defaultValue;
+        if (value instanceof Boolean) return (Boolean) value;
+        return Boolean.parseBoolean(value.toString().trim());
+    }
+}
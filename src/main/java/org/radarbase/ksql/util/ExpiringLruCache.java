@@ -0,0 +1,68 @@
+package org.radarbase.ksql.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe cache with a maximum number of entries, evicting the least recently used entry
+ * when full, where each entry expires a fixed time after it was added.
+ */
+public class ExpiringLruCache<K, V> {
+
+    private final long ttlNanos;
+    private final Map<K, CacheEntry<V>> entries;
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries maximum number of entries to keep
+     * @param ttlMillis time in milliseconds after which an entry expires
+     */
+    public ExpiringLruCache(int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0 || ttlMillis <= 0) {
+            throw new IllegalArgumentException("Cache size and TTL must be positive");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the value for the key if it is present and not expired.
+     *
+     * @param key key of the entry
+     * @return value or null if not present
+     */
+    public synchronized V get(K key) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry==null) return null;
+        if (System.nanoTime() - entry.addedAt > ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, new CacheEntry<>(value, System.nanoTime()));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class CacheEntry<V> {
+        private final V value;
+        private final long addedAt;
+
+        private CacheEntry(V value, long addedAt) {
+            this.value = value;
+            this.addedAt = addedAt;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.radarbase.ksql.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import okhttp3.OkHttpClient;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Gauge;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.metrics.stats.Percentiles.BucketSizing;
+import org.apache.kafka.common.utils.Time;
+import org.radarbase.ksql.util.HttpClientFactory.PoolStats;
+
+/**
+ * Registry of the metrics of the functions in this library. Metrics are kept in a Kafka
+ * {@link Metrics} instance that is shared by all functions and reported over JMX in the same
+ * domain as the ksqlDB metrics, as {@code io.confluent.ksql.metrics:type=ksql-functions,
+ * function=<name>}, where the name is the function name used in queries. UDAF metrics have an
+ * additional {@code implementation} tag, because a function has separate implementations for its
+ * different arguments, e.g. {@code MedianUdaf.PackedMedianUdafImpl}.
+ *
+ * <p>Metrics are disabled by default. They are enabled with the
+ * {@code ksql.functions._global_.metrics.enabled} property, or the same property of a single
+ * function. UDAFs time one in {@code metrics.sample.interval} calls, 100 by default, and count
+ * all calls. Instances of the same function and implementation share their metrics.
+ */
+public final class FunctionMetrics {
+
+    public static final String JMX_PREFIX = "io.confluent.ksql.metrics";
+    public static final String GROUP = "ksql-functions";
+    public static final String FUNCTION_TAG = "function";
+    public static final String IMPLEMENTATION_TAG = "implementation";
+    public static final String ENABLED_CONFIG_SUFFIX = ".metrics.enabled";
+    public static final String SAMPLE_INTERVAL_CONFIG_SUFFIX = ".metrics.sample.interval";
+    private static final int SAMPLE_INTERVAL_DEFAULT = 100;
+    private static final double MAX_LATENCY_MS = 60_000.0;
+    private static final int HISTOGRAM_BYTES = 4000;
+
+    private static Metrics metrics;
+    private static final Map<String, UdafMetrics> UDAF_METRICS = new HashMap<>();
+    private static final Map<String, InferenceMetrics> INFERENCE_METRICS = new HashMap<>();
+    private static final Map<String, OkHttpClient> HTTP_CLIENTS = new ConcurrentHashMap<>();
+
+    private FunctionMetrics() {
+
+    }
+
+    /** Whether the function configuration enables metrics of the function with given name. */
+    public static boolean isEnabled(Map<String, ?> configs, String name) {
+        Object value = Configs.getFunctionConfig(configs, name, ENABLED_CONFIG_SUFFIX);
+        return value!=null && Boolean.parseBoolean(value.toString().trim());
+    }
+
+    /**
+     * Metrics of a UDAF, if enabled in its configuration.
+     *
+     * @param configs function configuration
+     * @param name function name, as in the {@code UdafDescription}, or null to use the
+     *             implementation tag
+     * @param implementation UDAF class, its name without package is used as implementation tag,
+     *                       e.g. {@code MedianUdaf.PackedMedianUdafImpl}
+     * @return metrics, or {@link UdafMetrics#DISABLED} if disabled
+     */
+    public static UdafMetrics udafMetrics(Map<String, ?> configs, String name,
+            Class<?> implementation) {
+        if (!isEnabled(configs, name)) return UdafMetrics.DISABLED;
+        Object interval = Configs.getFunctionConfig(configs, name,
+                SAMPLE_INTERVAL_CONFIG_SUFFIX);
+        int sampleInterval = interval==null ? SAMPLE_INTERVAL_DEFAULT
+                : Integer.parseInt(interval.toString().trim());
+        String implementationName = implementationName(implementation);
+        return udafMetrics(name==null ? implementationName : name, implementationName)
+                .withSampleInterval(sampleInterval);
+    }
+
+    private static synchronized UdafMetrics udafMetrics(String name, String implementation) {
+        return UDAF_METRICS.computeIfAbsent(name + "." + implementation, n -> {
+            Metrics registry = registry();
+            Map<String, String> tags = new LinkedHashMap<>();
+            tags.put(FUNCTION_TAG, name);
+            tags.put(IMPLEMENTATION_TAG, implementation);
+            return new UdafMetrics(
+                    counter(registry, tags, "aggregate-total", "Number of aggregate calls."),
+                    counter(registry, tags, "merge-total", "Number of merge calls."),
+                    counter(registry, tags, "map-total", "Number of map calls."),
+                    timer(registry, tags, n, "aggregate"),
+                    timer(registry, tags, n, "merge"),
+                    timer(registry, tags, n, "map"),
+                    avgMax(registry, tags, n + ".reservoir-size", "reservoir-size",
+                            "number of samples in the aggregate, of sampled calls."),
+                    SAMPLE_INTERVAL_DEFAULT);
+        });
+    }
+
+    /**
+     * Metrics of an inference UDF, if enabled in its configuration. Besides the call outcomes,
+     * this reports the usage of the connection pool and dispatcher of the HTTP client.
+     *
+     * @param configs function configuration
+     * @param name function name
+     * @param httpClient HTTP client used by the function
+     * @return metrics, or {@link InferenceMetrics#DISABLED} if disabled
+     */
+    public static synchronized InferenceMetrics inferenceMetrics(Map<String, ?> configs,
+            String name, OkHttpClient httpClient) {
+        if (!isEnabled(configs, name)) return InferenceMetrics.DISABLED;
+        // the pool gauges follow the latest configured client
+        HTTP_CLIENTS.put(name, httpClient);
+        return INFERENCE_METRICS.computeIfAbsent(name, n -> {
+            Metrics registry = registry();
+            Map<String, String> tags = Collections.singletonMap(FUNCTION_TAG, n);
+            LongAdder requests = counter(registry, tags, "request-total",
+                    "Number of calls of the function.");
+            LongAdder cacheHits = counter(registry, tags, "cache-hit-total",
+                    "Number of calls answered from the cache.");
+            registry.addMetric(registry.metricName("cache-hit-ratio", GROUP,
+                    "Fraction of calls answered from the cache.", tags),
+                    (Gauge<Double>) (config, now) -> {
+                        long total = requests.sum();
+                        return total==0 ? 0.0 : (double) cacheHits.sum() / total;
+                    });
+            poolGauge(registry, tags, n, "connection-count",
+                    "Number of open connections.", PoolStats::getConnections);
+            poolGauge(registry, tags, n, "idle-connection-count",
+                    "Number of idle connections.", PoolStats::getIdleConnections);
+            poolGauge(registry, tags, n, "running-call-count",
+                    "Number of HTTP calls in progress.", PoolStats::getRunningCalls);
+            poolGauge(registry, tags, n, "queued-call-count",
+                    "Number of HTTP calls waiting for a connection.", PoolStats::getQueuedCalls);
+
+            Sensor latency = avgMax(registry, tags, n + ".latency", "latency-ms",
+                    "latency of HTTP calls in milliseconds.");
+            latency.add(new Percentiles(HISTOGRAM_BYTES, MAX_LATENCY_MS, BucketSizing.LINEAR,
+                    percentile(registry, tags, "latency-ms-p50", 50.0),
+                    percentile(registry, tags, "latency-ms-p95", 95.0),
+                    percentile(registry, tags, "latency-ms-p99", 99.0)));
+
+            return new InferenceMetrics(requests, cacheHits,
+                    counter(registry, tags, "coalesced-total",
+                            "Number of calls that waited for an identical request in flight."),
+                    counter(registry, tags, "error-total",
+                            "Number of HTTP calls that failed or were unsuccessful."),
+                    counter(registry, tags, "timeout-total",
+                            "Number of calls that exceeded their latency budget."),
+                    counter(registry, tags, "rejected-total",
+                            "Number of calls rejected by the circuit breaker or bulkhead."),
+                    latency);
+        });
+    }
+
+    /** Shared metrics registry, reporting over JMX. */
+    public static synchronized Metrics registry() {
+        if (metrics==null) {
+            metrics = new Metrics(
+                    new MetricConfig().samples(2).timeWindow(30, TimeUnit.SECONDS),
+                    Collections.singletonList(new JmxReporter(JMX_PREFIX)),
+                    Time.SYSTEM);
+        }
+        return metrics;
+    }
+
+    /** Class name without package, with nested classes separated by dots, as JMX tag value. */
+    static String implementationName(Class<?> implementation) {
+        String name = implementation.getName();
+        return name.substring(name.lastIndexOf('.') + 1).replace('$', '.');
+    }
+
+    private static LongAdder counter(Metrics registry, Map<String, String> tags, String name,
+            String description) {
+        LongAdder adder = new LongAdder();
+        registry.addMetric(registry.metricName(name, GROUP, description, tags),
+                (Gauge<Long>) (config, now) -> adder.sum());
+        return adder;
+    }
+
+    private static Sensor timer(Metrics registry, Map<String, String> tags, String function,
+            String call) {
+        return avgMax(registry, tags, function + "." + call + "-time", call + "-time-ns",
+                "time of sampled " + call + " calls in nanoseconds.");
+    }
+
+    private static Sensor avgMax(Metrics registry, Map<String, String> tags, String sensorName,
+            String name, String description) {
+        Sensor sensor = registry.sensor(GROUP + "." + sensorName);
+        sensor.add(registry.metricName(name + "-avg", GROUP, "Average " + description, tags),
+                new Avg());
+        sensor.add(registry.metricName(name + "-max", GROUP, "Maximum " + description, tags),
+                new Max());
+        return sensor;
+    }
+
+    private static Percentile percentile(Metrics registry, Map<String, String> tags,
+            String name, double percentile) {
+        return new Percentile(registry.metricName(name, GROUP,
+                percentile + "th percentile latency of HTTP calls in milliseconds.", tags),
+                percentile);
+    }
+
+    private static void poolGauge(Metrics registry, Map<String, String> tags, String function,
+            String name, String description, ToIntFunction<PoolStats> stat) {
+        registry.addMetric(registry.metricName(name, GROUP, description, tags),
+                (Gauge<Integer>) (config, now) -> stat.applyAsInt(
+                        HttpClientFactory.getPoolStats(HTTP_CLIENTS.get(function))));
+    }
+}
@@ -0,0 +1,157 @@
+package org.radarbase.ksql.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import okhttp3.Protocol;
+
+/**
+ * Settings of a shared HTTP client, read from function properties with a common prefix, e.g.
+ * {@code ksql.functions.api_inference.http.}. The following properties are supported:
+ * <ul>
+ *     <li>{@code max.idle.connections}: idle connections kept in the pool, default 5.</li>
+ *     <li>{@code keep.alive.ms}: time to keep idle connections alive, default 300000.</li>
+ *     <li>{@code max.requests}: concurrent requests over all hosts, default 64.</li>
+ *     <li>{@code max.requests.per.host}: concurrent requests per host, default 5.</li>
+ *     <li>{@code connect.timeout.ms}: connect timeout, default 40000.</li>
+ *     <li>{@code read.timeout.ms}: read timeout, default 60000.</li>
+ *     <li>{@code write.timeout.ms}: write timeout, default 10000.</li>
+ *     <li>{@code call.timeout.ms}: timeout of a complete call, default 60000.</li>
+ *     <li>{@code protocol}: {@code http/1.1} to only use HTTP/1.1, {@code h2} to prefer HTTP/2
+ *     when negotiated over TLS (the default), or {@code h2c} to use HTTP/2 without TLS with
+ *     prior knowledge.</li>
+ * </ul>
+ */
+public final class HttpClientConfig {
+
+    private final int maxIdleConnections;
+    private final long keepAliveMillis;
+    private final int maxRequests;
+    private final int maxRequestsPerHost;
+    private final long connectTimeoutMillis;
+    private final long readTimeoutMillis;
+    private final long writeTimeoutMillis;
+    private final long callTimeoutMillis;
+    private final List<Protocol> protocols;
+
+    private HttpClientConfig(Map<String, ?> configs, String prefix) {
+        maxIdleConnections = Configs.getInt(configs, prefix + "max.idle.connections", 5);
+        keepAliveMillis = Configs.getLong(configs, prefix + "keep.alive.ms", 300_000L);
+        maxRequests = Configs.getInt(configs, prefix + "max.requests", 64);
+        maxRequestsPerHost = Configs.getInt(configs, prefix + "max.requests.per.host", 5);
+        connectTimeoutMillis = Configs.getLong(configs, prefix + "connect.timeout.ms", 40_000L);
+        readTimeoutMillis = Configs.getLong(configs, prefix + "read.timeout.ms", 60_000L);
+        writeTimeoutMillis = Configs.getLong(configs, prefix + "write.timeout.ms", 10_000L);
+        callTimeoutMillis = Configs.getLong(configs, prefix + "call.timeout.ms", 60_000L);
+        protocols = parseProtocols(Configs.getString(configs, prefix + "protocol", "h2"));
+    }
+
+    /**
+     * Reads the settings from the properties with given prefix, using defaults for missing
+     * properties.
+     *
+     * @param configs function properties
+     * @param prefix prefix of the HTTP client properties, including the trailing dot
+     * @return settings
+     */
+    public static HttpClientConfig fromConfigs(Map<String, ?> configs, String prefix) {
+        return new HttpClientConfig(configs, prefix);
+    }
+
+    /** Default settings. */
+    public static HttpClientConfig defaults() {
+        return new HttpClientConfig(Collections.emptyMap(), "");
+    }
+
+    private static List<Protocol> parseProtocols(String protocol) {
+        switch (protocol.trim().toLowerCase(Locale.ROOT)) {
+            case "http/1.1":
+            case "http1.1":
+                return Collections.singletonList(Protocol.HTTP_1_1);
+            case "h2":
+                return Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1);
+            case "h2c":
+            case "h2_prior_knowledge":
+                return Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE);
+            default:
+                throw new IllegalArgumentException("Unknown HTTP protocol " + protocol);
+        }
+    }
+
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public long getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public long getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    public long getCallTimeoutMillis() {
+        return callTimeoutMillis;
+    }
+
+    public List<Protocol> getProtocols() {
+        return protocols;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this==o) return true;
+        if (o==null || getClass()!=o.getClass()) return false;
+        HttpClientConfig that = (HttpClientConfig) o;
+        return maxIdleConnections==that.maxIdleConnections
+                && keepAliveMillis==that.keepAliveMillis
+                && maxRequests==that.maxRequests
+                && maxRequestsPerHost==that.maxRequestsPerHost
+                && connectTimeoutMillis==that.connectTimeoutMillis
+                && readTimeoutMillis==that.readTimeoutMillis
+                && writeTimeoutMillis==that.writeTimeoutMillis
+                && callTimeoutMillis==that.callTimeoutMillis
+                && protocols.equals(that.protocols);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxIdleConnections, keepAliveMillis, maxRequests, maxRequestsPerHost,
+                connectTimeoutMillis, readTimeoutMillis, writeTimeoutMillis, callTimeoutMillis,
+                protocols);
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClientConfig{"
+                + "maxIdleConnections=" + maxIdleConnections
+                + ", keepAliveMillis=" + keepAliveMillis
+                + ", maxRequests=" + maxRequests
+                + ", maxRequestsPerHost=" + maxRequestsPerHost
+                + ", connectTimeoutMillis=" + connectTimeoutMillis
+                + ", readTimeoutMillis=" + readTimeoutMillis
+                + ", writeTimeoutMillis=" + writeTimeoutMillis
+                + ", callTimeoutMillis=" + callTimeoutMillis
+                + ", protocols=" + protocols
+                + '}';
+    }
+}
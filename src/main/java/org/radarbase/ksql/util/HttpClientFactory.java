@@ -1,24 +1,109 @@
 package org.radarbase.ksql.util;
 
 import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
 
-public class HttpClientFactory {
+/**
+ * Provides HTTP clients that are shared between all function instances with the same settings,
+ * so that they share a connection pool and dispatcher. Clients are created once per
+ * {@link HttpClientConfig} and safely published to all threads.
+ */
+public final class HttpClientFactory {
 
-    private static OkHttpClient _INSTANCE;
+    private static final ConcurrentMap<HttpClientConfig, OkHttpClient> CLIENTS =
+            new ConcurrentHashMap<>();
 
     private HttpClientFactory() {
 
     }
 
+    /** Shared client with the default settings. */
     public static OkHttpClient getClient() {
-        if (_INSTANCE==null) {
-            _INSTANCE = new OkHttpClient.Builder()
-                    .callTimeout(Duration.ofSeconds(60))
-                    .readTimeout(Duration.ofSeconds(60))
-                    .connectTimeout(Duration.ofSeconds(40))
-                    .build();
+        return getClient(HttpClientConfig.defaults());
+    }
+
+    /**
+     * Shared client with the given settings. The client is created on first use.
+     *
+     * @param config client settings
+     * @return shared client
+     */
+    public static OkHttpClient getClient(HttpClientConfig config) {
+        return CLIENTS.computeIfAbsent(config, HttpClientFactory::createClient);
+    }
+
+    private static OkHttpClient createClient(HttpClientConfig config) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.getMaxRequests());
+        dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(config.getMaxIdleConnections(),
+                        config.getKeepAliveMillis(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .protocols(config.getProtocols())
+                .callTimeout(Duration.ofMillis(config.getCallTimeoutMillis()))
+                .readTimeout(Duration.ofMillis(config.getReadTimeoutMillis()))
+                .writeTimeout(Duration.ofMillis(config.getWriteTimeoutMillis()))
+                .connectTimeout(Duration.ofMillis(config.getConnectTimeoutMillis()))
+                .build();
+    }
+
+    /**
+     * Current usage of the connection pool and dispatcher of a client.
+     *
+     * @param client HTTP client
+     * @return pool statistics
+     */
+    public static PoolStats getPoolStats(OkHttpClient client) {
+        return new PoolStats(
+                client.connectionPool().connectionCount(),
+                client.connectionPool().idleConnectionCount(),
+                client.dispatcher().runningCallsCount(),
+                client.dispatcher().queuedCallsCount());
+    }
+
+    /** Snapshot of the usage of an HTTP client. */
+    public static final class PoolStats {
+        private final int connections;
+        private final int idleConnections;
+        private final int runningCalls;
+        private final int queuedCalls;
+
+        PoolStats(int connections, int idleConnections, int runningCalls, int queuedCalls) {
+            this.connections = connections;
+            this.idleConnections = idleConnections;
+            this.runningCalls = runningCalls;
+            this.queuedCalls = queuedCalls;
+        }
+
+        public int getConnections() {
+            return connections;
+        }
+
+        public int getIdleConnections() {
+            return idleConnections;
+        }
+
+        public int getRunningCalls() {
+            return runningCalls;
+        }
+
+        public int getQueuedCalls() {
+            return queuedCalls;
+        }
+
+        @Override
+        public String toString() {
+            return "PoolStats{connections=" + connections
+                    + ", idleConnections=" + idleConnections
+                    + ", runningCalls=" + runningCalls
+                    + ", queuedCalls=" + queuedCalls + '}';
         }
-        return _INSTANCE;
     }
 }
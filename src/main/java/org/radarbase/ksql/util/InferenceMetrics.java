@@ -0,0 +1,79 @@
+package org.radarbase.ksql.util;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.kafka.common.metrics.Sensor;
+
+/**
+ * Instrumentation of the calls of an inference UDF, registered by {@link FunctionMetrics}.
+ * Outcomes are counted with lock-free counters and the latency of every HTTP call is recorded
+ * in a histogram. When disabled, nothing is recorded.
+ */
+public final class InferenceMetrics {
+
+    public static final InferenceMetrics DISABLED = new InferenceMetrics(
+            null, null, null, null, null, null, null);
+
+    private final LongAdder requests;
+    private final LongAdder cacheHits;
+    private final LongAdder coalesced;
+    private final LongAdder errors;
+    private final LongAdder timeouts;
+    private final LongAdder rejected;
+    private final Sensor latency;
+    private final boolean enabled;
+
+    InferenceMetrics(LongAdder requests, LongAdder cacheHits, LongAdder coalesced,
+            LongAdder errors, LongAdder timeouts, LongAdder rejected, Sensor latency) {
+        this.requests = requests;
+        this.cacheHits = cacheHits;
+        this.coalesced = coalesced;
+        this.errors = errors;
+        this.timeouts = timeouts;
+        this.rejected = rejected;
+        this.latency = latency;
+        this.enabled = requests!=null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Records a call of the UDF. */
+    public void recordRequest() {
+        if (enabled) requests.increment();
+    }
+
+    /** Records a call that was answered from the cache. */
+    public void recordCacheHit() {
+        if (enabled) cacheHits.increment();
+    }
+
+    /** Records a call that waited for an identical request in flight. */
+    public void recordCoalesced() {
+        if (enabled) coalesced.increment();
+    }
+
+    /** Records an HTTP call that failed or returned an unsuccessful response. */
+    public void recordError() {
+        if (enabled) errors.increment();
+    }
+
+    /** Records a call that exceeded its latency budget. */
+    public void recordTimeout() {
+        if (enabled) timeouts.increment();
+    }
+
+    /** Records a call that was rejected by the circuit breaker or bulkhead. */
+    public void recordRejected() {
+        if (enabled) rejected.increment();
+    }
+
+    /**
+     * Records the latency of a completed HTTP call.
+     *
+     * @param startNanos {@link System#nanoTime()} when the call was made
+     */
+    public void recordLatency(long startNanos) {
+        if (enabled) latency.record((System.nanoTime() - startNanos) / 1_000_000.0);
+    }
+}
@@ -0,0 +1,129 @@
+package org.radarbase.ksql.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.kafka.common.metrics.Sensor;
+
+/**
+ * Instrumentation of the {@code aggregate}, {@code merge} and {@code map} calls of a UDAF,
+ * registered by {@link FunctionMetrics}. Calls are counted with lock-free counters. Only one in
+ * every {@code sampleInterval} calls is timed and records the reservoir size, so that the
+ * synchronized Kafka sensors and the clock stay off the hot path. When disabled, no counters
+ * are updated and the clock is never read.
+ *
+ * <p>Usage:
+ * <pre>
+ *   long start = metrics.start();
+ *   ...
+ *   metrics.recordAggregate(start, size);
+ * </pre>
+ */
+public final class UdafMetrics {
+
+    public static final UdafMetrics DISABLED = new UdafMetrics(
+            null, null, null, null, null, null, null, 1);
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private final LongAdder aggregateCalls;
+    private final LongAdder mergeCalls;
+    private final LongAdder mapCalls;
+    private final Sensor aggregateTime;
+    private final Sensor mergeTime;
+    private final Sensor mapTime;
+    private final Sensor reservoirSize;
+    private final int sampleInterval;
+    private final boolean enabled;
+
+    UdafMetrics(LongAdder aggregateCalls, LongAdder mergeCalls, LongAdder mapCalls,
+            Sensor aggregateTime, Sensor mergeTime, Sensor mapTime, Sensor reservoirSize,
+            int sampleInterval) {
+        if (sampleInterval <= 0) {
+            throw new IllegalArgumentException(
+                    "Sample interval must be positive: " + sampleInterval);
+        }
+        this.aggregateCalls = aggregateCalls;
+        this.mergeCalls = mergeCalls;
+        this.mapCalls = mapCalls;
+        this.aggregateTime = aggregateTime;
+        this.mergeTime = mergeTime;
+        this.mapTime = mapTime;
+        this.reservoirSize = reservoirSize;
+        this.sampleInterval = sampleInterval;
+        this.enabled = aggregateCalls!=null;
+    }
+
+    /** Metrics recording to the same counters and sensors with a different sample interval. */
+    UdafMetrics withSampleInterval(int interval) {
+        if (!enabled || interval==sampleInterval) return this;
+        return new UdafMetrics(aggregateCalls, mergeCalls, mapCalls,
+                aggregateTime, mergeTime, mapTime, reservoirSize, interval);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing a call if it is sampled.
+     *
+     * @return start time to pass to the matching record method
+     */
+    public long start() {
+        if (!enabled || sampleInterval > 1
+                && ThreadLocalRandom.current().nextInt(sampleInterval)!=0) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Whether the call started at the given time is sampled, so the caller can skip computing
+     * the reservoir size otherwise.
+     */
+    public boolean isSampled(long start) {
+        return start!=NOT_SAMPLED;
+    }
+
+    /**
+     * Records an aggregate call.
+     *
+     * @param start value returned by {@link #start()}
+     * @param size number of samples in the resulting aggregate, only used if sampled
+     */
+    public void recordAggregate(long start, int size) {
+        if (!enabled) return;
+        aggregateCalls.increment();
+        if (start!=NOT_SAMPLED) {
+            aggregateTime.record(System.nanoTime() - start);
+            reservoirSize.record(size);
+        }
+    }
+
+    /**
+     * Records a merge call.
+     *
+     * @param start value returned by {@link #start()}
+     * @param size number of samples in the merged aggregate, only used if sampled
+     */
+    public void recordMerge(long start, int size) {
+        if (!enabled) return;
+        mergeCalls.increment();
+        if (start!=NOT_SAMPLED) {
+            mergeTime.record(System.nanoTime() - start);
+            reservoirSize.record(size);
+        }
+    }
+
+    /**
+     * Records a map call.
+     *
+     * @param start value returned by {@link #start()}
+     */
+    public void recordMap(long start) {
+        if (!enabled) return;
+        mapCalls.increment();
+        if (start!=NOT_SAMPLED) {
+            mapTime.record(System.nanoTime() - start);
+        }
+    }
+}
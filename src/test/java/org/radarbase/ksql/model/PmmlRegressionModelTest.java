@@ -0,0 +1,85 @@
+package org.radarbase.ksql.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+public class PmmlRegressionModelTest {
+
+    private static final String LINEAR = "<?xml version=\"1.0\"?>\n"
+            + "<PMML xmlns=\"http://www.dmg.org/PMML-4_4\" version=\"4.4\">\n"
+            + "  <RegressionModel functionName=\"regression\">\n"
+            + "    <MiningSchema>\n"
+            + "      <MiningField name=\"y\" usageType=\"target\"/>\n"
+            + "      <MiningField name=\"x1\"/>\n"
+            + "      <MiningField name=\"x2\"/>\n"
+            + "    </MiningSchema>\n"
+            + "    <RegressionTable intercept=\"1.5\">\n"
+            + "      <NumericPredictor name=\"x2\" coefficient=\"2\"/>\n"
+            + "      <NumericPredictor name=\"x1\" exponent=\"2\" coefficient=\"-0.5\"/>\n"
+            + "    </RegressionTable>\n"
+            + "  </RegressionModel>\n"
+            + "</PMML>\n";
+
+    private static final String LOGISTIC = "<PMML version=\"4.4\">\n"
+            + "  <RegressionModel functionName=\"classification\" normalizationMethod=\"logit\">\n"
+            + "    <MiningSchema>\n"
+            + "      <MiningField name=\"hr\"/>\n"
+            + "      <MiningField name=\"stressed\" usageType=\"target\"/>\n"
+            + "    </MiningSchema>\n"
+            + "    <RegressionTable intercept=\"-8\" targetCategory=\"yes\">\n"
+            + "      <NumericPredictor name=\"hr\" coefficient=\"0.1\"/>\n"
+            + "    </RegressionTable>\n"
+            + "    <RegressionTable intercept=\"0\" targetCategory=\"no\"/>\n"
+            + "  </RegressionModel>\n"
+            + "</PMML>\n";
+
+    private static PmmlRegressionModel parse(String pmml) throws IOException {
+        return PmmlRegressionModel.parse(
+                new ByteArrayInputStream(pmml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void linearRegression() throws IOException {
+        PmmlRegressionModel model = parse(LINEAR);
+        assertEquals(2, model.getNumFeatures());
+        assertEquals(1, model.getNumOutputs());
+
+        ModelSession session = model.createSession();
+        assertArrayEquals(new double[] {1.5 + 2 * 3.0 - 0.5 * 4.0},
+                session.predict(new double[] {2.0, 3.0}), 1e-12);
+        assertThrows(IllegalArgumentException.class, () -> session.predict(new double[] {1.0}));
+    }
+
+    @Test
+    void logisticClassification() throws IOException {
+        PmmlRegressionModel model = parse(LOGISTIC);
+        assertTrue(model.isClassification());
+
+        double[] outputs = model.createSession().predict(new double[] {80.0});
+        assertEquals(0.5, outputs[0], 1e-12);
+        assertEquals(0.5, outputs[1], 1e-12);
+        outputs = model.createSession().predict(new double[] {100.0});
+        assertEquals(1.0 / (1.0 + Math.exp(-2.0)), outputs[0], 1e-12);
+        assertEquals(1.0, outputs[0] + outputs[1], 1e-12);
+    }
+
+    @Test
+    void rejectsUnsupportedModels() {
+        assertThrows(IllegalArgumentException.class, () -> parse(LINEAR.replace(
+                "<NumericPredictor name=\"x2\" coefficient=\"2\"/>",
+                "<CategoricalPredictor name=\"x2\" value=\"a\" coefficient=\"2\"/>")));
+        assertThrows(IllegalArgumentException.class, () -> parse(LINEAR.replace(
+                "functionName=\"regression\"",
+                "functionName=\"regression\" normalizationMethod=\"probit\"")));
+        assertThrows(IllegalArgumentException.class, () -> parse(
+                "<!DOCTYPE PMML [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>" + LINEAR));
+        assertThrows(IllegalArgumentException.class, () -> parse("<PMML/>"));
+    }
+}
@@ -0,0 +1,116 @@
+package org.radarbase.ksql.signal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.jupiter.api.Test;
+import org.radarbase.ksql.udf.SpectralFeaturesUdf;
+
+public class SpectralAnalyzerTest {
+
+    @Test
+    void fftMatchesDiscreteFourierTransform() {
+        Random random = new Random(1);
+        int size = 16;
+        double[] re = new double[size];
+        double[] im = new double[size];
+        for (int i = 0; i < size; i++) {
+            re[i] = random.nextGaussian();
+            im[i] = random.nextGaussian();
+        }
+        double[] expectedRe = new double[size];
+        double[] expectedIm = new double[size];
+        for (int k = 0; k < size; k++) {
+            for (int n = 0; n < size; n++) {
+                double angle = -2.0 * Math.PI * k * n / size;
+                expectedRe[k] += re[n] * Math.cos(angle) - im[n] * Math.sin(angle);
+                expectedIm[k] += re[n] * Math.sin(angle) + im[n] * Math.cos(angle);
+            }
+        }
+        new Fft(size).transform(re, im);
+        for (int k = 0; k < size; k++) {
+            assertEquals(expectedRe[k], re[k], 1e-9);
+            assertEquals(expectedIm[k], im[k], 1e-9);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new Fft(12));
+        assertEquals(16, Fft.nextPowerOfTwo(9));
+        assertEquals(16, Fft.nextPowerOfTwo(16));
+    }
+
+    @Test
+    void findsPowerOfSine() {
+        SpectralAnalyzer analyzer = new SpectralAnalyzer();
+        assertTrue(analyzer.analyze(sine(2.0, 3.0, 32.0, 256, 5.0), 32.0));
+        assertEquals(129, analyzer.getNumBins());
+        assertEquals(3.0, analyzer.dominantFrequency(), 1e-9);
+        assertEquals(2.0, analyzer.totalPower(), 0.05);
+        assertEquals(2.0, analyzer.bandPower(2.0, 4.0), 0.05);
+        assertEquals(0.0, analyzer.bandPower(5.0, 16.0), 0.01);
+        assertTrue(analyzer.spectralEntropy() < 0.3);
+
+        // zero-padded window of another size
+        assertTrue(analyzer.analyze(sine(1.0, 1.0, 10.0, 100, 0.0), 10.0));
+        assertEquals(65, analyzer.getNumBins());
+        assertEquals(1.0, analyzer.dominantFrequency(), 10.0 / 128);
+        assertEquals(0.5, analyzer.totalPower(), 0.05);
+    }
+
+    @Test
+    void whiteNoiseHasHighEntropy() {
+        Random random = new Random(1);
+        List<Double> noise = new ArrayList<>();
+        for (int i = 0; i < 1024; i++) {
+            noise.add(random.nextGaussian());
+        }
+        SpectralAnalyzer analyzer = new SpectralAnalyzer();
+        assertTrue(analyzer.analyze(noise, 50.0));
+        assertTrue(analyzer.spectralEntropy() > 0.9);
+        assertEquals(1.0, analyzer.totalPower(), 0.15);
+    }
+
+    @Test
+    void rejectsInvalidWindows() {
+        SpectralAnalyzer analyzer = new SpectralAnalyzer();
+        assertFalse(analyzer.analyze(Collections.singletonList(1.0), 10.0));
+        assertFalse(analyzer.analyze(Arrays.asList(1.0, 2.0), 0.0));
+        assertFalse(analyzer.analyze(Arrays.asList(null, null), 10.0));
+        assertTrue(analyzer.analyze(Arrays.asList(1.0, 1.0, 1.0), 10.0));
+        assertTrue(Double.isNaN(analyzer.spectralEntropy()));
+    }
+
+    @Test
+    void computesFeaturesInUdf() {
+        SpectralFeaturesUdf udf = new SpectralFeaturesUdf();
+        Struct features = udf.spectralFeatures(
+                sine(1.0, 4.0, 32.0, 128, 0.0), 32.0, Arrays.asList(0.5, 3.0, 8.0));
+        assertEquals(4.0, features.getFloat64(SpectralFeaturesUdf.DOMINANT_FREQUENCY), 1e-9);
+        List<Double> bands = features.getArray(SpectralFeaturesUdf.BAND_POWERS);
+        assertEquals(2, bands.size());
+        assertTrue(bands.get(0) < 0.01);
+        assertEquals(0.5, bands.get(1), 0.02);
+
+        assertTrue(udf.spectralFeatures(sine(1.0, 4.0, 32.0, 128, 0.0), 32.0)
+                .getArray(SpectralFeaturesUdf.BAND_POWERS).isEmpty());
+        assertNull(udf.spectralFeatures(
+                sine(1.0, 4.0, 32.0, 128, 0.0), 32.0, Arrays.asList(3.0, 0.5)));
+        assertNull(udf.spectralFeatures(null, 32.0));
+    }
+
+    private static List<Double> sine(
+            double amplitude, double frequency, double sampleRate, int length, double offset) {
+        List<Double> values = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            values.add(offset + amplitude * Math.sin(2.0 * Math.PI * frequency * i / sampleRate));
+        }
+        return values;
+    }
+}
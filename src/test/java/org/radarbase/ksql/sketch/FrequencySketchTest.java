@@ -0,0 +1,82 @@
+package org.radarbase.ksql.sketch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class FrequencySketchTest {
+
+    @Test
+    void exactForLowCardinality() {
+        byte[] bytes = FrequencySketch.empty(10);
+        long[] expected = new long[10];
+        Random random = new Random(1L);
+        for (int i = 0; i < 10_000; i++) {
+            int value = random.nextInt(10);
+            expected[value]++;
+            bytes = FrequencySketch.wrap(bytes).update(value);
+        }
+        FrequencySketch sketch = FrequencySketch.wrap(bytes);
+
+        assertTrue(sketch.isExact());
+        assertEquals(10_000L, sketch.getCount());
+        for (int value = 0; value < 10; value++) {
+            assertEquals(expected[value], sketch.estimate(value));
+        }
+    }
+
+    @Test
+    void updatesKnownValuesInPlace() {
+        byte[] bytes = FrequencySketch.wrap(FrequencySketch.empty(4)).update(1.0);
+        assertSame(bytes, FrequencySketch.wrap(bytes).update(1.0));
+        // negative zero is counted as zero
+        bytes = FrequencySketch.wrap(bytes).update(0.0);
+        assertSame(bytes, FrequencySketch.wrap(bytes).update(-0.0));
+        assertEquals(2L, FrequencySketch.wrap(bytes).estimate(0.0));
+    }
+
+    @Test
+    void modeTakesSmallestOfTies() {
+        byte[] bytes = FrequencySketch.empty(10);
+        for (double value : new double[]{3.0, 2.0, 3.0, 2.0, 5.0}) {
+            bytes = FrequencySketch.wrap(bytes).update(value);
+        }
+        assertEquals(2.0, FrequencySketch.wrap(bytes).mode());
+    }
+
+    /**
+     * Streams a heavy hitter among many distinct values through small tables, and checks that it
+     * is found and that the estimates stay within the error bound, also after merging.
+     */
+    @Test
+    void findsHeavyHitterAboveCapacity() {
+        int capacity = 20;
+        Random random = new Random(2L);
+        byte[] one = FrequencySketch.empty(capacity);
+        byte[] two = FrequencySketch.empty(capacity);
+        long heavy = 0;
+        for (int i = 0; i < 20_000; i++) {
+            double value = random.nextInt(5)==0 ? -1.0 : random.nextInt(1000);
+            if (value==-1.0) heavy++;
+            if (i % 2==0) {
+                one = FrequencySketch.wrap(one).update(value);
+            } else {
+                two = FrequencySketch.wrap(two).update(value);
+            }
+        }
+        FrequencySketch merged = FrequencySketch.wrap(FrequencySketch.merge(
+                FrequencySketch.wrap(one), FrequencySketch.wrap(two), capacity));
+
+        assertFalse(merged.isExact());
+        assertEquals(20_000L, merged.getCount());
+        assertTrue(merged.size() <= capacity);
+        assertTrue(merged.getMaxError() <= merged.getCount() / (capacity + 1));
+        assertEquals(-1.0, merged.mode());
+        long estimate = merged.estimate(-1.0);
+        assertTrue(estimate <= heavy && estimate >= heavy - merged.getMaxError());
+    }
+}
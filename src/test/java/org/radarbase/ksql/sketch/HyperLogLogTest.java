@@ -0,0 +1,109 @@
+package org.radarbase.ksql.sketch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public class HyperLogLogTest {
+
+    @Test
+    void sparseForSmallCardinalities() {
+        byte[] bytes = HyperLogLog.empty(HyperLogLog.DEFAULT_PRECISION);
+        assertEquals(0L, HyperLogLog.wrap(bytes).estimate());
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (int i = 0; i < 1000; i++) {
+                bytes = HyperLogLog.wrap(bytes).add(HyperLogLog.hash("device-" + i));
+            }
+        }
+        HyperLogLog sketch = HyperLogLog.wrap(bytes);
+        assertTrue(sketch.isSparse());
+        assertEquals(1000.0, sketch.estimate(), 2.0);
+        assertTrue(sketch.sizeInBytes() <= 3 + 4 * 1000);
+        // existing registers are updated in place
+        assertSame(bytes, sketch.add(HyperLogLog.hash("device-1")));
+    }
+
+    @Test
+    void denseSizeIsBounded() {
+        int precision = 12;
+        int n = 1_000_000;
+        byte[] bytes = HyperLogLog.empty(precision);
+        for (long i = 0; i < n; i++) {
+            bytes = HyperLogLog.wrap(bytes).add(HyperLogLog.hash(i));
+        }
+        HyperLogLog sketch = HyperLogLog.wrap(bytes);
+        assertFalse(sketch.isSparse());
+        assertEquals(3 + (1 << precision), sketch.sizeInBytes());
+        assertEquals(n, sketch.estimate(), 4 * HyperLogLog.relativeError(precision) * n);
+    }
+
+    @Test
+    void estimatesAcrossSparseToDenseTransition() {
+        int precision = 10;
+        byte[] bytes = HyperLogLog.empty(precision);
+        for (long i = 1; i <= 20_000; i++) {
+            bytes = HyperLogLog.wrap(bytes).add(HyperLogLog.hash(i));
+            if (i % 250==0) {
+                double error = 4 * HyperLogLog.relativeError(precision) * i;
+                assertEquals(i, HyperLogLog.wrap(bytes).estimate(), Math.max(error, 2.0));
+            }
+        }
+    }
+
+    @Test
+    void mergeIsUnion() {
+        int precision = 11;
+        byte[] sparse1 = HyperLogLog.empty(precision);
+        byte[] sparse2 = HyperLogLog.empty(precision);
+        byte[] dense1 = HyperLogLog.empty(precision);
+        byte[] dense2 = HyperLogLog.empty(precision);
+        for (long i = 0; i < 200; i++) {
+            sparse1 = HyperLogLog.wrap(sparse1).add(HyperLogLog.hash(i));
+            sparse2 = HyperLogLog.wrap(sparse2).add(HyperLogLog.hash(i + 100));
+        }
+        for (long i = 0; i < 50_000; i++) {
+            dense1 = HyperLogLog.wrap(dense1).add(HyperLogLog.hash(i));
+            dense2 = HyperLogLog.wrap(dense2).add(HyperLogLog.hash(i + 25_000));
+        }
+
+        HyperLogLog sparse = HyperLogLog.wrap(
+                HyperLogLog.merge(HyperLogLog.wrap(sparse1), HyperLogLog.wrap(sparse2)));
+        assertTrue(sparse.isSparse());
+        assertEquals(300.0, sparse.estimate(), 2.0);
+
+        double error = 4 * HyperLogLog.relativeError(precision) * 75_000;
+        assertEquals(75_000, HyperLogLog.wrap(HyperLogLog.merge(
+                HyperLogLog.wrap(dense1), HyperLogLog.wrap(dense2))).estimate(), error);
+        // merging a sparse sketch into a dense one matches adding its values
+        byte[] expected = dense1;
+        for (long i = 100; i < 300; i++) {
+            expected = HyperLogLog.wrap(expected).add(HyperLogLog.hash(i));
+        }
+        assertEquals(HyperLogLog.wrap(expected).estimate(), HyperLogLog.wrap(HyperLogLog.merge(
+                HyperLogLog.wrap(sparse2), HyperLogLog.wrap(dense1))).estimate());
+    }
+
+    @Test
+    void hashesStringsByContent() {
+        assertEquals(HyperLogLog.hash("participant"),
+                HyperLogLog.hash(new StringBuilder("partici").append("pant")));
+        assertTrue(HyperLogLog.hash("a")!=HyperLogLog.hash("b"));
+        assertTrue(HyperLogLog.hash("")!=HyperLogLog.hash("\u0000"));
+    }
+
+    @Test
+    void rejectsInvalidSketches() {
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.empty(3));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.wrap(new byte[] {1, 14}));
+        assertThrows(IllegalArgumentException.class,
+                () -> HyperLogLog.wrap(new byte[] {1, 4, 1, 0}));
+        assertThrows(IllegalArgumentException.class, () -> HyperLogLog.merge(
+                HyperLogLog.wrap(HyperLogLog.empty(10)), HyperLogLog.wrap(HyperLogLog.empty(11))));
+        assertEquals(14, HyperLogLog.precisionForError(0.01));
+    }
+}
@@ -0,0 +1,133 @@
+package org.radarbase.ksql.sketch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import org.apache.commons.math3.stat.StatUtils;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings("PMD.DataflowAnomalyAnalysis")
+public class KllSketchTest {
+
+    private static final double[] PERCENTILES = new double[]{1, 10, 25, 50, 75, 90, 99};
+
+    @Test
+    void exactForSmallStreams() {
+        KllSketch sketch = new KllSketch();
+        double[] vals = new double[150];
+        Random rand = new Random(1L);
+        for (int i = 0; i < vals.length; i++) {
+            vals[i] = rand.nextGaussian();
+            sketch.update(vals[i]);
+        }
+
+        for (double p : PERCENTILES) {
+            assertEquals(StatUtils.percentile(vals, p), sketch.percentile(p), 1e-12);
+        }
+    }
+
+    @Test
+    void rankErrorWithinBound() {
+        int n = 1_000_000;
+        KllSketch sketch = new KllSketch();
+        for (int value : shuffledRange(n)) {
+            sketch.update(value);
+        }
+
+        assertEquals(n, sketch.getCount());
+        assertTrue(sketch.retainedItems() < 4 * KllSketch.DEFAULT_K);
+        assertRankError(sketch, n);
+    }
+
+    @Test
+    void mergedRankErrorWithinBound() {
+        int n = 1_000_000;
+        KllSketch merged = new KllSketch();
+        KllSketch part = new KllSketch();
+        int i = 0;
+        for (int value : shuffledRange(n)) {
+            part.update(value);
+            // merge sketches of varying sizes, like session windows would
+            if (++i % 77_777 == 0) {
+                merged.merge(KllSketch.fromBytes(part.toBytes()));
+                part = new KllSketch();
+            }
+        }
+        merged.merge(part);
+
+        assertEquals(n, merged.getCount());
+        assertRankError(merged, n);
+    }
+
+    @Test
+    void serializationRoundTrip() {
+        KllSketch sketch = new KllSketch(100);
+        Random rand = new Random(2L);
+        for (int i = 0; i < 10_000; i++) {
+            sketch.update(rand.nextDouble());
+        }
+
+        KllSketch copy = KllSketch.fromBytes(sketch.toBytes());
+        assertEquals(sketch.getK(), copy.getK());
+        assertEquals(sketch.getCount(), copy.getCount());
+        assertEquals(sketch.getMin(), copy.getMin());
+        assertEquals(sketch.getMax(), copy.getMax());
+        for (double p : PERCENTILES) {
+            assertEquals(sketch.percentile(p), copy.percentile(p));
+        }
+    }
+
+    @Test
+    void updatesSerializedSketchInPlace() {
+        byte[] bytes = new KllSketch().toBytes();
+        double[] vals = new double[150];
+        Random rand = new Random(4L);
+        for (int i = 0; i < vals.length; i++) {
+            vals[i] = rand.nextGaussian();
+            assertSame(bytes, KllSketch.update(bytes, vals[i]));
+        }
+
+        KllSketch sketch = KllSketch.fromBytes(bytes);
+        assertEquals(vals.length, sketch.getCount());
+        assertEquals(StatUtils.min(vals), sketch.getMin());
+        assertEquals(StatUtils.max(vals), sketch.getMax());
+        for (double p : PERCENTILES) {
+            assertEquals(StatUtils.percentile(vals, p), sketch.percentile(p), 1e-12);
+        }
+
+        int n = 1_000_000;
+        for (int value : shuffledRange(n)) {
+            bytes = KllSketch.update(bytes, value);
+        }
+        sketch = KllSketch.fromBytes(bytes);
+        assertEquals(n + vals.length, sketch.getCount());
+        assertTrue(bytes.length < 8 * 4 * KllSketch.DEFAULT_K);
+        assertRankError(sketch, n);
+    }
+
+    private static void assertRankError(KllSketch sketch, int n) {
+        double bound = KllSketch.normalizedRankError(sketch.getK());
+        for (double p : PERCENTILES) {
+            // values are 0..n-1, so the estimate equals its rank
+            double rank = sketch.percentile(p) / n;
+            assertEquals(p / 100.0, rank, bound, "percentile " + p);
+        }
+    }
+
+    private static int[] shuffledRange(int n) {
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = i;
+        }
+        Random rand = new Random(3L);
+        for (int i = n - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,95 @@
+package org.radarbase.ksql.udaf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.util.Random;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.jupiter.api.Test;
+
+public class DecayingReservoirTest {
+
+    private static final Schema INPUT_SCHEMA = SchemaBuilder.struct().optional()
+            .field(DecayingSamplingReservoirUdaf.VAL, Schema.OPTIONAL_FLOAT64_SCHEMA)
+            .field(DecayingSamplingReservoirUdaf.TS, Schema.OPTIONAL_INT64_SCHEMA)
+            .build();
+
+    private static Struct input(double value, long time) {
+        return new Struct(INPUT_SCHEMA)
+                .put(DecayingSamplingReservoirUdaf.VAL, value)
+                .put(DecayingSamplingReservoirUdaf.TS, time);
+    }
+
+    @Test
+    void exactUntilFull() {
+        Udaf<Struct, Struct, Double> udaf = StdDevUdaf.createDecayingUdaf(60);
+        Struct agg = udaf.initialize();
+        assertNull(udaf.map(agg));
+
+        long time = 1_600_000_000_000L;
+        for (double value : new double[]{40.0, 50.0, 60.0}) {
+            agg = udaf.aggregate(input(value, time), agg);
+            time += 1000L;
+        }
+        agg = udaf.aggregate(input(70.0, time).put(DecayingSamplingReservoirUdaf.VAL, null), agg);
+
+        assertEquals(10.0, udaf.map(agg));
+        DecayingReservoir reservoir = DecayingSamplingReservoirUdaf.getReservoir(agg);
+        assertEquals(3L, reservoir.getCount());
+        assertEquals(1_600_000_000_000L, reservoir.getLandmark());
+    }
+
+    @Test
+    void updatesFullReservoirInPlace() {
+        Random random = new Random(1L);
+        byte[] bytes = DecayingReservoir.empty();
+        for (int i = 0; i < 10; i++) {
+            bytes = DecayingReservoir.wrap(bytes).add(i, i, 0.001, 10, random);
+        }
+        assertSame(bytes, DecayingReservoir.wrap(bytes).add(10.0, 10L, 0.001, 10, random));
+        assertEquals(10, DecayingReservoir.wrap(bytes).size());
+        assertEquals(11L, DecayingReservoir.wrap(bytes).getCount());
+    }
+
+    /**
+     * Adds values at one per second with a half-life of 100 seconds. Half of the decayed weight
+     * is in the last 100 seconds, but a sample of 200 values without replacement reaches further
+     * back, putting the median time about 136 seconds before the end. This should not change if
+     * the stream was split over two aggregates with different landmarks.
+     */
+    @Test
+    void favoursRecentValues() {
+        int trials = 50;
+        double medianSum = 0;
+        double mergedMedianSum = 0;
+        for (int t = 0; t < trials; t++) {
+            Udaf<Struct, Struct, Double> udaf = MedianUdaf.createDecayingUdaf(100, 200);
+            Struct agg = udaf.initialize();
+            Struct aggOne = udaf.initialize();
+            Struct aggTwo = udaf.initialize();
+            for (int i = 0; i < 10_000; i++) {
+                Struct value = input(i, i * 1000L);
+                agg = udaf.aggregate(value, agg);
+                if (i % 3==0) {
+                    aggOne = udaf.aggregate(value, aggOne);
+                } else {
+                    aggTwo = udaf.aggregate(value, aggTwo);
+                }
+            }
+            medianSum += udaf.map(agg);
+            Struct merged = udaf.merge(aggTwo, aggOne);
+            assertEquals(10_000L, DecayingSamplingReservoirUdaf.getReservoir(merged).getCount());
+            assertEquals(0L, DecayingSamplingReservoirUdaf.getReservoir(merged).getLandmark());
+            mergedMedianSum += udaf.map(merged);
+        }
+        double median = medianSum / trials;
+        double mergedMedian = mergedMedianSum / trials;
+        assertTrue(median > 9840 && median < 9890, "median " + median);
+        assertTrue(Math.abs(mergedMedian - median) < 10, "merged median " + mergedMedian);
+    }
+}
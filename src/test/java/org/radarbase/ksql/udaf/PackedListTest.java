@@ -0,0 +1,168 @@
+package org.radarbase.ksql.udaf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.jupiter.api.Test;
+import org.radarbase.ksql.udaf.PackedReservoir.Encoding;
+
+public class PackedListTest {
+
+    private static final String NAME = CollectBoundedUdaf.NAME;
+    private static final Schema TIMED_SCHEMA = SchemaBuilder.struct().optional()
+            .field(DecayingSamplingReservoirUdaf.VAL, Schema.OPTIONAL_FLOAT64_SCHEMA)
+            .field(DecayingSamplingReservoirUdaf.TS, Schema.OPTIONAL_INT64_SCHEMA)
+            .build();
+
+    @Test
+    void keepsFirstOrLastValues() {
+        assertEquals(Arrays.asList(0L, 1L, 2L), collect(CollectPolicy.FIRST, 3, 10));
+        assertEquals(Arrays.asList(7L, 8L, 9L), collect(CollectPolicy.LAST, 3, 10));
+        assertEquals(Arrays.asList(0L, 1L), collect(CollectPolicy.LAST, 3, 2));
+    }
+
+    @Test
+    void updatesFullListInPlace() {
+        byte[] bytes = PackedList.empty(Encoding.INT32, false);
+        for (int i = 0; i < 3; i++) {
+            bytes = PackedList.wrap(bytes).add(i, 0L, 3, CollectPolicy.LAST, new Random(1));
+        }
+        byte[] updated = PackedList.wrap(bytes).add(3, 0L, 3, CollectPolicy.LAST, new Random(1));
+        assertSame(bytes, updated);
+        PackedList list = PackedList.wrap(updated);
+        assertEquals(4L, list.getCount());
+        assertEquals(3, list.size());
+        assertEquals(1L, list.getRaw(0));
+        assertEquals(3L, list.getRaw(2));
+    }
+
+    @Test
+    void ordersTimedValues() {
+        Udaf<Struct, Struct, List<Double>> last =
+                PackedListUdaf.ofTimedDouble(NAME, 3, CollectPolicy.LAST);
+        Udaf<Struct, Struct, List<Double>> first =
+                PackedListUdaf.ofTimedDouble(NAME, 3, CollectPolicy.FIRST);
+        Struct lastAgg = last.initialize();
+        Struct firstAgg = first.initialize();
+        long[] times = {5L, 1L, 4L, 2L, 3L, 0L, 6L};
+        for (long time : times) {
+            Struct input = new Struct(TIMED_SCHEMA)
+                    .put(DecayingSamplingReservoirUdaf.VAL, time * 10.0)
+                    .put(DecayingSamplingReservoirUdaf.TS, time);
+            lastAgg = last.aggregate(input, lastAgg);
+            firstAgg = first.aggregate(input, firstAgg);
+        }
+        assertEquals(Arrays.asList(40.0, 50.0, 60.0), last.map(lastAgg));
+        assertEquals(Arrays.asList(0.0, 10.0, 20.0), first.map(firstAgg));
+        assertEquals(7L, PackedListUdaf.getList(lastAgg).getCount());
+    }
+
+    @Test
+    void mergesByPolicy() {
+        Udaf<Long, Struct, List<Long>> first = PackedListUdaf.ofLong(NAME, 4, CollectPolicy.FIRST);
+        Udaf<Long, Struct, List<Long>> last = PackedListUdaf.ofLong(NAME, 4, CollectPolicy.LAST);
+        Udaf<Long, Struct, List<Long>> sample =
+                PackedListUdaf.ofLong(NAME, 4, CollectPolicy.SAMPLE);
+
+        assertEquals(Arrays.asList(0L, 1L, 2L, 10L),
+                first.map(first.merge(values(first, 0, 3), values(first, 10, 3))));
+        assertEquals(Arrays.asList(2L, 10L, 11L, 12L),
+                last.map(last.merge(values(last, 0, 3), values(last, 10, 3))));
+        assertEquals(Arrays.asList(0L, 10L),
+                last.map(last.merge(values(last, 0, 1), values(last, 10, 1))));
+
+        Struct merged = sample.merge(values(sample, 0, 3), values(sample, 10, 3));
+        assertEquals(4, sample.map(merged).size());
+        assertEquals(6L, PackedListUdaf.getList(merged).getCount());
+    }
+
+    @Test
+    void sampledValuesAreUniform() {
+        Udaf<Integer, Struct, List<Integer>> udaf =
+                PackedListUdaf.ofInt(NAME, 10, CollectPolicy.SAMPLE);
+        int[] hits = new int[100];
+        for (int run = 0; run < 2000; run++) {
+            Struct agg = udaf.initialize();
+            for (int i = 0; i < 100; i++) {
+                agg = udaf.aggregate(i, agg);
+            }
+            for (int value : udaf.map(agg)) {
+                hits[value]++;
+            }
+        }
+        // each value is expected in 200 of the runs
+        for (int hit : hits) {
+            assertTrue(hit > 120 && hit < 280, "hits " + hit);
+        }
+    }
+
+    @Test
+    void rejectsUnknownPolicyAndFormat() {
+        assertThrows(IllegalArgumentException.class, () -> CollectPolicy.parse("middle"));
+        assertThrows(IllegalArgumentException.class,
+                () -> PackedList.wrap(new byte[] {2, 0, 0}));
+        assertThrows(IllegalArgumentException.class,
+                () -> PackedList.empty(Encoding.FLOAT32, false));
+        assertThrows(IllegalArgumentException.class,
+                () -> CollectBoundedUdaf.createStringUdaf(10, "sample"));
+    }
+
+    @Test
+    void boundsStringLists() {
+        Udaf<String, List<String>, List<String>> last =
+                CollectBoundedUdaf.createStringUdaf(2, "last");
+        List<String> agg = last.initialize();
+        for (String value : new String[] {"a", "b", null, "c"}) {
+            agg = last.aggregate(value, agg);
+        }
+        assertEquals(Arrays.asList("b", "c"), last.map(agg));
+        assertEquals(Arrays.asList("c", "d"), last.merge(agg, Collections.singletonList("d")));
+
+        Udaf<String, List<String>, List<String>> first =
+                CollectBoundedUdaf.createStringUdaf(2, "FIRST");
+        assertEquals(Arrays.asList("a", "b"), first.merge(
+                new ArrayList<>(Collections.singletonList("a")),
+                Arrays.asList("b", "c")));
+    }
+
+    @Test
+    void trimsStringListsInBatches() {
+        Udaf<String, List<String>, List<String>> last =
+                CollectBoundedUdaf.createStringUdaf(8, "last");
+        List<String> agg = last.initialize();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            agg = last.aggregate(Integer.toString(i), agg);
+            expected.add(Integer.toString(i));
+            if (expected.size() > 8) expected.remove(0);
+            assertTrue(agg.size() <= 10, "size " + agg.size());
+            assertEquals(expected, last.map(agg));
+        }
+        assertEquals(Arrays.asList("98", "99", "a"),
+                last.merge(agg, Collections.singletonList("a")).subList(5, 8));
+    }
+
+    private static List<Long> collect(CollectPolicy policy, int maxSize, int count) {
+        Udaf<Long, Struct, List<Long>> udaf = PackedListUdaf.ofLong(NAME, maxSize, policy);
+        return udaf.map(values(udaf, 0, count));
+    }
+
+    private static Struct values(Udaf<Long, Struct, List<Long>> udaf, long start, int count) {
+        Struct agg = udaf.initialize();
+        for (long i = start; i < start + count; i++) {
+            agg = udaf.aggregate(i, agg);
+        }
+        return agg;
+    }
+}
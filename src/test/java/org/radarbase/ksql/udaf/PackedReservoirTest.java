@@ -0,0 +1,228 @@
+package org.radarbase.ksql.udaf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.math3.stat.StatUtils;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.jupiter.api.Test;
+import org.radarbase.ksql.udaf.PackedReservoir.Encoding;
+
+public class PackedReservoirTest {
+
+    @Test
+    void encodeRoundTrip() {
+        double[] samples = new double[]{1.5, -2.25, Math.PI, 1e300};
+        PackedReservoir reservoir = PackedReservoir.wrap(
+                PackedReservoir.encode(Encoding.FLOAT64, 1_000_000L, samples, samples.length));
+
+        assertEquals(1_000_000L, reservoir.getCount());
+        assertEquals(Encoding.FLOAT64, reservoir.getEncoding());
+        assertArrayEquals(samples, reservoir.toArray(), 0.0);
+        assertEquals(Math.PI, reservoir.get(2));
+    }
+
+    @Test
+    void float32Encoding() {
+        double[] samples = new double[]{1.5, -2.25, Math.PI};
+        byte[] bytes = PackedReservoir.encode(Encoding.FLOAT32, 3L, samples, samples.length);
+
+        // version, encoding, flags, one byte count and three floats
+        assertEquals(4 + 3 * Float.BYTES, bytes.length);
+        assertArrayEquals(samples, PackedReservoir.wrap(bytes).toArray(), 1e-6);
+    }
+
+    @Test
+    void integerAndDecimalEncodings() {
+        double[] samples = new double[]{-3.0, 70.0, 2_147_483_647.0};
+        byte[] int32 = PackedReservoir.encode(Encoding.INT32, 3L, samples, 3);
+        assertEquals(4 + 3 * Integer.BYTES, int32.length);
+        assertArrayEquals(samples, PackedReservoir.wrap(int32).toArray(), 0.0);
+
+        double[] decimals = new double[]{12.34, -0.01, 99_999.99};
+        byte[] decimal64 = PackedReservoir.encode(Encoding.DECIMAL64, 2, 3L, decimals, 3, true);
+        PackedReservoir reservoir = PackedReservoir.wrap(decimal64);
+        // the header includes the scale
+        assertEquals(5 + 3 * Long.BYTES, decimal64.length);
+        assertEquals(2, reservoir.getScale());
+        assertArrayEquals(new double[]{-0.01, 12.34, 99_999.99}, reservoir.toArray(), 0.0);
+
+        byte[] appended = reservoir.append(0.5, 4L, 10);
+        assertArrayEquals(new double[]{-0.01, 0.5, 12.34, 99_999.99},
+                PackedReservoir.wrap(appended).toArray(), 0.0);
+    }
+
+    @Test
+    void appendGrowsGeometrically() {
+        int maxSize = 100;
+        byte[] bytes = PackedReservoir.empty(Encoding.FLOAT64);
+        int copies = 0;
+        for (int i = 0; i < maxSize; i++) {
+            byte[] appended = PackedReservoir.wrap(bytes).append(i, i + 1, maxSize);
+            if (appended!=bytes) copies++;
+            bytes = appended;
+            assertEquals(i + 1, PackedReservoir.wrap(bytes).size());
+        }
+
+        // capacities 8, 16, 32, 64 and 100, and dropping the size when full
+        assertEquals(6, copies);
+        double[] expected = PackedReservoir.wrap(bytes).toArray();
+        assertEquals(maxSize, expected.length);
+        assertEquals(99.0, expected[maxSize - 1]);
+        assertEquals(PackedReservoir.encode(Encoding.FLOAT64, maxSize, expected, maxSize).length,
+                bytes.length);
+    }
+
+    @Test
+    void replaceInPlaceUntilHeaderGrows() {
+        byte[] bytes = PackedReservoir.encode(Encoding.FLOAT64, 100L, new double[]{1.0}, 1);
+        assertFalse(PackedReservoir.wrap(bytes).hasSkipState());
+
+        // adding the skip state grows the header
+        byte[] skipping = PackedReservoir.wrap(bytes).replace(0, 2.0, 101L, 110L, 0.5);
+        byte[] replaced = PackedReservoir.wrap(skipping).replace(-1, 0.0, 102L, 110L, 0.5);
+        assertSame(skipping, replaced);
+
+        // 128 needs a second varint byte
+        byte[] grown = PackedReservoir.wrap(replaced).replace(-1, 0.0, 128L, 130L, 0.25);
+        PackedReservoir reservoir = PackedReservoir.wrap(grown);
+        assertEquals(128L, reservoir.getCount());
+        assertTrue(reservoir.hasSkipState());
+        assertEquals(130L, reservoir.getNextIndex());
+        assertEquals(0.25, reservoir.getSkipWeight());
+        assertArrayEquals(new double[]{2.0}, reservoir.toArray(), 0.0);
+    }
+
+    /**
+     * Appends and replaces random values in a sorted reservoir and compares it with a sorted
+     * copy, including the order statistics that are read from it directly.
+     */
+    @Test
+    void sortedReservoirKeepsOrder() {
+        Random random = new Random(1L);
+        List<Double> expected = new ArrayList<>();
+        byte[] bytes = PackedReservoir.empty(Encoding.FLOAT64, true);
+        for (int i = 0; i < 500; i++) {
+            // few distinct values, so that there are duplicates
+            double value = random.nextInt(20) / 2.0;
+            PackedReservoir reservoir = PackedReservoir.wrap(bytes);
+            if (expected.size() < 50) {
+                bytes = reservoir.append(value, i + 1, 50);
+            } else {
+                int index = random.nextInt(expected.size());
+                expected.remove(reservoir.get(index));
+                bytes = reservoir.replace(index, value, i + 1, i + 2, 0.5);
+            }
+            expected.add(value);
+            Collections.sort(expected);
+
+            reservoir = PackedReservoir.wrap(bytes);
+            double[] samples = expected.stream().mapToDouble(v -> v).toArray();
+            assertTrue(reservoir.isSorted());
+            assertArrayEquals(samples, reservoir.toArray(), 0.0);
+            assertEquals(StatUtils.percentile(samples, 50), reservoir.percentile(50), 1e-9);
+            assertEquals(StatUtils.percentile(samples, 25), reservoir.percentile(25), 1e-9);
+            assertEquals(StatUtils.mode(samples)[0], reservoir.mode());
+        }
+    }
+
+    @Test
+    void sortsExistingAggregates() {
+        double[] samples = new double[]{3.0, 1.0, 2.0};
+        Struct agg = new Struct(SchemaBuilder.struct().optional()
+                .field(PackedSamplingReservoirUdaf.RESERVOIR, Schema.OPTIONAL_BYTES_SCHEMA)
+                .build())
+                .put(PackedSamplingReservoirUdaf.RESERVOIR,
+                        PackedReservoir.encode(Encoding.FLOAT64, 3L, samples, 3));
+        Udaf<Double, Struct, Double> udaf = MedianUdaf.createPackedUdaf(10);
+        assertEquals(2.0, udaf.map(agg));
+
+        agg = udaf.aggregate(0.0, agg);
+        PackedReservoir reservoir = PackedSamplingReservoirUdaf.getReservoir(agg);
+        assertTrue(reservoir.isSorted());
+        assertArrayEquals(new double[]{0.0, 1.0, 2.0, 3.0}, reservoir.toArray(), 0.0);
+        assertEquals(1.5, udaf.map(agg));
+    }
+
+    /**
+     * Adds a stream of distinct values to a reservoir many times and checks that every value is
+     * included with equal probability, also when the reservoir was merged half way.
+     */
+    @Test
+    void skippingReservoirIsUniform() {
+        int maxSize = 10;
+        int count = 100;
+        int trials = 20_000;
+        Udaf<Double, Struct, Double> udaf = MedianUdaf.createPackedUdaf(maxSize);
+        int[] inclusions = new int[count];
+        int[] mergedInclusions = new int[count];
+
+        for (int t = 0; t < trials; t++) {
+            Struct agg = udaf.initialize();
+            Struct aggOne = udaf.initialize();
+            Struct aggTwo = udaf.initialize();
+            for (int i = 0; i < count; i++) {
+                agg = udaf.aggregate((double) i, agg);
+                if (i < 20) {
+                    aggOne = udaf.aggregate((double) i, aggOne);
+                } else if (i < 50) {
+                    aggTwo = udaf.aggregate((double) i, aggTwo);
+                } else {
+                    if (i==50) {
+                        aggOne = udaf.merge(aggOne, aggTwo);
+                    }
+                    aggOne = udaf.aggregate((double) i, aggOne);
+                }
+            }
+            for (double value : PackedSamplingReservoirUdaf.getReservoir(agg).toArray()) {
+                inclusions[(int) value]++;
+            }
+            for (double value : PackedSamplingReservoirUdaf.getReservoir(aggOne).toArray()) {
+                mergedInclusions[(int) value]++;
+            }
+        }
+
+        double p = (double) maxSize / count;
+        double expected = trials * p;
+        double sigma = Math.sqrt(trials * p * (1 - p));
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected, inclusions[i], 5 * sigma, "inclusions of value " + i);
+            assertEquals(expected, mergedInclusions[i], 5 * sigma, "merged inclusions " + i);
+        }
+    }
+
+    @Test
+    void configuredEncoding() {
+        Udaf<Double, Struct, Double> medianUdaf = MedianUdaf.createPackedUdaf(100);
+        ((Configurable) medianUdaf).configure(Collections.singletonMap(
+                "ksql.functions.median" + PackedSamplingReservoirUdaf.ENCODING_CONFIG_SUFFIX,
+                "float32"));
+
+        Struct agg = medianUdaf.initialize();
+        for (int i = 0; i < 1000; i++) {
+            agg = medianUdaf.aggregate(0.5, agg);
+        }
+        PackedReservoir reservoir = PackedSamplingReservoirUdaf.getReservoir(agg);
+        assertEquals(Encoding.FLOAT32, reservoir.getEncoding());
+        assertEquals(100, reservoir.size());
+        assertEquals(0.5, medianUdaf.map(agg));
+    }
+
+    @Test
+    void rejectsUnknownFormat() {
+        assertThrows(IllegalArgumentException.class,
+                () -> PackedReservoir.wrap(new byte[]{9, 0, 0, 0}));
+    }
+}
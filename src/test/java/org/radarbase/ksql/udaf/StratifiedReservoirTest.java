@@ -0,0 +1,130 @@
+package org.radarbase.ksql.udaf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.util.Random;
+import org.apache.commons.math3.stat.StatUtils;
+import org.apache.commons.math3.stat.descriptive.moment.Skewness;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.jupiter.api.Test;
+
+public class StratifiedReservoirTest {
+
+    private static final Schema INPUT_SCHEMA = SchemaBuilder.struct().optional()
+            .field(DecayingSamplingReservoirUdaf.VAL, Schema.OPTIONAL_FLOAT64_SCHEMA)
+            .field(DecayingSamplingReservoirUdaf.TS, Schema.OPTIONAL_INT64_SCHEMA)
+            .build();
+    private static final long START = 1_600_000_000_000L;
+    private static final long HOUR = 3_600_000L;
+
+    private static Struct input(double value, long time) {
+        return new Struct(INPUT_SCHEMA)
+                .put(DecayingSamplingReservoirUdaf.VAL, value)
+                .put(DecayingSamplingReservoirUdaf.TS, time);
+    }
+
+    @Test
+    void exactWhileBucketsAreNotFull() {
+        Udaf<Struct, Struct, Double> median = MedianUdaf.createStratifiedUdaf(3600, 100, 24);
+        Udaf<Struct, Struct, Double> skewness = SkewnessUdaf.createStratifiedUdaf(3600, 100, 24);
+        Struct medianAgg = median.initialize();
+        Struct skewnessAgg = skewness.initialize();
+        assertNull(median.map(medianAgg));
+
+        Random random = new Random(1L);
+        double[] values = new double[200];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian();
+            long time = START + (i % 10) * HOUR;
+            medianAgg = median.aggregate(input(values[i], time), medianAgg);
+            skewnessAgg = skewness.aggregate(input(values[i], time), skewnessAgg);
+        }
+
+        assertEquals(StatUtils.percentile(values, 50), median.map(medianAgg), 1e-12);
+        assertEquals(new Skewness().evaluate(values), skewness.map(skewnessAgg), 1e-9);
+        assertEquals(10, StratifiedSamplingReservoirUdaf.getReservoir(medianAgg)
+                .getNumBuckets());
+    }
+
+    /**
+     * A backlog of values in one hour does not push the other hours out of the reservoir, and
+     * the samples of each hour are weighted by the number of values in that hour.
+     */
+    @Test
+    void keepsCoverageOfBursts() {
+        Udaf<Struct, Struct, Double> udaf = StdDevUdaf.createStratifiedUdaf(3600, 10, 24);
+        Struct agg = udaf.initialize();
+        double[] values = new double[10_023];
+        int index = 0;
+        for (int hour = 0; hour < 23; hour++) {
+            values[index++] = 0.0;
+            agg = udaf.aggregate(input(0.0, START + hour * HOUR), agg);
+        }
+        while (index < values.length) {
+            values[index++] = 100.0;
+            agg = udaf.aggregate(input(100.0, START + 23 * HOUR + index), agg);
+        }
+
+        StratifiedReservoir reservoir = StratifiedSamplingReservoirUdaf.getReservoir(agg);
+        assertEquals(24, reservoir.getNumBuckets());
+        assertEquals(33, reservoir.size());
+        assertEquals(10_023L, reservoir.getCount());
+        assertEquals(10_000L, reservoir.getBucketCount(23));
+        assertEquals(Math.sqrt(StatUtils.variance(values)), udaf.map(agg), 1e-9);
+    }
+
+    @Test
+    void dropsOldestBuckets() {
+        Random random = new Random(1L);
+        byte[] bytes = StratifiedReservoir.empty();
+        for (long bucket = 0; bucket < 5; bucket++) {
+            bytes = StratifiedReservoir.wrap(bytes).add(bucket, bucket, 2, 3, random);
+        }
+        StratifiedReservoir reservoir = StratifiedReservoir.wrap(bytes);
+        assertEquals(3, reservoir.getNumBuckets());
+        assertEquals(2L, reservoir.getBucketId(0));
+        assertEquals(4L, reservoir.getBucketId(2));
+
+        // older than the retained buckets
+        assertSame(bytes, reservoir.add(-1.0, 1L, 2, 3, random));
+        // full buckets are updated in place
+        bytes = reservoir.add(3.5, 3L, 2, 3, random);
+        assertSame(bytes, StratifiedReservoir.wrap(bytes).add(3.25, 3L, 2, 3, random));
+        assertEquals(3L, StratifiedReservoir.wrap(bytes).getBucketCount(1));
+        assertEquals(2, StratifiedReservoir.wrap(bytes).getBucketSize(1));
+    }
+
+    @Test
+    void mergesByBucketId() {
+        Udaf<Struct, Struct, Double> udaf = MedianUdaf.createStratifiedUdaf(60, 5, 4);
+        Struct one = udaf.initialize();
+        Struct other = udaf.initialize();
+        for (int i = 0; i < 100; i++) {
+            long time = i * 3_000L;
+            if (i % 3==0) {
+                one = udaf.aggregate(input(i, time), one);
+            } else {
+                other = udaf.aggregate(input(i, time), other);
+            }
+        }
+
+        assertSame(one, udaf.merge(one, udaf.initialize()));
+        StratifiedReservoir merged = StratifiedSamplingReservoirUdaf.getReservoir(
+                udaf.merge(one, other));
+        assertEquals(4, merged.getNumBuckets());
+        for (int b = 0; b < 4; b++) {
+            // 20 values per minute, of which the first minute is dropped
+            assertEquals(b + 1L, merged.getBucketId(b));
+            assertEquals(20L, merged.getBucketCount(b));
+            assertEquals(5, merged.getBucketSize(b));
+            for (int i = 0; i < 5; i++) {
+                assertEquals(b + 1L, (long) merged.get(b, i) / 20);
+            }
+        }
+    }
+}
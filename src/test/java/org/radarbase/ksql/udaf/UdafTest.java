@@ -1,15 +1,25 @@
 package org.radarbase.ksql.udaf;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.radarbase.ksql.udaf.UniformSamplingReservoirUdaf.COUNT;
 import static org.radarbase.ksql.udaf.UniformSamplingReservoirUdaf.SAMPLES;
 
 import io.confluent.ksql.function.udaf.Udaf;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import org.apache.commons.math3.stat.StatUtils;
+import org.apache.commons.math3.stat.correlation.Covariance;
+import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
+import org.apache.commons.math3.stat.descriptive.moment.Kurtosis;
+import org.apache.commons.math3.stat.descriptive.moment.Skewness;
+import org.apache.commons.math3.stat.regression.SimpleRegression;
 import org.apache.commons.math3.util.Precision;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.SchemaBuilder;
@@ -145,7 +155,462 @@ public class UdafTest {
 
         double stdDev = stdDevUdaf.map(struct);
         double expectedStdDev = getExpectedStdDev(vals);
-        assertTrue(Precision.equals(expectedStdDev, stdDev, 0.1));
+        // the reservoir is sampled with ThreadLocalRandom, so the estimate differs per run: with
+        // 5000 of 20000 values its standard error is about 0.035, and 0.1 would fail 1 in 200 runs
+        assertTrue(Precision.equals(expectedStdDev, stdDev, 0.2));
+    }
+
+    @Test
+    void exactStdDevTest() {
+        Udaf<Double, Struct, Double> stdDevUdaf = ExactStdDevUdaf.createUdaf();
+        Struct agg = stdDevUdaf.initialize();
+        assertNull(stdDevUdaf.map(agg));
+
+        Random rand = new Random(12L);
+        int n = 20_000;
+        double[] vals = new double[n];
+        for (int i = 0; i < n; i++) {
+            vals[i] = 100.0 + rand.nextGaussian() * 15.0;
+            agg = stdDevUdaf.aggregate(vals[i], agg);
+        }
+
+        assertEquals(getExpectedStdDev(vals), stdDevUdaf.map(agg), 1e-9);
+    }
+
+    @Test
+    void exactMomentsMergeTest() {
+        Udaf<Double, Struct, Double> stdDevUdaf = ExactStdDevUdaf.createUdaf();
+        Udaf<Double, Struct, Double> skewUdaf = ExactSkewnessUdaf.createUdaf();
+        Struct aggOne = stdDevUdaf.initialize();
+        Struct aggTwo = stdDevUdaf.initialize();
+
+        Random rand = new Random(13L);
+        int n = 10_000;
+        double[] vals = new double[n];
+        for (int i = 0; i < n; i++) {
+            // Exponential values to get a skewed distribution
+            vals[i] = -Math.log(rand.nextDouble());
+            if (i < 3000) {
+                aggOne = stdDevUdaf.aggregate(vals[i], aggOne);
+            } else {
+                aggTwo = stdDevUdaf.aggregate(vals[i], aggTwo);
+            }
+        }
+
+        Struct merged = stdDevUdaf.merge(aggOne, aggTwo);
+        assertEquals((long) n, merged.getInt64(StreamingMomentsUdaf.COUNT));
+        assertEquals(getExpectedStdDev(vals), stdDevUdaf.map(merged), 1e-9);
+        assertEquals(new Skewness().evaluate(vals), skewUdaf.map(merged), 1e-9);
+        // inputs are left untouched
+        assertEquals(3000L, aggOne.getInt64(StreamingMomentsUdaf.COUNT));
+    }
+
+    @Test
+    void exactSkewTest() {
+        Udaf<Double, Struct, Double> skewUdaf = ExactSkewnessUdaf.createUdaf();
+        Struct agg = skewUdaf.initialize();
+
+        for (Double currrent : values) {
+            agg = skewUdaf.aggregate(currrent, agg);
+        }
+
+        assertEquals(0.0, skewUdaf.map(agg), 1e-12);
+
+        // Add a value to create some skew
+        agg = skewUdaf.aggregate(90.0, agg);
+
+        assertEquals(new Skewness().evaluate(new double[]{40.0, 50.0, 60.0, 90.0}),
+                skewUdaf.map(agg), 1e-12);
+    }
+
+    @Test
+    void numericInputTest() {
+        Udaf<Integer, Struct, Double> medianUdaf = MedianUdaf.createIntUdaf();
+        Struct intAgg = medianUdaf.initialize();
+        for (int value : new int[]{60, 72, 65, 80}) {
+            intAgg = medianUdaf.aggregate(value, intAgg);
+        }
+        assertEquals(68.5, medianUdaf.map(intAgg));
+
+        Udaf<Long, Struct, Double> modeUdaf = ModeUdaf.createLongUdaf(10);
+        Struct longAgg = modeUdaf.initialize();
+        for (long value : new long[]{10_000_000_000L, 5L, 10_000_000_000L}) {
+            longAgg = modeUdaf.aggregate(value, longAgg);
+        }
+        assertEquals(1e10, modeUdaf.map(longAgg));
+
+        Udaf<BigDecimal, Struct, Double> stdDevUdaf = StdDevUdaf.createDecimalUdaf();
+        Struct decimalAgg = stdDevUdaf.initialize();
+        for (Double value : values) {
+            decimalAgg = stdDevUdaf.aggregate(BigDecimal.valueOf(value).setScale(2), decimalAgg);
+        }
+        assertEquals(10.0, stdDevUdaf.map(decimalAgg));
+        assertEquals(2, PackedSamplingReservoirUdaf.getReservoir(decimalAgg).getScale());
+    }
+
+    @Test
+    void describeTest() {
+        Udaf<Double, Struct, Struct> describeUdaf = DescribeUdaf.createUdaf();
+        Random random = new Random(3L);
+        double[] samples = new double[500];
+        Struct aggOne = describeUdaf.initialize();
+        Struct aggTwo = describeUdaf.initialize();
+        assertNull(describeUdaf.map(aggOne));
+
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = Math.round(20 * Math.exp(random.nextGaussian())) / 2.0;
+            if (i < 200) {
+                aggOne = describeUdaf.aggregate(samples[i], aggOne);
+            } else {
+                aggTwo = describeUdaf.aggregate(samples[i], aggTwo);
+            }
+        }
+        Struct result = describeUdaf.map(describeUdaf.merge(aggOne, aggTwo));
+
+        assertEquals(500L, result.getInt64(DescribeUdaf.COUNT));
+        assertEquals(StatUtils.min(samples), result.getFloat64(DescribeUdaf.MIN));
+        assertEquals(StatUtils.max(samples), result.getFloat64(DescribeUdaf.MAX));
+        assertEquals(StatUtils.mean(samples), result.getFloat64(DescribeUdaf.MEAN), 1e-9);
+        assertEquals(Math.sqrt(StatUtils.variance(samples)),
+                result.getFloat64(DescribeUdaf.STDDEV), 1e-9);
+        assertEquals(new Skewness().evaluate(samples),
+                result.getFloat64(DescribeUdaf.SKEWNESS), 1e-9);
+        assertEquals(new Kurtosis().evaluate(samples),
+                result.getFloat64(DescribeUdaf.KURTOSIS), 1e-9);
+        assertEquals(StatUtils.percentile(samples, 50), result.getFloat64(DescribeUdaf.MEDIAN));
+        assertEquals(StatUtils.percentile(samples, 25), result.getFloat64(DescribeUdaf.Q1));
+        assertEquals(StatUtils.percentile(samples, 75), result.getFloat64(DescribeUdaf.Q3));
+        assertEquals(StatUtils.mode(samples)[0], result.getFloat64(DescribeUdaf.MODE));
+    }
+
+    @Test
+    void exactModeTest() {
+        Udaf<Double, Struct, Double> modeUdaf = ExactModeUdaf.createUdaf(3);
+        Struct aggOne = modeUdaf.initialize();
+        Struct aggTwo = modeUdaf.initialize();
+        assertNull(modeUdaf.map(aggOne));
+
+        // 50.0 is the most frequent value, but not within each aggregate
+        for (int i = 0; i < 1000; i++) {
+            aggOne = modeUdaf.aggregate(40.0, aggOne);
+            aggOne = modeUdaf.aggregate(50.0, aggOne);
+            aggTwo = modeUdaf.aggregate(50.0, aggTwo);
+            aggTwo = modeUdaf.aggregate(60.0, aggTwo);
+            aggTwo = modeUdaf.aggregate(60.0, aggTwo);
+        }
+        aggOne = modeUdaf.aggregate(40.0, aggOne);
+
+        assertEquals(40.0, modeUdaf.map(aggOne));
+        assertEquals(60.0, modeUdaf.map(aggTwo));
+        Struct merged = modeUdaf.merge(aggOne, aggTwo);
+        assertEquals(50.0, modeUdaf.map(merged));
+        assertTrue(ExactModeUdaf.getFrequencies(merged).isExact());
+    }
+
+    @Test
+    void sketchQuantilesTest() {
+        Udaf<Double, Struct, Double> medianUdaf = MedianUdaf.createSketchUdaf(0.01);
+        Udaf<Double, Struct, Double> iqrUdaf = InterQuartileRangeUdaf.createSketchUdaf(0.01);
+        Udaf<Double, Struct, Double> percentileUdaf = PercentileUdaf.createUdaf(75.0);
+        Struct agg = medianUdaf.initialize();
+        assertNull(medianUdaf.map(agg));
+
+        for (Double currrent : values) {
+            agg = medianUdaf.aggregate(currrent, agg);
+        }
+        agg = medianUdaf.aggregate(70.0, agg);
+
+        // the sketch is exact for small windows
+        assertEquals(55.0, medianUdaf.map(agg));
+        assertEquals(25.0, iqrUdaf.map(agg));
+        assertEquals(67.5, percentileUdaf.map(agg));
+    }
+
+    @Test
+    void sketchMergeTest() {
+        Udaf<Double, Struct, Double> medianUdaf = MedianUdaf.createSketchUdaf(0.01);
+        Struct aggOne = medianUdaf.initialize();
+        Struct aggTwo = medianUdaf.initialize();
+
+        Random rand = new Random(14L);
+        for (int i = 0; i < 50_000; i++) {
+            aggOne = medianUdaf.aggregate(rand.nextDouble(), aggOne);
+            aggTwo = medianUdaf.aggregate(1.0 + rand.nextDouble(), aggTwo);
+        }
+
+        assertEquals(0.5, medianUdaf.map(aggOne), 0.02);
+        assertEquals(1.0, medianUdaf.map(medianUdaf.merge(aggOne, aggTwo)), 0.04);
+    }
+
+    @Test
+    void approxCountDistinctTest() {
+        Udaf<String, Struct, Long> stringUdaf = ApproxCountDistinctUdaf.createUdaf();
+        Struct aggOne = stringUdaf.initialize();
+        Struct aggTwo = stringUdaf.initialize();
+        assertEquals(0L, stringUdaf.map(aggOne));
+
+        for (int i = 0; i < 10_000; i++) {
+            aggOne = stringUdaf.aggregate("source" + (i % 100), aggOne);
+            aggTwo = stringUdaf.aggregate(i % 7==0 ? null : "source" + (i % 150), aggTwo);
+        }
+        assertEquals(100L, stringUdaf.map(aggOne));
+        assertEquals(150L, stringUdaf.map(stringUdaf.merge(aggOne, aggTwo)));
+
+        Udaf<Integer, Struct, Long> intUdaf = ApproxCountDistinctUdaf.createIntUdaf(16);
+        Struct agg = intUdaf.initialize();
+        for (int i = 0; i < 200_000; i++) {
+            agg = intUdaf.aggregate(i, agg);
+        }
+        assertEquals(200_000.0, intUdaf.map(agg), 4000.0);
+    }
+
+    @Test
+    void correlationTest() {
+        Udaf<Struct, Struct, Struct> correlationUdaf = CorrelationUdaf.createUdaf();
+        Schema pairSchema = SchemaBuilder.struct().optional()
+                .field(CorrelationUdaf.X, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(CorrelationUdaf.Y, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .build();
+        Struct aggOne = correlationUdaf.initialize();
+        Struct aggTwo = correlationUdaf.initialize();
+        assertNull(correlationUdaf.map(aggOne));
+
+        Random rand = new Random(5L);
+        int n = 10_000;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        SimpleRegression regression = new SimpleRegression();
+        for (int i = 0; i < n; i++) {
+            xs[i] = 70.0 + rand.nextGaussian() * 10.0;
+            ys[i] = 2.0 * xs[i] + rand.nextGaussian() * 15.0;
+            regression.addData(xs[i], ys[i]);
+            Struct pair = new Struct(pairSchema)
+                    .put(CorrelationUdaf.X, xs[i])
+                    .put(CorrelationUdaf.Y, ys[i]);
+            if (i < 4000) {
+                aggOne = correlationUdaf.aggregate(pair, aggOne);
+            } else {
+                aggTwo = correlationUdaf.aggregate(pair, aggTwo);
+            }
+        }
+        aggOne = correlationUdaf.aggregate(
+                new Struct(pairSchema).put(CorrelationUdaf.X, 1.0), aggOne);
+
+        Struct result = correlationUdaf.map(correlationUdaf.merge(aggOne, aggTwo));
+        assertEquals((long) n, result.getInt64(CorrelationUdaf.COUNT));
+        assertEquals(new Covariance().covariance(xs, ys),
+                result.getFloat64(CorrelationUdaf.COVARIANCE), 1e-9);
+        assertEquals(new PearsonsCorrelation().correlation(xs, ys),
+                result.getFloat64(CorrelationUdaf.CORRELATION), 1e-12);
+        assertEquals(regression.getSlope(), result.getFloat64(CorrelationUdaf.SLOPE), 1e-12);
+
+        Struct constant = correlationUdaf.initialize();
+        for (double y : values) {
+            constant = correlationUdaf.aggregate(new Struct(pairSchema)
+                    .put(CorrelationUdaf.X, 1.0)
+                    .put(CorrelationUdaf.Y, y), constant);
+        }
+        result = correlationUdaf.map(constant);
+        assertEquals(0.0, result.getFloat64(CorrelationUdaf.COVARIANCE), 1e-12);
+        assertNull(result.getFloat64(CorrelationUdaf.CORRELATION));
+        assertNull(result.getFloat64(CorrelationUdaf.SLOPE));
+    }
+
+    @Test
+    void hrvTest() {
+        Udaf<Struct, Struct, Struct> hrvUdaf = HrvUdaf.createUdaf(4);
+        Random rand = new Random(7L);
+        int n = 1000;
+        double[] ibis = new double[n];
+        double ssd = 0.0;
+        int nn50 = 0;
+        for (int i = 0; i < n; i++) {
+            ibis[i] = 800.0 + rand.nextGaussian() * 40.0;
+            if (i > 0) {
+                double diff = ibis[i] - ibis[i - 1];
+                ssd += diff * diff;
+                if (Math.abs(diff) > 50.0) nn50++;
+            }
+        }
+
+        // records arrive in blocks of three in reverse order
+        Struct agg = hrvUdaf.initialize();
+        Struct aggOne = hrvUdaf.initialize();
+        Struct aggTwo = hrvUdaf.initialize();
+        for (int block = 0; block < n; block += 3) {
+            for (int i = Math.min(block + 2, n - 1); i >= block; i--) {
+                Struct beat = beat(i * 1000L, ibis[i]);
+                agg = hrvUdaf.aggregate(beat, agg);
+                if (i < 600) {
+                    aggOne = hrvUdaf.aggregate(beat, aggOne);
+                } else {
+                    aggTwo = hrvUdaf.aggregate(beat, aggTwo);
+                }
+            }
+        }
+
+        for (Struct result : new Struct[] {hrvUdaf.map(agg),
+                hrvUdaf.map(hrvUdaf.merge(aggOne, aggTwo)),
+                hrvUdaf.map(hrvUdaf.merge(aggTwo, aggOne))}) {
+            assertEquals((long) n, result.getInt64(HrvUdaf.COUNT));
+            assertEquals(StatUtils.mean(ibis), result.getFloat64(HrvUdaf.MEAN_NN), 1e-9);
+            assertEquals(getExpectedStdDev(ibis), result.getFloat64(HrvUdaf.SDNN), 1e-9);
+            assertEquals(Math.sqrt(ssd / (n - 1)), result.getFloat64(HrvUdaf.RMSSD), 1e-9);
+            assertEquals(100.0 * nn50 / (n - 1), result.getFloat64(HrvUdaf.PNN50), 1e-9);
+        }
+
+        // a record older than the reorder buffer only counts towards SDNN
+        Struct late = hrvUdaf.aggregate(beat(5000L, 2000.0), agg);
+        Struct result = hrvUdaf.map(late);
+        assertEquals(n + 1L, result.getInt64(HrvUdaf.COUNT));
+        assertEquals(Math.sqrt(ssd / (n - 1)), result.getFloat64(HrvUdaf.RMSSD), 1e-9);
+
+        Struct single = hrvUdaf.aggregate(beat(0L, 800.0), hrvUdaf.initialize());
+        result = hrvUdaf.map(single);
+        assertEquals(0.0, result.getFloat64(HrvUdaf.SDNN));
+        assertNull(result.getFloat64(HrvUdaf.RMSSD));
+        assertNull(hrvUdaf.map(hrvUdaf.initialize()));
+    }
+
+    @Test
+    void packedReservoirTest() {
+        Udaf<Double, Struct, Double> stdDevUdaf = StdDevUdaf.createPackedUdaf(1000);
+        Struct agg = stdDevUdaf.initialize();
+        assertNull(stdDevUdaf.map(agg));
+
+        for (Double currrent : values) {
+            agg = stdDevUdaf.aggregate(currrent, agg);
+        }
+        assertEquals(10.0, stdDevUdaf.map(agg));
+
+        agg = stdDevUdaf.aggregate(70.0, agg);
+        assertEquals(55.0, MedianUdaf.createPackedUdaf(1000).map(agg));
+        assertEquals(25.0, InterQuartileRangeUdaf.createPackedUdaf(1000).map(agg));
+        assertEquals(0.0, SkewnessUdaf.createPackedUdaf(1000).map(agg));
+
+        agg = stdDevUdaf.aggregate(50.0, agg);
+        assertEquals(50.0, ModeUdaf.createPackedUdaf(1000).map(agg));
+    }
+
+    @Test
+    void overflowingPackedReservoirTest() {
+        Udaf<Double, Struct, Double> stdDevUdaf = StdDevUdaf.createPackedUdaf(5000);
+        Struct agg = stdDevUdaf.initialize();
+        Random rand = new Random(15L);
+        int n = 20_000;
+
+        double[] vals = new double[n];
+        for (int i = 0; i < n; i++) {
+            double value = values[rand.nextInt(values.length)];
+            agg = stdDevUdaf.aggregate(value, agg);
+            vals[i] = value;
+        }
+
+        PackedReservoir reservoir = PackedSamplingReservoirUdaf.getReservoir(agg);
+        assertEquals(5000, reservoir.size());
+        assertEquals((long) n, reservoir.getCount());
+        assertTrue(Precision.equals(getExpectedStdDev(vals), stdDevUdaf.map(agg), 0.1));
+    }
+
+    @Test
+    void packedReservoirMergeTest() {
+        Udaf<Double, Struct, Double> medianUdaf = MedianUdaf.createPackedUdaf(1000);
+        Struct aggOne = medianUdaf.initialize();
+        Struct aggTwo = medianUdaf.initialize();
+        for (int i = 0; i < 3000; i++) {
+            aggOne = medianUdaf.aggregate(40.0, aggOne);
+            aggTwo = medianUdaf.aggregate(60.0, aggTwo);
+        }
+        aggTwo = medianUdaf.aggregate(60.0, aggTwo);
+        byte[] samplesOne = aggOne.getBytes(PackedSamplingReservoirUdaf.RESERVOIR).clone();
+
+        Struct merged = medianUdaf.merge(aggOne, aggTwo);
+
+        PackedReservoir reservoir = PackedSamplingReservoirUdaf.getReservoir(merged);
+        assertEquals(1000, reservoir.size());
+        assertEquals(6001L, reservoir.getCount());
+        assertArrayEquals(samplesOne, aggOne.getBytes(PackedSamplingReservoirUdaf.RESERVOIR));
+        double median = medianUdaf.map(merged);
+        assertTrue(median==40.0 || median==50.0 || median==60.0);
+    }
+
+    @Test
+    void mergeLeavesInputsUntouched() {
+        Udaf<Double, Struct, Double> medianUdaf = MedianUdaf.createUdaf();
+        Struct aggOne = medianUdaf.initialize();
+        Struct aggTwo = medianUdaf.initialize();
+        for (int i = 0; i < 1500; i++) {
+            aggOne = medianUdaf.aggregate((double) i, aggOne);
+            aggTwo = medianUdaf.aggregate((double) -i, aggTwo);
+        }
+        List<Double> samplesOne = new ArrayList<>(aggOne.getArray(SAMPLES));
+        List<Double> samplesTwo = new ArrayList<>(aggTwo.getArray(SAMPLES));
+
+        Struct merged = medianUdaf.merge(aggOne, aggTwo);
+
+        assertEquals(1000, merged.getArray(SAMPLES).size());
+        assertEquals(3000L, merged.getInt64(COUNT));
+        assertEquals(samplesOne, aggOne.getArray(SAMPLES));
+        assertEquals(samplesTwo, aggTwo.getArray(SAMPLES));
+    }
+
+    /**
+     * Merges uniform samples of two populations many times and checks that every value of the
+     * combined population is included in the merged reservoir with equal probability.
+     */
+    @Test
+    void mergedReservoirIsUniform() {
+        UniformSamplingReservoirUdaf<Double> udaf =
+                new UniformSamplingReservoirUdaf<Double>("sample", 20,
+                        Schema.OPTIONAL_FLOAT64_SCHEMA) {
+                    @Override
+                    public Double map(Struct agg) {
+                        return null;
+                    }
+                };
+        int count1 = 30;
+        int count2 = 70;
+        int trials = 20_000;
+        Random rand = new Random(16L);
+        int[] inclusions = new int[count1 + count2];
+
+        for (int t = 0; t < trials; t++) {
+            Struct aggOne = new Struct(udaf.getStructSchema())
+                    .put(SAMPLES, uniformSample(0, count1, 20, rand))
+                    .put(COUNT, (long) count1);
+            Struct aggTwo = new Struct(udaf.getStructSchema())
+                    .put(SAMPLES, uniformSample(count1, count2, 20, rand))
+                    .put(COUNT, (long) count2);
+            for (Object value : udaf.merge(aggOne, aggTwo).getArray(SAMPLES)) {
+                inclusions[((Double) value).intValue()]++;
+            }
+        }
+
+        double p = 20.0 / (count1 + count2);
+        double expected = trials * p;
+        double sigma = Math.sqrt(trials * p * (1 - p));
+        for (int i = 0; i < inclusions.length; i++) {
+            assertEquals(expected, inclusions[i], 5 * sigma, "inclusions of value " + i);
+        }
+    }
+
+    private static Struct beat(long time, double ibi) {
+        Schema schema = SchemaBuilder.struct().optional()
+                .field(DecayingSamplingReservoirUdaf.VAL, Schema.OPTIONAL_FLOAT64_SCHEMA)
+                .field(DecayingSamplingReservoirUdaf.TS, Schema.OPTIONAL_INT64_SCHEMA)
+                .build();
+        return new Struct(schema)
+                .put(DecayingSamplingReservoirUdaf.VAL, ibi)
+                .put(DecayingSamplingReservoirUdaf.TS, time);
+    }
+
+    private static List<Double> uniformSample(int start, int count, int size, Random rand) {
+        List<Double> population = new ArrayList<>();
+        for (int i = start; i < start + count; i++) {
+            population.add((double) i);
+        }
+        Collections.shuffle(population, rand);
+        return new ArrayList<>(population.subList(0, Math.min(size, count)));
     }
 
     double getExpectedStdDev(double[] vals) {
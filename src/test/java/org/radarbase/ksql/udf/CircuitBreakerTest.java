@@ -0,0 +1,112 @@
+package org.radarbase.ksql.udf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.radarbase.ksql.udf.CircuitBreaker.Permit;
+import org.radarbase.ksql.udf.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+    private final long[] now = {0L};
+
+    private CircuitBreaker createBreaker(Map<String, Object> configs) {
+        return new CircuitBreaker(CircuitBreaker.Config.fromConfigs(configs, ""), () -> now[0]);
+    }
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put("failure.threshold", 3);
+        configs.put("open.ms", 1000);
+        CircuitBreaker breaker = createBreaker(configs);
+
+        for (int i = 0; i < 10; i++) {
+            breaker.onFailure(breaker.tryAcquire(), MS);
+            breaker.onSuccess(breaker.tryAcquire(), MS);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Permit.CALL, breaker.tryAcquire());
+            breaker.onFailure(Permit.CALL, MS);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+    }
+
+    @Test
+    void probesWhenHalfOpen() {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put("failure.threshold", 1);
+        configs.put("open.ms", 1000);
+        CircuitBreaker breaker = createBreaker(configs);
+        breaker.onFailure(Permit.CALL, MS);
+
+        now[0] += 999 * MS;
+        assertNull(breaker.tryAcquire());
+        now[0] += MS;
+        // a single probe is let through
+        assertEquals(Permit.PROBE, breaker.tryAcquire());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+        breaker.onFailure(Permit.PROBE, MS);
+        assertEquals(State.OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+
+        now[0] += 1000 * MS;
+        assertEquals(Permit.PROBE, breaker.tryAcquire());
+        breaker.onSuccess(Permit.PROBE, MS);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(Permit.CALL, breaker.tryAcquire());
+    }
+
+    @Test
+    void ignoresCallsFromBeforeOpening() {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put("failure.threshold", 1);
+        configs.put("open.ms", 1000);
+        CircuitBreaker breaker = createBreaker(configs);
+        Permit slowSuccess = breaker.tryAcquire();
+        Permit slowFailure = breaker.tryAcquire();
+        breaker.onFailure(breaker.tryAcquire(), MS);
+        assertEquals(State.OPEN, breaker.getState());
+
+        // a slow call finishing while open does not extend the open time
+        now[0] += 500 * MS;
+        breaker.onFailure(slowFailure, 500 * MS);
+        now[0] += 500 * MS;
+        Permit probe = breaker.tryAcquire();
+        assertEquals(Permit.PROBE, probe);
+
+        // nor does it decide the state in place of the probe
+        breaker.onSuccess(slowSuccess, 1000 * MS);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire());
+        breaker.onFailure(probe, MS);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    void opensWhenTailLatencyIsHigh() {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put("failure.threshold", 0);
+        configs.put("latency.threshold.ms", 100);
+        configs.put("latency.window", 100);
+        CircuitBreaker breaker = createBreaker(configs);
+
+        // one slow call in 100 keeps the 99th percentile below the threshold
+        for (int i = 0; i < 250; i++) {
+            breaker.onSuccess(Permit.CALL, (i % 100==0 ? 500 : 10) * MS);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+
+        breaker.onSuccess(Permit.CALL, 500 * MS);
+        assertEquals(State.OPEN, breaker.getState());
+    }
+}
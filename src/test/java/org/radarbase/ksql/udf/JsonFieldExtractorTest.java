@@ -0,0 +1,53 @@
+package org.radarbase.ksql.udf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import java.io.IOException;
+import org.junit.jupiter.api.Test;
+
+public class JsonFieldExtractorTest {
+
+    private static final String RESPONSE = "{\"model\": {\"name\": \"m\", \"version\": 2}, "
+            + "\"probabilities\": [0.1, 0.7, 0.2], \"class label\": \"b\", "
+            + "\"error\": null, \"prediction\": 1.5}";
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Test
+    void extractsScalars() throws IOException {
+        assertEquals("1.5", extract("$.prediction"));
+        assertEquals("1.5", extract("prediction"));
+        assertEquals("m", extract("$.model.name"));
+        assertEquals("0.7", extract("$.probabilities[1]"));
+        assertEquals("b", extract("$['class label']"));
+    }
+
+    @Test
+    void extractsObjectsAsJson() throws IOException {
+        assertEquals("{\"name\":\"m\",\"version\":2}", extract("$.model"));
+        assertEquals("[0.1,0.7,0.2]", extract("$.probabilities"));
+    }
+
+    @Test
+    void returnsNullForMissingFields() throws IOException {
+        assertNull(extract("$.error"));
+        assertNull(extract("$.missing"));
+        assertNull(extract("$.probabilities[3]"));
+        assertNull(extract("$.prediction.value"));
+        assertNull(extract("$.model[0]"));
+    }
+
+    @Test
+    void rejectsInvalidPaths() {
+        assertThrows(IllegalArgumentException.class, () -> JsonFieldExtractor.compile("$..a"));
+        assertThrows(IllegalArgumentException.class, () -> JsonFieldExtractor.compile("$.a[x]"));
+        assertThrows(IllegalArgumentException.class, () -> JsonFieldExtractor.compile("$.a[1"));
+        assertThrows(IllegalArgumentException.class, () -> JsonFieldExtractor.compile("$a"));
+    }
+
+    private static String extract(String path) throws IOException {
+        return JsonFieldExtractor.compile(path).extract(JSON_FACTORY.createParser(RESPONSE));
+    }
+}
@@ -0,0 +1,90 @@
+package org.radarbase.ksql.udf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.radarbase.ksql.model.Model;
+import org.radarbase.ksql.model.ModelRegistry;
+
+public class LocalInferenceUdfTest {
+
+    private static final String PMML = "<PMML version=\"4.4\">\n"
+            + "  <RegressionModel functionName=\"regression\">\n"
+            + "    <MiningSchema>\n"
+            + "      <MiningField name=\"x1\"/>\n"
+            + "      <MiningField name=\"x2\"/>\n"
+            + "    </MiningSchema>\n"
+            + "    <RegressionTable intercept=\"1\">\n"
+            + "      <NumericPredictor name=\"x1\" coefficient=\"2\"/>\n"
+            + "      <NumericPredictor name=\"x2\" coefficient=\"3\"/>\n"
+            + "    </RegressionTable>\n"
+            + "  </RegressionModel>\n"
+            + "</PMML>\n";
+
+    @TempDir
+    Path modelDir;
+
+    private LocalInferenceUdf createUdf() throws IOException {
+        Path model = Files.createDirectories(modelDir.resolve("linear"));
+        Files.write(model.resolve("1.0.pmml"), PMML.getBytes(StandardCharsets.UTF_8));
+        LocalInferenceUdf udf = new LocalInferenceUdf();
+        udf.configure(Collections.singletonMap(LocalInferenceUdf.MODEL_DIR_CONFIG,
+                modelDir.toString()));
+        return udf;
+    }
+
+    @Test
+    void predictsWithLocalModel() throws IOException {
+        LocalInferenceUdf udf = createUdf();
+        assertEquals(Collections.singletonList(9.0),
+                udf.runInference("linear", "1.0", Arrays.asList(1.0, 2.0)));
+
+        // each thread uses its own session
+        List<Double> other = CompletableFuture.supplyAsync(() ->
+                udf.runInference("linear", "1.0", Arrays.asList(2.0, 2.0))).join();
+        assertEquals(Collections.singletonList(11.0), other);
+    }
+
+    @Test
+    void dropsSessionsOfReloadedModels() throws IOException, InterruptedException {
+        LocalInferenceUdf udf = createUdf();
+        assertEquals(Collections.singletonList(9.0),
+                udf.runInference("linear", "1.0", Arrays.asList(1.0, 2.0)));
+        WeakReference<Model> previous =
+                new WeakReference<>(ModelRegistry.getModel(modelDir, "linear", "1.0"));
+
+        // reloading replaces the model, so only the session of this thread could still hold it
+        udf.configure(Collections.singletonMap(LocalInferenceUdf.MODEL_DIR_CONFIG,
+                modelDir.toString()));
+        assertNotSame(previous.get(), ModelRegistry.getModel(modelDir, "linear", "1.0"));
+        for (int i = 0; i < 50 && previous.get()!=null; i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assertNull(previous.get());
+        assertEquals(Collections.singletonList(9.0),
+                udf.runInference("linear", "1.0", Arrays.asList(1.0, 2.0)));
+    }
+
+    @Test
+    void returnsNullForInvalidInput() throws IOException {
+        LocalInferenceUdf udf = createUdf();
+        assertNull(udf.runInference("linear", "2.0", Arrays.asList(1.0, 2.0)));
+        assertNull(udf.runInference("../linear", "1.0", Arrays.asList(1.0, 2.0)));
+        assertNull(udf.runInference("linear", "1.0", Collections.singletonList(1.0)));
+        assertNull(udf.runInference("linear", "1.0", Arrays.asList(1.0, null)));
+        assertNull(udf.runInference("linear", null, Arrays.asList(1.0, 2.0)));
+    }
+}
@@ -0,0 +1,114 @@
+package org.radarbase.ksql.udf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RestBatchInferenceUdfTest {
+
+    private transient MockWebServer server;
+    private transient Map<String, Object> configs;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        configs = new HashMap<>();
+        configs.put(RestBatchInferenceUdf.BASE_URL_CONFIG, server.url("/").toString());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void mapsPredictionsToRows() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody("[0.1, {\"label\": \"stress\"}]"));
+        RestBatchInferenceUdf udf = createUdf();
+
+        List<String> predictions = udf.runBatchInference("model", "1.0", Arrays.asList(
+                Arrays.asList(1.0, 2.0), null, Arrays.asList(3.0, null)));
+
+        assertEquals(Arrays.asList("0.1", null, "{\"label\":\"stress\"}"), predictions);
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/models/model/1.0/invocation", request.getPath());
+        assertEquals("[[1.0,2.0],[3.0,null]]", request.getBody().readUtf8());
+    }
+
+    @Test
+    void splitsLargeBatches() throws InterruptedException {
+        configs.put(RestBatchInferenceUdf.MAX_PAYLOAD_BYTES_CONFIG, 25);
+        server.enqueue(new MockResponse().setBody("[1, 2]"));
+        server.enqueue(new MockResponse().setBody("[3]"));
+        RestBatchInferenceUdf udf = createUdf();
+
+        List<Double> row = Arrays.asList(1.0, 2.0);
+        assertEquals(Arrays.asList("1", "2", "3"),
+                udf.runBatchInference("model", null, Arrays.asList(row, row, row)));
+        assertEquals(2, server.getRequestCount());
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/models/model/best/invocation", request.getPath());
+        assertEquals("[[1.0,2.0],[1.0,2.0]]", request.getBody().readUtf8());
+        assertEquals("[[1.0,2.0]]", server.takeRequest().getBody().readUtf8());
+    }
+
+    @Test
+    void callsChunksWithinSharedBudget() {
+        configs.put(RestBatchInferenceUdf.MAX_PAYLOAD_BYTES_CONFIG, 25);
+        configs.put(RestBatchInferenceUdf.TIMEOUT_MS_CONFIG, 1500);
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                String body = request.getBody().readUtf8();
+                return new MockResponse()
+                        .setBody(body.equals("[[1.0]]") ? "[3]" : "[1, 2]")
+                        .setBodyDelay(1, TimeUnit.SECONDS);
+            }
+        });
+        RestBatchInferenceUdf udf = createUdf();
+
+        // one after another, the calls would exceed the budget
+        List<Double> row = Arrays.asList(1.0, 2.0);
+        assertEquals(Arrays.asList("1", "2", "3"), udf.runBatchInference("model", "1",
+                Arrays.asList(row, row, Collections.singletonList(1.0))));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    void returnsNullPredictionsOnError() {
+        server.enqueue(new MockResponse().setBody("[1]"));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        RestBatchInferenceUdf udf = createUdf();
+
+        List<List<Double>> rows = Arrays.asList(
+                Collections.singletonList(1.0), Collections.singletonList(2.0));
+        // the number of predictions does not match the number of rows
+        assertEquals(Arrays.asList(null, null), udf.runBatchInference("model", "1", rows));
+        assertEquals(Arrays.asList(null, null), udf.runBatchInference("model", "2", rows));
+        assertEquals(Collections.emptyList(),
+                udf.runBatchInference("model", "1", Collections.emptyList()));
+        assertEquals(2, server.getRequestCount());
+        assertNull(udf.runBatchInference(null, "1", rows));
+    }
+
+    private RestBatchInferenceUdf createUdf() {
+        RestBatchInferenceUdf udf = new RestBatchInferenceUdf();
+        udf.configure(configs);
+        return udf;
+    }
+}
@@ -0,0 +1,286 @@
+package org.radarbase.ksql.udf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.radarbase.ksql.util.FunctionMetrics;
+import org.radarbase.ksql.util.HttpClientConfig;
+import org.radarbase.ksql.util.HttpClientFactory;
+import org.radarbase.ksql.util.InferenceMetrics;
+
+public class RestInferenceUdfTest {
+
+    private static final String RESULT = "{\"prediction\": 1.0}";
+    private transient MockWebServer server;
+    private transient Map<String, Object> configs;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        configs = new HashMap<>();
+        configs.put(RestInferenceUdf.BASE_URL_CONFIG, server.url("/").toString());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void requestsMetadataInvocation() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody(RESULT));
+        RestInferenceUdf udf = createUdf();
+
+        assertEquals(RESULT, infer(udf, "user1"));
+        assertEquals("/models/model/best/metadata-invocation?metric=roc_auc",
+                server.takeRequest().getPath());
+    }
+
+    @Test
+    void writesRequestBody() throws InterruptedException {
+        server.enqueue(new MockResponse().setBody(RESULT));
+        server.enqueue(new MockResponse().setBody(RESULT));
+        RestInferenceUdf udf = createUdf();
+
+        infer(udf, "user1");
+        assertEquals("{\"filename\":\"loader\",\"classname\":\"Loader\","
+                + "\"dbname\":\"features\",\"starttime\":0.0,\"endtime\":1.0,"
+                + "\"project_id\":\"project\",\"user_id\":\"user1\","
+                + "\"source_id\":\"source\"}",
+                server.takeRequest().getBody().readUtf8());
+
+        udf.runMetadataInference("loader", "Loader", "features", "project", "user2",
+                "model", "3", null, null, 1.0, "roc_auc");
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/models/model/3/metadata-invocation", request.getPath());
+        assertEquals("{\"filename\":\"loader\",\"classname\":\"Loader\","
+                + "\"dbname\":\"features\",\"starttime\":null,\"endtime\":1.0,"
+                + "\"project_id\":\"project\",\"user_id\":\"user2\","
+                + "\"source_id\":null}",
+                request.getBody().readUtf8());
+    }
+
+    @Test
+    void extractsFieldFromResponse() {
+        configs.put(RestInferenceUdf.CACHE_TTL_MS_CONFIG, "60000");
+        server.enqueue(new MockResponse()
+                .setBody("{\"probabilities\": [0.2, 0.8], \"prediction\": 1}"));
+        server.enqueue(new MockResponse().setBody(RESULT));
+        RestInferenceUdf udf = createUdf();
+
+        assertEquals("0.8", infer(udf, "user1", "$.probabilities[1]"));
+        // the extracted value is cached per field
+        assertEquals("0.8", infer(udf, "user1", "$.probabilities[1]"));
+        assertEquals(1, server.getRequestCount());
+        assertEquals("1.0", infer(udf, "user1", "$.prediction"));
+        assertEquals(2, server.getRequestCount());
+        assertNull(infer(udf, "user1", "$.prediction["));
+    }
+
+    @Test
+    void cachesResponses() {
+        configs.put(RestInferenceUdf.CACHE_TTL_MS_CONFIG, "60000");
+        server.enqueue(new MockResponse().setBody(RESULT));
+        server.enqueue(new MockResponse().setBody(RESULT));
+        server.enqueue(new MockResponse().setBody(RESULT));
+        RestInferenceUdf udf = createUdf();
+
+        assertEquals(RESULT, infer(udf, "user1"));
+        assertEquals(RESULT, infer(udf, "user1"));
+        assertEquals(1, server.getRequestCount());
+
+        // a different user is a different request
+        assertEquals(RESULT, infer(udf, "user2"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    void returnsFallbackWhenOverBudget() {
+        configs.put(RestInferenceUdf.TIMEOUT_MS_CONFIG, 200);
+        configs.put(RestInferenceUdf.FALLBACK_CONFIG, "{}");
+        server.enqueue(new MockResponse().setBody(RESULT).setHeadersDelay(2, TimeUnit.SECONDS));
+        RestInferenceUdf udf = createUdf();
+
+        long start = System.nanoTime();
+        assertEquals("{}", infer(udf, "user1"));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    void sharesConfiguredHttpClient() {
+        configs.put(RestInferenceUdf.HTTP_CONFIG_PREFIX + "max.requests.per.host", "20");
+        configs.put(RestInferenceUdf.HTTP_CONFIG_PREFIX + "protocol", "h2c");
+        OkHttpClient client = HttpClientFactory.getClient(
+                HttpClientConfig.fromConfigs(configs, RestInferenceUdf.HTTP_CONFIG_PREFIX));
+
+        assertSame(client, HttpClientFactory.getClient(
+                HttpClientConfig.fromConfigs(new HashMap<>(configs),
+                        RestInferenceUdf.HTTP_CONFIG_PREFIX)));
+        assertEquals(20, client.dispatcher().getMaxRequestsPerHost());
+        assertEquals(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE), client.protocols());
+        assertEquals(0, HttpClientFactory.getPoolStats(client).getRunningCalls());
+    }
+
+    @Test
+    void reportsMetricsOverJmx() throws JMException {
+        configs.put(RestInferenceUdf.CONFIG_PREFIX + "metrics.enabled", "true");
+        configs.put(RestInferenceUdf.CACHE_TTL_MS_CONFIG, "60000");
+        server.enqueue(new MockResponse().setBody(RESULT));
+        server.enqueue(new MockResponse().setResponseCode(500));
+        RestInferenceUdf udf = createUdf();
+
+        assertEquals(RESULT, infer(udf, "user1"));
+        assertEquals(RESULT, infer(udf, "user1"));
+        assertNull(infer(udf, "user2"));
+
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(FunctionMetrics.JMX_PREFIX + ":type="
+                + FunctionMetrics.GROUP + ",function=" + RestInferenceUdf.NAME);
+        assertEquals(3L, mbeanServer.getAttribute(name, "request-total"));
+        assertEquals(1L, mbeanServer.getAttribute(name, "cache-hit-total"));
+        assertEquals(1L, mbeanServer.getAttribute(name, "error-total"));
+        assertEquals(1.0 / 3, (Double) mbeanServer.getAttribute(name, "cache-hit-ratio"), 1e-9);
+        assertTrue((Double) mbeanServer.getAttribute(name, "latency-ms-max") > 0.0);
+        assertTrue((Integer) mbeanServer.getAttribute(name, "running-call-count") >= 0);
+    }
+
+    @Test
+    void rejectsCallsWhileCircuitIsOpen() {
+        configs.put(RestInferenceUdf.CIRCUIT_CONFIG_PREFIX + "failure.threshold", 2);
+        configs.put(RestInferenceUdf.STALE_TTL_MS_CONFIG, 60_000);
+        configs.put(RestInferenceUdf.FALLBACK_CONFIG, "{}");
+        server.enqueue(new MockResponse().setBody(RESULT));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setBody(RESULT));
+        RestInferenceUdf udf = createUdf();
+
+        assertEquals(RESULT, infer(udf, "user1"));
+        assertEquals("{}", infer(udf, "user2"));
+        assertEquals("{}", infer(udf, "user2"));
+
+        // open: no requests are made and the last value of a request is returned if known
+        assertEquals(RESULT, infer(udf, "user1"));
+        assertEquals("{}", infer(udf, "user3"));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    void limitsConcurrentCallsPerModel() throws InterruptedException {
+        configs.put(RestInferenceUdf.BULKHEAD_MAX_CALLS_CONFIG, 1);
+        server.enqueue(new MockResponse().setBody(RESULT).setBodyDelay(1, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setBody(RESULT));
+        RestInferenceUdf udf = createUdf();
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> infer(udf, "user1"));
+        server.takeRequest();
+        long start = System.nanoTime();
+        assertNull(infer(udf, "user2"));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+
+        assertEquals(RESULT, first.join());
+        assertEquals(RESULT, infer(udf, "user2"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    void limitsCallsOverBudgetByDefault() throws InterruptedException {
+        configs.put(RestInferenceUdf.TIMEOUT_MS_CONFIG, 200);
+        configs.put(RestInferenceUdf.HTTP_CONFIG_PREFIX + "max.requests.per.host", "1");
+        server.enqueue(new MockResponse().setBody(RESULT).setHeadersDelay(1, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setBody(RESULT));
+        RestInferenceUdf udf = createUdf();
+
+        // the first call continues in the background, so the second is not queued behind it
+        assertNull(infer(udf, "user1"));
+        assertNull(infer(udf, "user2"));
+        assertEquals(1, server.getRequestCount());
+        server.takeRequest();
+        Thread.sleep(1500L);
+        assertEquals(RESULT, infer(udf, "user2"));
+    }
+
+    @Test
+    void returnsFallbackOnError() {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        RestInferenceUdf udf = createUdf();
+
+        assertNull(infer(udf, "user1"));
+    }
+
+    @Test
+    void coalescesConcurrentRequests() {
+        server.enqueue(new MockResponse().setBody(RESULT)
+                .setHeadersDelay(500, TimeUnit.MILLISECONDS));
+        server.enqueue(new MockResponse().setBody(RESULT));
+        RestInferenceUdf udf = createUdf();
+
+        CompletableFuture<String> first = CompletableFuture.supplyAsync(() -> infer(udf, "user1"));
+        CompletableFuture<String> second =
+                CompletableFuture.supplyAsync(() -> infer(udf, "user1"));
+
+        assertEquals(RESULT, first.join());
+        assertEquals(RESULT, second.join());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    void releasesCallWhenReaderFails() {
+        server.enqueue(new MockResponse().setBody(RESULT));
+        server.enqueue(new MockResponse().setBody(RESULT));
+        InferenceClient client = new InferenceClient(new OkHttpClient(), null, null, 0L, "{}",
+                CircuitBreaker.Config.defaults(), 1, InferenceMetrics.DISABLED);
+        Request request = new Request.Builder().url(server.url("/")).build();
+        InferenceClient.ResponseReader failing = body -> {
+            throw new IllegalStateException("unreadable");
+        };
+
+        // without a latency budget, a call that is never completed would block forever
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            assertEquals("{}", client.call("key", "model", request, failing));
+            assertEquals(RESULT, client.call("key", "model", request,
+                    InferenceClient.ResponseReader.STRING));
+        });
+        assertEquals(2, server.getRequestCount());
+    }
+
+    private RestInferenceUdf createUdf() {
+        RestInferenceUdf udf = new RestInferenceUdf();
+        udf.configure(configs);
+        return udf;
+    }
+
+    private static String infer(RestInferenceUdf udf, String userId) {
+        return udf.runMetadataInference("loader", "Loader", "features", "project", userId,
+                "model", null, "source", 0.0, 1.0, "roc_auc");
+    }
+
+    private static String infer(RestInferenceUdf udf, String userId, String fieldPath) {
+        return udf.runMetadataInference("loader", "Loader", "features", "project", userId,
+                "model", null, "source", 0.0, 1.0, "roc_auc", fieldPath);
+    }
+}
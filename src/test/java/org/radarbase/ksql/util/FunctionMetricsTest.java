@@ -0,0 +1,105 @@
+package org.radarbase.ksql.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.confluent.ksql.function.udaf.Udaf;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.jupiter.api.Test;
+import org.radarbase.ksql.udaf.ModeUdaf;
+import org.radarbase.ksql.udaf.SkewnessUdaf;
+import org.radarbase.ksql.udaf.UniformSamplingReservoirUdaf;
+
+public class FunctionMetricsTest {
+
+    private static final MBeanServer SERVER = ManagementFactory.getPlatformMBeanServer();
+
+    private static ObjectName objectName(String function, String implementation)
+            throws JMException {
+        return new ObjectName(FunctionMetrics.JMX_PREFIX + ":type=" + FunctionMetrics.GROUP
+                + "," + FunctionMetrics.FUNCTION_TAG + "=" + function
+                + "," + FunctionMetrics.IMPLEMENTATION_TAG + "=" + implementation);
+    }
+
+    @Test
+    void reportsUdafMetricsOverJmx() throws JMException {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put("ksql.functions._global_.metrics.enabled", "true");
+        configs.put("ksql.functions.mode.metrics.sample.interval", 1);
+        Udaf<Double, Struct, Double> udaf = ModeUdaf.createPackedUdaf(10);
+        ((Configurable) udaf).configure(configs);
+
+        Struct agg = udaf.initialize();
+        for (int i = 0; i < 20; i++) {
+            agg = udaf.aggregate(i % 4 * 1.0, agg);
+        }
+        agg = udaf.merge(agg, udaf.aggregate(2.0, udaf.initialize()));
+        assertNotNull(udaf.map(agg));
+
+        ObjectName name = objectName(ModeUdaf.NAME, "ModeUdaf.PackedModeUdafImpl");
+        assertEquals(Collections.singleton(name), SERVER.queryNames(new ObjectName(
+                FunctionMetrics.JMX_PREFIX + ":function=mode,*"), null));
+        assertEquals(21L, SERVER.getAttribute(name, "aggregate-total"));
+        assertEquals(1L, SERVER.getAttribute(name, "merge-total"));
+        assertEquals(1L, SERVER.getAttribute(name, "map-total"));
+        assertEquals(10.0, SERVER.getAttribute(name, "reservoir-size-max"));
+        assertTrue((Double) SERVER.getAttribute(name, "aggregate-time-ns-avg") > 0.0);
+    }
+
+    @Test
+    void derivesFunctionNameFromClass() throws JMException {
+        Udaf<Double, Struct, Double> udaf = new LegacyReservoirUdaf();
+        ((Configurable) udaf).configure(Collections.singletonMap(
+                "ksql.functions._global_.metrics.enabled", "true"));
+        udaf.aggregate(1.0, udaf.initialize());
+
+        String implementation = "FunctionMetricsTest.LegacyReservoirUdaf";
+        assertEquals(1L, SERVER.getAttribute(objectName(implementation, implementation),
+                "aggregate-total"));
+    }
+
+    @Test
+    void disabledByDefault() throws JMException {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put("ksql.functions._global_.metrics.enabled", "true");
+        configs.put("ksql.functions.skew.metrics.enabled", false);
+        assertFalse(FunctionMetrics.isEnabled(configs, SkewnessUdaf.NAME));
+        assertTrue(FunctionMetrics.isEnabled(configs, ModeUdaf.NAME));
+        // properties of other functions are ignored
+        assertFalse(FunctionMetrics.isEnabled(Collections.singletonMap(
+                "ksql.functions.mode.metrics.enabled", "true"), SkewnessUdaf.NAME));
+        assertSame(UdafMetrics.DISABLED,
+                FunctionMetrics.udafMetrics(new HashMap<>(), SkewnessUdaf.NAME,
+                        SkewnessUdaf.class));
+
+        Udaf<Double, Struct, Double> udaf = SkewnessUdaf.createPackedUdaf(10);
+        ((Configurable) udaf).configure(configs);
+        udaf.aggregate(1.0, udaf.initialize());
+        assertFalse(SERVER.isRegistered(
+                objectName(SkewnessUdaf.NAME, "SkewnessUdaf.PackedSkewnessUdafImpl")));
+    }
+
+    /** Subclass that does not pass a function name. */
+    private static class LegacyReservoirUdaf extends UniformSamplingReservoirUdaf<Double> {
+        LegacyReservoirUdaf() {
+            super(10, Schema.OPTIONAL_FLOAT64_SCHEMA);
+        }
+
+        @Override
+        public Double map(Struct agg) {
+            return null;
+        }
+    }
+}